@@ -0,0 +1,189 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Keys, sidecars, storage and restoration of the process result cache
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class ProcessResultCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File outputFolder;
+
+    private ProcessResultCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        outputFolder = folder.newFolder("outputs");
+        cache = new ProcessResultCache(folder.newFolder("cache"), 1024 * 1024);
+    }
+
+    @Test
+    public void testSidecarFiles() throws Exception {
+        for (String name : new String[] { "roads.shp", "roads.dbf", "roads.shx", "roads.prj",
+                "roads.backup.shp", "roads.txt", "dem.tif", "dem.tfw", "dem.tif.aux.xml",
+                "dem.tif.ovr", "dem2.tif" }) {
+            write(new File(outputFolder, name), name);
+        }
+
+        assertEquals(new TreeSet<String>(Arrays.asList("roads.shp", "roads.dbf", "roads.shx",
+                "roads.prj")), getNames(new File(outputFolder, "roads.shp")));
+        assertEquals(new TreeSet<String>(Arrays.asList("dem.tif", "dem.tfw", "dem.tif.aux.xml",
+                "dem.tif.ovr")), getNames(new File(outputFolder, "dem.tif")));
+        assertEquals(new TreeSet<String>(Arrays.asList("roads.txt")), getNames(new File(
+                outputFolder, "roads.txt")));
+    }
+
+    @Test
+    public void testKey() {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("distance", Double.valueOf(10));
+        params.put("name", "buffer");
+        params.put("values", Arrays.asList(Integer.valueOf(1), Integer.valueOf(2)));
+
+        String key = cache.getKey("Buffer", params, null);
+        assertNotNull(key);
+        assertEquals(40, key.length()); // SHA-1
+
+        // the order of the parameters does not matter, their values and types do
+        Map<String, Object> same = new HashMap<String, Object>(params);
+        assertEquals(key, cache.getKey("Buffer", same, null));
+        same.put("distance", Integer.valueOf(10));
+        assertFalse(key.equals(cache.getKey("Buffer", same, null)));
+        assertFalse(key.equals(cache.getKey("Clip", params, null)));
+
+        // a parameter without a canonical form is not cached
+        params.put("unknown", new Object());
+        assertNull(cache.getKey("Buffer", params, null));
+    }
+
+    @Test
+    public void testPutAndRestore() throws Exception {
+        File shapefile = new File(outputFolder, "buffer.shp");
+        write(shapefile, "shp");
+        write(new File(outputFolder, "buffer.dbf"), "dbf");
+        write(new File(outputFolder, "buffer.shx"), "shx");
+
+        Map<String, File> outputs = new HashMap<String, File>();
+        outputs.put("result", shapefile);
+        cache.put("key1", outputs, "<p>report</p>");
+        assertTrue(cache.contains("key1"));
+        assertFalse(cache.contains("key2"));
+        assertEquals("<p>report</p>", cache.getText("key1"));
+
+        // restored under the requested name with the sidecars
+        File target = new File(outputFolder, "copy.shp");
+        Map<String, Object> outputParams = new HashMap<String, Object>();
+        outputParams.put("result", target.getPath());
+        Map<String, File> restored = cache.restore("key1", outputParams);
+        assertEquals(target.getAbsoluteFile(), restored.get("result"));
+        assertEquals("shp", FileUtils.readFileToString(target));
+        assertEquals("dbf", FileUtils.readFileToString(new File(outputFolder, "copy.dbf")));
+        assertEquals("shx", FileUtils.readFileToString(new File(outputFolder, "copy.shx")));
+    }
+
+    @Test
+    public void testRestoreOtherFormat() throws Exception {
+        File shapefile = new File(outputFolder, "buffer.shp");
+        write(shapefile, "shp");
+        write(new File(outputFolder, "buffer.dbf"), "dbf");
+
+        Map<String, File> outputs = new HashMap<String, File>();
+        outputs.put("result", shapefile);
+        cache.put("key", outputs, null);
+
+        // a shapefile is not restored as a FlatGeobuf file
+        Map<String, Object> outputParams = new HashMap<String, Object>();
+        outputParams.put("result", new File(outputFolder, "copy.fgb").getPath());
+        assertNull(cache.restore("key", outputParams));
+        assertFalse(new File(outputFolder, "copy.shp").exists());
+        assertFalse(new File(outputFolder, "copy.fgb").exists());
+    }
+
+    @Test
+    public void testRestoreMissingOutput() throws Exception {
+        File first = new File(outputFolder, "first.tif");
+        File second = new File(outputFolder, "second.tif");
+        write(first, "first");
+        write(second, "second");
+
+        Map<String, File> outputs = new HashMap<String, File>();
+        outputs.put("first", first);
+        outputs.put("second", second);
+        cache.put("key", outputs, null);
+
+        // an output without a location: nothing is restored
+        Map<String, Object> outputParams = new HashMap<String, Object>();
+        outputParams.put("first", new File(outputFolder, "restored.tif").getPath());
+        assertNull(cache.restore("key", outputParams));
+        assertFalse(new File(outputFolder, "restored.tif").exists());
+        assertEquals("", cache.getText("key"));
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        ProcessResultCache small = new ProcessResultCache(folder.newFolder("small"), 1500);
+        for (int index = 0; index < 3; index++) {
+            File output = new File(outputFolder, "output" + index + ".tif");
+            write(output, new String(new char[1000]).replace('\0', 'x'));
+
+            Map<String, File> outputs = new HashMap<String, File>();
+            outputs.put("result", output);
+            small.put("key" + index, outputs, null);
+            new File(folder.getRoot(), "small/key" + index).setLastModified(index * 10000L);
+        }
+        small.evict();
+
+        // only the most recently used entry fits
+        assertFalse(small.contains("key0"));
+        assertFalse(small.contains("key1"));
+        assertTrue(small.contains("key2"));
+    }
+
+    private Set<String> getNames(File file) {
+        List<File> files = ProcessResultCache.getSidecarFiles(file);
+        Set<String> names = new TreeSet<String>();
+        for (File sidecar : files) {
+            names.add(sidecar.getName());
+        }
+        return names;
+    }
+
+    private void write(File file, String text) throws Exception {
+        FileUtils.writeStringToFile(file, text);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Merges blocks of values into {@link RasterStatistics} and compares the result with a single
+ * pass over all the values
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class RasterStatisticsTest {
+
+    static final double NODATA = -9999;
+
+    static final double EPSILON = 1e-9;
+
+    @Test
+    public void testMergeBlocks() {
+        Random random = new Random(3);
+        double[] values = new double[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian() * 25 + 100;
+        }
+
+        // blocks of different sizes, as the edge tiles of a raster
+        RasterStatistics statistics = new RasterStatistics();
+        int[] sizes = { 1, 255, 4096, 17, 3000, 2631 };
+        int offset = 0;
+        for (int size : sizes) {
+            statistics.update(Arrays.copyOfRange(values, offset, offset + size), size, NODATA);
+            offset += size;
+        }
+        assertEquals(values.length, offset);
+
+        double sum = 0, min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for (double value : values) {
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        double mean = sum / values.length;
+        double squares = 0;
+        for (double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+
+        assertEquals(values.length, statistics.getCount());
+        assertEquals(0, statistics.getNoDataCount());
+        assertEquals(min, statistics.getMinimum(), 0);
+        assertEquals(max, statistics.getMaximum(), 0);
+        assertEquals(mean, statistics.getMean(), EPSILON);
+        assertEquals(Math.sqrt(squares / values.length), statistics.getStandardDeviation(),
+                EPSILON);
+        assertEquals(values.length, sum(statistics.getHistogram()));
+    }
+
+    @Test
+    public void testNoData() {
+        double[] values = { 1, NODATA, Double.NaN, 3, Double.POSITIVE_INFINITY, 5, 0, 0 };
+        RasterStatistics statistics = new RasterStatistics();
+        statistics.update(values, 6, NODATA); // the last values are not read
+
+        assertEquals(3, statistics.getCount());
+        assertEquals(3, statistics.getNoDataCount());
+        assertEquals(1, statistics.getMinimum(), 0);
+        assertEquals(5, statistics.getMaximum(), 0);
+        assertEquals(3, statistics.getMean(), EPSILON);
+
+        // a block of NoData only
+        statistics.update(new double[] { NODATA, NODATA }, 2, NODATA);
+        assertEquals(3, statistics.getCount());
+        assertEquals(5, statistics.getNoDataCount());
+        assertEquals(3, statistics.getMean(), EPSILON);
+    }
+
+    @Test
+    public void testEmpty() {
+        RasterStatistics statistics = new RasterStatistics();
+        assertTrue(statistics.isEmpty());
+        assertTrue(Double.isNaN(statistics.getMinimum()));
+        assertTrue(Double.isNaN(statistics.getMean()));
+        assertTrue(Double.isNaN(statistics.getStandardDeviation()));
+        assertTrue(Double.isNaN(statistics.getQuantile(0.5)));
+    }
+
+    @Test
+    public void testHistogramGrowth() {
+        RasterStatistics statistics = new RasterStatistics(16);
+        statistics.update(new double[] { 0, 1, 2, 3 }, 4, NODATA);
+        assertEquals(0, statistics.getHistogramMinimum(), 0);
+        assertEquals(3, statistics.getHistogramMaximum(), 0);
+
+        // grows to the right and then to the left by doubling
+        statistics.update(new double[] { 20 }, 1, NODATA);
+        statistics.update(new double[] { -30 }, 1, NODATA);
+        double width = statistics.getHistogramMaximum() - statistics.getHistogramMinimum();
+        assertTrue(statistics.getHistogramMinimum() <= -30);
+        assertTrue(statistics.getHistogramMaximum() >= 20);
+        assertEquals(3 * 32, width, EPSILON); // 3, 6, 12, 24 to the right, 48, 96 to the left
+        assertEquals(16, statistics.getHistogram().length);
+        assertEquals(6, sum(statistics.getHistogram()));
+        assertEquals(-30, statistics.getMinimum(), 0);
+        assertEquals(20, statistics.getMaximum(), 0);
+    }
+
+    @Test
+    public void testQuantiles() {
+        // uniform values: the quantiles are within a bin of the exact ones
+        int count = 100000;
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = i * 1000.0 / (count - 1);
+        }
+        RasterStatistics statistics = new RasterStatistics();
+        statistics.update(values, count, NODATA);
+
+        double bin = 1000.0 / RasterStatistics.DEFAULT_BINS;
+        double[] breaks = statistics.getQuantileBreaks(4);
+        assertEquals(5, breaks.length);
+        assertEquals(0, breaks[0], 0);
+        assertEquals(250, breaks[1], bin);
+        assertEquals(500, breaks[2], bin);
+        assertEquals(750, breaks[3], bin);
+        assertEquals(1000, breaks[4], 0);
+
+        assertArrayEquals(new double[] { 0, 500, 1000 }, statistics.getEqualIntervalBreaks(2),
+                EPSILON);
+    }
+
+    @Test
+    public void testRestore() {
+        RasterStatistics statistics = new RasterStatistics();
+        statistics.update(new double[] { 2, 4, 4, 4, 5, 5, 7, 9 }, 8, NODATA);
+
+        RasterStatistics restored = new RasterStatistics(statistics.getMinimum(),
+                statistics.getMaximum(), statistics.getMean(),
+                statistics.getStandardDeviation(), statistics.getHistogramMinimum(),
+                statistics.getHistogramMaximum(), statistics.getHistogram());
+        assertEquals(8, restored.getCount());
+        assertEquals(5, restored.getMean(), EPSILON);
+        assertEquals(2, restored.getStandardDeviation(), EPSILON);
+
+        // the restored statistics keep merging
+        restored.update(new double[] { 5 }, 1, NODATA);
+        assertEquals(9, restored.getCount());
+        assertEquals(5, restored.getMean(), EPSILON);
+        assertEquals(Math.sqrt(32.0 / 9), restored.getStandardDeviation(), EPSILON);
+    }
+
+    private long sum(long[] bins) {
+        long total = 0;
+        for (long binCount : bins) {
+            total += binCount;
+        }
+        return total;
+    }
+}
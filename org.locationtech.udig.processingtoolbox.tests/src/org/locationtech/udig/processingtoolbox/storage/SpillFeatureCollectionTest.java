@@ -0,0 +1,180 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Writes features to a spill file and reads them back, in full and by extent
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class SpillFeatureCollectionTest {
+
+    static final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+    static final GeometryFactory gf = JTSFactoryFinder.getGeometryFactory(null);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        SimpleFeatureType schema = DataUtilities.createType("spill",
+                "the_geom:Point,name:String,count:Integer,value:Double,amount:java.math.BigDecimal,"
+                        + "created:java.util.Date");
+        Date created = new Date(1500000000123L);
+        SimpleFeature feature = SimpleFeatureBuilder.build(schema, new Object[] {
+                gf.createPoint(new Coordinate(1, 2, 3)), "name", Integer.valueOf(7),
+                Double.valueOf(0.5), new BigDecimal("12.345"), created }, "spill.1");
+        SimpleFeature empty = SimpleFeatureBuilder.build(schema, new Object[] { null, null,
+                null, null, null, null }, "spill.2");
+
+        SpillFeatureCollection.Writer writer = new SpillFeatureCollection.Writer(schema,
+                folder.newFile());
+        writer.write(feature);
+        writer.write(empty);
+        assertEquals(2, writer.getCount());
+        SpillFeatureCollection spill = writer.close();
+
+        assertEquals(2, spill.size());
+        assertEquals(1, spill.getBounds().getMinX(), 0);
+        for (int pass = 0; pass < 2; pass++) { // read any number of times
+            List<SimpleFeature> read = toList(spill);
+            assertEquals(2, read.size());
+
+            SimpleFeature first = read.get(0);
+            assertEquals("spill.1", first.getID());
+            Geometry point = (Geometry) first.getDefaultGeometry();
+            assertEquals(3, point.getCoordinate().z, 0);
+            assertEquals("name", first.getAttribute("name"));
+            assertEquals(Integer.valueOf(7), first.getAttribute("count"));
+            assertEquals(Double.valueOf(0.5), first.getAttribute("value"));
+            assertEquals(new BigDecimal("12.345"), first.getAttribute("amount"));
+            assertEquals(created, first.getAttribute("created"));
+
+            SimpleFeature second = read.get(1);
+            assertEquals("spill.2", second.getID());
+            assertNull(second.getDefaultGeometry());
+            assertNull(second.getAttribute("name"));
+        }
+
+        File file = spill.getFile();
+        assertTrue(file.exists());
+        spill.dispose();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testZValues() throws Exception {
+        SimpleFeatureType schema = DataUtilities.createType("lines", "the_geom:LineString");
+        // the first z value is missing, the others are kept
+        SimpleFeature feature = SimpleFeatureBuilder.build(schema, new Object[] { gf
+                .createLineString(new Coordinate[] { new Coordinate(0, 0, Double.NaN),
+                        new Coordinate(1, 1, 5), new Coordinate(2, 0, 7) }) }, null);
+
+        SpillFeatureCollection.Writer writer = new SpillFeatureCollection.Writer(schema,
+                folder.newFile());
+        writer.write(feature);
+        SpillFeatureCollection spill = writer.close();
+
+        Coordinate[] coordinates = ((Geometry) toList(spill).get(0).getDefaultGeometry())
+                .getCoordinates();
+        assertTrue(Double.isNaN(coordinates[0].z));
+        assertEquals(5, coordinates[1].z, 0);
+        assertEquals(7, coordinates[2].z, 0);
+        spill.dispose();
+    }
+
+    @Test
+    public void testSubCollection() throws Exception {
+        SimpleFeatureType schema = DataUtilities.createType("grid", "the_geom:Point,name:String");
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        SpillFeatureCollection.Writer writer = new SpillFeatureCollection.Writer(schema,
+                folder.newFile());
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 30; x++) {
+                SimpleFeature feature = SimpleFeatureBuilder.build(schema, new Object[] {
+                        gf.createPoint(new Coordinate(x, y)), x + "," + y }, null);
+                features.add(feature);
+                writer.write(feature);
+            }
+        }
+        SpillFeatureCollection spill = writer.close();
+
+        double[][] boxes = { { 2.5, 3.5, 8.5, 4.5 }, { 29, 29, 40, 40 }, { -5, -5, -1, -1 },
+                { -1, -1, 100, 100 } };
+        for (double[] box : boxes) {
+            Filter filter = ff.bbox(ff.property("the_geom"), box[0], box[1], box[2], box[3],
+                    null);
+            assertEquals(getNames(features.subCollection(filter)),
+                    getNames(spill.subCollection(filter)));
+        }
+
+        // an attribute filter is applied to every feature
+        Filter filter = ff.equals(ff.property("name"), ff.literal("3,4"));
+        assertEquals(1, getNames(spill.subCollection(filter)).size());
+        spill.dispose();
+    }
+
+    private Set<String> getNames(SimpleFeatureCollection features) {
+        Set<String> names = new TreeSet<String>();
+        for (SimpleFeature feature : toList(features)) {
+            names.add((String) feature.getAttribute("name"));
+        }
+        return names;
+    }
+
+    private List<SimpleFeature> toList(SimpleFeatureCollection features) {
+        List<SimpleFeature> list = new ArrayList<SimpleFeature>();
+        SimpleFeatureIterator iter = features.features();
+        try {
+            while (iter.hasNext()) {
+                list.add(iter.next());
+            }
+        } finally {
+            iter.close();
+        }
+        return list;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.styler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Class breaks of {@link ClassBreaksSketch} compared with the breaks of the sorted values
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class ClassBreaksSketchTest {
+
+    static final double EPSILON = 1e-9;
+
+    @Test
+    public void testEqualInterval() {
+        ClassBreaksSketch sketch = create(0, 40, 100, 60, 20);
+        assertArrayEquals(new double[] { 0, 25, 50, 75, 100 },
+                sketch.getBreaks("EqualInterval", 4), EPSILON);
+    }
+
+    @Test
+    public void testStandardDeviation() {
+        ClassBreaksSketch sketch = create(2, 4, 4, 4, 5, 5, 7, 9);
+        assertEquals(5, sketch.getMean(), EPSILON);
+        assertEquals(2, sketch.getStandardDeviation(), EPSILON);
+
+        // one standard deviation wide around the mean
+        assertArrayEquals(new double[] { 2, 3, 5, 7, 9 },
+                sketch.getBreaks("StandardDeviation", 4), EPSILON);
+
+        // clamped to the value range
+        assertArrayEquals(new double[] { 2, 2, 3, 5, 7, 9, 9 },
+                sketch.getBreaks("StandardDeviation", 6), EPSILON);
+
+        // no deviation: equal interval breaks
+        assertArrayEquals(new double[] { 3, 3, 3 },
+                create(3, 3, 3).getBreaks("StandardDeviation", 2), EPSILON);
+    }
+
+    @Test
+    public void testSmallQuantile() {
+        // fewer values than a compactor: the quantiles are exact
+        ClassBreaksSketch sketch = create(10, 1, 9, 2, 8, 3, 7, 4, 6, 5);
+        assertEquals(5, sketch.getQuantile(0.5), 0);
+        assertArrayEquals(new double[] { 1, 3, 5, 8, 10 }, sketch.getBreaks("Quantile", 4),
+                EPSILON);
+    }
+
+    @Test
+    public void testQuantile() {
+        int count = 200000;
+        List<Double> values = new ArrayList<Double>(count);
+        for (int index = 0; index < count; index++) {
+            values.add(Double.valueOf(index));
+        }
+        Collections.shuffle(values, new Random(17));
+
+        ClassBreaksSketch sketch = new ClassBreaksSketch("value");
+        for (Double value : values) {
+            sketch.add(value.doubleValue());
+        }
+        assertEquals(count, sketch.getCount());
+
+        // the value of a rank is the rank: the rank error is within 1% of the count
+        double[] breaks = sketch.getBreaks("Quantile", 10);
+        assertEquals(0, breaks[0], 0);
+        assertEquals(count - 1, breaks[10], 0);
+        for (int index = 1; index < 10; index++) {
+            double expected = count * index / 10.0;
+            assertEquals("break " + index, expected, breaks[index], count * 0.01);
+            assertTrue(breaks[index - 1] <= breaks[index]);
+        }
+    }
+
+    @Test
+    public void testNaturalBreaks() {
+        ClassBreaksSketch sketch = create(21, 1, 12, 2, 10, 3, 22, 11, 20);
+        assertArrayEquals(new double[] { 1, 3, 12, 22 }, sketch.getBreaks("Jenks", 3),
+                EPSILON);
+
+        // more classes than values: the last classes are empty
+        assertArrayEquals(new double[] { 1, 1, 2, 2 },
+                create(2, 1).getBreaks("Jenks", 3), EPSILON);
+    }
+
+    @Test
+    public void testInvalidValues() {
+        ClassBreaksSketch sketch = create(Double.NaN, 1, Double.POSITIVE_INFINITY, 3);
+        assertEquals(2, sketch.getCount());
+        assertEquals(1, sketch.getMinimum(), 0);
+        assertEquals(3, sketch.getMaximum(), 0);
+
+        assertNull(new ClassBreaksSketch("value").getBreaks("Quantile", 5));
+        sketch.clear();
+        assertNull(sketch.getBreaks("Jenks", 5));
+    }
+
+    private ClassBreaksSketch create(double... values) {
+        ClassBreaksSketch sketch = new ClassBreaksSketch("value");
+        for (double value : values) {
+            sketch.add(value);
+        }
+        return sketch;
+    }
+}
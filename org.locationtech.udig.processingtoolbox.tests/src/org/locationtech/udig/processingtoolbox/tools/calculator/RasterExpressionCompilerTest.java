@@ -0,0 +1,208 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.calculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geotools.filter.text.cql2.CQLException;
+import org.geotools.filter.text.ecql.ECQL;
+import org.junit.Test;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Expression;
+
+/**
+ * Compiles raster calculator expressions and evaluates them on small synthetic rasters
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class RasterExpressionCompilerTest {
+
+    static final int WIDTH = 5;
+
+    static final int HEIGHT = 4;
+
+    static final double EPSILON = 1e-9;
+
+    // a = x + 10 * y, b = 4, rgb band n = a * (n + 1), cells outside of the rasters are NaN
+    private final Map<String, RasterSource> sources = new HashMap<String, RasterSource>();
+
+    private final Map<String, Integer> layers = new HashMap<String, Integer>();
+
+    public RasterExpressionCompilerTest() {
+        sources.put("a", new GridSource(1) {
+            @Override
+            double getValue(int x, int y, int band) {
+                return x + 10 * y;
+            }
+        });
+        sources.put("b", new GridSource(1) {
+            @Override
+            double getValue(int x, int y, int band) {
+                return 4;
+            }
+        });
+        sources.put("rgb", new GridSource(3) {
+            @Override
+            double getValue(int x, int y, int band) {
+                return (x + 10 * y) * (band + 1);
+            }
+        });
+        for (Map.Entry<String, RasterSource> entry : sources.entrySet()) {
+            layers.put(entry.getKey(), entry.getValue().getNumBands());
+        }
+    }
+
+    @Test
+    public void testArithmetic() throws Exception {
+        double[] result = evaluate("a * 2 + b / 4 - 1");
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals((x + 10 * y) * 2.0, result[y * WIDTH + x], EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testMathFunctions() throws Exception {
+        double[] result = evaluate("sqrt(b) + pow(a, 2) + max(a, 12) + abs(0 - a)");
+        for (int i = 0; i < result.length; i++) {
+            double a = (i % WIDTH) + 10 * (i / WIDTH);
+            assertEquals(2 + a * a + Math.max(a, 12) + a, result[i], EPSILON);
+        }
+    }
+
+    @Test
+    public void testBands() throws Exception {
+        double[] result = evaluate("rgb_Band_2 - rgb_Band_0");
+        for (int i = 0; i < result.length; i++) {
+            double a = (i % WIDTH) + 10 * (i / WIDTH);
+            assertEquals(2 * a, result[i], EPSILON);
+        }
+        assertEquals(20, evaluate("rgb")[2 * WIDTH], EPSILON); // the first band
+    }
+
+    @Test
+    public void testNoData() throws Exception {
+        RasterProgram program = compile("a + 1");
+        Rectangle region = new Rectangle(WIDTH - 1, 0, 2, 1); // the second cell is outside
+        double[] result = evaluate(program, region);
+        assertEquals(WIDTH - 1 + 1, result[0], EPSILON);
+        assertTrue(Double.isNaN(result[1]));
+    }
+
+    @Test
+    public void testCommonSubExpressions() throws Exception {
+        // a, 1, a + 1 and the product
+        assertEquals(4, compile("(a + 1) * (a + 1)").getSlotCount());
+
+        // a + b and b + a share a node across expressions
+        Map<String, Expression> expressions = new LinkedHashMap<String, Expression>();
+        expressions.put("first", ECQL.toExpression("a + b"));
+        expressions.put("second", ECQL.toExpression("b + a"));
+        RasterProgram program = new RasterExpressionCompiler(layers).compile(expressions);
+        assertEquals(Arrays.asList("first", "second"), program.getResultNames());
+        assertSame(program.getResults().get(0), program.getResults().get(1));
+        assertEquals(3, program.getSlotCount());
+        assertEquals(2, program.getInputs().size());
+    }
+
+    @Test
+    public void testFocalMean() throws Exception {
+        Expression expression = ECQL.toExpression("focalMean(a, 3)",
+                FocalFunctionFactory.getFilterFactory());
+        RasterProgram program = new RasterExpressionCompiler(layers).compile(expression);
+        assertEquals(1, program.getLayerNames().size());
+
+        double[] result = evaluate(program, new Rectangle(0, 0, WIDTH, HEIGHT));
+        // the mean of a linear surface is its center value inside the raster
+        for (int y = 1; y < HEIGHT - 1; y++) {
+            for (int x = 1; x < WIDTH - 1; x++) {
+                assertEquals(x + 10 * y, result[y * WIDTH + x], EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testFindFocalFunction() throws Exception {
+        FilterFactory2 ff = FocalFunctionFactory.getFilterFactory();
+        assertEquals("focalMax", FocalFunctionFactory.findFocalFunction(ECQL.toExpression(
+                "a + sqrt(focalMax(b, 5))", ff)));
+        assertNull(FocalFunctionFactory.findFocalFunction(ECQL.toExpression("a + sqrt(b)", ff)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotNumericFunction() throws Exception {
+        compile("if_then_else(greaterThan(a, 1), a, b)");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownLayer() throws Exception {
+        compile("c + 1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWindowSize() throws Exception {
+        Expression expression = ECQL.toExpression("focalMean(a, 4)",
+                FocalFunctionFactory.getFilterFactory());
+        new RasterExpressionCompiler(layers).compile(expression);
+    }
+
+    private RasterProgram compile(String text) throws CQLException {
+        return new RasterExpressionCompiler(layers).compile(ECQL.toExpression(text));
+    }
+
+    private double[] evaluate(String text) throws CQLException {
+        return evaluate(compile(text), new Rectangle(0, 0, WIDTH, HEIGHT));
+    }
+
+    private double[] evaluate(RasterProgram program, Rectangle region) {
+        double[][] slots = new double[program.getSlotCount()][region.width * region.height];
+        program.evaluate(sources, region, 1.0, 1.0, slots);
+        return slots[program.getResult().getSlot()];
+    }
+
+    abstract static class GridSource implements RasterSource {
+        private final int numBands;
+
+        GridSource(int numBands) {
+            this.numBands = numBands;
+        }
+
+        abstract double getValue(int x, int y, int band);
+
+        @Override
+        public int getNumBands() {
+            return numBands;
+        }
+
+        @Override
+        public void readSamples(Rectangle region, int band, double[] dest) {
+            int index = 0;
+            for (int y = region.y; y < region.y + region.height; y++) {
+                for (int x = region.x; x < region.x + region.width; x++) {
+                    boolean inside = x >= 0 && y >= 0 && x < WIDTH && y < HEIGHT;
+                    dest[index++] = inside ? getValue(x, y, band) : Double.NaN;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Rounding of {@link CoordinateFormatter} and the detection of z values
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class CoordinateFormatterTest {
+
+    static final GeometryFactory gf = new GeometryFactory();
+
+    @Test
+    public void testRounding() {
+        CoordinateFormatter formatter = new CoordinateFormatter(6);
+        assertEquals("127.123457", formatter.format(127.12345678));
+        assertEquals("127.123456", formatter.format(127.1234564));
+        assertEquals("0.000001", formatter.format(0.0000009));
+        assertEquals("1.000001", formatter.format(1.000001));
+        assertEquals("1.05", formatter.format(1.05));
+        assertEquals("37.5", formatter.format(37.5000001));
+        assertEquals("38", formatter.format(37.9999999));
+        assertEquals("-127.5", formatter.format(-127.5));
+        assertEquals("-0.000123", formatter.format(-0.000123));
+
+        // values rounded to zero have no sign
+        assertEquals("0", formatter.format(-0.0000001));
+        assertEquals("0", formatter.format(-0.0));
+
+        assertEquals("128", new CoordinateFormatter(0).format(127.5));
+        assertEquals("0.1", new CoordinateFormatter(1).format(0.05));
+    }
+
+    @Test
+    public void testDecimalFormat() {
+        // the same digits as a half up BigDecimal, without trailing zeros
+        Random random = new Random(5);
+        for (int decimals = 0; decimals <= 10; decimals++) {
+            CoordinateFormatter formatter = new CoordinateFormatter(decimals);
+            for (int index = 0; index < 1000; index++) {
+                double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(8));
+                double scaled = Math.abs(value) * Math.pow(10, decimals);
+                if (Math.abs(scaled - Math.floor(scaled) - 0.5) < 1e-6) {
+                    continue; // a tie may be rounded either way after scaling
+                }
+                BigDecimal expected = new BigDecimal(value).setScale(decimals,
+                        RoundingMode.HALF_UP);
+                assertEquals(value + " to " + decimals, expected.doubleValue(),
+                        Double.parseDouble(formatter.format(value)), 0);
+                assertFalse(formatter.format(value).matches(".*\\.\\d*0$"));
+            }
+        }
+    }
+
+    @Test
+    public void testLargeValues() {
+        CoordinateFormatter formatter = new CoordinateFormatter(8);
+        assertEquals("1234567", formatter.format(1234567));
+        assertEquals(Double.toString(1e12), formatter.format(1e12)); // 1e20 units
+        assertEquals("NaN", formatter.format(Double.NaN));
+        assertEquals("-Infinity", formatter.format(Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void testAppend() {
+        StringBuilder sb = new StringBuilder("x=");
+        new CoordinateFormatter().format(0.123456789, sb).append(';');
+        assertEquals("x=0.12345679;", sb.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDecimals() {
+        new CoordinateFormatter(CoordinateFormatter.MAX_DECIMALS + 1);
+    }
+
+    @Test
+    public void testSequence() throws Exception {
+        CoordinateFormatter formatter = new CoordinateFormatter(2);
+        StringBuilder sb = new StringBuilder();
+        formatter.format(gf.createLineString(new Coordinate[] { new Coordinate(1.234, 2),
+                new Coordinate(3, 4.006, Double.NaN) }).getCoordinateSequence(), ',', ' ', true,
+                sb);
+        assertEquals("1.23,2,0 3,4.01,0", sb.toString()); // missing z values are 0
+    }
+
+    @Test
+    public void testHasZ() throws Exception {
+        WKTReader reader = new WKTReader(gf);
+        assertFalse(CoordinateFormatter.hasZ(reader.read("LINESTRING (0 0, 1 1)")));
+        assertTrue(CoordinateFormatter.hasZ(reader.read("POINT (0 0 1)")));
+
+        // the first coordinate has no z value
+        assertTrue(CoordinateFormatter.hasZ(gf.createLineString(new Coordinate[] {
+                new Coordinate(0, 0), new Coordinate(1, 1, 5) })));
+
+        // only an interior ring or a later part has z values
+        assertTrue(CoordinateFormatter.hasZ(reader.read("POLYGON ((0 0, 9 0, 9 9, 0 0), "
+                + "(1 1 2, 2 1 2, 2 2 2, 1 1 2))")));
+        assertTrue(CoordinateFormatter.hasZ(reader.read("GEOMETRYCOLLECTION (POINT (0 0), "
+                + "MULTILINESTRING ((0 0, 1 1), (2 2, 3 3 3)))")));
+        assertFalse(CoordinateFormatter.hasZ(reader.read("MULTIPOLYGON EMPTY")));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Writes features with {@link DelimitedTextWriter} and compares the files with the expected
+ * lines, values containing the delimiter, quotes or line breaks are quoted as in RFC 4180
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class DelimitedTextWriterTest {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final String NL = DelimitedTextWriter.NEW_LINE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCSV() throws Exception {
+        String expected = "name,count,value,xcoord,ycoord" + NL //
+                + "plain,7,0.5,127.123457,37.5" + NL //
+                + "\"a,b\",,,1,0" + NL //
+                + "\"say \"\"hi\"\"\nbye\",-3,1.25,1,2" + NL //
+                + "\uC11C\uC6B8,,,," + NL;
+        assertEquals(expected, writeCSV(","));
+    }
+
+    @Test
+    public void testDelimiters() throws Exception {
+        // a comma is not quoted in a tab delimited file
+        String expected = "name\tcount\tvalue\txcoord\tycoord" + NL //
+                + "plain\t7\t0.5\t127.123457\t37.5" + NL //
+                + "a,b\t\t\t1\t0" + NL //
+                + "\"say \"\"hi\"\"\nbye\"\t-3\t1.25\t1\t2" + NL //
+                + "\uC11C\uC6B8\t\t\t\t" + NL;
+        assertEquals(expected, writeCSV("\t"));
+
+        // only the whole delimiter is quoted
+        SimpleFeatureType schema = DataUtilities.createType("text", "the_geom:Point,name:String");
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        features.add(SimpleFeatureBuilder.build(schema, new Object[] { null, "a|b" }, null));
+        features.add(SimpleFeatureBuilder.build(schema, new Object[] { null, "a||b" }, null));
+        File file = folder.newFile();
+        new DelimitedTextWriter(UTF8, "||", new CoordinateFormatter(6)).writeCSV(features, file);
+        assertEquals("name||xcoord||ycoord" + NL + "a|b||||" + NL + "\"a||b\"||||" + NL,
+                read(file));
+    }
+
+    @Test
+    public void testWKT() throws Exception {
+        WKTReader reader = new WKTReader();
+        SimpleFeatureType schema = DataUtilities.createType("shapes",
+                "the_geom:Geometry,name:String");
+        String[] wkts = { "POINT (127.1234567 37.5)", "LINESTRING (0 0, 2.5 0)",
+                "POLYGON ((0 0, 10 0, 10 10, 0 0), (2 1, 3 1, 3 2, 2 1))",
+                "MULTIPOINT ((1 2), (3 4))", "MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)))",
+                "GEOMETRYCOLLECTION (POINT (1 2), LINESTRING (0 0, 1 1))", "POLYGON EMPTY" };
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        for (int index = 0; index < wkts.length; index++) {
+            features.add(SimpleFeatureBuilder.build(schema, new Object[] {
+                    reader.read(wkts[index]), "n" + index }, null));
+        }
+
+        File file = folder.newFile();
+        assertEquals(wkts.length, new DelimitedTextWriter(UTF8, ",", new CoordinateFormatter(6))
+                .writeWKT(features, file));
+
+        // WKT containing the delimiter is quoted
+        String expected = "the_geom,name" + NL //
+                + "POINT (127.123457 37.5),n0" + NL //
+                + "\"LINESTRING (0 0, 2.5 0)\",n1" + NL //
+                + "\"POLYGON ((0 0, 10 0, 10 10, 0 0), (2 1, 3 1, 3 2, 2 1))\",n2" + NL //
+                + "\"MULTIPOINT ((1 2), (3 4))\",n3" + NL //
+                + "\"MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)))\",n4" + NL //
+                + "\"GEOMETRYCOLLECTION (POINT (1 2), LINESTRING (0 0, 1 1))\",n5" + NL //
+                + "POLYGON EMPTY,n6" + NL;
+        assertEquals(expected, read(file));
+    }
+
+    private String writeCSV(String delimiter) throws Exception {
+        SimpleFeatureType schema = DataUtilities.createType("points",
+                "the_geom:Geometry,name:String,count:Integer,value:Double");
+        WKTReader reader = new WKTReader();
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        features.add(SimpleFeatureBuilder.build(schema, new Object[] {
+                reader.read("POINT (127.123456789 37.5)"), "plain", Integer.valueOf(7),
+                Double.valueOf(0.5) }, null));
+        // other geometries are written at their centroid
+        features.add(SimpleFeatureBuilder.build(schema, new Object[] {
+                reader.read("LINESTRING (0 0, 2 0)"), "a,b", null, null }, null));
+        features.add(SimpleFeatureBuilder.build(schema, new Object[] {
+                reader.read("POINT (1 2)"), "say \"hi\"\nbye", Integer.valueOf(-3),
+                Double.valueOf(1.25) }, null));
+        // no geometry: empty coordinates
+        features.add(SimpleFeatureBuilder.build(schema, new Object[] { null,
+                "\uC11C\uC6B8", null, null }, null));
+
+        File file = folder.newFile();
+        DelimitedTextWriter writer = new DelimitedTextWriter(UTF8, delimiter,
+                new CoordinateFormatter(6));
+        assertEquals(features.size(), writer.writeCSV(features, file));
+        return read(file);
+    }
+
+    private String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), UTF8);
+    }
+}
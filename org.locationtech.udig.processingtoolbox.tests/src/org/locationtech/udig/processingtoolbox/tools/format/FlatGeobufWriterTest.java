@@ -0,0 +1,218 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Writes features with {@link FlatGeobufWriter} and reads them back with
+ * {@link FlatGeobufFeatureCollection}
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class FlatGeobufWriterTest {
+
+    static final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+    static final GeometryFactory gf = JTSFactoryFinder.getGeometryFactory(null);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAttributes() throws Exception {
+        SimpleFeatureType schema = DataUtilities.createType("points",
+                "the_geom:Point,name:String,count:Integer,total:Long,value:Double,"
+                        + "valid:Boolean,created:java.util.Date");
+        Date created = new Date(1500000000123L);
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        builder.addAll(new Object[] { gf.createPoint(new Coordinate(127.5, 37.25)), "name 1",
+                Integer.valueOf(-7), Long.valueOf(1L << 40), Double.valueOf(0.125),
+                Boolean.TRUE, created });
+        features.add(builder.buildFeature(null));
+        builder.addAll(new Object[] { gf.createPoint(new Coordinate(-1, -2)), null, null, null,
+                null, null, null });
+        features.add(builder.buildFeature(null));
+
+        FlatGeobufFeatureCollection result = writeAndRead(features, PackedRTree.DEFAULT_NODE_SIZE);
+        assertEquals(2, result.size());
+        assertEquals("points", result.getSchema().getTypeName());
+        assertEquals(-1, result.getBounds().getMinX(), 0);
+        assertEquals(37.25, result.getBounds().getMaxY(), 0);
+
+        List<SimpleFeature> read = toList(result);
+        SimpleFeature first = find(read, "name 1");
+        assertEquals(127.5, ((Geometry) first.getDefaultGeometry()).getCoordinate().x, 0);
+        assertEquals(-7, ((Number) first.getAttribute("count")).intValue());
+        assertEquals(1L << 40, ((Number) first.getAttribute("total")).longValue());
+        assertEquals(0.125, ((Number) first.getAttribute("value")).doubleValue(), 0);
+        assertEquals(Boolean.TRUE, first.getAttribute("valid"));
+        assertEquals(created.getTime(), ((Date) first.getAttribute("created")).getTime());
+
+        SimpleFeature second = read.get(read.get(0) == first ? 1 : 0);
+        assertNull(second.getAttribute("name"));
+        assertNull(second.getAttribute("count"));
+        assertNull(second.getAttribute("created"));
+    }
+
+    @Test
+    public void testGeometries() throws Exception {
+        String[] wkts = { "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (2 2, 2 4, 4 4, 4 2, 2 2))",
+                "MULTIPOLYGON (((20 20, 30 20, 30 30, 20 20)), ((40 40, 50 40, 50 50, 40 40)))",
+                "LINESTRING (0 0, 5 5, 10 0)", "MULTIPOINT ((1 1), (2 2))",
+                "GEOMETRYCOLLECTION (POINT (1 2), LINESTRING (0 0, 1 1))" };
+        SimpleFeatureType schema = DataUtilities.createType("shapes",
+                "the_geom:Geometry,id:Integer");
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        WKTReader reader = new WKTReader(gf);
+        for (int index = 0; index < wkts.length; index++) {
+            features.add(SimpleFeatureBuilder.build(schema, new Object[] {
+                    reader.read(wkts[index]), Integer.valueOf(index) }, null));
+        }
+
+        FlatGeobufFeatureCollection result = writeAndRead(features, PackedRTree.DEFAULT_NODE_SIZE);
+        for (SimpleFeature feature : toList(result)) {
+            int id = ((Number) feature.getAttribute("id")).intValue();
+            Geometry expected = reader.read(wkts[id]);
+            Geometry actual = (Geometry) feature.getDefaultGeometry();
+            assertTrue(wkts[id] + " != " + actual, expected.equalsExact(actual));
+        }
+    }
+
+    @Test
+    public void testZValues() throws Exception {
+        SimpleFeatureType schema = DataUtilities.createType("lines", "the_geom:LineString");
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        // the first z value is missing, the others decide that the line has z values
+        features.add(SimpleFeatureBuilder.build(schema, new Object[] { gf
+                .createLineString(new Coordinate[] { new Coordinate(0, 0, Double.NaN),
+                        new Coordinate(1, 1, 5), new Coordinate(2, 0, 7) }) }, null));
+
+        FlatGeobufFeatureCollection result = writeAndRead(features, PackedRTree.DEFAULT_NODE_SIZE);
+        Coordinate[] coordinates = ((Geometry) toList(result).get(0).getDefaultGeometry())
+                .getCoordinates();
+        assertEquals(0, coordinates[0].z, 0);
+        assertEquals(5, coordinates[1].z, 0);
+        assertEquals(7, coordinates[2].z, 0);
+    }
+
+    @Test
+    public void testIndexedSubCollection() throws Exception {
+        SimpleFeatureCollection features = createGrid(40, 25);
+        FlatGeobufFeatureCollection indexed = writeAndRead(features, 4);
+        FlatGeobufFeatureCollection scanned = writeAndRead(features, 0);
+        assertTrue(indexed.hasIndex());
+        assertFalse(scanned.hasIndex());
+
+        double[][] boxes = { { 3.5, 2.5, 9.5, 7.5 }, { -10, -10, -5, -5 },
+                { 39, 24, 100, 100 }, { 0, 0, 0, 0 } };
+        for (double[] box : boxes) {
+            Filter filter = ff.bbox(ff.property("the_geom"), box[0], box[1], box[2], box[3],
+                    null);
+            Set<String> expected = getNames(features.subCollection(filter));
+            assertEquals(expected, getNames(indexed.subCollection(filter)));
+            assertEquals(expected, getNames(scanned.subCollection(filter)));
+        }
+        assertEquals(40 * 25, getNames(indexed.subCollection(Filter.INCLUDE)).size());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        SimpleFeatureType schema = DataUtilities.createType("empty", "the_geom:Point,id:Integer");
+        FlatGeobufFeatureCollection result = writeAndRead(new ListFeatureCollection(schema),
+                PackedRTree.DEFAULT_NODE_SIZE);
+        assertEquals(0, result.size());
+        assertFalse(result.hasIndex());
+        assertTrue(toList(result).isEmpty());
+    }
+
+    static SimpleFeatureCollection createGrid(int columns, int rows) throws Exception {
+        SimpleFeatureType schema = DataUtilities.createType("grid", "the_geom:Point,name:String");
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < columns; x++) {
+                features.add(SimpleFeatureBuilder.build(schema, new Object[] {
+                        gf.createPoint(new Coordinate(x, y)), x + "," + y }, null));
+            }
+        }
+        return features;
+    }
+
+    private FlatGeobufFeatureCollection writeAndRead(SimpleFeatureCollection features,
+            int nodeSize) throws Exception {
+        File file = folder.newFile();
+        assertEquals(features.size(), new FlatGeobufWriter(nodeSize).write(features, file));
+        return FlatGeobufFeatureCollection.open(file);
+    }
+
+    private Set<String> getNames(SimpleFeatureCollection features) {
+        Set<String> names = new TreeSet<String>();
+        for (SimpleFeature feature : toList(features)) {
+            names.add((String) feature.getAttribute("name"));
+        }
+        return names;
+    }
+
+    private SimpleFeature find(List<SimpleFeature> features, String name) {
+        for (SimpleFeature feature : features) {
+            if (name.equals(feature.getAttribute("name"))) {
+                return feature;
+            }
+        }
+        throw new AssertionError(name + " not found");
+    }
+
+    static List<SimpleFeature> toList(SimpleFeatureCollection features) {
+        List<SimpleFeature> list = new ArrayList<SimpleFeature>();
+        SimpleFeatureIterator iter = features.features();
+        try {
+            while (iter.hasNext()) {
+                list.add(iter.next());
+            }
+        } finally {
+            iter.close();
+        }
+        return list;
+    }
+}
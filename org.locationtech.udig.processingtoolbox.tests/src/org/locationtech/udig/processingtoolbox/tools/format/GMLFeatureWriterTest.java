@@ -0,0 +1,177 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.udig.processingtoolbox.tools.FormatTransformer.EncodeType;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Writes features with {@link GMLFeatureWriter} and reads the documents back with DOM
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class GMLFeatureWriterTest {
+
+    static final String POLYGON = "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), "
+            + "(2 2, 2 4, 4 4, 4 2, 2 2))";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGML32() throws Exception {
+        Document document = write(EncodeType.GML32, createFeatures());
+        Element root = document.getDocumentElement();
+        assertEquals(GMLFeatureWriter.GML32, root.getNamespaceURI());
+        assertEquals("FeatureCollection", root.getLocalName());
+        assertEquals(2, root.getElementsByTagNameNS(GMLFeatureWriter.GML32, "featureMember")
+                .getLength());
+
+        Element feature = first(root, GMLFeatureWriter.DEFAULT_NAMESPACE, "parcels");
+        assertEquals("parcels.1", feature.getAttributeNS(GMLFeatureWriter.GML32, "id"));
+        assertEquals("a < b & c", first(feature, GMLFeatureWriter.DEFAULT_NAMESPACE, "name")
+                .getTextContent());
+        assertEquals("7", first(feature, GMLFeatureWriter.DEFAULT_NAMESPACE, "count")
+                .getTextContent());
+
+        // geometries have an id unique in the document, rings have none
+        Element polygon = first(feature, GMLFeatureWriter.GML32, "Polygon");
+        assertEquals("parcels.1.1", polygon.getAttributeNS(GMLFeatureWriter.GML32, "id"));
+        NodeList rings = polygon.getElementsByTagNameNS(GMLFeatureWriter.GML32, "LinearRing");
+        assertEquals(2, rings.getLength());
+        for (int index = 0; index < rings.getLength(); index++) {
+            assertNull(((Element) rings.item(index)).getAttributeNodeNS(
+                    GMLFeatureWriter.GML32, "id"));
+        }
+
+        Element exterior = first(polygon, GMLFeatureWriter.GML32, "exterior");
+        Element posList = first(exterior, GMLFeatureWriter.GML32, "posList");
+        assertEquals("2", posList.getAttribute("srsDimension"));
+        assertEquals("0 0 10 0 10 10 0 10 0 0", posList.getTextContent());
+        assertEquals(1, polygon.getElementsByTagNameNS(GMLFeatureWriter.GML32, "interior")
+                .getLength());
+    }
+
+    @Test
+    public void testGML311() throws Exception {
+        Document document = write(EncodeType.GML311, createFeatures());
+        Element root = document.getDocumentElement();
+        assertEquals(GMLFeatureWriter.GML, root.getNamespaceURI());
+        assertEquals("FeatureCollection", root.getLocalName());
+
+        // the second feature is a line with z values from its second coordinate
+        NodeList features = root.getElementsByTagNameNS(GMLFeatureWriter.DEFAULT_NAMESPACE,
+                "parcels");
+        Element line = first((Element) features.item(1), GMLFeatureWriter.GML, "LineString");
+        Element posList = first(line, GMLFeatureWriter.GML, "posList");
+        assertEquals("3", posList.getAttribute("srsDimension"));
+        assertEquals("0 0 0 1.5 1 5", posList.getTextContent());
+        assertEquals(0, root.getElementsByTagNameNS(GMLFeatureWriter.GML, "LinearRing")
+                .item(0).getAttributes().getLength());
+    }
+
+    @Test
+    public void testGML2() throws Exception {
+        Document document = write(EncodeType.GML212, createFeatures());
+        Element root = document.getDocumentElement();
+        assertEquals("_FeatureCollection", root.getLocalName());
+        assertEquals(1, root.getElementsByTagNameNS(GMLFeatureWriter.GML, "boundedBy")
+                .getLength());
+
+        Element feature = first(root, GMLFeatureWriter.DEFAULT_NAMESPACE, "parcels");
+        assertEquals("parcels.1", feature.getAttribute("fid"));
+        Element outer = first(feature, GMLFeatureWriter.GML, "outerBoundaryIs");
+        Element coordinates = first(outer, GMLFeatureWriter.GML, "coordinates");
+        assertEquals("0,0 10,0 10,10 0,10 0,0", coordinates.getTextContent());
+        assertEquals(1, feature.getElementsByTagNameNS(GMLFeatureWriter.GML,
+                "innerBoundaryIs").getLength());
+    }
+
+    @Test
+    public void testNames() throws Exception {
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("1 parcels");
+        typeBuilder.add("the_geom", Geometry.class);
+        typeBuilder.add("land use", String.class);
+        SimpleFeatureType schema = typeBuilder.buildFeatureType();
+
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        features.add(SimpleFeatureBuilder.build(schema, new Object[] {
+                new WKTReader().read("POINT (1 2)"), "forest" }, "fid-1"));
+
+        // names that are not XML names are written with underscores
+        Element root = write(EncodeType.GML32, features).getDocumentElement();
+        Element feature = first(root, GMLFeatureWriter.DEFAULT_NAMESPACE, "_1_parcels");
+        assertEquals("forest", first(feature, GMLFeatureWriter.DEFAULT_NAMESPACE, "land_use")
+                .getTextContent());
+        assertEquals("1 2", first(feature, GMLFeatureWriter.GML32, "pos").getTextContent());
+    }
+
+    static ListFeatureCollection createFeatures() throws Exception {
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("parcels");
+        typeBuilder.add("the_geom", Geometry.class);
+        typeBuilder.add("name", String.class);
+        typeBuilder.add("count", Integer.class);
+        SimpleFeatureType schema = typeBuilder.buildFeatureType();
+
+        WKTReader reader = new WKTReader();
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        features.add(SimpleFeatureBuilder.build(schema, new Object[] { reader.read(POLYGON),
+                "a < b & c", Integer.valueOf(7) }, "parcels.1"));
+        features.add(SimpleFeatureBuilder.build(schema, new Object[] {
+                reader.read("LINESTRING (0 0, 1.5 1 5)"), null, null }, "parcels.2"));
+        return features;
+    }
+
+    private Document write(EncodeType encodeType, ListFeatureCollection features)
+            throws Exception {
+        File file = folder.newFile();
+        GMLFeatureWriter writer = new GMLFeatureWriter(encodeType, new CoordinateFormatter());
+        assertEquals(features.size(), writer.write(features, file));
+        return parse(file);
+    }
+
+    static Document parse(File file) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(file);
+    }
+
+    static Element first(Element parent, String namespace, String localName) {
+        NodeList nodes = parent.getElementsByTagNameNS(namespace, localName);
+        if (nodes.getLength() == 0) {
+            throw new AssertionError(localName + " not found");
+        }
+        return (Element) nodes.item(0);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Writes features with {@link GeoJSONFeatureWriter} and compares the files with the expected
+ * GeoJSON and GeoJSON text sequence
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class GeoJSONFeatureWriterTest {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFeatureCollection() throws Exception {
+        SimpleFeatureType schema = DataUtilities.createType("points",
+                "the_geom:Point,name:String,count:Integer,value:Double,valid:Boolean");
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        features.add(SimpleFeatureBuilder.build(schema, new Object[] {
+                new WKTReader().read("POINT (127.123456789 37.5)"), "say \"hi\"\\\n\t\u0001",
+                Integer.valueOf(7), Double.valueOf(0.25), Boolean.TRUE }, "points.1"));
+        // NaN is not a JSON number
+        features.add(SimpleFeatureBuilder.build(schema, new Object[] { null, null, null,
+                Double.valueOf(Double.NaN), null }, "points.2"));
+
+        String expected = "{\"type\":\"FeatureCollection\",\"features\":["
+                + "{\"type\":\"Feature\",\"id\":\"points.1\",\"geometry\":{\"type\":\"Point\","
+                + "\"coordinates\":[127.123457,37.5]},\"properties\":{"
+                + "\"name\":\"say \\\"hi\\\"\\\\\\n\\t\\u0001\",\"count\":7,\"value\":0.25,"
+                + "\"valid\":true}}\n"
+                + ",{\"type\":\"Feature\",\"id\":\"points.2\",\"geometry\":null,\"properties\":{"
+                + "\"name\":null,\"count\":null,\"value\":null,\"valid\":null}}\n" //
+                + "]}\n";
+        assertEquals(expected, write(features, false));
+    }
+
+    @Test
+    public void testCRS() throws Exception {
+        SimpleFeatureType schema = DataUtilities.createType("points",
+                "the_geom:Point:srid=4326,id:Integer");
+        String expected = "{\"type\":\"FeatureCollection\",\"crs\":{\"type\":\"name\","
+                + "\"properties\":{\"name\":\"EPSG:4326\"}},\"features\":[]}\n";
+        assertEquals(expected, write(new ListFeatureCollection(schema), false));
+    }
+
+    @Test
+    public void testSequence() throws Exception {
+        String[][] geometries = {
+                { "LINESTRING (0 0, 1.5 1 5)",
+                        "{\"type\":\"LineString\",\"coordinates\":[[0,0,0],[1.5,1,5]]}" },
+                { "POLYGON ((0 0, 10 0, 10 10, 0 0), (2 1, 3 1, 3 2, 2 1))",
+                        "{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[10,0],[10,10],[0,0]],"
+                                + "[[2,1],[3,1],[3,2],[2,1]]]}" },
+                { "MULTIPOINT ((1 2), (3 4))",
+                        "{\"type\":\"MultiPoint\",\"coordinates\":[[1,2],[3,4]]}" },
+                { "MULTILINESTRING ((0 0, 1 1), (2 2, 3 3))",
+                        "{\"type\":\"MultiLineString\",\"coordinates\":[[[0,0],[1,1]],"
+                                + "[[2,2],[3,3]]]}" },
+                { "MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)))",
+                        "{\"type\":\"MultiPolygon\",\"coordinates\":[[[[0,0],[1,0],[1,1],"
+                                + "[0,0]]]]}" },
+                { "GEOMETRYCOLLECTION (POINT (1 2), LINESTRING (0 0, 1 1))",
+                        "{\"type\":\"GeometryCollection\",\"geometries\":[{\"type\":\"Point\","
+                                + "\"coordinates\":[1,2]},{\"type\":\"LineString\","
+                                + "\"coordinates\":[[0,0],[1,1]]}]}" },
+                { "POLYGON EMPTY", "{\"type\":\"Polygon\",\"coordinates\":[]}" } };
+
+        SimpleFeatureType schema = DataUtilities.createType("shapes", "the_geom:Geometry");
+        WKTReader reader = new WKTReader();
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        StringBuilder expected = new StringBuilder();
+        for (int index = 0; index < geometries.length; index++) {
+            features.add(SimpleFeatureBuilder.build(schema, new Object[] { reader
+                    .read(geometries[index][0]) }, "shapes." + index));
+            // one feature per line, without a collection
+            expected.append("{\"type\":\"Feature\",\"id\":\"shapes.").append(index);
+            expected.append("\",\"geometry\":").append(geometries[index][1]);
+            expected.append(",\"properties\":{}}\n");
+        }
+        assertEquals(expected.toString(), write(features, true));
+    }
+
+    private String write(ListFeatureCollection features, boolean sequence) throws Exception {
+        File file = folder.newFile();
+        GeoJSONFeatureWriter writer = new GeoJSONFeatureWriter(new CoordinateFormatter(6),
+                sequence);
+        assertEquals(features.size(), writer.write(features, file));
+        return new String(Files.readAllBytes(file.toPath()), UTF8);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.geotools.data.collection.ListFeatureCollection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.udig.processingtoolbox.tools.FormatTransformer.EncodeType;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Writes features with {@link KMLFeatureWriter} and reads the documents back with DOM
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class KMLFeatureWriterTest {
+
+    static final String KML22 = KMLFeatureWriter.KML22;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testKML22() throws Exception {
+        Element root = write(EncodeType.KML22).getDocumentElement();
+        assertEquals(KML22, root.getNamespaceURI());
+        assertEquals("kml", root.getLocalName());
+
+        // typed fields of the schema, without the geometry
+        Element schema = GMLFeatureWriterTest.first(root, KML22, "Schema");
+        assertEquals("parcels", schema.getAttribute("id"));
+        NodeList fields = schema.getElementsByTagNameNS(KML22, "SimpleField");
+        assertEquals(2, fields.getLength());
+        assertEquals("name", ((Element) fields.item(0)).getAttribute("name"));
+        assertEquals("string", ((Element) fields.item(0)).getAttribute("type"));
+        assertEquals("int", ((Element) fields.item(1)).getAttribute("type"));
+
+        NodeList placemarks = root.getElementsByTagNameNS(KML22, "Placemark");
+        assertEquals(2, placemarks.getLength());
+        Element placemark = (Element) placemarks.item(0);
+        assertEquals("parcels.1", placemark.getAttribute("id"));
+        assertEquals("a < b & c", GMLFeatureWriterTest.first(placemark, KML22, "name")
+                .getTextContent());
+        assertEquals("#parcels", GMLFeatureWriterTest.first(placemark, KML22, "SchemaData")
+                .getAttribute("schemaUrl"));
+        NodeList data = placemark.getElementsByTagNameNS(KML22, "SimpleData");
+        assertEquals(2, data.getLength());
+        assertEquals("count", ((Element) data.item(1)).getAttribute("name"));
+        assertEquals("7", data.item(1).getTextContent());
+
+        Element polygon = GMLFeatureWriterTest.first(placemark, KML22, "Polygon");
+        Element outer = GMLFeatureWriterTest.first(polygon, KML22, "outerBoundaryIs");
+        assertEquals("0,0 10,0 10,10 0,10 0,0", GMLFeatureWriterTest.first(outer, KML22,
+                "coordinates").getTextContent());
+        assertEquals(1, polygon.getElementsByTagNameNS(KML22, "innerBoundaryIs").getLength());
+
+        // the line has z values from its second coordinate, null values are not written
+        Element line = (Element) placemarks.item(1);
+        assertEquals(0, line.getElementsByTagNameNS(KML22, "SimpleData").getLength());
+        assertEquals("0,0,0 1.5,1,5", GMLFeatureWriterTest.first(line, KML22, "coordinates")
+                .getTextContent());
+    }
+
+    @Test
+    public void testKML21() throws Exception {
+        Element root = write(EncodeType.KML21).getDocumentElement();
+        assertEquals(KMLFeatureWriter.KML21, root.getNamespaceURI());
+        assertEquals(0, root.getElementsByTagNameNS(KMLFeatureWriter.KML21, "Schema")
+                .getLength());
+
+        // the attributes are lines of the description
+        Element placemark = GMLFeatureWriterTest.first(root, KMLFeatureWriter.KML21,
+                "Placemark");
+        assertEquals("name: a < b & c\ncount: 7", GMLFeatureWriterTest.first(placemark,
+                KMLFeatureWriter.KML21, "description").getTextContent());
+    }
+
+    private Document write(EncodeType encodeType) throws Exception {
+        ListFeatureCollection features = GMLFeatureWriterTest.createFeatures();
+        File file = folder.newFile();
+        KMLFeatureWriter writer = new KMLFeatureWriter(encodeType, new CoordinateFormatter());
+        assertEquals(features.size(), writer.write(features, file));
+        return GMLFeatureWriterTest.parse(file);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Hilbert packing and search of the packed R-tree of FlatGeobuf files
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class PackedRTreeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLevelBounds() {
+        // 100 leaves, 7 nodes, the root
+        long[][] levels = PackedRTree.levelBounds(100, 16);
+        assertEquals(3, levels.length);
+        assertArrayEquals(new long[] { 8, 108 }, levels[0]);
+        assertArrayEquals(new long[] { 1, 8 }, levels[1]);
+        assertArrayEquals(new long[] { 0, 1 }, levels[2]);
+        assertEquals(108 * PackedRTree.NODE_ITEM_SIZE, PackedRTree.size(100, 16));
+
+        // a single item still has a root
+        assertEquals(2 * PackedRTree.NODE_ITEM_SIZE, PackedRTree.size(1, 16));
+    }
+
+    @Test
+    public void testHilbert() {
+        assertEquals(0, PackedRTree.hilbert(0, 0));
+
+        // the first 16 positions of the curve fill the 4 x 4 block at the origin
+        TreeSet<Integer> values = new TreeSet<Integer>();
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                values.add(Integer.valueOf(PackedRTree.hilbert(x, y)));
+            }
+        }
+        assertEquals(16, values.size());
+        assertEquals(Integer.valueOf(15), values.last());
+    }
+
+    @Test
+    public void testHilbertSort() {
+        int numItems = 1000;
+        double[] boxes = createBoxes(numItems, new Random(7));
+        Arrays.fill(boxes, 40, 44, Double.NaN); // an empty item
+
+        Envelope extent = getExtent(boxes, numItems);
+        int[] order = PackedRTree.hilbertSort(boxes, numItems, extent);
+
+        // a permutation of the items
+        int[] sorted = order.clone();
+        Arrays.sort(sorted);
+        for (int index = 0; index < numItems; index++) {
+            assertEquals(index, sorted[index]);
+        }
+
+        // consecutive items are close: the leaves of the tree are compact
+        double sortedDistance = 0;
+        double inputDistance = 0;
+        for (int index = 1; index < numItems; index++) {
+            sortedDistance += distance(boxes, order[index - 1], order[index]);
+            inputDistance += distance(boxes, index - 1, index);
+        }
+        assertTrue(sortedDistance * 5 < inputDistance);
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        int numItems = 777;
+        int nodeSize = 8;
+        Random random = new Random(11);
+        double[] boxes = createBoxes(numItems, random);
+        Arrays.fill(boxes, 0, 4, Double.NaN); // an empty item is never found
+
+        int[] order = PackedRTree.hilbertSort(boxes, numItems, getExtent(boxes, numItems));
+        double[] sortedBoxes = new double[numItems * 4];
+        long[] offsets = new long[numItems];
+        for (int index = 0; index < numItems; index++) {
+            System.arraycopy(boxes, order[index] * 4, sortedBoxes, index * 4, 4);
+            offsets[index] = index * 100L;
+        }
+
+        File file = folder.newFile();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+        try {
+            raf.write(new byte[3]); // the tree does not start the file
+            PackedRTree.write(sortedBoxes, offsets, numItems, nodeSize, raf.getChannel());
+            assertEquals(3 + PackedRTree.size(numItems, nodeSize), raf.length());
+
+            for (int query = 0; query < 50; query++) {
+                double x = random.nextDouble() * 1000;
+                double y = random.nextDouble() * 1000;
+                Envelope extent = new Envelope(x, x + random.nextDouble() * 200, y, y
+                        + random.nextDouble() * 200);
+
+                Set<Long> expected = new TreeSet<Long>();
+                for (int index = 0; index < numItems; index++) {
+                    int pos = index * 4;
+                    if (!Double.isNaN(sortedBoxes[pos])
+                            && extent.intersects(new Envelope(sortedBoxes[pos],
+                                    sortedBoxes[pos + 2], sortedBoxes[pos + 1],
+                                    sortedBoxes[pos + 3]))) {
+                        expected.add(Long.valueOf(offsets[index]));
+                    }
+                }
+
+                long[][] hits = PackedRTree.search(raf.getChannel(), 3, numItems, nodeSize,
+                        extent);
+                Set<Long> actual = new TreeSet<Long>();
+                for (int index = 0; index < hits.length; index++) {
+                    assertEquals(hits[index][0], offsets[(int) hits[index][1]]);
+                    if (index > 0) {
+                        assertTrue(hits[index - 1][0] < hits[index][0]); // by offset
+                    }
+                    actual.add(Long.valueOf(hits[index][0]));
+                }
+                assertEquals(expected, actual);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private double[] createBoxes(int numItems, Random random) {
+        double[] boxes = new double[numItems * 4];
+        for (int index = 0; index < numItems; index++) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            boxes[index * 4] = x;
+            boxes[index * 4 + 1] = y;
+            boxes[index * 4 + 2] = x + random.nextDouble() * 10;
+            boxes[index * 4 + 3] = y + random.nextDouble() * 10;
+        }
+        return boxes;
+    }
+
+    private Envelope getExtent(double[] boxes, int numItems) {
+        Envelope extent = new Envelope();
+        for (int index = 0; index < numItems; index++) {
+            int pos = index * 4;
+            if (!Double.isNaN(boxes[pos])) {
+                extent.expandToInclude(boxes[pos], boxes[pos + 1]);
+                extent.expandToInclude(boxes[pos + 2], boxes[pos + 3]);
+            }
+        }
+        return extent;
+    }
+
+    private double distance(double[] boxes, int item1, int item2) {
+        int pos1 = item1 * 4;
+        int pos2 = item2 * 4;
+        if (Double.isNaN(boxes[pos1]) || Double.isNaN(boxes[pos2])) {
+            return 0;
+        }
+        return Math.hypot(boxes[pos1] - boxes[pos2], boxes[pos1 + 1] - boxes[pos2 + 1]);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox;
+
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.action.IToolBarManager;
+import org.eclipse.jface.viewers.ArrayContentProvider;
+import org.eclipse.jface.viewers.ISelectionChangedListener;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.SelectionChangedEvent;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.ui.ISharedImages;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.PlatformUI;
+import org.eclipse.ui.part.ViewPart;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.processingtoolbox.internal.Messages;
+import org.locationtech.udig.processingtoolbox.jobs.ProcessJob;
+import org.locationtech.udig.processingtoolbox.jobs.ProcessJobScheduler;
+import org.locationtech.udig.processingtoolbox.jobs.ProcessJobScheduler.ProcessJobListener;
+
+/**
+ * Lists the queued, running and finished process jobs with their progress and elapsed time.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class ProcessJobView extends ViewPart {
+    protected static final Logger LOGGER = Logging.getLogger(ProcessJobView.class);
+
+    public static final String ID = ToolboxPlugin.PLUGIN_ID + ".ProcessJobView"; //$NON-NLS-1$
+
+    static final int REFRESH_INTERVAL = 1000; // milliseconds
+
+    private TableViewer viewer;
+
+    private IAction actionCancel, actionRemove;
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (viewer == null || viewer.getTable().isDisposed()) {
+                return;
+            }
+            viewer.setInput(ProcessJobScheduler.getDefault().getJobs());
+            updateActions();
+
+            // elapsed time & progress of running jobs
+            for (ProcessJob job : ProcessJobScheduler.getDefault().getJobs()) {
+                if (!job.isFinished()) {
+                    viewer.getTable().getDisplay().timerExec(REFRESH_INTERVAL, this);
+                    break;
+                }
+            }
+        }
+    };
+
+    private final ProcessJobListener jobListener = new ProcessJobListener() {
+        @Override
+        public void jobChanged(ProcessJob job) {
+            Display display = PlatformUI.getWorkbench().getDisplay();
+            if (!display.isDisposed()) {
+                display.asyncExec(refreshRunnable);
+            }
+        }
+    };
+
+    /**
+     * Shows the job list view without activating it
+     */
+    public static void showView() {
+        IWorkbenchWindow window = PlatformUI.getWorkbench().getActiveWorkbenchWindow();
+        if (window == null || window.getActivePage() == null) {
+            return;
+        }
+
+        try {
+            window.getActivePage().showView(ID, null, IWorkbenchPage.VIEW_VISIBLE);
+        } catch (PartInitException e) {
+            LOGGER.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void createPartControl(Composite parent) {
+        viewer = new TableViewer(parent, SWT.MULTI | SWT.FULL_SELECTION | SWT.BORDER);
+        Table table = viewer.getTable();
+        table.setHeaderVisible(true);
+        table.setLinesVisible(true);
+
+        createColumn(table, Messages.ProcessJobView_Process, SWT.LEFT, 220);
+        createColumn(table, Messages.ProcessJobView_Status, SWT.LEFT, 160);
+        createColumn(table, Messages.ProcessJobView_Progress, SWT.RIGHT, 70);
+        createColumn(table, Messages.ProcessJobView_Elapsed, SWT.RIGHT, 80);
+
+        viewer.setContentProvider(new ArrayContentProvider());
+        viewer.setLabelProvider(new JobLabelProvider());
+        viewer.addSelectionChangedListener(new ISelectionChangedListener() {
+            @Override
+            public void selectionChanged(SelectionChangedEvent event) {
+                updateActions();
+            }
+        });
+
+        // action bar
+        IToolBarManager toolbarMgr = getViewSite().getActionBars().getToolBarManager();
+        toolbarMgr.add(getCancelAction());
+        toolbarMgr.add(getRemoveAction());
+
+        ProcessJobScheduler.getDefault().addProcessJobListener(jobListener);
+        refreshRunnable.run();
+    }
+
+    private void createColumn(Table table, String text, int style, int width) {
+        TableColumn column = new TableColumn(table, style);
+        column.setText(text);
+        column.setWidth(width);
+    }
+
+    private IAction getCancelAction() {
+        if (actionCancel == null) {
+            actionCancel = new Action() {
+                @Override
+                public void run() {
+                    IStructuredSelection selection = (IStructuredSelection) viewer.getSelection();
+                    Iterator<?> iter = selection.iterator();
+                    while (iter.hasNext()) {
+                        ProcessJob job = (ProcessJob) iter.next();
+                        if (!job.isFinished()) {
+                            ProcessJobScheduler.getDefault().cancel(job);
+                        }
+                    }
+                }
+            };
+            actionCancel.setText(Messages.ProcessJobView_Cancel);
+            actionCancel.setToolTipText(Messages.ProcessJobView_Cancel);
+            actionCancel.setImageDescriptor(PlatformUI.getWorkbench().getSharedImages()
+                    .getImageDescriptor(ISharedImages.IMG_ELCL_STOP));
+        }
+        return actionCancel;
+    }
+
+    private IAction getRemoveAction() {
+        if (actionRemove == null) {
+            actionRemove = new Action() {
+                @Override
+                public void run() {
+                    ProcessJobScheduler.getDefault().removeFinished();
+                }
+            };
+            actionRemove.setText(Messages.ProcessJobView_RemoveFinished);
+            actionRemove.setToolTipText(Messages.ProcessJobView_RemoveFinished);
+            actionRemove.setImageDescriptor(PlatformUI.getWorkbench().getSharedImages()
+                    .getImageDescriptor(ISharedImages.IMG_ELCL_REMOVEALL));
+        }
+        return actionRemove;
+    }
+
+    private void updateActions() {
+        boolean cancelable = false;
+        IStructuredSelection selection = (IStructuredSelection) viewer.getSelection();
+        Iterator<?> iter = selection.iterator();
+        while (iter.hasNext()) {
+            cancelable |= !((ProcessJob) iter.next()).isFinished();
+        }
+        getCancelAction().setEnabled(cancelable);
+    }
+
+    @Override
+    public void setFocus() {
+        viewer.getControl().setFocus();
+    }
+
+    @Override
+    public void dispose() {
+        ProcessJobScheduler.getDefault().removeProcessJobListener(jobListener);
+        viewer = null;
+        super.dispose();
+    }
+
+    static String formatElapsedTime(long millis) {
+        long seconds = millis / 1000;
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, //$NON-NLS-1$
+                seconds % 60);
+    }
+
+    static final class JobLabelProvider extends LabelProvider implements ITableLabelProvider {
+        @Override
+        public Image getColumnImage(Object element, int columnIndex) {
+            return null;
+        }
+
+        @Override
+        public String getColumnText(Object element, int columnIndex) {
+            ProcessJob job = (ProcessJob) element;
+            switch (columnIndex) {
+            case 0:
+                return job.getName();
+            case 1:
+                return getStateText(job);
+            case 2:
+                long progress = Math.round(job.getProgress() * 100);
+                return progress < 0 ? "" : progress + "%"; //$NON-NLS-1$ //$NON-NLS-2$
+            case 3:
+                long elapsed = job.getElapsedTime();
+                return elapsed == 0 ? "" : formatElapsedTime(elapsed); //$NON-NLS-1$
+            default:
+                return null;
+            }
+        }
+
+        private String getStateText(ProcessJob job) {
+            switch (job.getState()) {
+            case QUEUED:
+                return Messages.ProcessJobView_Queued;
+            case RUNNING:
+                String taskName = job.getTaskName();
+                return taskName == null || taskName.isEmpty() ? Messages.ProcessJobView_Running
+                        : taskName;
+            case COMPLETED:
+                return Messages.ProcessJobView_Completed;
+            case CANCELED:
+                return Messages.ProcessJobView_Canceled;
+            default:
+                return Messages.ProcessJobView_Failed;
+            }
+        }
+    }
+}
@@ -26,6 +26,7 @@ import org.eclipse.ui.console.MessageConsole;
 import org.eclipse.ui.console.MessageConsoleStream;
 import org.eclipse.ui.internal.util.BundleUtility;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
+import org.geotools.factory.GeoTools;
 import org.geotools.process.spatialstatistics.storage.DataStoreFactory;
 import org.geotools.util.logging.Logging;
 import org.locationtech.udig.internal.ui.UiPlugin;
@@ -69,6 +70,9 @@ public class ToolboxPlugin extends AbstractUIPlugin {
 
         // setup default charset for shapefile
         DataStoreFactory.DEFAULT_CHARSET = defaultCharset();
+
+        // register the raster calculator functions(META-INF/services) with GeoTools
+        GeoTools.addClassLoader(ToolboxPlugin.class.getClassLoader());
     }
 
     /*
@@ -50,6 +50,10 @@ import org.geotools.util.logging.Logging;
 import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.ProcessExecutionDialog;
 import org.locationtech.udig.processingtoolbox.internal.ui.SettingsDialog;
+import org.locationtech.udig.processingtoolbox.jobs.ProcessJobScheduler;
+import org.locationtech.udig.processingtoolbox.storage.ProcessResultCache;
+import org.locationtech.udig.processingtoolbox.storage.RasterTileCache;
+import org.locationtech.udig.processingtoolbox.storage.TiledGeoTiffWriter;
 import org.locationtech.udig.processingtoolbox.tools.AmoebaWizard;
 import org.locationtech.udig.processingtoolbox.tools.AmoebaWizardDialog;
 import org.locationtech.udig.processingtoolbox.tools.BatchClipFeaturesDialog;
@@ -104,6 +108,20 @@ public class ToolboxView extends ViewPart implements ISetSelectionTarget {
     
     private static String lastSaveLocation;
 
+    private static Integer rasterBlockSize = TiledGeoTiffWriter.DEFAULT_BLOCK_SIZE;
+
+    private static Boolean buildOverviews = Boolean.TRUE;
+
+    private static Integer rasterMemoryBudget = RasterTileCache.getDefaultMemoryBudget();
+
+    private static Integer maxConcurrentJobs = ProcessJobScheduler.getDefaultConcurrentJobs();
+
+    private static Integer resultCacheSize = ProcessResultCache.DEFAULT_CAPACITY;
+
+    private static Boolean buildSpatialIndex = Boolean.TRUE;
+
+    private static Boolean buildFidIndex = Boolean.FALSE;
+
     private TreeViewer viewer;
 
     private IAction actionEnv;
@@ -137,9 +155,28 @@ public class ToolboxView extends ViewPart implements ISetSelectionTarget {
             ToolboxView.setAddLayerAutomatically(Boolean.parseBoolean(params[4]));
             ToolboxView.setMandatoryParameterOnly(Boolean.parseBoolean(params[5]));
             ToolboxView.setRetainLastSaveLocation(Boolean.parseBoolean(params[6]));
+            if (params.length > 8) {
+                ToolboxView.setRasterBlockSize(Integer.valueOf(params[7]));
+                ToolboxView.setBuildOverviews(Boolean.parseBoolean(params[8]));
+            }
+            if (params.length > 9) {
+                ToolboxView.setRasterMemoryBudget(Integer.valueOf(params[9]));
+            }
+            if (params.length > 10) {
+                ToolboxView.setMaxConcurrentJobs(Integer.valueOf(params[10]));
+            }
+            if (params.length > 11) {
+                ToolboxView.setResultCacheSize(Integer.valueOf(params[11]));
+            }
+            if (params.length > 13) {
+                ToolboxView.setBuildSpatialIndex(Boolean.parseBoolean(params[12]));
+                ToolboxView.setBuildFidIndex(Boolean.parseBoolean(params[13]));
+            }
         } else {
             setDefaultWorkspace();
         }
+        RasterTileCache.setMemoryBudget(rasterMemoryBudget);
+        ProcessJobScheduler.getDefault().setMaxConcurrentJobs(maxConcurrentJobs);
     }
 
     public static String getWorkspace() {
@@ -154,6 +191,16 @@ public class ToolboxView extends ViewPart implements ISetSelectionTarget {
         }
     }
 
+    /**
+     * @return the workspace folder, regardless of the last save location
+     */
+    public static String getWorkspaceFolder() {
+        if (ToolboxView.workspace == null) {
+            setDefaultWorkspace();
+        }
+        return ToolboxView.workspace;
+    }
+
     private static void setDefaultWorkspace() {
         // default workspace
         String userhome = System.getProperty("user.home"); //$NON-NLS-1$
@@ -232,6 +279,62 @@ public class ToolboxView extends ViewPart implements ISetSelectionTarget {
         ToolboxView.retainLastSaveLocation = retainLastSaveLocation;
     }
 
+    public static Integer getRasterBlockSize() {
+        return rasterBlockSize;
+    }
+
+    public static void setRasterBlockSize(Integer rasterBlockSize) {
+        ToolboxView.rasterBlockSize = rasterBlockSize;
+    }
+
+    public static Boolean getBuildOverviews() {
+        return buildOverviews;
+    }
+
+    public static void setBuildOverviews(Boolean buildOverviews) {
+        ToolboxView.buildOverviews = buildOverviews;
+    }
+
+    public static Integer getRasterMemoryBudget() {
+        return rasterMemoryBudget;
+    }
+
+    public static void setRasterMemoryBudget(Integer rasterMemoryBudget) {
+        ToolboxView.rasterMemoryBudget = rasterMemoryBudget;
+    }
+
+    public static Integer getMaxConcurrentJobs() {
+        return maxConcurrentJobs;
+    }
+
+    public static void setMaxConcurrentJobs(Integer maxConcurrentJobs) {
+        ToolboxView.maxConcurrentJobs = maxConcurrentJobs;
+    }
+
+    public static Integer getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    public static void setResultCacheSize(Integer resultCacheSize) {
+        ToolboxView.resultCacheSize = resultCacheSize;
+    }
+
+    public static Boolean getBuildSpatialIndex() {
+        return buildSpatialIndex;
+    }
+
+    public static void setBuildSpatialIndex(Boolean buildSpatialIndex) {
+        ToolboxView.buildSpatialIndex = buildSpatialIndex;
+    }
+
+    public static Boolean getBuildFidIndex() {
+        return buildFidIndex;
+    }
+
+    public static void setBuildFidIndex(Boolean buildFidIndex) {
+        ToolboxView.buildFidIndex = buildFidIndex;
+    }
+
     public static String getLastSaveLocation() {
         return lastSaveLocation;
     }
@@ -244,8 +347,8 @@ public class ToolboxView extends ViewPart implements ISetSelectionTarget {
     public void dispose() {
         // save settings
         String[] params = settings.getArray(ENV_SETTING);
-        if (params == null) {
-            params = new String[7];
+        if (params == null || params.length < 14) {
+            params = new String[14];
         }
         
         params[0] = ToolboxView.getWorkspace();
@@ -255,6 +358,13 @@ public class ToolboxView extends ViewPart implements ISetSelectionTarget {
         params[4] = Boolean.toString(ToolboxView.getAddLayerAutomatically());
         params[5] = Boolean.toString(ToolboxView.getMandatoryParameterOnly());
         params[6] = Boolean.toString(ToolboxView.getRetainLastSaveLocation());
+        params[7] = Integer.toString(ToolboxView.getRasterBlockSize());
+        params[8] = Boolean.toString(ToolboxView.getBuildOverviews());
+        params[9] = Integer.toString(ToolboxView.getRasterMemoryBudget());
+        params[10] = Integer.toString(ToolboxView.getMaxConcurrentJobs());
+        params[11] = Integer.toString(ToolboxView.getResultCacheSize());
+        params[12] = Boolean.toString(ToolboxView.getBuildSpatialIndex());
+        params[13] = Boolean.toString(ToolboxView.getBuildFidIndex());
         
         settings.put(ENV_SETTING, params);
         
@@ -159,6 +159,8 @@ public class Messages extends NLS {
     public static String FormatConversionDialog_Type;
     public static String FormatConversionDialog_CRS;
     public static String FormatConversionDialog_Format;
+    public static String FormatConversionDialog_Decimals;
+    public static String FormatConversionDialog_Exported;
     public static String FormatConversionDialog_Warning;
 
     public static String General_Cancelled;
@@ -243,6 +245,7 @@ public class Messages extends NLS {
     public static String OutputDataViewer_outputdata;
     public static String OutputDataViewer_outputlocation;
     public static String OutputDataViewer_selectdata;
+    public static String OutputDataViewer_temporary;
     
     public static String ProcessInformation_Others;
 
@@ -255,6 +258,17 @@ public class Messages extends NLS {
     public static String ProcessExecutionDialog_tabparameters;
     public static String ProcessExecutionDialog_Yes;
     public static String ProcessExecutionDialog_No;
+    public static String ProcessJobView_Process;
+    public static String ProcessJobView_Status;
+    public static String ProcessJobView_Progress;
+    public static String ProcessJobView_Elapsed;
+    public static String ProcessJobView_Cancel;
+    public static String ProcessJobView_RemoveFinished;
+    public static String ProcessJobView_Queued;
+    public static String ProcessJobView_Running;
+    public static String ProcessJobView_Completed;
+    public static String ProcessJobView_Canceled;
+    public static String ProcessJobView_Failed;
     
     public static String ProcessDescriptor_Input_Parameters;
     public static String ProcessDescriptor_Output_Parameters;
@@ -292,6 +306,15 @@ public class Messages extends NLS {
     public static String RasterCalculatorDialog_Minimum;
     public static String RasterCalculatorDialog_LayersandFunctions;
     public static String RasterCalculatorDialog_RasterLayers;
+    public static String RasterCalculatorDialog_MultiBand;
+    public static String RasterCalculatorDialog_SampleType;
+    public static String RasterCalculatorDialog_Compression;
+    public static String RasterCalculatorDialog_None;
+    public static String RasterCalculatorDialog_Preview;
+    public static String RasterCalculatorDialog_PreviewStatus;
+    public static String RasterCalculatorDialog_PreviewUnavailable;
+    public static String RasterCalculatorDialog_PreviewTimeout;
+    public static String RasterCalculatorDialog_FocalFunction;
     
     public static String ScatterPlotDialog_title;
     public static String ScatterPlotDialog_description;
@@ -312,6 +335,16 @@ public class Messages extends NLS {
     public static String SettingsDialog_AddLayerAuto;
     public static String SettingsDialog_MandatoryParameter;  
     public static String SettingsDialog_RetainLastLocation;  
+    public static String SettingsDialog_RasterOutput;
+    public static String SettingsDialog_BlockSize;
+    public static String SettingsDialog_BuildOverviews;
+    public static String SettingsDialog_MemoryBudget;
+    public static String SettingsDialog_ProcessJobs;
+    public static String SettingsDialog_ConcurrentJobs;
+    public static String SettingsDialog_ResultCache;
+    public static String SettingsDialog_FeatureOutput;
+    public static String SettingsDialog_BuildSpatialIndex;
+    public static String SettingsDialog_BuildFidIndex;
     
     public static String SpatialWeightsMatrixDialog_title;
     public static String SpatialWeightsMatrixDialog_description;
@@ -367,6 +400,11 @@ public class Messages extends NLS {
     public static String Task_AddingLayer;
     public static String Task_Canceled;
     public static String Task_Completed;
+    public static String Task_TileCache;
+    public static String Task_CachedResult;
+    public static String Task_PipelineStep;
+    public static String Task_TemporaryOutput;
+    public static String Task_BuildingIndex;
     public static String Task_ParameterRequired;
     public static String Task_ConfirmErrorFile;
     public static String Task_CheckFile;
@@ -81,8 +81,8 @@ public class OutputLocationWidget extends AbstractToolboxWidget {
             fileExtension = ".tif";
             break;
         case SHAPEFILE:
-            fileNames = new String[] { "ESRI Shapefile (*.shp)" };
-            fileExtensions = new String[] { "*.shp" };
+            fileNames = new String[] { "ESRI Shapefile (*.shp)", "FlatGeobuf (*.fgb)" };
+            fileExtensions = new String[] { "*.shp", "*.fgb" };
             fileExtension = ".shp";
             break;
         case WEIGHT_MATRIX:
@@ -133,6 +133,13 @@ public class OutputLocationWidget extends AbstractToolboxWidget {
         return new File(directory, prefix + String.format("%02d", max) + fileExtension);
     }
 
+    /**
+     * @return true if the result is added to the map as a temporary layer when the path is empty
+     */
+    private boolean isTemporaryAllowed() {
+        return fileDataType == FileDataType.SHAPEFILE || fileDataType == FileDataType.RASTER;
+    }
+
     public void create(final Composite parent, final int style,
             final Map<String, Object> processParams, final Parameter<?> param) {
         composite = new Composite(parent, style);
@@ -163,6 +170,9 @@ public class OutputLocationWidget extends AbstractToolboxWidget {
         txtPath = new Text(composite, SWT.BORDER);
         txtPath.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1));
         txtPath.setData(param.key);
+        if (isTemporaryAllowed()) {
+            txtPath.setToolTipText(Messages.OutputDataViewer_temporary);
+        }
 
         final Color oldBackColor = txtPath.getBackground();
         txtPath.addModifyListener(new ModifyListener() {
@@ -170,6 +180,9 @@ public class OutputLocationWidget extends AbstractToolboxWidget {
             public void modifyText(ModifyEvent e) {
                 if (txtPath.getText().length() == 0) {
                     txtPath.setBackground(oldBackColor);
+                    if (isTemporaryAllowed()) {
+                        processParams.put(param.key, null); // temporary layer
+                    }
                 } else {
                     processParams.put(param.key, txtPath.getText());
                 }
@@ -10,15 +10,15 @@
 package org.locationtech.udig.processingtoolbox.internal.ui;
 
 import java.io.File;
-import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
 import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.jface.dialogs.ProgressMonitorDialog;
 import org.eclipse.jface.dialogs.TitleAreaDialog;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.browser.Browser;
@@ -45,10 +45,13 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.process.ProcessFactory;
 import org.geotools.process.spatialstatistics.core.Params;
 import org.geotools.util.logging.Logging;
+import org.locationtech.udig.processingtoolbox.ProcessJobView;
 import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
 import org.locationtech.udig.processingtoolbox.ToolboxView;
 import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget.FileDataType;
+import org.locationtech.udig.processingtoolbox.jobs.ProcessJob;
+import org.locationtech.udig.processingtoolbox.jobs.ProcessJobScheduler;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils;
 import org.locationtech.udig.processingtoolbox.styler.ProcessExecutorOperation;
 import org.locationtech.udig.processingtoolbox.tools.HtmlWriter;
@@ -417,7 +420,11 @@ public class ProcessExecutionDialog extends TitleAreaDialog {
 
     private boolean validOutput() {
         for (Entry<String, Object> entrySet : outputParams.entrySet()) {
-            File outputFile = new File(outputParams.get(entrySet.getKey()).toString());
+            if (entrySet.getValue() == null) {
+                continue; // temporary layer
+            }
+
+            File outputFile = new File(entrySet.getValue().toString());
             if (!outputFile.exists()) {
                 continue;
             }
@@ -457,26 +464,36 @@ public class ProcessExecutionDialog extends TitleAreaDialog {
             return;
         }
 
-        ProcessExecutorOperation runnable = new ProcessExecutorOperation(map, factory, processName,
-                inputParams, outputParams);
-        try {
-            new ProgressMonitorDialog(getParentShell()).run(true, true, runnable);
-        } catch (InvocationTargetException e) {
-            ToolboxPlugin.log(e.getMessage());
-            MessageDialog.openError(getParentShell(), Messages.General_Error, e.getMessage());
-        } catch (InterruptedException e) {
-            ToolboxPlugin.log(e.getMessage());
-            MessageDialog.openInformation(getParentShell(), Messages.General_Cancelled,
-                    e.getMessage());
+        // the parameters are copied, the dialog can be reused while the job runs
+        final ProcessExecutorOperation runnable = new ProcessExecutorOperation(map, factory,
+                processName, new HashMap<String, Object>(inputParams),
+                new HashMap<String, Object>(outputParams));
+        ProcessJob job = new ProcessJob(windowTitle, runnable);
+        if (outputTabRequired) {
+            job.addJobChangeListener(new JobChangeAdapter() {
+                @Override
+                public void done(IJobChangeEvent event) {
+                    final String outputText = runnable.getOutputText();
+                    if (outputText.length() == 0 || browser.isDisposed()) {
+                        return;
+                    }
+
+                    browser.getDisplay().asyncExec(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!browser.isDisposed()) {
+                                outputTab.getParent().setSelection(outputTab);
+                                browser.setText(outputText);
+                            }
+                        }
+                    });
+                }
+            });
         }
+        ProcessJobScheduler.getDefault().submit(job);
+        ProcessJobView.showView();
 
-        if (outputTabRequired) {
-            String outputText = runnable.getOutputText();
-            if (outputText.length() > 0) {
-                outputTab.getParent().setSelection(outputTab);
-                browser.setText(outputText);
-            }
-        } else {
+        if (!outputTabRequired) {
             super.okPressed();
             LayersView.getViewPart()
                     .setCurrentMap((org.locationtech.udig.project.internal.Map) map);
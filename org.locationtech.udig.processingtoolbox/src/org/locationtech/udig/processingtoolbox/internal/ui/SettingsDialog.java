@@ -22,17 +22,22 @@ import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.DirectoryDialog;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Spinner;
 import org.eclipse.swt.widgets.Text;
 import org.eclipse.swt.widgets.Widget;
 import org.geotools.util.logging.Logging;
 import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
 import org.locationtech.udig.processingtoolbox.ToolboxView;
 import org.locationtech.udig.processingtoolbox.internal.Messages;
+import org.locationtech.udig.processingtoolbox.jobs.ProcessJobScheduler;
+import org.locationtech.udig.processingtoolbox.storage.RasterTileCache;
 
 /**
  * Setting Dialog
@@ -48,6 +53,22 @@ public class SettingsDialog extends Dialog {
 
     private Text txtWorkspace;
 
+    private Combo cboBlockSize;
+
+    private Button chkOverviews;
+
+    private Spinner spnMemoryBudget;
+
+    private Spinner spnConcurrentJobs;
+
+    private Spinner spnResultCache;
+
+    private Button chkSpatialIndex;
+
+    private Button chkFidIndex;
+
+    private static final int[] BLOCK_SIZES = { 128, 256, 512, 1024 };
+
     public SettingsDialog(Shell parentShell) {
         super(parentShell);
 
@@ -63,7 +84,7 @@ public class SettingsDialog extends Dialog {
 
     @Override
     protected Point getInitialSize() {
-        return ToolboxPlugin.rescaleSize(getShell(), 550, 300);
+        return ToolboxPlugin.rescaleSize(getShell(), 550, 360);
     }
 
     @Override
@@ -136,7 +157,66 @@ public class SettingsDialog extends Dialog {
         advancedComposite.setLayout(new GridLayout(4, false));
         advancedComposite.setLayoutData(new GridData(GridData.FILL_BOTH));
 
-        // 2.1 Process management - register & load...
+        // 2.1 raster output: GeoTIFF block size & internal overviews
+        Group grpRaster = widget.createGroup(advancedComposite,
+                Messages.SettingsDialog_RasterOutput, false, 4);
+
+        widget.createLabel(grpRaster, Messages.SettingsDialog_BlockSize, null, 1);
+        cboBlockSize = widget.createCombo(grpRaster, 1, true);
+        for (int blockSize : BLOCK_SIZES) {
+            cboBlockSize.add(Integer.toString(blockSize));
+            if (blockSize == ToolboxView.getRasterBlockSize()) {
+                cboBlockSize.select(cboBlockSize.getItemCount() - 1);
+            }
+        }
+        if (cboBlockSize.getSelectionIndex() == -1) {
+            cboBlockSize.select(1);
+        }
+        cboBlockSize.addSelectionListener(selectionListener);
+
+        chkOverviews = widget.createCheckbox(grpRaster, Messages.SettingsDialog_BuildOverviews,
+                null, 2);
+        chkOverviews.setSelection(ToolboxView.getBuildOverviews());
+        chkOverviews.addSelectionListener(selectionListener);
+
+        // JAI tile cache & DiskMemImage spill threshold
+        widget.createLabel(grpRaster, Messages.SettingsDialog_MemoryBudget, null, 1);
+        spnMemoryBudget = widget.createSpinner(grpRaster, ToolboxView.getRasterMemoryBudget(),
+                RasterTileCache.MIN_MEMORY_BUDGET, RasterTileCache.getMaximumMemoryBudget(), 0,
+                32, 256, 1);
+        spnMemoryBudget.addSelectionListener(selectionListener);
+
+        // 2.2 background process jobs
+        Group grpJobs = widget.createGroup(advancedComposite,
+                Messages.SettingsDialog_ProcessJobs, false, 4);
+
+        widget.createLabel(grpJobs, Messages.SettingsDialog_ConcurrentJobs, null, 1);
+        int processors = Runtime.getRuntime().availableProcessors();
+        spnConcurrentJobs = widget.createSpinner(grpJobs, ToolboxView.getMaxConcurrentJobs(), 1,
+                Math.max(processors, ToolboxView.getMaxConcurrentJobs()), 0, 1, 2, 1);
+        spnConcurrentJobs.addSelectionListener(selectionListener);
+
+        widget.createLabel(grpJobs, Messages.SettingsDialog_ResultCache, null, 1);
+        spnResultCache = widget.createSpinner(grpJobs, ToolboxView.getResultCacheSize(), 0,
+                1024 * 1024, 0, 256, 1024, 1);
+        spnResultCache.addSelectionListener(selectionListener);
+
+        // 2.3 feature output: shapefile indexes
+        Group grpFeatures = widget.createGroup(advancedComposite,
+                Messages.SettingsDialog_FeatureOutput, false, 4);
+
+        chkSpatialIndex = widget.createCheckbox(grpFeatures,
+                Messages.SettingsDialog_BuildSpatialIndex, null, 2);
+        chkSpatialIndex.setSelection(ToolboxView.getBuildSpatialIndex());
+        chkSpatialIndex.addSelectionListener(selectionListener);
+
+        chkFidIndex = widget.createCheckbox(grpFeatures, Messages.SettingsDialog_BuildFidIndex,
+                null, 2);
+        chkFidIndex.setSelection(ToolboxView.getBuildFidIndex());
+        chkFidIndex.setEnabled(ToolboxView.getBuildSpatialIndex());
+        chkFidIndex.addSelectionListener(selectionListener);
+
+        // 2.4 Process management - register & load...
         // TODO:
         // widget.createLabel(advancedComposite, "", null, 4);
 
@@ -162,6 +242,27 @@ public class SettingsDialog extends Dialog {
                 ToolboxView.setMandatoryParameterOnly(chkMandatoryParameter.getSelection());
             } else if (widget.equals(chkLastLocation)) {
                 ToolboxView.setRetainLastSaveLocation(chkLastLocation.getSelection());
+            } else if (widget.equals(cboBlockSize)) {
+                int index = cboBlockSize.getSelectionIndex();
+                if (index != -1) {
+                    ToolboxView.setRasterBlockSize(BLOCK_SIZES[index]);
+                }
+            } else if (widget.equals(chkOverviews)) {
+                ToolboxView.setBuildOverviews(chkOverviews.getSelection());
+            } else if (widget.equals(spnMemoryBudget)) {
+                ToolboxView.setRasterMemoryBudget(spnMemoryBudget.getSelection());
+                RasterTileCache.setMemoryBudget(spnMemoryBudget.getSelection());
+            } else if (widget.equals(spnConcurrentJobs)) {
+                ToolboxView.setMaxConcurrentJobs(spnConcurrentJobs.getSelection());
+                ProcessJobScheduler.getDefault().setMaxConcurrentJobs(
+                        spnConcurrentJobs.getSelection());
+            } else if (widget.equals(spnResultCache)) {
+                ToolboxView.setResultCacheSize(spnResultCache.getSelection());
+            } else if (widget.equals(chkSpatialIndex)) {
+                ToolboxView.setBuildSpatialIndex(chkSpatialIndex.getSelection());
+                chkFidIndex.setEnabled(chkSpatialIndex.getSelection());
+            } else if (widget.equals(chkFidIndex)) {
+                ToolboxView.setBuildFidIndex(chkFidIndex.getSelection());
             } else if (widget.equals(btnOpen)) {
                 final Shell shell = Display.getCurrent().getActiveShell();
                 DirectoryDialog dirDialog = new DirectoryDialog(shell);
@@ -0,0 +1,213 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.jobs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.process.spatialstatistics.storage.IFeatureInserter;
+import org.geotools.process.spatialstatistics.transformation.GXTSimpleFeatureCollection;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.processingtoolbox.storage.CancelableFeatureInserter;
+import org.locationtech.udig.processingtoolbox.storage.ProcessResultCache;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+import org.opengis.util.ProgressListener;
+
+/**
+ * Cancellation state of a toolbox operation, shared by its loops, its feature writers and its
+ * worker threads.
+ * <p>
+ * The token reads the cancel flag of the progress monitor or listener of the operation, the
+ * loops call {@link #checkCanceled()} once per feature, row or layer, so that a cancel request
+ * stops the work within one iteration. The files being written, between
+ * {@link #beginOutput(File)} and {@link #endOutput(File)}, are deleted with their sidecars by
+ * {@link #deleteOutputs()} when the operation was canceled.
+ * 
+ * <pre>
+ * CancellationToken token = CancellationToken.of(monitor);
+ * try {
+ *     token.beginOutput(outputFile);
+ *     export.execute(token.wrap(features));
+ *     token.endOutput(outputFile);
+ * } catch (OperationCanceledException e) {
+ *     token.deleteOutputs();
+ *     throw new InterruptedException(Messages.General_Cancelled);
+ * }
+ * </pre>
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class CancellationToken {
+    protected static final Logger LOGGER = Logging.getLogger(CancellationToken.class);
+
+    private final IProgressMonitor monitor;
+
+    private final ProgressListener listener;
+
+    private final List<File> outputs = new ArrayList<File>();
+
+    private volatile boolean canceled = false;
+
+    private CancellationToken(IProgressMonitor monitor, ProgressListener listener) {
+        this.monitor = monitor;
+        this.listener = listener;
+    }
+
+    /**
+     * @param monitor progress monitor of the operation, or null
+     */
+    public static CancellationToken of(IProgressMonitor monitor) {
+        return new CancellationToken(monitor, null);
+    }
+
+    /**
+     * @param listener progress listener of the operation, or null
+     */
+    public static CancellationToken of(ProgressListener listener) {
+        return new CancellationToken(null, listener);
+    }
+
+    /**
+     * Cancels the operation, e.g. when one of its worker threads failed
+     */
+    public void cancel() {
+        canceled = true;
+    }
+
+    public boolean isCanceled() {
+        if (!canceled) {
+            canceled = (monitor != null && monitor.isCanceled())
+                    || (listener != null && listener.isCanceled());
+        }
+        return canceled;
+    }
+
+    /**
+     * @throws OperationCanceledException if the operation was canceled
+     */
+    public void checkCanceled() throws OperationCanceledException {
+        if (isCanceled()) {
+            throw new OperationCanceledException();
+        }
+    }
+
+    /**
+     * Registers a file the operation starts to write, deleted if the operation is canceled
+     */
+    public void beginOutput(File file) {
+        synchronized (outputs) {
+            outputs.add(file);
+        }
+    }
+
+    /**
+     * Unregisters a file completely written, kept if the operation is canceled later
+     * 
+     * @throws OperationCanceledException if the operation was canceled while the file was
+     *         written, a writer may stop silently on cancel and leave an incomplete file
+     */
+    public void endOutput(File file) throws OperationCanceledException {
+        checkCanceled();
+        synchronized (outputs) {
+            outputs.remove(file);
+        }
+    }
+
+    /**
+     * Deletes the files being written and their sidecars if the operation was canceled
+     * 
+     * @return true if the operation was canceled
+     */
+    public boolean deleteOutputs() {
+        if (!isCanceled()) {
+            return false;
+        }
+
+        synchronized (outputs) {
+            for (File output : outputs) {
+                for (File file : ProcessResultCache.getSidecarFiles(output)) {
+                    if (!file.delete()) {
+                        LOGGER.log(Level.WARNING, "Failed to delete " + file); //$NON-NLS-1$
+                    }
+                }
+            }
+            outputs.clear();
+        }
+        return true;
+    }
+
+    /**
+     * @return feature writer checking the cancellation before each write, the transaction of the
+     *         writer is rolled back when the operation is canceled
+     */
+    public IFeatureInserter wrap(IFeatureInserter featureWriter) {
+        return new CancelableFeatureInserter(featureWriter, this);
+    }
+
+    /**
+     * @return feature collection whose iterators check the cancellation before each feature, so
+     *         that the writers reading it stop when the operation is canceled
+     */
+    public SimpleFeatureCollection wrap(SimpleFeatureCollection features) {
+        return new CancelableFeatureCollection(features);
+    }
+
+    final class CancelableFeatureCollection extends GXTSimpleFeatureCollection {
+
+        CancelableFeatureCollection(SimpleFeatureCollection delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            return new CancelableFeatureIterator(delegate.features());
+        }
+
+        @Override
+        public SimpleFeatureCollection subCollection(Filter filter) {
+            return new CancelableFeatureCollection(delegate.subCollection(filter));
+        }
+    }
+
+    final class CancelableFeatureIterator implements SimpleFeatureIterator {
+        private final SimpleFeatureIterator delegate;
+
+        CancelableFeatureIterator(SimpleFeatureIterator delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            checkCanceled();
+            return delegate.hasNext();
+        }
+
+        @Override
+        public SimpleFeature next() throws NoSuchElementException {
+            return delegate.next();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+}
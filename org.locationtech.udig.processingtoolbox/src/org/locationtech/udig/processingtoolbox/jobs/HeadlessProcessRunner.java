@@ -0,0 +1,677 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.GridFormatFinder;
+import org.geotools.coverage.grid.io.UnknownFormat;
+import org.geotools.data.DataStore;
+import org.geotools.data.Parameter;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.Hints;
+import org.geotools.feature.NameImpl;
+import org.geotools.filter.text.cql2.CQLException;
+import org.geotools.filter.text.ecql.ECQL;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.ProcessFactory;
+import org.geotools.process.Processors;
+import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
+import org.geotools.util.NullProgressListener;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.catalog.util.GeoToolsAdapters;
+import org.locationtech.udig.processingtoolbox.jobs.ProcessPipeline.Step;
+import org.locationtech.udig.processingtoolbox.storage.ProcessOutputHandler;
+import org.locationtech.udig.processingtoolbox.storage.ProcessOutputWriter;
+import org.locationtech.udig.processingtoolbox.storage.RasterStatistics;
+import org.locationtech.udig.processingtoolbox.storage.ShapefileIndexBuilder;
+import org.locationtech.udig.processingtoolbox.storage.TiledGeoTiffWriter;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.Expression;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Runs toolbox processes without the workbench: inputs are read from files or converted from
+ * text, results are written by {@link ProcessOutputWriter} like in the toolbox, but no layer is
+ * added to a map.
+ * <p>
+ * A request runs one process or a chain of processes, in which an input value
+ * <code>@n.key</code> refers to the result <code>key</code> of step <code>n</code> (1-based).
+ * Requests of a batch run concurrently on a fixed number of threads.
+ * 
+ * <pre>
+ * HeadlessProcessRunner runner = new HeadlessProcessRunner();
+ * Request request = new Request(&quot;statistics:BufferExpression&quot;)
+ *         .input(&quot;inputFeatures&quot;, &quot;/data/roads.shp&quot;)
+ *         .input(&quot;distance&quot;, &quot;100&quot;)
+ *         .output(&quot;result&quot;, &quot;/data/roads_buffer.shp&quot;);
+ * Result result = runner.run(request);
+ * </pre>
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class HeadlessProcessRunner {
+    protected static final Logger LOGGER = Logging.getLogger(HeadlessProcessRunner.class);
+
+    static final Pattern STEP_OUTPUT = Pattern.compile("@(\\d+)\\.(\\w+)");
+
+    /**
+     * One process, or a chain of processes, with its input values and output files
+     */
+    public static final class Request {
+        private final List<String> processNames = new ArrayList<String>();
+
+        private final List<Map<String, Object>> inputs = new ArrayList<Map<String, Object>>();
+
+        private final Map<String, String> outputs = new LinkedHashMap<String, String>();
+
+        public Request(String processName) {
+            then(processName);
+        }
+
+        /**
+         * Appends a process, whose inputs may refer to the results of the previous steps
+         */
+        public Request then(String processName) {
+            processNames.add(processName);
+            inputs.add(new LinkedHashMap<String, Object>());
+            return this;
+        }
+
+        /**
+         * Sets an input of the last appended process, a repeated key makes a list
+         * 
+         * @param value text converted to the parameter type, a list of texts or a typed value
+         */
+        @SuppressWarnings("unchecked")
+        public Request input(String key, Object value) {
+            Map<String, Object> stepInputs = inputs.get(inputs.size() - 1);
+            Object current = stepInputs.get(key);
+            if (current == null) {
+                stepInputs.put(key, value);
+            } else if (current instanceof List<?>) {
+                ((List<Object>) current).add(value);
+            } else {
+                List<Object> values = new ArrayList<Object>();
+                values.add(current);
+                values.add(value);
+                stepInputs.put(key, values);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the output file of a result of the last process, a text result is written as HTML
+         */
+        public Request output(String key, String path) {
+            outputs.put(key, path);
+            return this;
+        }
+
+        public List<String> getProcessNames() {
+            return Collections.unmodifiableList(processNames);
+        }
+
+        public Map<String, String> getOutputs() {
+            return Collections.unmodifiableMap(outputs);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (String processName : processNames) {
+                sb.append(sb.length() == 0 ? "" : " > ").append(processName);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Outcome of a request
+     */
+    public static final class Result {
+        private final Request request;
+
+        private String status = ProcessProfiler.FAILED;
+
+        private String message;
+
+        private long elapsedTime;
+
+        private final Map<String, File> files = new LinkedHashMap<String, File>();
+
+        private final StringBuilder text = new StringBuilder();
+
+        Result(Request request) {
+            this.request = request;
+        }
+
+        public Request getRequest() {
+            return request;
+        }
+
+        /**
+         * @return {@link ProcessProfiler#COMPLETED}, {@link ProcessProfiler#CANCELED} or
+         *         {@link ProcessProfiler#FAILED}
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        public boolean isCompleted() {
+            return ProcessProfiler.COMPLETED.equals(status);
+        }
+
+        /**
+         * @return error message of a failed request
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return elapsed time in milliseconds
+         */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+
+        /**
+         * @return written files by result key
+         */
+        public Map<String, File> getFiles() {
+            return files;
+        }
+
+        /**
+         * @return HTML of the text results without an output file
+         */
+        public String getText() {
+            return text.toString();
+        }
+    }
+
+    private String charset = "UTF-8";
+
+    private int rasterBlockSize = TiledGeoTiffWriter.DEFAULT_BLOCK_SIZE;
+
+    private boolean buildOverviews = true;
+
+    private boolean buildSpatialIndex = true;
+
+    private File outputFolder = new File(".");
+
+    private File historyFile;
+
+    private final Set<File> reservedFiles = new HashSet<File>();
+
+    public String getCharset() {
+        return charset;
+    }
+
+    /**
+     * @param charset DBF character set of the shapefiles read and written
+     */
+    public void setCharset(String charset) {
+        this.charset = charset;
+    }
+
+    public void setRasterBlockSize(int rasterBlockSize) {
+        this.rasterBlockSize = rasterBlockSize;
+    }
+
+    public void setBuildOverviews(boolean buildOverviews) {
+        this.buildOverviews = buildOverviews;
+    }
+
+    /**
+     * @param buildSpatialIndex true to build the .qix index of the shapefiles written
+     */
+    public void setBuildSpatialIndex(boolean buildSpatialIndex) {
+        this.buildSpatialIndex = buildSpatialIndex;
+    }
+
+    public File getOutputFolder() {
+        return outputFolder;
+    }
+
+    /**
+     * @param outputFolder folder of the results without an output file
+     */
+    public void setOutputFolder(File outputFolder) {
+        this.outputFolder = outputFolder;
+    }
+
+    /**
+     * @param historyFile JSON lines file the run records are appended to, null for none
+     */
+    public void setHistoryFile(File historyFile) {
+        this.historyFile = historyFile;
+    }
+
+    /**
+     * @param processName qualified process name, e.g. statistics:BufferExpression
+     * @return the process name, or null if no process factory provides it
+     */
+    public static Name getProcessName(String processName) {
+        int pos = processName.indexOf(':');
+        Name name = pos < 0 ? new NameImpl(processName) : new NameImpl(processName.substring(0,
+                pos), processName.substring(pos + 1));
+        return Processors.createProcessFactory(name) == null ? null : name;
+    }
+
+    /**
+     * Runs the requests on a fixed number of threads
+     * 
+     * @return results in request order
+     */
+    public List<Result> runBatch(List<Request> requests, int threads) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>();
+            for (final Request request : requests) {
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws Exception {
+                        return run(request);
+                    }
+                }));
+            }
+
+            List<Result> results = new ArrayList<Result>();
+            for (int index = 0; index < futures.size(); index++) {
+                try {
+                    results.add(futures.get(index).get());
+                } catch (ExecutionException e) {
+                    Result result = new Result(requests.get(index));
+                    result.message = String.valueOf(e.getCause());
+                    results.add(result);
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public Result run(Request request) {
+        return run(request, new NullProgressMonitor());
+    }
+
+    public Result run(final Request request, IProgressMonitor monitor) {
+        final Result result = new Result(request);
+        final Resources resources = new Resources();
+        long startTime = System.currentTimeMillis();
+        try {
+            ProcessPipeline pipeline = new ProcessPipeline(null) {
+                @Override
+                protected void runLastStep(Step step, Map<String, Object> inputParams,
+                        IProgressMonitor monitor) throws InvocationTargetException,
+                        InterruptedException {
+                    try {
+                        execute(step, inputParams, request.outputs, result, resources,
+                                monitor);
+                    } catch (IOException e) {
+                        throw new InvocationTargetException(e, e.getMessage());
+                    }
+                }
+            };
+
+            for (int index = 0; index < request.processNames.size(); index++) {
+                Name processName = getProcessName(request.processNames.get(index));
+                if (processName == null) {
+                    throw new IllegalArgumentException(request.processNames.get(index)
+                            + " is not a process");
+                }
+                ProcessFactory factory = Processors.createProcessFactory(processName);
+                Map<String, Object> params = convert(factory, processName,
+                        request.inputs.get(index), pipeline.getSteps(), resources);
+                pipeline.addStep(factory, processName, params);
+            }
+
+            pipeline.run(monitor);
+            if (monitor.isCanceled()) {
+                result.status = ProcessProfiler.CANCELED;
+            }
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            result.message = cause.getMessage();
+            LOGGER.log(Level.WARNING, request + ": " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            result.status = ProcessProfiler.CANCELED;
+        } catch (IOException e) {
+            result.message = e.getMessage();
+            LOGGER.log(Level.WARNING, request + ": " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            result.message = e.getMessage();
+            LOGGER.log(Level.WARNING, request + ": " + e.getMessage(), e);
+        } finally {
+            resources.dispose();
+            result.elapsedTime = System.currentTimeMillis() - startTime;
+        }
+        return result;
+    }
+
+    private void execute(Step step, Map<String, Object> inputParams,
+            final Map<String, String> outputs, final Result result, final Resources resources,
+            IProgressMonitor monitor) throws IOException {
+        final ProcessFactory factory = step.getFactory();
+        final Name processName = step.getProcessName();
+        String title = factory.getTitle(processName).toString();
+
+        final ProcessProfiler profiler = new ProcessProfiler(processName.toString());
+        final ProcessOutputWriter writer = new ProcessOutputWriter(charset,
+                new TiledGeoTiffWriter(rasterBlockSize, buildOverviews));
+        String status = ProcessProfiler.FAILED;
+        try {
+            profiler.begin(ProcessProfiler.EXECUTE);
+            org.geotools.process.Process process = factory.create(processName);
+            Map<String, Object> values = process.execute(inputParams,
+                    GeoToolsAdapters.progress(monitor));
+            profiler.end(ProcessProfiler.EXECUTE);
+
+            new ProcessOutputHandler(title, processName.getLocalPart(), null) {
+                @Override
+                protected void handleText(String key, String html) throws IOException {
+                    if (outputs.containsKey(key)) {
+                        File file = new File(outputs.get(key));
+                        FileUtils.writeStringToFile(file, html, "UTF-8");
+                        result.files.put(key, file);
+                    } else {
+                        result.text.append(html);
+                    }
+                }
+
+                @Override
+                protected void handleCoverage(String key, GridCoverage2D coverage)
+                        throws IOException {
+                    File file = getOutputFile(factory, processName, key, coverage, outputs);
+                    RasterStatistics[] statistics = RasterStatistics.create(coverage
+                            .getNumSampleDimensions());
+                    resources.add(writer.writeCoverage(coverage, file, statistics, profiler));
+                    result.files.put(key, file);
+                }
+
+                @Override
+                protected void handleFeatures(String key, SimpleFeatureCollection features)
+                        throws IOException {
+                    File file = getOutputFile(factory, processName, key, features, outputs);
+                    profiler.begin(ProcessProfiler.WRITE);
+                    SimpleFeatureSource featureSource = writer.writeFeatures(features, file, null);
+                    long count = featureSource == null ? -1 : featureSource.getCount(Query.ALL);
+                    profiler.end(ProcessProfiler.WRITE, count, ProcessProfiler.FEATURES);
+                    if (featureSource == null || ProcessOutputWriter.isFlatGeobuf(file)) {
+                        result.files.put(key, file);
+                        return;
+                    }
+
+                    // the shapefile is closed before it is indexed
+                    featureSource.getDataStore().dispose();
+                    if (buildSpatialIndex) {
+                        ShapefileIndexBuilder.build(file, false, new NullProgressListener());
+                    }
+                    result.files.put(key, file);
+                }
+            }.handle(values);
+
+            profiler.addItems(ProcessProfiler.EXECUTE, profiler.getItems(ProcessProfiler.WRITE),
+                    profiler.getUnit(ProcessProfiler.WRITE));
+            status = monitor.isCanceled() ? ProcessProfiler.CANCELED : ProcessProfiler.COMPLETED;
+        } finally {
+            result.status = status;
+            for (String line : profiler.summary()) {
+                LOGGER.log(Level.INFO, processName + " " + line);
+            }
+            if (historyFile != null) {
+                profiler.writeHistory(historyFile, status);
+            }
+        }
+    }
+
+    /**
+     * @return the output file of a result, a new file in the output folder if not given
+     */
+    private File getOutputFile(ProcessFactory factory, Name processName, String key,
+            Object value, Map<String, String> outputs) {
+        if (outputs.containsKey(key)) {
+            return new File(outputs.get(key));
+        }
+
+        // same naming as the toolbox dialog
+        Map<String, Parameter<?>> resultInfo = factory.getResultInfo(processName, null);
+        String baseName = resultInfo.size() > 1 ? key : processName.getLocalPart().toLowerCase();
+        String extension = ProcessOutputWriter.getExtension(value.getClass());
+
+        synchronized (reservedFiles) {
+            File file = new File(outputFolder, baseName + extension);
+            for (int index = 1; file.exists() || reservedFiles.contains(file); index++) {
+                file = new File(outputFolder, baseName + "_" + index + extension);
+            }
+            reservedFiles.add(file);
+            return file;
+        }
+    }
+
+    private Map<String, Object> convert(ProcessFactory factory, Name processName,
+            Map<String, Object> values, List<Step> previous, Resources resources)
+            throws IOException {
+        Map<String, Parameter<?>> paramInfo = factory.getParameterInfo(processName);
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        for (Parameter<?> param : paramInfo.values()) {
+            if (param.sample != null) {
+                params.put(param.key, param.sample);
+            }
+        }
+
+        for (Entry<String, Object> entry : values.entrySet()) {
+            Parameter<?> param = paramInfo.get(entry.getKey());
+            if (param == null) {
+                throw new IllegalArgumentException(entry.getKey() + " is not a parameter of "
+                        + processName);
+            }
+            params.put(param.key, convert(param, entry.getValue(), previous, resources));
+        }
+
+        for (Parameter<?> param : paramInfo.values()) {
+            if (param.required && params.get(param.key) == null) {
+                throw new IllegalArgumentException(param.key + " of " + processName
+                        + " is required");
+            }
+        }
+        return params;
+    }
+
+    private Object convert(Parameter<?> param, Object value, List<Step> previous,
+            Resources resources) throws IOException {
+        if (value instanceof List<?>) {
+            List<Object> list = new ArrayList<Object>();
+            for (Object item : (List<?>) value) {
+                list.add(convert(param, item, previous, resources));
+            }
+            return list.size() == 1 && param.maxOccurs == 1 ? list.get(0) : list;
+        } else if (value == null || param.type.isInstance(value)) {
+            return value;
+        }
+
+        String text = value.toString().trim();
+        Matcher matcher = STEP_OUTPUT.matcher(text);
+        if (matcher.matches()) {
+            int step = Integer.parseInt(matcher.group(1));
+            if (step < 1 || step > previous.size()) {
+                throw new IllegalArgumentException(text + " does not refer to a previous step");
+            }
+            return previous.get(step - 1).getOutput(matcher.group(2));
+        }
+
+        Class<?> binding = param.type;
+        try {
+            if (SimpleFeatureCollection.class.isAssignableFrom(binding)) {
+                return readFeatures(new File(text), resources);
+            } else if (GridCoverage2D.class.isAssignableFrom(binding)) {
+                return readCoverage(new File(text), resources);
+            } else if (Geometry.class.isAssignableFrom(binding)) {
+                return new WKTReader().read(text);
+            } else if (CoordinateReferenceSystem.class.isAssignableFrom(binding)) {
+                return CRS.decode(text);
+            } else if (Filter.class.isAssignableFrom(binding)) {
+                return ECQL.toFilter(text);
+            } else if (Expression.class.isAssignableFrom(binding)) {
+                return ECQL.toExpression(text);
+            } else if (BoundingBox.class.isAssignableFrom(binding)) {
+                return toEnvelope(text);
+            } else if (binding.isEnum()) {
+                for (Object constant : binding.getEnumConstants()) {
+                    if (((Enum<?>) constant).name().equalsIgnoreCase(text)) {
+                        return constant;
+                    }
+                }
+            } else {
+                Object converted = Converters.convert(text, binding);
+                if (converted != null) {
+                    return converted;
+                }
+            }
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(param.key + ": " + e.getMessage(), e);
+        } catch (FactoryException e) {
+            throw new IllegalArgumentException(param.key + ": " + e.getMessage(), e);
+        } catch (CQLException e) {
+            throw new IllegalArgumentException(param.key + ": " + e.getMessage(), e);
+        }
+        throw new IllegalArgumentException(param.key + ": " + text + " is not a "
+                + binding.getSimpleName());
+    }
+
+    private SimpleFeatureCollection readFeatures(File file, Resources resources)
+            throws IOException {
+        if (!file.exists()) {
+            throw new IOException(file.getPath() + " does not exist");
+        }
+
+        ProcessOutputWriter reader = new ProcessOutputWriter(charset, null);
+        if (ProcessOutputWriter.isFlatGeobuf(file)) {
+            return reader.readFeatures(file); // each iterator opens and closes the file
+        }
+
+        DataStore dataStore = reader.openDataStore(file);
+        resources.add(dataStore);
+        String typeName = FilenameUtils.getBaseName(file.getPath());
+        return dataStore.getFeatureSource(typeName).getFeatures();
+    }
+
+    private GridCoverage2D readCoverage(File file, Resources resources) throws IOException {
+        AbstractGridFormat format = GridFormatFinder.findFormat(file);
+        if (format == null || format instanceof UnknownFormat) {
+            throw new IOException(file.getPath() + " is not a supported raster");
+        }
+
+        Hints hints = new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER, Boolean.TRUE);
+        GridCoverage2DReader reader = format.getReader(file, hints);
+        if (reader == null) {
+            throw new IOException(file.getPath() + " is not a supported raster");
+        }
+        resources.add(reader);
+
+        GridCoverage2D coverage = reader.read(null);
+        resources.add(coverage);
+        return coverage;
+    }
+
+    // minx,miny,maxx,maxy[,crs]
+    private ReferencedEnvelope toEnvelope(String text) throws FactoryException {
+        String[] values = text.split(",", 5);
+        if (values.length < 4) {
+            throw new IllegalArgumentException(text + " is not minx,miny,maxx,maxy[,crs]");
+        }
+
+        CoordinateReferenceSystem crs = null;
+        if (values.length > 4) {
+            crs = CRS.decode(values[4].trim());
+        }
+        return new ReferencedEnvelope(Double.parseDouble(values[0].trim()),
+                Double.parseDouble(values[2].trim()), Double.parseDouble(values[1].trim()),
+                Double.parseDouble(values[3].trim()), crs);
+    }
+
+    /**
+     * Readers, data stores and coverages opened by a request, disposed when the request ends
+     */
+    static final class Resources {
+        private final List<Object> resources = new ArrayList<Object>();
+
+        synchronized void add(Object resource) {
+            if (resource != null) {
+                resources.add(resource);
+            }
+        }
+
+        synchronized void dispose() {
+            // in reverse order: a coverage before its reader
+            for (int index = resources.size() - 1; index >= 0; index--) {
+                Object resource = resources.get(index);
+                try {
+                    if (resource instanceof GridCoverage2D) {
+                        ((GridCoverage2D) resource).dispose(true);
+                    } else if (resource instanceof GridCoverage2DReader) {
+                        ((GridCoverage2DReader) resource).dispose();
+                    } else if (resource instanceof DataStore) {
+                        ((DataStore) resource).dispose();
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, e.getMessage(), e);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.FINE, e.getMessage(), e);
+                }
+            }
+            resources.clear();
+        }
+    }
+}
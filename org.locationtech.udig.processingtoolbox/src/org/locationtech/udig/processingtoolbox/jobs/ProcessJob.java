@@ -0,0 +1,157 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.jobs;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.ProgressMonitorWrapper;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.operation.IRunnableWithProgress;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
+import org.locationtech.udig.processingtoolbox.styler.ProcessExecutorOperation;
+
+/**
+ * Background job running a {@link ProcessExecutorOperation} or a {@link ProcessPipeline},
+ * scheduled by {@link ProcessJobScheduler}.
+ * <p>
+ * The job keeps its state, progress and timing for the job list view. The operation adds its
+ * results to the map as before, from the worker thread.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class ProcessJob extends Job {
+    protected static final Logger LOGGER = Logging.getLogger(ProcessJob.class);
+
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, CANCELED, FAILED
+    }
+
+    private final IRunnableWithProgress operation;
+
+    private volatile State state = State.QUEUED;
+
+    private volatile String taskName;
+
+    private volatile double totalWork = 0;
+
+    private volatile double worked = 0;
+
+    private volatile long startTime = 0;
+
+    private volatile long endTime = 0;
+
+    public ProcessJob(String name, IRunnableWithProgress operation) {
+        super(name);
+        this.operation = operation;
+        this.taskName = name;
+    }
+
+    public IRunnableWithProgress getOperation() {
+        return operation;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    public String getTaskName() {
+        return taskName;
+    }
+
+    public boolean isFinished() {
+        return state != State.QUEUED && state != State.RUNNING;
+    }
+
+    /**
+     * @return progress between 0 and 1, or -1 if the total work is unknown
+     */
+    public double getProgress() {
+        if (state == State.COMPLETED) {
+            return 1.0;
+        }
+        return totalWork > 0 ? Math.min(1.0, worked / totalWork) : -1;
+    }
+
+    /**
+     * @return elapsed time in milliseconds since the job started running
+     */
+    public long getElapsedTime() {
+        if (startTime == 0) {
+            return 0;
+        }
+        return (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        state = State.RUNNING;
+        startTime = System.currentTimeMillis();
+        try {
+            operation.run(new ProgressMonitorWrapper(monitor) {
+                @Override
+                public void beginTask(String name, int total) {
+                    super.beginTask(name, total);
+                    totalWork = total;
+                    taskName = name;
+                }
+
+                @Override
+                public void setTaskName(String name) {
+                    super.setTaskName(name);
+                    taskName = name;
+                }
+
+                @Override
+                public void worked(int work) {
+                    internalWorked(work);
+                }
+
+                @Override
+                public void internalWorked(double work) {
+                    super.internalWorked(work);
+                    worked += work;
+                }
+            });
+
+            if (monitor.isCanceled()) {
+                state = State.CANCELED;
+                return Status.CANCEL_STATUS;
+            }
+            state = State.COMPLETED;
+            return Status.OK_STATUS;
+        } catch (InvocationTargetException e) {
+            state = State.FAILED;
+            LOGGER.log(Level.WARNING, e.getMessage(), e);
+            return new Status(IStatus.ERROR, ToolboxPlugin.PLUGIN_ID, e.getMessage(),
+                    e.getCause());
+        } catch (InterruptedException e) {
+            state = State.CANCELED;
+            return Status.CANCEL_STATUS;
+        } catch (RuntimeException e) {
+            state = State.FAILED;
+            LOGGER.log(Level.WARNING, e.getMessage(), e);
+            return new Status(IStatus.ERROR, ToolboxPlugin.PLUGIN_ID, e.getMessage(), e);
+        } finally {
+            endTime = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.jobs;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.IJobChangeListener;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.processingtoolbox.jobs.ProcessJob.State;
+
+/**
+ * Queues process jobs and runs at most a fixed number of them at the same time.
+ * <p>
+ * Jobs are started in submission order when a slot is free. Finished jobs are kept in the job
+ * list until they are removed by the user.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class ProcessJobScheduler {
+    protected static final Logger LOGGER = Logging.getLogger(ProcessJobScheduler.class);
+
+    /**
+     * Notified when a job is added, started, finished or removed, from any thread
+     */
+    public interface ProcessJobListener {
+        void jobChanged(ProcessJob job);
+    }
+
+    private static final ProcessJobScheduler instance = new ProcessJobScheduler();
+
+    private final List<ProcessJob> jobs = new ArrayList<ProcessJob>();
+
+    private final LinkedList<ProcessJob> queue = new LinkedList<ProcessJob>();
+
+    private final List<ProcessJobListener> listeners = new CopyOnWriteArrayList<
+            ProcessJobListener>();
+
+    private int maxConcurrentJobs = getDefaultConcurrentJobs();
+
+    private int runningJobs = 0;
+
+    private final IJobChangeListener jobChangeListener = new JobChangeAdapter() {
+        @Override
+        public void running(IJobChangeEvent event) {
+            fireJobChanged((ProcessJob) event.getJob());
+        }
+
+        @Override
+        public void done(IJobChangeEvent event) {
+            ProcessJob job = (ProcessJob) event.getJob();
+            synchronized (ProcessJobScheduler.this) {
+                runningJobs--;
+                if (!job.isFinished()) {
+                    job.setState(State.CANCELED); // canceled before it started
+                }
+            }
+            job.removeJobChangeListener(this);
+            fireJobChanged(job);
+            scheduleNext();
+        }
+    };
+
+    private ProcessJobScheduler() {
+    }
+
+    public static ProcessJobScheduler getDefault() {
+        return instance;
+    }
+
+    /**
+     * @return half of the available processors, at least one
+     */
+    public static int getDefaultConcurrentJobs() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    public synchronized int getMaxConcurrentJobs() {
+        return maxConcurrentJobs;
+    }
+
+    public void setMaxConcurrentJobs(int maxConcurrentJobs) {
+        synchronized (this) {
+            this.maxConcurrentJobs = Math.max(1, maxConcurrentJobs);
+        }
+        scheduleNext();
+    }
+
+    public void addProcessJobListener(ProcessJobListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeProcessJobListener(ProcessJobListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return all jobs in submission order
+     */
+    public synchronized ProcessJob[] getJobs() {
+        return jobs.toArray(new ProcessJob[jobs.size()]);
+    }
+
+    /**
+     * Queues a job, which is started as soon as a slot is free
+     */
+    public void submit(ProcessJob job) {
+        synchronized (this) {
+            jobs.add(job);
+            queue.add(job);
+        }
+        fireJobChanged(job);
+        scheduleNext();
+    }
+
+    /**
+     * Cancels a queued or running job
+     */
+    public void cancel(ProcessJob job) {
+        boolean queued = false;
+        synchronized (this) {
+            queued = queue.remove(job);
+            if (queued) {
+                job.setState(State.CANCELED);
+            }
+        }
+
+        if (queued) {
+            fireJobChanged(job);
+        } else {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Removes finished jobs from the job list
+     */
+    public void removeFinished() {
+        synchronized (this) {
+            Iterator<ProcessJob> iter = jobs.iterator();
+            while (iter.hasNext()) {
+                if (iter.next().isFinished()) {
+                    iter.remove();
+                }
+            }
+        }
+        fireJobChanged(null);
+    }
+
+    private void scheduleNext() {
+        List<ProcessJob> started = new ArrayList<ProcessJob>();
+        synchronized (this) {
+            while (runningJobs < maxConcurrentJobs && !queue.isEmpty()) {
+                ProcessJob job = queue.removeFirst();
+                job.addJobChangeListener(jobChangeListener);
+                runningJobs++;
+                started.add(job);
+            }
+        }
+
+        for (ProcessJob job : started) {
+            job.schedule();
+        }
+    }
+
+    private void fireJobChanged(ProcessJob job) {
+        for (ProcessJobListener listener : listeners) {
+            listener.jobChanged(job);
+        }
+    }
+}
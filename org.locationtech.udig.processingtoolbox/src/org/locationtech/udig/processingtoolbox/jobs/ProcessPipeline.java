@@ -0,0 +1,278 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.jobs;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.jface.operation.IRunnableWithProgress;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.process.ProcessException;
+import org.geotools.process.ProcessFactory;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.catalog.util.GeoToolsAdapters;
+import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
+import org.locationtech.udig.processingtoolbox.internal.Messages;
+import org.locationtech.udig.processingtoolbox.storage.FeatureOutputSink;
+import org.locationtech.udig.processingtoolbox.styler.ProcessExecutorOperation;
+import org.locationtech.udig.project.IMap;
+import org.opengis.feature.type.Name;
+
+/**
+ * Runs a chain of processes where the outputs of a step feed the inputs of the following steps.
+ * <p>
+ * Intermediate feature collections are read once and kept in memory, or spilled to a temporary
+ * indexed binary file when their estimated size exceeds the memory threshold, so they are
+ * neither recomputed by every consumer nor written as shapefiles. Only the last step is run by
+ * {@link ProcessExecutorOperation}, which writes its outputs and adds them to the map.
+ * 
+ * <pre>
+ * ProcessPipeline pipeline = new ProcessPipeline(map);
+ * Step buffer = pipeline.addStep(factory, bufferName, bufferParams);
+ * dissolveParams.put(&quot;inputFeatures&quot;, buffer.getOutput(&quot;result&quot;));
+ * pipeline.addStep(factory, dissolveName, dissolveParams);
+ * pipeline.setOutputParams(outputParams);
+ * </pre>
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class ProcessPipeline implements IRunnableWithProgress {
+    protected static final Logger LOGGER = Logging.getLogger(ProcessPipeline.class);
+
+    /**
+     * A process of the pipeline
+     */
+    public static final class Step {
+        private final int index;
+
+        private final ProcessFactory factory;
+
+        private final Name processName;
+
+        private final Map<String, Object> inputParams;
+
+        Step(int index, ProcessFactory factory, Name processName, Map<String, Object> inputParams) {
+            this.index = index;
+            this.factory = factory;
+            this.processName = processName;
+            this.inputParams = inputParams;
+        }
+
+        public ProcessFactory getFactory() {
+            return factory;
+        }
+
+        public Name getProcessName() {
+            return processName;
+        }
+
+        /**
+         * @param key result key of the process
+         * @return reference to the output, to be used as an input value of a following step
+         */
+        public StepOutput getOutput(String key) {
+            return new StepOutput(this, key);
+        }
+    }
+
+    /**
+     * Reference to an output of a previous step
+     */
+    public static final class StepOutput {
+        private final Step step;
+
+        private final String key;
+
+        StepOutput(Step step, String key) {
+            this.step = step;
+            this.key = key;
+        }
+
+        @Override
+        public String toString() {
+            return step.processName + "." + key; //$NON-NLS-1$
+        }
+    }
+
+    private final IMap map;
+
+    private final List<Step> steps = new ArrayList<Step>();
+
+    private Map<String, Object> outputParams = new HashMap<String, Object>();
+
+    private long memoryThreshold = FeatureOutputSink.getDefaultMemoryThreshold();
+
+    private ProcessExecutorOperation finalOperation;
+
+    public ProcessPipeline(IMap map) {
+        this.map = map;
+    }
+
+    /**
+     * Appends a process to the pipeline
+     * 
+     * @param inputParams input values, {@link StepOutput} values are replaced with the outputs of
+     *        previous steps
+     */
+    public Step addStep(ProcessFactory factory, Name processName, Map<String, Object> inputParams) {
+        Step step = new Step(steps.size(), factory, processName, inputParams);
+        steps.add(step);
+        return step;
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * @param outputParams output locations of the last step
+     */
+    public void setOutputParams(Map<String, Object> outputParams) {
+        this.outputParams = outputParams;
+    }
+
+    public long getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
+    /**
+     * @param memoryThreshold estimated bytes of an intermediate result kept in memory before it is
+     *        spilled to disk
+     */
+    public void setMemoryThreshold(long memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    public String getOutputText() {
+        return finalOperation == null ? "" : finalOperation.getOutputText(); //$NON-NLS-1$
+    }
+
+    @Override
+    public void run(IProgressMonitor monitor) throws InvocationTargetException,
+            InterruptedException {
+        if (steps.isEmpty()) {
+            return;
+        }
+
+        SubMonitor progress = SubMonitor.convert(monitor, Messages.Task_Running, steps.size());
+        List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+        List<FeatureOutputSink> sinks = new ArrayList<FeatureOutputSink>();
+        try {
+            for (Step step : steps.subList(0, steps.size() - 1)) {
+                String title = step.factory.getTitle(step.processName).toString();
+                String taskName = String.format(Messages.Task_PipelineStep, step.index + 1,
+                        steps.size(), title);
+                progress.setTaskName(taskName);
+                ToolboxPlugin.log(taskName);
+
+                org.geotools.process.Process process = step.factory.create(step.processName);
+                Map<String, Object> result = process.execute(resolve(step, results),
+                        GeoToolsAdapters.progress(progress.newChild(1)));
+                if (progress.isCanceled()) {
+                    throw new InterruptedException(Messages.Task_Canceled);
+                }
+                results.add(materialize(result, sinks));
+            }
+
+            Step last = steps.get(steps.size() - 1);
+            runLastStep(last, resolve(last, results), progress.newChild(1));
+        } catch (IOException e) {
+            throw new InvocationTargetException(e, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new InvocationTargetException(e, e.getMessage());
+        } catch (ProcessException e) {
+            throw new InvocationTargetException(e, e.getMessage());
+        } finally {
+            for (FeatureOutputSink sink : sinks) {
+                sink.dispose();
+            }
+            monitor.done();
+        }
+    }
+
+    /**
+     * Runs the last step with {@link ProcessExecutorOperation}, which writes the outputs and adds
+     * them to the map
+     *
+     * @param inputParams input values, with the outputs of previous steps resolved
+     */
+    protected void runLastStep(Step step, Map<String, Object> inputParams,
+            IProgressMonitor monitor) throws InvocationTargetException, InterruptedException {
+        finalOperation = new ProcessExecutorOperation(map, step.factory, step.processName,
+                inputParams, outputParams);
+        finalOperation.setUseResultCache(false);
+        finalOperation.run(monitor);
+    }
+
+    private Map<String, Object> resolve(Step step, List<Map<String, Object>> results) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        for (Entry<String, Object> entry : step.inputParams.entrySet()) {
+            params.put(entry.getKey(), resolve(step, entry.getValue(), results));
+        }
+        return params;
+    }
+
+    private Object resolve(Step step, Object value, List<Map<String, Object>> results) {
+        if (value instanceof StepOutput) {
+            StepOutput output = (StepOutput) value;
+            if (output.step.index >= step.index || output.step.index >= results.size()) {
+                throw new IllegalArgumentException(output
+                        + " is not an output of a previous step"); //$NON-NLS-1$
+            }
+
+            Map<String, Object> result = results.get(output.step.index);
+            if (result == null || !result.containsKey(output.key)) {
+                throw new IllegalArgumentException(output + " does not exist"); //$NON-NLS-1$
+            }
+            return result.get(output.key);
+        } else if (value instanceof List<?>) {
+            List<Object> values = new ArrayList<Object>();
+            for (Object item : (Collection<?>) value) {
+                values.add(resolve(step, item, results));
+            }
+            return values;
+        }
+        return value;
+    }
+
+    /**
+     * Reads the lazy feature collections of a result once, into memory or a spill file when they
+     * are large
+     */
+    private Map<String, Object> materialize(Map<String, Object> result,
+            List<FeatureOutputSink> sinks) throws IOException {
+        if (result == null) {
+            return null;
+        }
+
+        Map<String, Object> materialized = new HashMap<String, Object>();
+        for (Entry<String, Object> entry : result.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof SimpleFeatureCollection) {
+                FeatureOutputSink sink = FeatureOutputSink.adaptive(memoryThreshold, null);
+                sinks.add(sink);
+                value = sink.write((SimpleFeatureCollection) value);
+            }
+            materialized.put(entry.getKey(), value);
+        }
+        return materialized;
+    }
+}
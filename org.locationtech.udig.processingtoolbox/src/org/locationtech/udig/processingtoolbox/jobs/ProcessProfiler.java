@@ -0,0 +1,355 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.jobs;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Records the wall time, CPU time, allocated bytes and throughput of the stages of a process run
+ * and appends them to a JSON lines history file.
+ * <p>
+ * CPU time and allocated bytes are those of the calling thread, so work done by a process in its
+ * own worker threads is only visible in the wall time. They are -1 when the JVM does not measure
+ * them.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class ProcessProfiler {
+    protected static final Logger LOGGER = Logging.getLogger(ProcessProfiler.class);
+
+    public static final String EXECUTE = "execute";
+
+    public static final String WRITE = "write";
+
+    public static final String STYLE = "style";
+
+    public static final String ADD_LAYER = "add-layer";
+
+    public static final String FEATURES = "features";
+
+    public static final String CELLS = "cells";
+
+    public static final String COMPLETED = "completed";
+
+    public static final String CANCELED = "canceled";
+
+    public static final String FAILED = "failed";
+
+    public static final String HISTORY_FILE = "process_history.jsonl";
+
+    static final String ENCODING = "UTF-8";
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private static final Method allocatedBytesMethod = getAllocatedBytesMethod();
+
+    // runs of a batch append to the same history file
+    private static final Object historyLock = new Object();
+
+    private final String processName;
+
+    private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+
+    private final long startTime = System.currentTimeMillis();
+
+    private boolean cached = false;
+
+    public ProcessProfiler(String processName) {
+        this.processName = processName;
+    }
+
+    public void setCached(boolean cached) {
+        this.cached = cached;
+    }
+
+    /**
+     * Starts measuring a stage, the measures of a stage run several times are summed
+     */
+    public void begin(String stageName) {
+        Stage stage = stages.get(stageName);
+        if (stage == null) {
+            stage = new Stage(stageName);
+            stages.put(stageName, stage);
+        }
+        stage.begin();
+    }
+
+    public void end(String stageName) {
+        end(stageName, -1, null);
+    }
+
+    /**
+     * Stops measuring a stage
+     * 
+     * @param stageName stage name
+     * @param items number of features or cells processed, -1 if unknown
+     * @param unit {@link #FEATURES} or {@link #CELLS}
+     */
+    public void end(String stageName, long items, String unit) {
+        Stage stage = stages.get(stageName);
+        if (stage != null) {
+            stage.end();
+            addItems(stageName, items, unit);
+        }
+    }
+
+    /**
+     * Adds processed items to a stage, e.g. the size of the outputs to the execute stage
+     */
+    public void addItems(String stageName, long items, String unit) {
+        Stage stage = stages.get(stageName);
+        if (stage != null && items >= 0) {
+            stage.items = Math.max(0, stage.items) + items;
+            stage.unit = unit;
+        }
+    }
+
+    /**
+     * Adds the measures of a profiler used by another thread, e.g. for an output written
+     * concurrently with the others. The wall times of concurrent stages are summed.
+     */
+    public void merge(ProcessProfiler other) {
+        for (Stage source : other.stages.values()) {
+            Stage stage = stages.get(source.name);
+            if (stage == null) {
+                stage = new Stage(source.name);
+                stages.put(source.name, stage);
+            }
+            stage.wallTime += source.wallTime;
+            stage.cpuTime = stage.cpuTime < 0 || source.cpuTime < 0 ? -1 : stage.cpuTime
+                    + source.cpuTime;
+            stage.allocatedBytes = stage.allocatedBytes < 0 || source.allocatedBytes < 0 ? -1
+                    : stage.allocatedBytes + source.allocatedBytes;
+            addItems(source.name, source.items, source.unit);
+        }
+    }
+
+    /**
+     * @return processed items of a stage, -1 if unknown
+     */
+    public long getItems(String stageName) {
+        Stage stage = stages.get(stageName);
+        return stage == null ? -1 : stage.items;
+    }
+
+    public String getUnit(String stageName) {
+        Stage stage = stages.get(stageName);
+        return stage == null ? null : stage.unit;
+    }
+
+    /**
+     * @return one console line per stage
+     */
+    public List<String> summary() {
+        List<String> lines = new ArrayList<String>();
+        for (Stage stage : stages.values()) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%-10s %,10d ms wall", stage.name, stage.wallTime));
+            if (stage.cpuTime >= 0) {
+                sb.append(String.format(", %,d ms CPU", stage.cpuTime / 1000000L));
+            }
+            if (stage.allocatedBytes >= 0) {
+                sb.append(String.format(", %,d MB allocated", stage.allocatedBytes >> 20));
+            }
+            if (stage.items >= 0) {
+                sb.append(String.format(", %,d %s (%,.0f/s)", stage.items, stage.unit,
+                        stage.getItemsPerSecond()));
+            }
+            lines.add(sb.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Appends the record of the run to a JSON lines file
+     * 
+     * @param file history file
+     * @param status {@link #COMPLETED}, {@link #CANCELED} or {@link #FAILED}
+     */
+    public void writeHistory(File file, String status) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"time\":").append(quote(format.format(new Date(startTime))));
+        sb.append(",\"process\":").append(quote(processName));
+        sb.append(",\"status\":").append(quote(status));
+        sb.append(",\"cached\":").append(cached);
+        sb.append(",\"wallMillis\":").append(System.currentTimeMillis() - startTime);
+        sb.append(",\"stages\":[");
+        boolean first = true;
+        for (Stage stage : stages.values()) {
+            sb.append(first ? "" : ",");
+            sb.append("{\"stage\":").append(quote(stage.name));
+            sb.append(",\"wallMillis\":").append(stage.wallTime);
+            long cpuMillis = stage.cpuTime < 0 ? -1 : stage.cpuTime / 1000000L;
+            sb.append(",\"cpuMillis\":").append(cpuMillis);
+            sb.append(",\"allocatedBytes\":").append(stage.allocatedBytes);
+            if (stage.items >= 0) {
+                sb.append(",").append(quote(stage.unit)).append(":").append(stage.items);
+                sb.append(",\"perSecond\":").append(Math.round(stage.getItemsPerSecond()));
+            }
+            sb.append("}");
+            first = false;
+        }
+        sb.append("]}\n");
+
+        synchronized (historyLock) {
+            Writer writer = null;
+            try {
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file,
+                        true), ENCODING));
+                writer.write(sb.toString());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, e.getMessage(), e);
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINER, e.getMessage(), e);
+                    }
+                }
+            }
+        }
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    static long getCpuTime() {
+        if (threadBean.isCurrentThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled()) {
+            return threadBean.getCurrentThreadCpuTime();
+        }
+        return -1;
+    }
+
+    // com.sun.management.ThreadMXBean, not available on every JVM
+    static long getAllocatedBytes() {
+        if (allocatedBytesMethod == null) {
+            return -1;
+        }
+
+        try {
+            Object value = allocatedBytesMethod.invoke(threadBean, Thread.currentThread().getId());
+            return ((Number) value).longValue();
+        } catch (Exception e) {
+            LOGGER.log(Level.FINEST, e.getMessage(), e);
+            return -1;
+        }
+    }
+
+    private static Method getAllocatedBytesMethod() {
+        try {
+            Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            if (beanClass.isInstance(threadBean)) {
+                return beanClass.getMethod("getThreadAllocatedBytes", long.class);
+            }
+        } catch (ClassNotFoundException e) {
+            LOGGER.log(Level.FINEST, e.getMessage(), e);
+        } catch (NoSuchMethodException e) {
+            LOGGER.log(Level.FINEST, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    static final class Stage {
+        final String name;
+
+        long wallTime = 0;
+
+        long cpuTime = 0;
+
+        long allocatedBytes = 0;
+
+        long items = -1;
+
+        String unit;
+
+        private long startWall, startCpu, startAllocated;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        void begin() {
+            startWall = System.currentTimeMillis();
+            startCpu = getCpuTime();
+            startAllocated = getAllocatedBytes();
+        }
+
+        void end() {
+            wallTime += System.currentTimeMillis() - startWall;
+
+            long cpu = getCpuTime();
+            cpuTime = cpu < 0 || startCpu < 0 || cpuTime < 0 ? -1 : cpuTime + cpu - startCpu;
+
+            long allocated = getAllocatedBytes();
+            allocatedBytes = allocated < 0 || startAllocated < 0 || allocatedBytes < 0 ? -1
+                    : allocatedBytes + allocated - startAllocated;
+        }
+
+        double getItemsPerSecond() {
+            return items * 1000.0 / Math.max(1, wallTime);
+        }
+    }
+}
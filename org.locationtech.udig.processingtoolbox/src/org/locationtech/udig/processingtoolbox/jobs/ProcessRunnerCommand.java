@@ -0,0 +1,254 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.process.ProcessFactory;
+import org.geotools.process.Processors;
+import org.geotools.util.logging.Logging;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.locationtech.udig.processingtoolbox.jobs.HeadlessProcessRunner.Request;
+import org.locationtech.udig.processingtoolbox.jobs.HeadlessProcessRunner.Result;
+import org.opengis.feature.type.Name;
+
+/**
+ * Command line front end of {@link HeadlessProcessRunner}, to be run from a plain JVM with the
+ * bundle and its libraries on the class path.
+ * 
+ * <pre>
+ * ProcessRunnerCommand [options] process [key=value ...]
+ * ProcessRunnerCommand [options] -json request.json
+ * </pre>
+ * 
+ * A JSON request is an object <code>{"process": name, "inputs": {...}, "outputs": {...}}</code>,
+ * or <code>{"steps": [{"process": name, "inputs": {...}}, ...], "outputs": {...}}</code> for a
+ * chain of processes, or an array of requests run as a batch.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class ProcessRunnerCommand {
+    protected static final Logger LOGGER = Logging.getLogger(ProcessRunnerCommand.class);
+
+    static final String USAGE = "Usage: ProcessRunnerCommand [options] process [key=value ...]\n"
+            + "       ProcessRunnerCommand [options] -json <file or text>\n"
+            + "       ProcessRunnerCommand -list\n"
+            + "Options:\n"
+            + "  -o key=path       output file of a result\n"
+            + "  -out folder       folder of the results without an output file\n"
+            + "  -threads n        concurrent requests of a batch, default: processors\n"
+            + "  -charset name     DBF character set, default: UTF-8\n"
+            + "  -history file     appends the run records to a JSON lines file\n"
+            + "  -noindex          no spatial index (.qix) for the shapefiles written\n"
+            + "An input value @n.key refers to the result key of step n of a chain.";
+
+    public static void main(String[] args) {
+        System.exit(new ProcessRunnerCommand().execute(args, System.out, System.err));
+    }
+
+    /**
+     * @return exit code, 0 if all requests completed, 1 if one failed, 2 for a usage error
+     */
+    public int execute(String[] args, PrintStream out, PrintStream err) {
+        HeadlessProcessRunner runner = new HeadlessProcessRunner();
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Request> requests = new ArrayList<Request>();
+        Request request = null;
+
+        try {
+            for (int index = 0; index < args.length; index++) {
+                String arg = args[index];
+                if (arg.equals("-list")) {
+                    listProcesses(out);
+                    return 0;
+                } else if (arg.equals("-json")) {
+                    requests.addAll(parseJSON(readJSON(args[++index])));
+                } else if (arg.equals("-o")) {
+                    String[] kvp = splitKeyValue(args[++index]);
+                    getRequest(request).output(kvp[0], kvp[1]);
+                } else if (arg.equals("-out")) {
+                    runner.setOutputFolder(new File(args[++index]));
+                } else if (arg.equals("-threads")) {
+                    threads = Integer.parseInt(args[++index]);
+                } else if (arg.equals("-charset")) {
+                    runner.setCharset(args[++index]);
+                } else if (arg.equals("-history")) {
+                    runner.setHistoryFile(new File(args[++index]));
+                } else if (arg.equals("-noindex")) {
+                    runner.setBuildSpatialIndex(false);
+                } else if (arg.startsWith("-")) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                } else if (arg.indexOf('=') > 0) {
+                    String[] kvp = splitKeyValue(arg);
+                    getRequest(request).input(kvp[0], kvp[1]);
+                } else if (request == null) {
+                    request = new Request(arg);
+                    requests.add(request);
+                } else {
+                    request.then(arg); // chain of processes
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            err.println("Missing option value");
+            err.println(USAGE);
+            return 2;
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return 2;
+        } catch (IOException e) {
+            err.println(e.getMessage());
+            return 2;
+        }
+
+        if (requests.isEmpty()) {
+            err.println(USAGE);
+            return 2;
+        }
+
+        List<Result> results = null;
+        try {
+            results = runner.runBatch(requests, Math.min(threads, requests.size()));
+        } catch (InterruptedException e) {
+            err.println("Interrupted");
+            return 1;
+        }
+
+        int exitCode = 0;
+        for (Result result : results) {
+            out.println(String.format("%s: %s in %,d ms", result.getRequest(),
+                    result.getStatus(), result.getElapsedTime()));
+            for (Entry<String, File> entry : result.getFiles().entrySet()) {
+                out.println("  " + entry.getKey() + " = " + entry.getValue().getPath());
+            }
+            if (result.getText().length() > 0) {
+                out.println(result.getText());
+            }
+            if (!result.isCompleted()) {
+                exitCode = 1;
+                if (result.getMessage() != null) {
+                    err.println("  " + result.getMessage());
+                }
+            }
+        }
+        return exitCode;
+    }
+
+    private Request getRequest(Request request) {
+        if (request == null) {
+            throw new IllegalArgumentException("The process name must come first");
+        }
+        return request;
+    }
+
+    private String[] splitKeyValue(String arg) {
+        int pos = arg.indexOf('=');
+        if (pos <= 0) {
+            throw new IllegalArgumentException(arg + " is not key=value");
+        }
+        return new String[] { arg.substring(0, pos).trim(), arg.substring(pos + 1) };
+    }
+
+    private void listProcesses(PrintStream out) {
+        Set<String> names = new TreeSet<String>();
+        for (ProcessFactory factory : Processors.getProcessFactories()) {
+            for (Name name : factory.getNames()) {
+                names.add(name.getNamespaceURI() == null ? name.getLocalPart() : name
+                        .getNamespaceURI() + ":" + name.getLocalPart());
+            }
+        }
+        for (String name : names) {
+            out.println(name);
+        }
+    }
+
+    private Object readJSON(String value) throws IOException {
+        File file = new File(value);
+        String text = file.isFile() ? FileUtils.readFileToString(file, "UTF-8") : value;
+        try {
+            return new JSONParser().parse(text);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.toString());
+        }
+    }
+
+    /**
+     * @return requests of a JSON object or array
+     */
+    List<Request> parseJSON(Object json) {
+        List<Request> requests = new ArrayList<Request>();
+        if (json instanceof JSONArray) {
+            for (Object item : (JSONArray) json) {
+                requests.addAll(parseJSON(item));
+            }
+        } else if (json instanceof JSONObject) {
+            requests.add(parseRequest((JSONObject) json));
+        } else {
+            throw new IllegalArgumentException("A request must be a JSON object: " + json);
+        }
+        return requests;
+    }
+
+    private Request parseRequest(JSONObject json) {
+        List<JSONObject> steps = new ArrayList<JSONObject>();
+        if (json.get("steps") instanceof JSONArray) {
+            for (Object step : (JSONArray) json.get("steps")) {
+                steps.add((JSONObject) step);
+            }
+        } else {
+            steps.add(json);
+        }
+
+        Request request = null;
+        for (JSONObject step : steps) {
+            Object processName = step.get("process");
+            if (processName == null) {
+                throw new IllegalArgumentException("process is missing: " + step);
+            }
+
+            if (request == null) {
+                request = new Request(processName.toString());
+            } else {
+                request.then(processName.toString());
+            }
+
+            if (step.get("inputs") instanceof JSONObject) {
+                for (Object entry : ((JSONObject) step.get("inputs")).entrySet()) {
+                    Map.Entry<?, ?> input = (Map.Entry<?, ?>) entry;
+                    request.input(input.getKey().toString(), input.getValue());
+                }
+            }
+        }
+
+        if (json.get("outputs") instanceof JSONObject) {
+            for (Object entry : ((JSONObject) json.get("outputs")).entrySet()) {
+                Map.Entry<?, ?> output = (Map.Entry<?, ?>) entry;
+                request.output(output.getKey().toString(), String.valueOf(output.getValue()));
+            }
+        }
+        return request;
+    }
+}
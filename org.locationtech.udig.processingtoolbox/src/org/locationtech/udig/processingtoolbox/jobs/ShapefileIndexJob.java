@@ -0,0 +1,93 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.catalog.util.GeoToolsAdapters;
+import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
+import org.locationtech.udig.processingtoolbox.ToolboxView;
+import org.locationtech.udig.processingtoolbox.internal.Messages;
+import org.locationtech.udig.processingtoolbox.storage.ShapefileIndexBuilder;
+import org.locationtech.udig.project.ILayer;
+
+/**
+ * Low priority background job building the spatial index of a shapefile written by the toolbox,
+ * the layer of the shapefile is refreshed when the index is ready.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class ShapefileIndexJob extends Job {
+    protected static final Logger LOGGER = Logging.getLogger(ShapefileIndexJob.class);
+
+    private final File shapefile;
+
+    private final boolean fidIndex;
+
+    private final ILayer layer;
+
+    /**
+     * @param layer layer of the shapefile to refresh, or null
+     */
+    public ShapefileIndexJob(File shapefile, boolean fidIndex, ILayer layer) {
+        super(String.format(Messages.Task_BuildingIndex, shapefile.getName()));
+        this.shapefile = shapefile;
+        this.fidIndex = fidIndex;
+        this.layer = layer;
+        setPriority(Job.DECORATE);
+    }
+
+    /**
+     * Schedules the index build of a shapefile if enabled in the toolbox settings and the
+     * shapefile has no index yet
+     * 
+     * @param layer layer of the shapefile to refresh, or null
+     */
+    public static void scheduleIfEnabled(File shapefile, ILayer layer) {
+        if (ToolboxView.getBuildSpatialIndex()
+                && !ShapefileIndexBuilder.hasSpatialIndex(shapefile)) {
+            new ShapefileIndexJob(shapefile, ToolboxView.getBuildFidIndex(), layer).schedule();
+        }
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        monitor.beginTask(getName(), IProgressMonitor.UNKNOWN);
+        try {
+            long start = System.currentTimeMillis();
+            if (!ShapefileIndexBuilder.build(shapefile, fidIndex,
+                    GeoToolsAdapters.progress(monitor))) {
+                return Status.CANCEL_STATUS;
+            }
+            LOGGER.log(Level.FINE, shapefile.getName() + " indexed in " //$NON-NLS-1$
+                    + (System.currentTimeMillis() - start) + " ms"); //$NON-NLS-1$
+
+            if (layer != null) {
+                layer.refresh(null); // re-render with the index
+            }
+            return Status.OK_STATUS;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, e.getMessage(), e);
+            return new Status(IStatus.WARNING, ToolboxPlugin.PLUGIN_ID, e.getMessage(), e);
+        } finally {
+            monitor.done();
+        }
+    }
+}
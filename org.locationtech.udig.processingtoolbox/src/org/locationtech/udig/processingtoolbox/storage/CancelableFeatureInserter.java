@@ -0,0 +1,153 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.process.spatialstatistics.storage.IFeatureInserter;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Feature writer checking a {@link CancellationToken} before each feature is written. When the
+ * operation is canceled, the transaction is rolled back, so that closing the writer commits
+ * nothing, and an {@link OperationCanceledException} is thrown.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class CancelableFeatureInserter implements IFeatureInserter {
+    protected static final Logger LOGGER = Logging.getLogger(CancelableFeatureInserter.class);
+
+    private final IFeatureInserter delegate;
+
+    private final CancellationToken token;
+
+    private boolean rolledBack = false;
+
+    public CancelableFeatureInserter(IFeatureInserter delegate, CancellationToken token) {
+        this.delegate = delegate;
+        this.token = token;
+    }
+
+    private void checkCanceled() {
+        if (!token.isCanceled()) {
+            return;
+        }
+
+        if (!rolledBack) {
+            rolledBack = true;
+            try {
+                delegate.rollback();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+        throw new OperationCanceledException();
+    }
+
+    @Override
+    public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriter() {
+        return delegate.getFeatureWriter();
+    }
+
+    @Override
+    public SimpleFeatureSource getFeatureSource() {
+        return delegate.getFeatureSource();
+    }
+
+    @Override
+    public SimpleFeatureCollection getFeatureCollection() throws IOException {
+        return delegate.getFeatureCollection();
+    }
+
+    @Override
+    public int getFlushInterval() {
+        return delegate.getFlushInterval();
+    }
+
+    @Override
+    public void setFlushInterval(int flushInterval) {
+        delegate.setFlushInterval(flushInterval);
+    }
+
+    @Override
+    public int getFeatureCount() {
+        return delegate.getFeatureCount();
+    }
+
+    @Override
+    public SimpleFeature buildFeature() throws IOException {
+        checkCanceled();
+        return delegate.buildFeature();
+    }
+
+    @Override
+    public void write(SimpleFeatureCollection featureCollection) throws IOException {
+        // one feature at a time, the delegate would write the whole collection
+        SimpleFeatureIterator featureIter = featureCollection.features();
+        try {
+            while (featureIter.hasNext()) {
+                write(featureIter.next());
+            }
+        } finally {
+            featureIter.close();
+        }
+    }
+
+    @Override
+    public void write(SimpleFeature newFeature) throws IOException {
+        checkCanceled();
+        delegate.write(newFeature);
+    }
+
+    @Override
+    public void rollback() throws IOException {
+        rolledBack = true;
+        delegate.rollback();
+    }
+
+    @Override
+    public void rollback(Exception e) throws IOException {
+        rolledBack = true;
+        delegate.rollback(e);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public void close(SimpleFeatureIterator srcIter) throws IOException {
+        delegate.close(srcIter);
+    }
+
+    @Override
+    public SimpleFeature copyAttributes(SimpleFeature source, SimpleFeature target,
+            boolean copyGeometry) {
+        return delegate.copyAttributes(source, target, copyGeometry);
+    }
+
+    @Override
+    public void clearFieldMaps() {
+        delegate.clearFieldMaps();
+    }
+}
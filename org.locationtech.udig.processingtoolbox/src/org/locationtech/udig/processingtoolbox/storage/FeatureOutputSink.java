@@ -0,0 +1,475 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FilenameUtils;
+import org.geotools.data.DataStore;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.FeatureTypes;
+import org.geotools.feature.collection.BaseSimpleFeatureCollection;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Destination of a feature result: kept in memory, spilled to a temporary indexed binary file or
+ * written to the file the user asked for.
+ * <p>
+ * The size of a result is estimated from its schema and values while it is written, small
+ * results stay in memory and large ones go to disk. The result of a process is thus computed
+ * once.
+ * 
+ * <pre>
+ * long threshold = FeatureOutputSink.getDefaultMemoryThreshold();
+ * FeatureOutputSink sink = FeatureOutputSink.adaptive(threshold, null);
+ * SimpleFeatureCollection features = sink.write(result);
+ * ...
+ * sink.dispose();
+ * </pre>
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public abstract class FeatureOutputSink {
+    protected static final Logger LOGGER = Logging.getLogger(FeatureOutputSink.class);
+
+    public enum Type {
+        MEMORY, SPILL, FILE
+    }
+
+    static final int SAMPLE_SIZE = 100;
+
+    static final int FEATURE_OVERHEAD = 64; // feature, id and attribute array
+
+    static final int VALUE_OVERHEAD = 16;
+
+    static final int COORDINATE_SIZE = 40; // Coordinate object with x, y, z
+
+    static final int DEFAULT_STRING_LENGTH = 32;
+
+    /**
+     * @return the kind of storage the features were written to
+     */
+    public abstract Type getType();
+
+    /**
+     * Writes the features, the source is read once
+     * 
+     * @return the written features, which can be read any number of times
+     */
+    public abstract SimpleFeatureCollection write(SimpleFeatureCollection features)
+            throws IOException;
+
+    /**
+     * Releases the temporary storage of the written features
+     */
+    public void dispose() {
+    }
+
+    /**
+     * @return sink keeping the features in memory
+     */
+    public static FeatureOutputSink memory() {
+        return new MemorySink();
+    }
+
+    /**
+     * @param folder folder of the spill file, the system temporary folder if null
+     * @return sink writing the features to a temporary binary file with a spatial index
+     */
+    public static FeatureOutputSink spill(File folder) {
+        return new SpillSink(folder);
+    }
+
+    /**
+     * @param defaultCRS used when the features have no coordinate reference system
+     * @return sink writing the features to a shapefile, or a FlatGeobuf file by its extension
+     */
+    public static FeatureOutputSink file(ProcessOutputWriter writer, File file,
+            CoordinateReferenceSystem defaultCRS) {
+        return new FileSink(writer, file, defaultCRS);
+    }
+
+    /**
+     * @param memoryThreshold estimated bytes kept in memory before the features are spilled
+     * @param folder folder of the spill file, the system temporary folder if null
+     * @return sink keeping the features in memory until they exceed the threshold
+     */
+    public static FeatureOutputSink adaptive(long memoryThreshold, File folder) {
+        return new AdaptiveSink(memoryThreshold, folder);
+    }
+
+    /**
+     * @param memoryThreshold estimated bytes kept in memory before the features are written to
+     *            the file
+     * @param file FlatGeobuf file or shapefile, written only if the features exceed the threshold
+     * @return sink keeping the features in memory unless they exceed the threshold
+     */
+    public static FeatureOutputSink adaptive(long memoryThreshold, ProcessOutputWriter writer,
+            File file) {
+        return new OverflowSink(memoryThreshold, writer, file);
+    }
+
+    /**
+     * @return heap size of the feature results kept in memory, 1/8 of the maximum heap
+     */
+    public static long getDefaultMemoryThreshold() {
+        return Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    /**
+     * Estimates the heap size of a feature collection from a sample of its first features and
+     * the number of features. The collection is read twice, use it for features held in memory
+     * only: a process result would be computed twice.
+     * 
+     * @return estimated bytes
+     */
+    public static long estimateSize(SimpleFeatureCollection features) {
+        long sampleBytes = 0;
+        int sampleCount = 0;
+        SimpleFeatureIterator featureIter = features.features();
+        try {
+            while (featureIter.hasNext() && sampleCount < SAMPLE_SIZE) {
+                sampleBytes += estimateSize(featureIter.next());
+                sampleCount++;
+            }
+        } finally {
+            featureIter.close();
+        }
+
+        if (sampleCount < SAMPLE_SIZE) {
+            return sampleBytes; // all features
+        }
+        return sampleBytes / sampleCount * features.size();
+    }
+
+    /**
+     * Estimates the heap size of a feature from its schema and values
+     * 
+     * @return estimated bytes
+     */
+    public static long estimateSize(SimpleFeature feature) {
+        long size = FEATURE_OVERHEAD;
+        List<AttributeDescriptor> descriptors = feature.getFeatureType()
+                .getAttributeDescriptors();
+        for (int index = 0; index < descriptors.size(); index++) {
+            Object value = feature.getAttribute(index);
+            Class<?> binding = descriptors.get(index).getType().getBinding();
+            if (value instanceof Geometry) {
+                size += VALUE_OVERHEAD * 2 + ((Geometry) value).getNumPoints() * COORDINATE_SIZE;
+            } else if (value instanceof String) {
+                size += VALUE_OVERHEAD * 2 + ((String) value).length() * 2;
+            } else if (value == null && String.class.isAssignableFrom(binding)) {
+                int length = FeatureTypes.getFieldLength(descriptors.get(index));
+                size += VALUE_OVERHEAD * 2 + (length > 0 ? Math.min(length, 254)
+                        : DEFAULT_STRING_LENGTH) * 2;
+            } else {
+                size += VALUE_OVERHEAD;
+            }
+        }
+        return size;
+    }
+
+    static final class MemorySink extends FeatureOutputSink {
+        @Override
+        public Type getType() {
+            return Type.MEMORY;
+        }
+
+        @Override
+        public SimpleFeatureCollection write(SimpleFeatureCollection features) throws IOException {
+            if (features instanceof ListFeatureCollection) {
+                return features;
+            }
+
+            ListFeatureCollection memory = new ListFeatureCollection(features.getSchema());
+            SimpleFeatureIterator featureIter = features.features();
+            try {
+                while (featureIter.hasNext()) {
+                    memory.add(featureIter.next());
+                }
+            } finally {
+                featureIter.close();
+            }
+            return memory;
+        }
+    }
+
+    static class SpillSink extends FeatureOutputSink {
+        private final File folder;
+
+        private SpillFeatureCollection spill;
+
+        SpillSink(File folder) {
+            this.folder = folder;
+        }
+
+        @Override
+        public Type getType() {
+            return Type.SPILL;
+        }
+
+        @Override
+        public SimpleFeatureCollection write(SimpleFeatureCollection features) throws IOException {
+            if (features instanceof SpillFeatureCollection) {
+                return features;
+            }
+
+            SpillFeatureCollection.Writer writer = createWriter(features);
+            SimpleFeatureIterator featureIter = features.features();
+            try {
+                while (featureIter.hasNext()) {
+                    writer.write(featureIter.next());
+                }
+            } catch (IOException e) {
+                writer.abort();
+                throw e;
+            } finally {
+                featureIter.close();
+            }
+            return close(writer);
+        }
+
+        SpillFeatureCollection.Writer createWriter(SimpleFeatureCollection features)
+                throws IOException {
+            String prefix = "features"; //$NON-NLS-1$
+            File file = File.createTempFile(prefix, ".spill", folder); //$NON-NLS-1$
+            return new SpillFeatureCollection.Writer(features.getSchema(), file);
+        }
+
+        SpillFeatureCollection close(SpillFeatureCollection.Writer writer) throws IOException {
+            spill = writer.close();
+            return spill;
+        }
+
+        @Override
+        public void dispose() {
+            if (spill != null) {
+                spill.dispose();
+                spill = null;
+            }
+        }
+    }
+
+    static final class AdaptiveSink extends SpillSink {
+        private final long memoryThreshold;
+
+        private Type type = Type.MEMORY;
+
+        AdaptiveSink(long memoryThreshold, File folder) {
+            super(folder);
+            this.memoryThreshold = memoryThreshold;
+        }
+
+        @Override
+        public Type getType() {
+            return type;
+        }
+
+        @Override
+        public SimpleFeatureCollection write(SimpleFeatureCollection features) throws IOException {
+            if (features instanceof ListFeatureCollection
+                    || features instanceof SpillFeatureCollection) {
+                return features;
+            }
+
+            ListFeatureCollection memory = new ListFeatureCollection(features.getSchema());
+            long memorySize = 0;
+            SpillFeatureCollection.Writer writer = null;
+            SimpleFeatureIterator featureIter = features.features();
+            try {
+                while (featureIter.hasNext()) {
+                    SimpleFeature feature = featureIter.next();
+                    if (writer != null) {
+                        writer.write(feature);
+                        continue;
+                    }
+
+                    memory.add(feature);
+                    memorySize += estimateSize(feature);
+                    if (memorySize > memoryThreshold) {
+                        writer = createWriter(features);
+                        for (SimpleFeature memoryFeature : memory) {
+                            writer.write(memoryFeature);
+                        }
+                        memory.clear();
+                    }
+                }
+            } catch (IOException e) {
+                if (writer != null) {
+                    writer.abort();
+                }
+                throw e;
+            } finally {
+                featureIter.close();
+            }
+
+            if (writer == null) {
+                return memory;
+            }
+
+            type = Type.SPILL;
+            return close(writer);
+        }
+    }
+
+    /**
+     * Keeps the features in memory, or writes them to the file once they exceed the threshold:
+     * the features already kept are written first, followed by the rest of the source
+     */
+    static final class OverflowSink extends FeatureOutputSink {
+        private final long memoryThreshold;
+
+        private final FileSink fileSink;
+
+        private Type type = Type.MEMORY;
+
+        OverflowSink(long memoryThreshold, ProcessOutputWriter writer, File file) {
+            this.memoryThreshold = memoryThreshold;
+            this.fileSink = new FileSink(writer, file, null);
+        }
+
+        @Override
+        public Type getType() {
+            return type;
+        }
+
+        @Override
+        public SimpleFeatureCollection write(SimpleFeatureCollection features) throws IOException {
+            if (features instanceof ListFeatureCollection) {
+                // already in memory, reading it twice costs nothing
+                if (estimateSize(features) <= memoryThreshold) {
+                    return features;
+                }
+            } else if (!(features instanceof SpillFeatureCollection)) {
+                ListFeatureCollection memory = new ListFeatureCollection(features.getSchema());
+                long memorySize = 0;
+                SimpleFeatureIterator featureIter = features.features();
+                try {
+                    while (featureIter.hasNext()) {
+                        SimpleFeature feature = featureIter.next();
+                        memory.add(feature);
+                        memorySize += estimateSize(feature);
+                        if (memorySize > memoryThreshold) {
+                            type = Type.FILE;
+                            return fileSink.write(new OverflowFeatureCollection(memory,
+                                    featureIter));
+                        }
+                    }
+                } finally {
+                    featureIter.close();
+                }
+                return memory;
+            }
+
+            type = Type.FILE;
+            return fileSink.write(features);
+        }
+
+        @Override
+        public void dispose() {
+            fileSink.dispose();
+        }
+    }
+
+    /**
+     * The features kept in memory followed by the remaining features of the source, read once
+     */
+    static final class OverflowFeatureCollection extends BaseSimpleFeatureCollection {
+        private final ListFeatureCollection memory;
+
+        private final SimpleFeatureIterator remaining;
+
+        OverflowFeatureCollection(ListFeatureCollection memory, SimpleFeatureIterator remaining) {
+            super(memory.getSchema());
+            this.memory = memory;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            final SimpleFeatureIterator first = memory.features();
+            return new SimpleFeatureIterator() {
+                @Override
+                public boolean hasNext() {
+                    return first.hasNext() || remaining.hasNext();
+                }
+
+                @Override
+                public SimpleFeature next() throws NoSuchElementException {
+                    return first.hasNext() ? first.next() : remaining.next();
+                }
+
+                @Override
+                public void close() {
+                    first.close();
+                    memory.clear(); // the source iterator is closed by the sink
+                }
+            };
+        }
+    }
+
+    static final class FileSink extends FeatureOutputSink {
+        private final ProcessOutputWriter writer;
+
+        private final File file;
+
+        private final CoordinateReferenceSystem defaultCRS;
+
+        private DataStore dataStore;
+
+        FileSink(ProcessOutputWriter writer, File file, CoordinateReferenceSystem defaultCRS) {
+            this.writer = writer;
+            this.file = file;
+            this.defaultCRS = defaultCRS;
+        }
+
+        @Override
+        public Type getType() {
+            return Type.FILE;
+        }
+
+        @Override
+        public SimpleFeatureCollection write(SimpleFeatureCollection features) throws IOException {
+            SimpleFeatureSource written = writer.writeFeatures(features, file, defaultCRS);
+            if (written == null) {
+                throw new IOException(file.getPath());
+            } else if (ProcessOutputWriter.isFlatGeobuf(file)) {
+                return written.getFeatures();
+            }
+
+            written.getDataStore().dispose(); // the shapefile is read again below
+            dataStore = writer.openDataStore(file);
+            String typeName = FilenameUtils.getBaseName(file.getPath());
+            return dataStore.getFeatureSource(typeName).getFeatures();
+        }
+
+        @Override
+        public void dispose() {
+            if (dataStore != null) {
+                dataStore.dispose();
+                dataStore = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.simple.DelegateSimpleFeatureReader;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.store.ContentDataStore;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.feature.NameImpl;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.udig.processingtoolbox.tools.format.FlatGeobufFeatureCollection;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+
+/**
+ * Read-only DataStore of a FlatGeobuf file.
+ * <p>
+ * The features are not copied, each query reads the file through
+ * {@link FlatGeobufFeatureCollection#subCollection(Filter)}, so the features of a bounding box
+ * query are found by the packed R-tree of the file.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class FlatGeobufDataStore extends ContentDataStore {
+
+    private final FlatGeobufFeatureCollection features;
+
+    public FlatGeobufDataStore(File file) throws IOException {
+        this.features = FlatGeobufFeatureCollection.open(file);
+    }
+
+    public File getFile() {
+        return features.getFile();
+    }
+
+    @Override
+    protected List<Name> createTypeNames() throws IOException {
+        Name typeName = new NameImpl(features.getSchema().getTypeName());
+        return Collections.singletonList(typeName);
+    }
+
+    @Override
+    protected ContentFeatureSource createFeatureSource(ContentEntry entry) throws IOException {
+        return new FlatGeobufFeatureSource(entry, features);
+    }
+
+    static final class FlatGeobufFeatureSource extends ContentFeatureSource {
+
+        private final FlatGeobufFeatureCollection features;
+
+        FlatGeobufFeatureSource(ContentEntry entry, FlatGeobufFeatureCollection features) {
+            super(entry, Query.ALL);
+            this.features = features;
+        }
+
+        @Override
+        protected SimpleFeatureType buildFeatureType() throws IOException {
+            return features.getSchema();
+        }
+
+        @Override
+        protected ReferencedEnvelope getBoundsInternal(Query query) throws IOException {
+            if (query.getFilter() == Filter.INCLUDE) {
+                return features.getBounds(); // from the header
+            }
+            return features.subCollection(query.getFilter()).getBounds();
+        }
+
+        @Override
+        protected int getCountInternal(Query query) throws IOException {
+            if (query.getFilter() == Filter.INCLUDE) {
+                return features.size(); // from the header
+            }
+            return features.subCollection(query.getFilter()).size();
+        }
+
+        @Override
+        protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query)
+                throws IOException {
+            SimpleFeatureCollection subset = features.subCollection(query.getFilter());
+            return new DelegateSimpleFeatureReader(getSchema(), subset.features());
+        }
+
+        @Override
+        protected boolean canFilter() {
+            return true; // the sub collection applies the whole filter
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.locationtech.udig.catalog.IGeoResource;
+import org.locationtech.udig.catalog.IGeoResourceInfo;
+import org.locationtech.udig.catalog.IService;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Read-only feature resource of a {@link FlatGeobufService}. The layer reads the file through
+ * the feature source, the features are not copied.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class FlatGeobufGeoResource extends IGeoResource {
+
+    private final FlatGeobufService parent;
+
+    private final String typeName;
+
+    private final URL identifier;
+
+    FlatGeobufGeoResource(FlatGeobufService parent, String typeName) {
+        this.parent = parent;
+        this.typeName = typeName;
+        try {
+            this.identifier = new URL(parent.getIdentifier(), "#" + typeName); //$NON-NLS-1$
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public URL getIdentifier() {
+        return identifier;
+    }
+
+    @Override
+    public Status getStatus() {
+        return parent.getStatus();
+    }
+
+    @Override
+    public Throwable getMessage() {
+        return parent.getMessage();
+    }
+
+    @Override
+    public IService service(IProgressMonitor monitor) throws IOException {
+        return parent;
+    }
+
+    @Override
+    public <T> boolean canResolve(Class<T> adaptee) {
+        if (adaptee == null) {
+            return false;
+        }
+        return adaptee.isAssignableFrom(SimpleFeatureSource.class)
+                || adaptee.isAssignableFrom(SimpleFeatureType.class)
+                || super.canResolve(adaptee);
+    }
+
+    @Override
+    public <T> T resolve(Class<T> adaptee, IProgressMonitor monitor) throws IOException {
+        if (adaptee == null) {
+            return null;
+        }
+        if (adaptee.isAssignableFrom(SimpleFeatureSource.class)) {
+            return adaptee.cast(getFeatureSource());
+        }
+        if (adaptee.isAssignableFrom(SimpleFeatureType.class)) {
+            return adaptee.cast(getFeatureSource().getSchema());
+        }
+        return super.resolve(adaptee, monitor);
+    }
+
+    private SimpleFeatureSource getFeatureSource() throws IOException {
+        return parent.getDataStore().getFeatureSource(typeName);
+    }
+
+    @Override
+    protected IGeoResourceInfo createInfo(IProgressMonitor monitor) throws IOException {
+        SimpleFeatureSource source = getFeatureSource();
+        SimpleFeatureType schema = source.getSchema();
+        return new IGeoResourceInfo(typeName, typeName, parent.getInfo(monitor).getDescription(),
+                null, source.getBounds(), schema.getCoordinateReferenceSystem(),
+                new String[] { typeName }, null);
+    }
+}
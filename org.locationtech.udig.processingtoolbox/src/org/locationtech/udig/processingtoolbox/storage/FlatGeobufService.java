@@ -0,0 +1,157 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FilenameUtils;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.geotools.data.DataStore;
+import org.geotools.data.DataUtilities;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.catalog.IService;
+import org.locationtech.udig.catalog.IServiceInfo;
+
+/**
+ * Catalog service of a FlatGeobuf file with one resource, its features are read from the file by
+ * a {@link FlatGeobufDataStore}
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class FlatGeobufService extends IService {
+    protected static final Logger LOGGER = Logging.getLogger(FlatGeobufService.class);
+
+    private final URL url;
+
+    private final Map<String, Serializable> params;
+
+    private volatile FlatGeobufDataStore dataStore;
+
+    private volatile List<FlatGeobufGeoResource> members;
+
+    private Throwable message;
+
+    public FlatGeobufService(URL url, Map<String, Serializable> params) {
+        this.url = url;
+        this.params = params;
+    }
+
+    @Override
+    public Map<String, Serializable> getConnectionParams() {
+        return params;
+    }
+
+    @Override
+    public URL getIdentifier() {
+        return url;
+    }
+
+    @Override
+    public Status getStatus() {
+        if (message != null) {
+            return Status.BROKEN;
+        }
+        return dataStore == null ? Status.NOTCONNECTED : Status.CONNECTED;
+    }
+
+    @Override
+    public Throwable getMessage() {
+        return message;
+    }
+
+    @Override
+    public <T> boolean canResolve(Class<T> adaptee) {
+        if (adaptee == null) {
+            return false;
+        }
+        return adaptee.isAssignableFrom(FlatGeobufDataStore.class) || super.canResolve(adaptee);
+    }
+
+    @Override
+    public <T> T resolve(Class<T> adaptee, IProgressMonitor monitor) throws IOException {
+        if (adaptee == null) {
+            return null;
+        }
+        if (adaptee.isAssignableFrom(FlatGeobufDataStore.class)) {
+            return adaptee.cast(getDataStore());
+        }
+        return super.resolve(adaptee, monitor);
+    }
+
+    @Override
+    public List<FlatGeobufGeoResource> resources(IProgressMonitor monitor) throws IOException {
+        if (members == null) {
+            synchronized (this) {
+                if (members == null) {
+                    String typeName = getDataStore().getTypeNames()[0];
+                    members = Collections.singletonList(new FlatGeobufGeoResource(this,
+                            typeName));
+                }
+            }
+        }
+        return members;
+    }
+
+    @Override
+    protected IServiceInfo createInfo(IProgressMonitor monitor) throws IOException {
+        final File file = DataUtilities.urlToFile(url);
+        return new IServiceInfo() {
+            {
+                title = FilenameUtils.getBaseName(file.getName());
+                description = file.getPath();
+                keywords = new String[] { "FlatGeobuf", title }; //$NON-NLS-1$
+            }
+        };
+    }
+
+    /**
+     * Opens the file once and reads its header, the features are read by each query
+     */
+    DataStore getDataStore() throws IOException {
+        if (dataStore == null) {
+            synchronized (this) {
+                if (dataStore == null) {
+                    try {
+                        dataStore = new FlatGeobufDataStore(DataUtilities.urlToFile(url));
+                        message = null;
+                    } catch (IOException e) {
+                        message = e;
+                        throw e;
+                    }
+                }
+            }
+        }
+        return dataStore;
+    }
+
+    @Override
+    public void dispose(IProgressMonitor monitor) {
+        super.dispose(monitor);
+        if (dataStore != null) {
+            try {
+                dataStore.dispose();
+            } catch (Exception e) {
+                LOGGER.log(Level.FINER, e.getMessage(), e);
+            }
+            dataStore = null;
+        }
+        members = null;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.io.Serializable;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.data.DataUtilities;
+import org.locationtech.udig.catalog.IService;
+import org.locationtech.udig.catalog.ServiceExtension;
+
+/**
+ * Catalog service extension of FlatGeobuf files, registered in plugin.xml
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class FlatGeobufServiceExtension implements ServiceExtension {
+
+    public static final String URL_PARAM = "url"; //$NON-NLS-1$
+
+    @Override
+    public IService createService(URL id, Map<String, Serializable> params) {
+        if (params == null || !(params.get(URL_PARAM) instanceof URL)) {
+            return null;
+        }
+
+        URL url = (URL) params.get(URL_PARAM);
+        if (!isFlatGeobuf(url)) {
+            return null;
+        }
+        return new FlatGeobufService(id == null ? url : id, params);
+    }
+
+    @Override
+    public Map<String, Serializable> createParams(URL url) {
+        if (!isFlatGeobuf(url)) {
+            return null;
+        }
+
+        Map<String, Serializable> params = new HashMap<String, Serializable>();
+        params.put(URL_PARAM, url);
+        return params;
+    }
+
+    private boolean isFlatGeobuf(URL url) {
+        if (url == null || !"file".equalsIgnoreCase(url.getProtocol())) { //$NON-NLS-1$
+            return false;
+        }
+
+        return ProcessOutputWriter.isFlatGeobuf(DataUtilities.urlToFile(url));
+    }
+}
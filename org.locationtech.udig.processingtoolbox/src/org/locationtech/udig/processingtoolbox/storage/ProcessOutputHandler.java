@@ -0,0 +1,88 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Post-processing of the values of a process result, shared by the toolbox and the headless
+ * process runner.
+ * <p>
+ * Text values are formatted as HTML, geometries and bounding boxes are converted to features.
+ * The subclass writes each value where it belongs.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public abstract class ProcessOutputHandler {
+
+    private final String title;
+
+    private final String typeName;
+
+    private final CoordinateReferenceSystem defaultCRS;
+
+    /**
+     * @param title process title of the HTML reports
+     * @param typeName type name of the features of a geometry or bounding box result
+     * @param defaultCRS used when a geometry has no coordinate reference system, or null
+     */
+    protected ProcessOutputHandler(String title, String typeName,
+            CoordinateReferenceSystem defaultCRS) {
+        this.title = title;
+        this.typeName = typeName;
+        this.defaultCRS = defaultCRS;
+    }
+
+    /**
+     * Post-processes the values of a result in their order, null values are skipped
+     */
+    public void handle(Map<String, Object> result) throws IOException {
+        if (result == null) {
+            return;
+        }
+
+        for (Entry<String, Object> entry : result.entrySet()) {
+            Object value = entry.getValue();
+            if (value == null) {
+                continue;
+            }
+
+            String key = entry.getKey();
+            if (!ProcessOutputWriter.isFileOutput(value)) {
+                handleText(key, ProcessOutputWriter.toHtml(title, value));
+            } else if (value instanceof GridCoverage2D) {
+                handleCoverage(key, (GridCoverage2D) value);
+            } else if (value instanceof SimpleFeatureCollection) {
+                handleFeatures(key, (SimpleFeatureCollection) value);
+            } else {
+                handleFeatures(key, ProcessOutputWriter.toFeatures(value, typeName, defaultCRS));
+            }
+        }
+    }
+
+    /**
+     * @param html HTML report of a value which is not written as a spatial file
+     */
+    protected abstract void handleText(String key, String html) throws IOException;
+
+    protected abstract void handleCoverage(String key, GridCoverage2D coverage)
+            throws IOException;
+
+    protected abstract void handleFeatures(String key, SimpleFeatureCollection features)
+            throws IOException;
+}
@@ -0,0 +1,286 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FilenameUtils;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.data.DataStore;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.shapefile.ShapefileDataStoreFactory;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.process.spatialstatistics.GlobalGStatisticsProcess.GStatisticsProcessResult;
+import org.geotools.process.spatialstatistics.GlobalGearysCProcess.GearysCProcessResult;
+import org.geotools.process.spatialstatistics.GlobalLeesLProcess.LeesLProcessResult;
+import org.geotools.process.spatialstatistics.GlobalLeesSProcess.LeesSProcessResult;
+import org.geotools.process.spatialstatistics.GlobalMoransIProcess.MoransIProcessResult;
+import org.geotools.process.spatialstatistics.GlobalRogersonRProcess.RogersonRProcessResult;
+import org.geotools.process.spatialstatistics.JoinCountStatisticsProcess.JoinCountProcessResult;
+import org.geotools.process.spatialstatistics.core.FeatureTypes;
+import org.geotools.process.spatialstatistics.core.FormatUtils;
+import org.geotools.process.spatialstatistics.core.HistogramProcessResult;
+import org.geotools.process.spatialstatistics.gridcoverage.RasterDescribeOperation.RasterDescribeResult;
+import org.geotools.process.spatialstatistics.operations.DataStatisticsOperation.DataStatisticsResult;
+import org.geotools.process.spatialstatistics.operations.PearsonOperation.PearsonResult;
+import org.geotools.process.spatialstatistics.pattern.NNIOperation.NearestNeighborResult;
+import org.geotools.process.spatialstatistics.pattern.QuadratOperation.QuadratResult;
+import org.geotools.process.spatialstatistics.relationship.OLSResult;
+import org.geotools.process.spatialstatistics.storage.DataStoreFactory;
+import org.geotools.process.spatialstatistics.storage.ShapeExportOperation;
+import org.geotools.process.spatialstatistics.transformation.ForceCRSFeatureCollection;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.processingtoolbox.jobs.ProcessProfiler;
+import org.locationtech.udig.processingtoolbox.tools.HtmlWriter;
+import org.locationtech.udig.processingtoolbox.tools.format.FlatGeobufFeatureCollection;
+import org.locationtech.udig.processingtoolbox.tools.format.FlatGeobufWriter;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LinearRing;
+
+/**
+ * Writes the results of a process to files: feature results as shapefiles or FlatGeobuf files,
+ * grid coverages as tiled GeoTIFF with a statistics sidecar and other values as HTML.
+ * <p>
+ * The writer has no dependency on the workbench or the map, it is shared by
+ * {@link org.locationtech.udig.processingtoolbox.styler.ProcessExecutorOperation} and the
+ * headless process runner.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class ProcessOutputWriter {
+    protected static final Logger LOGGER = Logging.getLogger(ProcessOutputWriter.class);
+
+    private final String charset;
+
+    private final TiledGeoTiffWriter geoTiffWriter;
+
+    /**
+     * @param charset DBF character set of the shapefiles
+     * @param geoTiffWriter writer of the grid coverage results
+     */
+    public ProcessOutputWriter(String charset, TiledGeoTiffWriter geoTiffWriter) {
+        this.charset = charset;
+        this.geoTiffWriter = geoTiffWriter;
+    }
+
+    /**
+     * @return true if the value is written as a shapefile or a GeoTIFF, false if written as text
+     */
+    public static boolean isFileOutput(Object value) {
+        return value instanceof SimpleFeatureCollection || value instanceof Geometry
+                || value instanceof BoundingBox || value instanceof GridCoverage2D;
+    }
+
+    /**
+     * @return default extension of a result type, .tif or .shp
+     */
+    public static String getExtension(Class<?> binding) {
+        return GridCoverage2D.class.isAssignableFrom(binding) ? ".tif" : ".shp"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * @return true if the features of the file are written as FlatGeobuf, by its .fgb extension
+     */
+    public static boolean isFlatGeobuf(File filePath) {
+        return FilenameUtils.isExtension(filePath.getName().toLowerCase(), "fgb"); //$NON-NLS-1$
+    }
+
+    /**
+     * Converts a geometry or a bounding box result to a feature collection with one feature
+     * 
+     * @param defaultCRS used when the geometry has no coordinate reference system as user data
+     */
+    public static SimpleFeatureCollection toFeatures(Object value, String typeName,
+            CoordinateReferenceSystem defaultCRS) {
+        Geometry source = null;
+        if (value instanceof BoundingBox) {
+            source = JTS.toGeometry((BoundingBox) value);
+            source.setUserData(((BoundingBox) value).getCoordinateReferenceSystem());
+        } else {
+            source = (Geometry) value;
+        }
+
+        CoordinateReferenceSystem crs = defaultCRS;
+        if (source.getUserData() != null
+                && CoordinateReferenceSystem.class
+                        .isAssignableFrom(source.getUserData().getClass())) {
+            crs = (CoordinateReferenceSystem) source.getUserData();
+        }
+
+        Geometry geometry = source;
+        if (source instanceof LinearRing) {
+            geometry = source.getFactory().createPolygon((LinearRing) source, null);
+            geometry.setUserData(source.getUserData());
+        }
+
+        SimpleFeatureType schema = FeatureTypes.getDefaultType(typeName, geometry.getClass(), crs);
+
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
+
+        SimpleFeature feature = builder.buildFeature(null);
+        feature.setDefaultGeometry(geometry);
+        features.add(feature);
+
+        return features;
+    }
+
+    /**
+     * Writes features to a shapefile, or to a FlatGeobuf file with its spatial index if the file
+     * has the .fgb extension
+     * 
+     * @param defaultCRS used when the features have no coordinate reference system
+     * @return the written features, or null if they could not be written
+     */
+    public SimpleFeatureSource writeFeatures(SimpleFeatureCollection source, File filePath,
+            CoordinateReferenceSystem defaultCRS) throws IOException {
+        CoordinateReferenceSystem crs = source.getSchema().getCoordinateReferenceSystem();
+        if (crs == null && defaultCRS != null) {
+            source = new ForceCRSFeatureCollection(source, defaultCRS);
+        }
+
+        if (isFlatGeobuf(filePath)) {
+            new FlatGeobufWriter().write(source, filePath);
+            return DataUtilities.source(readFeatures(filePath));
+        }
+
+        String typeName = FilenameUtils.getBaseName(filePath.getPath());
+        DataStore dataStore = DataStoreFactory.getDataStore(getShapefileParams(filePath));
+        ShapeExportOperation exportOp = new ShapeExportOperation(); // not shared between jobs
+        exportOp.setOutputDataStore(dataStore);
+        exportOp.setOutputTypeName(typeName);
+        return exportOp.execute(source);
+    }
+
+    /**
+     * Writes a grid coverage as GeoTIFF with its statistics sidecar
+     * 
+     * @param statistics empty statistics of each band, collected from the tiles as they are
+     *            written
+     * @param profiler profiler of the calling thread, counts the written cells, or null
+     * @return the written coverage
+     */
+    public GridCoverage2D writeCoverage(GridCoverage2D source, File filePath,
+            RasterStatistics[] statistics, ProcessProfiler profiler)
+            throws IllegalArgumentException, IndexOutOfBoundsException, IOException {
+        if (profiler != null) {
+            profiler.begin(ProcessProfiler.WRITE);
+        }
+        GridCoverage2D output = geoTiffWriter.write(source, filePath.getAbsoluteFile(),
+                statistics);
+
+        // read by styling and thematic maps instead of a rescan
+        RasterAuxFile.write(filePath, statistics);
+        if (profiler != null) {
+            RenderedImage image = source.getRenderedImage();
+            long cells = (long) image.getWidth() * image.getHeight()
+                    * source.getNumSampleDimensions();
+            profiler.end(ProcessProfiler.WRITE, cells, ProcessProfiler.CELLS);
+        }
+        return output;
+    }
+
+    /**
+     * @return HTML report of a statistics result or any other value
+     */
+    public static String toHtml(String title, Object value) {
+        HtmlWriter writer = new HtmlWriter(title);
+        if (value instanceof DataStatisticsResult) {
+            writer.writeDataStatistics((DataStatisticsResult) value);
+        } else if (value instanceof GStatisticsProcessResult) {
+            writer.writeGStatistics((GStatisticsProcessResult) value);
+        } else if (value instanceof MoransIProcessResult) {
+            writer.writeMoransI((MoransIProcessResult) value);
+        } else if (value instanceof GearysCProcessResult) {
+            writer.writeGearysC((GearysCProcessResult) value);
+        } else if (value instanceof LeesSProcessResult) {
+            writer.writeLeesS((LeesSProcessResult) value);
+        } else if (value instanceof LeesLProcessResult) {
+            writer.writeLeesL((LeesLProcessResult) value);
+        } else if (value instanceof RogersonRProcessResult) {
+            writer.writeRogersonR((RogersonRProcessResult) value);
+        } else if (value instanceof NearestNeighborResult) {
+            writer.writeNearestNeighbor((NearestNeighborResult) value);
+        } else if (value instanceof PearsonResult) {
+            writer.writePearson((PearsonResult) value);
+        } else if (value instanceof OLSResult) {
+            writer.writeOLSProcess((OLSResult) value);
+        } else if (value instanceof JoinCountProcessResult) {
+            writer.writeJoinCount((JoinCountProcessResult) value);
+        } else if (value instanceof HistogramProcessResult) {
+            writer.writeHistogramProcess((HistogramProcessResult) value);
+        } else if (value instanceof QuadratResult) {
+            writer.writeQuadratProcess((QuadratResult) value);
+        } else if (value instanceof RasterDescribeResult) {
+            writer.writeRasterDescribeProcess((RasterDescribeResult) value);
+        } else if (Number.class.isAssignableFrom(value.getClass())) {
+            writer.writeH2(FormatUtils.format(Double.parseDouble(value.toString())));
+        } else {
+            writer.writePre(value.toString());
+        }
+        return writer.getHTML();
+    }
+
+    /**
+     * Opens a shapefile written by this writer
+     */
+    public SimpleFeatureSource openShapefile(File filePath) throws IOException {
+        String typeName = FilenameUtils.getBaseName(filePath.getPath());
+        return openDataStore(filePath).getFeatureSource(typeName);
+    }
+
+    /**
+     * Opens the data store of a shapefile written by this writer, to be disposed by the caller
+     */
+    public DataStore openDataStore(File filePath) throws IOException {
+        DataStore dataStore = DataStoreFactory.getDataStore(getShapefileParams(filePath));
+        if (dataStore == null) {
+            throw new IOException(filePath.getPath());
+        }
+        return dataStore;
+    }
+
+    /**
+     * Reads the features of a shapefile or a FlatGeobuf file written by this writer, the extent
+     * queries of a FlatGeobuf file read its packed R-tree
+     */
+    public SimpleFeatureCollection readFeatures(File filePath) throws IOException {
+        if (isFlatGeobuf(filePath)) {
+            return FlatGeobufFeatureCollection.open(filePath);
+        }
+        return openShapefile(filePath).getFeatures();
+    }
+
+    private Map<String, Object> getShapefileParams(File filePath) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        File file = filePath.getAbsoluteFile().getParentFile();
+        params.put(ShapefileDataStoreFactory.URLP.key, DataUtilities.fileToURL(file));
+        // the index is built after the write, see ShapefileIndexBuilder
+        params.put(ShapefileDataStoreFactory.CREATE_SPATIAL_INDEX.key, false);
+        params.put(ShapefileDataStoreFactory.DBFCHARSET.key, charset);
+        return params;
+    }
+}
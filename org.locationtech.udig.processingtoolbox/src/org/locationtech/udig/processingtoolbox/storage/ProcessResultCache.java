@@ -0,0 +1,523 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.filter.text.ecql.ECQL;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.processingtoolbox.ToolboxView;
+import org.locationtech.udig.processingtoolbox.styler.MapUtils;
+import org.locationtech.udig.project.ILayer;
+import org.locationtech.udig.project.IMap;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.Expression;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Content addressed cache of process outputs in the toolbox workspace.
+ * <p>
+ * The key is a SHA-1 hash of the process name, the canonical form of the input parameters and
+ * the modification time and size of the files backing the input layers. Each entry is a folder
+ * holding a copy of the output files with their sidecars and the text output of the process.
+ * Entries are evicted in least recently used order when the cache exceeds its capacity.
+ * <p>
+ * A process whose inputs cannot be identified, e.g. a layer without a local file or a parameter
+ * type without a canonical form, is not cached.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class ProcessResultCache {
+    protected static final Logger LOGGER = Logging.getLogger(ProcessResultCache.class);
+
+    public static final int DEFAULT_CAPACITY = 1024; // MB
+
+    static final String CACHE_FOLDER = ".cache";
+
+    // file names of an entry folder, never the sidecar of an output named after a parameter
+    static final String ENTRY_FILE = "_entry.properties";
+
+    static final String TEXT_FILE = "_output.html";
+
+    static final String ENCODING = "UTF-8";
+
+    // sidecars named after the base name of a shapefile or a raster: roads.dbf, dem.tfw
+    static final String[] SHAPEFILE_SIDECARS = { "shx", "dbf", "prj", "cpg", "qix", "fix", "sbn",
+            "sbx", "qpj", "shp.xml" };
+
+    static final String[] RASTER_SIDECARS = { "tfw", "tifw", "tiffw", "aux", "aux.xml", "ovr",
+            "rrd" };
+
+    // sidecars named after the file name of a raster by GDAL: dem.tif.aux.xml, dem.tif.ovr
+    static final String[] RASTER_FILE_SIDECARS = { "aux.xml", "ovr", "msk" };
+
+    private final File folder;
+
+    private final long capacity;
+
+    /**
+     * @param folder cache folder
+     * @param capacity capacity in bytes
+     */
+    public ProcessResultCache(File folder, long capacity) {
+        this.folder = folder;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the cache of the toolbox workspace or null if the cache is disabled
+     */
+    public static ProcessResultCache getDefault() {
+        int capacity = ToolboxView.getResultCacheSize();
+        if (capacity <= 0) {
+            return null;
+        }
+        File folder = new File(ToolboxView.getWorkspaceFolder(), CACHE_FOLDER);
+        return new ProcessResultCache(folder, capacity * 1024L * 1024L);
+    }
+
+    /**
+     * Returns the output file and its sidecars: the files of the same folder named after the
+     * file with a known sidecar extension of its format, e.g. roads.dbf for roads.shp or
+     * dem.tfw and dem.tif.aux.xml for dem.tif. Other files sharing the base name, such as
+     * roads.backup.shp, are never returned.
+     */
+    public static List<File> getSidecarFiles(File file) {
+        List<File> files = new ArrayList<File>();
+        File parent = file.getAbsoluteFile().getParentFile();
+        File[] children = parent == null ? null : parent.listFiles();
+        if (children == null) {
+            return files;
+        }
+
+        String fileName = file.getName().toLowerCase();
+        String extension = FilenameUtils.getExtension(fileName);
+        String prefix = FilenameUtils.getBaseName(fileName) + ".";
+
+        Set<String> names = new HashSet<String>();
+        names.add(fileName);
+        if (extension.equals("shp")) {
+            for (String sidecar : SHAPEFILE_SIDECARS) {
+                names.add(prefix + sidecar);
+            }
+        } else if (extension.equals("tif") || extension.equals("tiff")) {
+            for (String sidecar : RASTER_SIDECARS) {
+                names.add(prefix + sidecar);
+            }
+            for (String sidecar : RASTER_FILE_SIDECARS) {
+                names.add(fileName + "." + sidecar);
+            }
+        }
+
+        for (File child : children) {
+            if (child.isFile() && names.contains(child.getName().toLowerCase())) {
+                files.add(child);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Creates the cache key of a process run
+     * 
+     * @param processName process name
+     * @param inputParams input parameters
+     * @param map map of the input layers
+     * @return cache key or null if the inputs cannot be identified
+     */
+    public String getKey(String processName, Map<String, Object> inputParams, IMap map) {
+        StringBuilder sb = new StringBuilder(processName).append('\n');
+        Map<String, Object> sorted = new TreeMap<String, Object>(inputParams);
+        for (Entry<String, Object> entry : sorted.entrySet()) {
+            sb.append(entry.getKey()).append('=');
+            if (!canonicalize(entry.getValue(), map, sb)) {
+                LOGGER.log(Level.FINE, processName + " is not cached: " + entry.getKey());
+                return null;
+            }
+            sb.append('\n');
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(sb.toString().getBytes(ENCODING));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b & 0xFF));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.log(Level.WARNING, e.getMessage(), e);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    private boolean canonicalize(Object value, IMap map, StringBuilder sb) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Number || value instanceof Boolean
+                || value instanceof CharSequence || value instanceof Character
+                || value instanceof Enum<?>) {
+            sb.append(value.getClass().getSimpleName()).append(':').append(value);
+        } else if (value instanceof SimpleFeatureCollection) {
+            return canonicalize((SimpleFeatureCollection) value, map, sb);
+        } else if (value instanceof GridCoverage2D) {
+            return canonicalize((GridCoverage2D) value, map, sb);
+        } else if (value instanceof Geometry) {
+            Geometry geometry = (Geometry) value;
+            sb.append(geometry.toText());
+            if (geometry.getUserData() instanceof CoordinateReferenceSystem) {
+                sb.append(';');
+                canonicalize(geometry.getUserData(), map, sb);
+            }
+        } else if (value instanceof BoundingBox) {
+            BoundingBox bbox = (BoundingBox) value;
+            sb.append(bbox.getMinX()).append(',').append(bbox.getMinY()).append(',');
+            sb.append(bbox.getMaxX()).append(',').append(bbox.getMaxY()).append(';');
+            canonicalize(bbox.getCoordinateReferenceSystem(), map, sb);
+        } else if (value instanceof CoordinateReferenceSystem) {
+            CoordinateReferenceSystem crs = (CoordinateReferenceSystem) value;
+            String srs = CRS.toSRS(crs, false);
+            sb.append(srs == null ? crs.toWKT() : srs);
+        } else if (value instanceof Filter) {
+            sb.append(ECQL.toCQL((Filter) value));
+        } else if (value instanceof Expression) {
+            sb.append(ECQL.toCQL((Expression) value));
+        } else if (value instanceof Collection<?>) {
+            sb.append('[');
+            for (Object item : (Collection<?>) value) {
+                if (!canonicalize(item, map, sb)) {
+                    return false;
+                }
+                sb.append(',');
+            }
+            sb.append(']');
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private boolean canonicalize(SimpleFeatureCollection features, IMap map, StringBuilder sb) {
+        String typeName = features.getSchema().getTypeName();
+        ILayer found = null;
+        File foundFile = null;
+        for (ILayer layer : map.getMapLayers()) {
+            if (!layer.hasResource(FeatureSource.class)) {
+                continue;
+            }
+
+            try {
+                FeatureSource<?, ?> source = layer.getResource(FeatureSource.class,
+                        new NullProgressMonitor());
+                if (source == null || !typeName.equals(source.getSchema().getName()
+                        .getLocalPart())) {
+                    continue;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINER, e.getMessage(), e);
+                continue;
+            }
+
+            File file = MapUtils.getLayerFile(layer);
+            if (file == null || (foundFile != null && !foundFile.equals(file))) {
+                return false; // not a file or ambiguous
+            }
+            found = layer;
+            foundFile = file;
+        }
+
+        if (found == null) {
+            return false;
+        }
+
+        appendFileStamp(foundFile, sb);
+        if (ToolboxView.getSelectedOnly() && found.getFilter() != Filter.EXCLUDE) {
+            sb.append(';').append(ECQL.toCQL(found.getFilter()));
+        }
+        return true;
+    }
+
+    private boolean canonicalize(GridCoverage2D coverage, IMap map, StringBuilder sb) {
+        String name = coverage.getName().toString();
+        File foundFile = null;
+        for (ILayer layer : map.getMapLayers()) {
+            if (!MapUtils.isRatserLayer(layer)) {
+                continue;
+            }
+
+            File file = MapUtils.getLayerFile(layer);
+            if (file == null || !FilenameUtils.getBaseName(file.getName()).equals(name)) {
+                continue;
+            }
+
+            if (foundFile != null && !foundFile.equals(file)) {
+                return false; // ambiguous
+            }
+            foundFile = file;
+        }
+
+        if (foundFile == null) {
+            return false;
+        }
+        appendFileStamp(foundFile, sb);
+        return true;
+    }
+
+    private void appendFileStamp(File file, StringBuilder sb) {
+        sb.append(file.getAbsolutePath());
+        List<File> files = getSidecarFiles(file);
+        sortByName(files);
+        for (File sidecar : files) {
+            sb.append(';').append(sidecar.getName()).append(':');
+            sb.append(sidecar.lastModified()).append(':').append(sidecar.length());
+        }
+    }
+
+    /**
+     * @return true if the cache holds a complete entry for the key
+     */
+    public boolean contains(String key) {
+        return new File(new File(folder, key), ENTRY_FILE).exists();
+    }
+
+    /**
+     * Copies the cached outputs to the requested output locations
+     * 
+     * @param key cache key
+     * @param outputParams output parameter name and output file
+     * @return output parameter name and restored file, or null if the entry is missing or was
+     *         written in another format than the requested outputs
+     * @throws IOException if a file could not be copied, the files already copied are deleted
+     */
+    public Map<String, File> restore(String key, Map<String, Object> outputParams)
+            throws IOException {
+        File entryFolder = new File(folder, key);
+        Properties entry = readEntry(entryFolder);
+        if (entry == null) {
+            return null;
+        }
+
+        // every output is checked before any file is copied
+        Map<String, File> cachedFiles = new LinkedHashMap<String, File>();
+        for (String name : entry.stringPropertyNames()) {
+            Object outputPath = outputParams.get(name);
+            File cached = new File(entryFolder, entry.getProperty(name));
+            if (outputPath == null || outputPath.toString().length() == 0 || !cached.exists()) {
+                return null;
+            }
+
+            // a result cached as a shapefile is not restored as a FlatGeobuf file
+            String extension = FilenameUtils.getExtension(cached.getName());
+            if (!extension.equalsIgnoreCase(FilenameUtils.getExtension(outputPath.toString()))) {
+                return null;
+            }
+            cachedFiles.put(name, cached);
+        }
+
+        Map<String, File> restored = new LinkedHashMap<String, File>();
+        List<File> copied = new ArrayList<File>();
+        boolean completed = false;
+        try {
+            for (Entry<String, File> cached : cachedFiles.entrySet()) {
+                Object outputPath = outputParams.get(cached.getKey());
+                File outputFile = new File(outputPath.toString()).getAbsoluteFile();
+                String baseName = FilenameUtils.getBaseName(cached.getValue().getName());
+                String outputBaseName = FilenameUtils.getBaseName(outputFile.getName());
+                for (File sidecar : getSidecarFiles(cached.getValue())) {
+                    // keep the extension, e.g. .aux.xml
+                    String extension = sidecar.getName().substring(baseName.length());
+                    File target = new File(outputFile.getParentFile(), outputBaseName
+                            + extension);
+                    copied.add(target);
+                    FileUtils.copyFile(sidecar, target, true);
+                }
+                restored.put(cached.getKey(), outputFile);
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                // no half restored result is left at the output locations
+                for (File target : copied) {
+                    FileUtils.deleteQuietly(target);
+                }
+            }
+        }
+
+        entryFolder.setLastModified(System.currentTimeMillis());
+        return restored;
+    }
+
+    /**
+     * @return cached text output of the process or an empty string
+     */
+    public String getText(String key) {
+        File textFile = new File(new File(folder, key), TEXT_FILE);
+        if (!textFile.exists()) {
+            return "";
+        }
+
+        try {
+            return FileUtils.readFileToString(textFile, ENCODING);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+            return "";
+        }
+    }
+
+    /**
+     * Stores the outputs of a process run and evicts the least recently used entries
+     * 
+     * @param key cache key
+     * @param outputs output parameter name and written file
+     * @param text text output of the process
+     */
+    public void put(String key, Map<String, File> outputs, String text) {
+        File entryFolder = new File(folder, key);
+        try {
+            if (entryFolder.exists()) {
+                FileUtils.deleteDirectory(entryFolder);
+            }
+            entryFolder.mkdirs();
+
+            Properties entry = new Properties();
+            for (Entry<String, File> output : outputs.entrySet()) {
+                String baseName = FilenameUtils.getBaseName(output.getValue().getName());
+                for (File sidecar : getSidecarFiles(output.getValue())) {
+                    // the output name is the file name in the cache, names may collide
+                    String extension = sidecar.getName().substring(baseName.length());
+                    FileUtils.copyFile(sidecar, new File(entryFolder, output.getKey()
+                            + extension), true);
+                }
+                entry.setProperty(output.getKey(), output.getKey() + "."
+                        + FilenameUtils.getExtension(output.getValue().getName()));
+            }
+
+            if (text != null && text.length() > 0) {
+                FileUtils.writeStringToFile(new File(entryFolder, TEXT_FILE), text, ENCODING);
+            }
+
+            // written last, an entry without it is incomplete
+            OutputStream out = new FileOutputStream(new File(entryFolder, ENTRY_FILE));
+            try {
+                entry.store(out, null);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, e.getMessage(), e);
+            FileUtils.deleteQuietly(entryFolder);
+            return;
+        }
+        evict();
+    }
+
+    private Properties readEntry(File entryFolder) {
+        File entryFile = new File(entryFolder, ENTRY_FILE);
+        if (!entryFile.exists()) {
+            return null;
+        }
+
+        Properties entry = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(entryFile);
+            entry.load(in);
+            return entry;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINER, e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits its capacity
+     */
+    public void evict() {
+        File[] entries = folder.listFiles();
+        if (entries == null) {
+            return;
+        }
+
+        // most recently used first
+        Arrays.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.valueOf(o2.lastModified()).compareTo(o1.lastModified());
+            }
+        });
+
+        long size = 0;
+        for (File entryFolder : entries) {
+            if (!entryFolder.isDirectory()) {
+                continue;
+            }
+
+            size += FileUtils.sizeOfDirectory(entryFolder);
+            if (size > capacity) {
+                LOGGER.log(Level.FINE, "Evicting cached result " + entryFolder.getName());
+                FileUtils.deleteQuietly(entryFolder);
+            }
+        }
+    }
+
+    private void sortByName(List<File> files) {
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+    }
+}
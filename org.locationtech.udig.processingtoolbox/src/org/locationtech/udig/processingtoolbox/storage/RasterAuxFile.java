@@ -0,0 +1,321 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Reads and writes raster statistics as a GDAL PAM sidecar (raster.tif.aux.xml).
+ * <p>
+ * GDAL and QGIS read the same file, so a statistics scan is never needed when a raster written by
+ * the toolbox is opened again. The sidecars written by the toolbox are marked with a metadata
+ * domain, a sidecar of another application (GDAL, ArcGIS) is never overwritten.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class RasterAuxFile {
+    protected static final Logger LOGGER = Logging.getLogger(RasterAuxFile.class);
+
+    static final String EXTENSION = ".aux.xml";
+
+    static final String METADATA_DOMAIN = "UDIG_PROCESSINGTOOLBOX";
+
+    static final String WRITER_KEY = "WRITER";
+
+    static final String WRITER = "org.locationtech.udig.processingtoolbox";
+
+    private RasterAuxFile() {
+    }
+
+    public static File getAuxFile(File rasterFile) {
+        return new File(rasterFile.getPath() + EXTENSION);
+    }
+
+    /**
+     * Writes the statistics of each band next to the raster file, unless the raster has a sidecar
+     * written by another application
+     * 
+     * @param rasterFile raster file
+     * @param statistics band statistics, in band order
+     * @return true if the sidecar was written
+     */
+    public static boolean write(File rasterFile, RasterStatistics[] statistics)
+            throws IOException {
+        if (!isWritable(rasterFile)) {
+            LOGGER.log(Level.FINE, getAuxFile(rasterFile) + " is not written by the toolbox");
+            return false;
+        }
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(getAuxFile(rasterFile)));
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out,
+                    "UTF-8");
+            writer.writeStartElement("PAMDataset");
+
+            // marks the sidecar as written by the toolbox, kept by GDAL
+            writer.writeCharacters("\n  ");
+            writer.writeStartElement("Metadata");
+            writer.writeAttribute("domain", METADATA_DOMAIN);
+            writer.writeCharacters("\n    ");
+            writer.writeStartElement("MDI");
+            writer.writeAttribute("key", WRITER_KEY);
+            writer.writeCharacters(WRITER);
+            writer.writeEndElement();
+            writer.writeCharacters("\n  ");
+            writer.writeEndElement(); // Metadata
+            for (int band = 0; band < statistics.length; band++) {
+                RasterStatistics stats = statistics[band];
+                if (stats == null || stats.isEmpty()) {
+                    continue;
+                }
+
+                writer.writeCharacters("\n  ");
+                writer.writeStartElement("PAMRasterBand");
+                writer.writeAttribute("band", String.valueOf(band + 1));
+
+                // histogram
+                writer.writeCharacters("\n    ");
+                writer.writeStartElement("Histograms");
+                writer.writeCharacters("\n      ");
+                writer.writeStartElement("HistItem");
+                writeElement(writer, "HistMin", stats.getHistogramMinimum());
+                writeElement(writer, "HistMax", stats.getHistogramMaximum());
+
+                long[] bins = stats.getHistogram();
+                writeElement(writer, "BucketCount", String.valueOf(bins.length));
+                writeElement(writer, "IncludeOutOfRange", "0");
+                writeElement(writer, "Approximate", "0");
+
+                StringBuilder counts = new StringBuilder();
+                for (int i = 0; i < bins.length; i++) {
+                    if (i > 0) {
+                        counts.append('|');
+                    }
+                    counts.append(bins[i]);
+                }
+                writeElement(writer, "HistCounts", counts.toString());
+                writer.writeCharacters("\n      ");
+                writer.writeEndElement(); // HistItem
+                writer.writeCharacters("\n    ");
+                writer.writeEndElement(); // Histograms
+
+                // statistics
+                long total = stats.getCount() + stats.getNoDataCount();
+                double validPercent = total == 0 ? 0 : stats.getCount() * 100.0 / total;
+
+                writer.writeCharacters("\n    ");
+                writer.writeStartElement("Metadata");
+                writeItem(writer, "STATISTICS_MAXIMUM", stats.getMaximum());
+                writeItem(writer, "STATISTICS_MEAN", stats.getMean());
+                writeItem(writer, "STATISTICS_MINIMUM", stats.getMinimum());
+                writeItem(writer, "STATISTICS_STDDEV", stats.getStandardDeviation());
+                writeItem(writer, "STATISTICS_VALID_PERCENT", validPercent);
+                writer.writeCharacters("\n    ");
+                writer.writeEndElement(); // Metadata
+
+                writer.writeCharacters("\n  ");
+                writer.writeEndElement(); // PAMRasterBand
+            }
+            writer.writeCharacters("\n");
+            writer.writeEndElement(); // PAMDataset
+            writer.writeCharacters("\n");
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            out.close();
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the raster has no sidecar, or a sidecar written by the toolbox
+     */
+    public static boolean isWritable(File rasterFile) {
+        File auxFile = getAuxFile(rasterFile);
+        if (!auxFile.exists()) {
+            return true;
+        }
+
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(auxFile));
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT
+                            && "Metadata".equals(reader.getLocalName())
+                            && METADATA_DOMAIN.equals(reader.getAttributeValue(null, "domain"))) {
+                        return true;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINER, e.getMessage(), e);
+                }
+            }
+        }
+        return false; // kept as is
+    }
+
+    private static void writeElement(XMLStreamWriter writer, String name, double value)
+            throws XMLStreamException {
+        writeElement(writer, name, String.valueOf(value));
+    }
+
+    private static void writeElement(XMLStreamWriter writer, String name, String value)
+            throws XMLStreamException {
+        writer.writeCharacters("\n        ");
+        writer.writeStartElement(name);
+        writer.writeCharacters(value);
+        writer.writeEndElement();
+    }
+
+    private static void writeItem(XMLStreamWriter writer, String key, double value)
+            throws XMLStreamException {
+        writer.writeCharacters("\n      ");
+        writer.writeStartElement("MDI");
+        writer.writeAttribute("key", key);
+        writer.writeCharacters(String.valueOf(value));
+        writer.writeEndElement();
+    }
+
+    /**
+     * Reads band statistics from the sidecar of a raster file
+     * 
+     * @param rasterFile raster file
+     * @return band statistics, in band order, or null if there is no up to date sidecar
+     */
+    public static RasterStatistics[] read(File rasterFile) {
+        File auxFile = getAuxFile(rasterFile);
+        if (!auxFile.exists() || auxFile.lastModified() < rasterFile.lastModified()) {
+            return null;
+        }
+
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(auxFile));
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+
+            List<RasterStatistics> statistics = new ArrayList<RasterStatistics>();
+            Map<String, String> values = new HashMap<String, String>();
+            int band = 0;
+            String key = null;
+            StringBuilder text = new StringBuilder();
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    text.setLength(0);
+                    if ("PAMRasterBand".equals(reader.getLocalName())) {
+                        values.clear();
+                        band = Integer.parseInt(reader.getAttributeValue(null, "band"));
+                    } else if ("MDI".equals(reader.getLocalName())) {
+                        key = reader.getAttributeValue(null, "key");
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                    text.append(reader.getText());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    String name = reader.getLocalName();
+                    if ("MDI".equals(name)) {
+                        values.put(key, text.toString().trim());
+                    } else if ("PAMRasterBand".equals(name)) {
+                        while (statistics.size() < band) {
+                            statistics.add(null);
+                        }
+                        statistics.set(band - 1, toStatistics(values));
+                    } else {
+                        values.put(name, text.toString().trim());
+                    }
+                    text.setLength(0);
+                    break;
+                default:
+                    break;
+                }
+            }
+            reader.close();
+
+            return statistics.size() == 0 ? null : statistics
+                    .toArray(new RasterStatistics[statistics.size()]);
+        } catch (XMLStreamException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        } catch (RuntimeException e) {
+            // not written by the toolbox
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINER, e.getMessage(), e);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static RasterStatistics toStatistics(Map<String, String> values) {
+        if (!values.containsKey("HistCounts") || !values.containsKey("STATISTICS_MEAN")) {
+            return null;
+        }
+
+        String[] counts = values.get("HistCounts").split("\\|");
+        long[] bins = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            bins[i] = Long.parseLong(counts[i]);
+        }
+
+        return new RasterStatistics(Double.parseDouble(values.get("STATISTICS_MINIMUM")),
+                Double.parseDouble(values.get("STATISTICS_MAXIMUM")),
+                Double.parseDouble(values.get("STATISTICS_MEAN")),
+                Double.parseDouble(values.get("STATISTICS_STDDEV")),
+                Double.parseDouble(values.get("HistMin")),
+                Double.parseDouble(values.get("HistMax")), bins);
+    }
+}
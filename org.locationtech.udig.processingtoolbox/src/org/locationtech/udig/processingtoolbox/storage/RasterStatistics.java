@@ -0,0 +1,319 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+
+import javax.media.jai.PlanarImage;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.process.spatialstatistics.core.SSUtils;
+import org.geotools.process.spatialstatistics.gridcoverage.RasterHelper;
+
+/**
+ * Streaming statistics of one raster band: min, max, mean, standard deviation, a fixed-bin
+ * histogram and approximate quantiles.
+ * <p>
+ * Values are added in blocks (tiles, rows) while a raster is computed or written. The histogram
+ * range grows by doubling when a block falls outside of it, so the raster never has to be scanned
+ * twice. Blocks may be added from several threads.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class RasterStatistics {
+
+    public static final int DEFAULT_BINS = 256;
+
+    private long count = 0;
+
+    private long noDataCount = 0;
+
+    private double minimum = Double.MAX_VALUE;
+
+    private double maximum = -Double.MAX_VALUE;
+
+    private double mean = 0;
+
+    private double m2 = 0; // sum of squared differences from the mean
+
+    private long[] bins;
+
+    private double histMin = Double.NaN;
+
+    private double histMax = Double.NaN;
+
+    public RasterStatistics() {
+        this(DEFAULT_BINS);
+    }
+
+    public RasterStatistics(int numBins) {
+        // an even number of bins can be merged pairwise
+        this.bins = new long[Math.max(2, numBins + numBins % 2)];
+    }
+
+    /**
+     * Restores statistics, e.g. from an .aux.xml sidecar
+     */
+    public RasterStatistics(double minimum, double maximum, double mean, double stdDev,
+            double histMin, double histMax, long[] bins) {
+        this.bins = bins.clone();
+        this.histMin = histMin;
+        this.histMax = histMax;
+        for (long binCount : bins) {
+            this.count += binCount;
+        }
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.mean = mean;
+        this.m2 = stdDev * stdDev * count;
+    }
+
+    /**
+     * Adds a block of values. NaN, infinite and NoData values are counted as NoData.
+     * 
+     * @param values block values
+     * @param length number of values to read
+     * @param noData NoData value of the raster
+     */
+    public void update(double[] values, int length, double noData) {
+        // block statistics without locking
+        long blockCount = 0;
+        double blockMin = Double.MAX_VALUE;
+        double blockMax = -Double.MAX_VALUE;
+        double blockMean = 0;
+        double blockM2 = 0;
+        for (int i = 0; i < length; i++) {
+            double value = values[i];
+            if (Double.isNaN(value) || Double.isInfinite(value)
+                    || SSUtils.compareDouble(noData, value)) {
+                continue;
+            }
+            blockCount++;
+            blockMin = Math.min(blockMin, value);
+            blockMax = Math.max(blockMax, value);
+            double delta = value - blockMean;
+            blockMean += delta / blockCount;
+            blockM2 += delta * (value - blockMean);
+        }
+
+        synchronized (this) {
+            noDataCount += length - blockCount;
+            if (blockCount == 0) {
+                return;
+            }
+
+            // merge mean and variance of two samples
+            long total = count + blockCount;
+            double delta = blockMean - mean;
+            mean += delta * blockCount / total;
+            m2 += blockM2 + delta * delta * count * blockCount / total;
+            count = total;
+            minimum = Math.min(minimum, blockMin);
+            maximum = Math.max(maximum, blockMax);
+
+            expandHistogram(blockMin, blockMax);
+            final double width = (histMax - histMin) / bins.length;
+            for (int i = 0; i < length; i++) {
+                double value = values[i];
+                if (Double.isNaN(value) || Double.isInfinite(value)
+                        || SSUtils.compareDouble(noData, value)) {
+                    continue;
+                }
+                int index = (int) ((value - histMin) / width);
+                bins[Math.max(0, Math.min(bins.length - 1, index))]++;
+            }
+        }
+    }
+
+    private void expandHistogram(double lower, double upper) {
+        if (Double.isNaN(histMin)) {
+            histMin = lower;
+            histMax = upper > lower ? upper : lower + 1.0;
+            return;
+        }
+
+        final int half = bins.length / 2;
+        while (lower < histMin || upper > histMax) {
+            double width = histMax - histMin;
+            long[] merged = new long[bins.length];
+            if (upper > histMax) {
+                // grow to the right: bin i -> i / 2
+                for (int i = 0; i < bins.length; i++) {
+                    merged[i / 2] += bins[i];
+                }
+                histMax = histMin + width * 2;
+            } else {
+                // grow to the left: bin i -> (i + n) / 2
+                for (int i = 0; i < bins.length; i++) {
+                    merged[half + i / 2] += bins[i];
+                }
+                histMin = histMax - width * 2;
+            }
+            bins = merged;
+        }
+    }
+
+    /**
+     * @return empty statistics of each band
+     */
+    public static RasterStatistics[] create(int numBands) {
+        RasterStatistics[] statistics = new RasterStatistics[numBands];
+        for (int band = 0; band < numBands; band++) {
+            statistics[band] = new RasterStatistics();
+        }
+        return statistics;
+    }
+
+    /**
+     * Computes the statistics of each band of a coverage, tile by tile.
+     */
+    public static RasterStatistics[] compute(GridCoverage2D coverage) {
+        PlanarImage image = PlanarImage.wrapRenderedImage((RenderedImage) coverage
+                .getRenderedImage());
+        double noData = RasterHelper.getNoDataValue(coverage);
+
+        int numBands = image.getSampleModel().getNumBands();
+        RasterStatistics[] statistics = create(numBands);
+
+        double[] values = null;
+        for (int tileY = image.getMinTileY(); tileY <= image.getMaxTileY(); tileY++) {
+            for (int tileX = image.getMinTileX(); tileX <= image.getMaxTileX(); tileX++) {
+                Raster tile = image.getTile(tileX, tileY);
+                Rectangle rect = tile.getBounds().intersection(image.getBounds());
+                if (rect.isEmpty()) {
+                    continue;
+                }
+
+                int length = rect.width * rect.height;
+                if (values == null || values.length < length) {
+                    values = new double[length];
+                }
+                for (int band = 0; band < numBands; band++) {
+                    tile.getSamples(rect.x, rect.y, rect.width, rect.height, band, values);
+                    statistics[band].update(values, length, noData);
+                }
+            }
+        }
+
+        return statistics;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getNoDataCount() {
+        return noDataCount;
+    }
+
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    public synchronized double getMinimum() {
+        return count == 0 ? Double.NaN : minimum;
+    }
+
+    public synchronized double getMaximum() {
+        return count == 0 ? Double.NaN : maximum;
+    }
+
+    public synchronized double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    public synchronized double getStandardDeviation() {
+        return count == 0 ? Double.NaN : Math.sqrt(m2 / count);
+    }
+
+    public synchronized double getHistogramMinimum() {
+        return histMin;
+    }
+
+    public synchronized double getHistogramMaximum() {
+        return histMax;
+    }
+
+    public synchronized long[] getHistogram() {
+        return bins.clone();
+    }
+
+    /**
+     * Approximate quantile, interpolated within the histogram bins
+     * 
+     * @param p probability, 0 - 1
+     */
+    public synchronized double getQuantile(double p) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        final double width = (histMax - histMin) / bins.length;
+        final double target = Math.max(0, Math.min(1, p)) * count;
+        long cumulative = 0;
+        for (int i = 0; i < bins.length; i++) {
+            if (bins[i] > 0 && cumulative + bins[i] >= target) {
+                double fraction = (target - cumulative) / bins[i];
+                double value = histMin + (i + fraction) * width;
+                return Math.max(minimum, Math.min(maximum, value));
+            }
+            cumulative += bins[i];
+        }
+        return maximum;
+    }
+
+    /**
+     * @return numClasses + 1 class breaks of equal count
+     */
+    public double[] getQuantileBreaks(int numClasses) {
+        double[] breaks = new double[numClasses + 1];
+        for (int i = 0; i <= numClasses; i++) {
+            breaks[i] = getQuantile((double) i / numClasses);
+        }
+        return breaks;
+    }
+
+    /**
+     * @return numClasses + 1 class breaks of equal width
+     */
+    public double[] getEqualIntervalBreaks(int numClasses) {
+        double min = getMinimum();
+        double interval = (getMaximum() - min) / numClasses;
+
+        double[] breaks = new double[numClasses + 1];
+        for (int i = 0; i <= numClasses; i++) {
+            breaks[i] = min + i * interval;
+        }
+        return breaks;
+    }
+
+    /**
+     * @return class breaks one standard deviation wide, centered on the mean and clamped to the
+     *         value range
+     */
+    public double[] getStandardDeviationBreaks(int numClasses) {
+        double min = getMinimum();
+        double max = getMaximum();
+        double stdDev = getStandardDeviation();
+
+        double[] breaks = new double[numClasses + 1];
+        double start = getMean() - stdDev * numClasses / 2.0;
+        for (int i = 0; i <= numClasses; i++) {
+            breaks[i] = Math.max(min, Math.min(max, start + i * stdDev));
+        }
+        breaks[0] = min;
+        breaks[numClasses] = max;
+        return breaks;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.media.jai.JAI;
+import javax.media.jai.TileCache;
+
+import org.geotools.util.logging.Logging;
+import org.jaitools.tilecache.DiskCachedTile;
+import org.jaitools.tilecache.DiskCachedTile.TileAction;
+import org.jaitools.tilecache.DiskMemTileCache;
+import org.jaitools.tiledimage.DiskMemImage;
+import org.locationtech.udig.processingtoolbox.internal.Messages;
+
+/**
+ * Raster memory budget of the toolbox and the tile cache counters of a run.
+ * <p>
+ * The budget is shared by the JAI tile cache, which holds the computed tiles of operation chains,
+ * and the common tile cache of {@link DiskMemImage}, which holds the tiles written by the raster
+ * calculator and the raster processes. Tiles beyond the DiskMemImage capacity are spilled to
+ * temporary files instead of growing the heap.
+ * <p>
+ * The counters of a run are the difference of cumulative counters between {@link #start()} and
+ * {@link #report()}. The caches are shared, so runs executing at the same time count each
+ * other's tiles.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class RasterTileCache {
+    protected static final Logger LOGGER = Logging.getLogger(RasterTileCache.class);
+
+    public static final int MIN_MEMORY_BUDGET = 64; // MB
+
+    static final long MEGABYTE = 1024L * 1024L;
+
+    // tiles moved to disk by the DiskMemImage cache since the counter was installed
+    private static final AtomicLong spillCount = new AtomicLong();
+
+    private static boolean spillCounterInstalled = false;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long spilledTiles;
+
+    private RasterTileCache() {
+        installSpillCounter();
+        hitCount = getHitCount();
+        missCount = getMissCount();
+        spilledTiles = spilledTiles();
+    }
+
+    /**
+     * Starts counting the tile cache activity of a run
+     */
+    public static RasterTileCache start() {
+        return new RasterTileCache();
+    }
+
+    /**
+     * @return a quarter of the maximum heap size in megabytes
+     */
+    public static int getDefaultMemoryBudget() {
+        long maxMemory = Runtime.getRuntime().maxMemory() / MEGABYTE;
+        return Math.max(MIN_MEMORY_BUDGET, (int) (maxMemory / 4));
+    }
+
+    /**
+     * @return three quarters of the maximum heap size in megabytes
+     */
+    public static int getMaximumMemoryBudget() {
+        long maxMemory = Runtime.getRuntime().maxMemory() / MEGABYTE;
+        return Math.max(MIN_MEMORY_BUDGET, (int) (maxMemory * 3 / 4));
+    }
+
+    /**
+     * Sizes the JAI tile cache and the DiskMemImage spill threshold, half of the budget each
+     * 
+     * @param memoryBudget raster memory budget in megabytes
+     */
+    public static void setMemoryBudget(int memoryBudget) {
+        int budget = Math.max(MIN_MEMORY_BUDGET, Math.min(getMaximumMemoryBudget(), memoryBudget));
+        long capacity = budget * MEGABYTE / 2;
+
+        TileCache tileCache = JAI.getDefaultInstance().getTileCache();
+        if (tileCache.getMemoryCapacity() != capacity) {
+            tileCache.setMemoryCapacity(capacity);
+        }
+
+        DiskMemTileCache diskMemCache = DiskMemImage.getCommonTileCache();
+        if (diskMemCache.getMemoryCapacity() != capacity) {
+            diskMemCache.setMemoryCapacity(capacity);
+        }
+        LOGGER.log(Level.FINE, "Raster memory budget: " + budget //$NON-NLS-1$
+                + " MB"); //$NON-NLS-1$
+    }
+
+    /**
+     * @return JAI tile cache hits since {@link #start()} or -1 if the cache keeps no counters
+     */
+    public long getHits() {
+        long count = getHitCount();
+        return count < 0 ? -1 : count - hitCount;
+    }
+
+    /**
+     * @return JAI tile cache misses since {@link #start()} or -1 if the cache keeps no counters
+     */
+    public long getMisses() {
+        long count = getMissCount();
+        return count < 0 ? -1 : count - missCount;
+    }
+
+    /**
+     * @return number of DiskMemImage tiles moved to disk since {@link #start()}
+     */
+    public long getSpilledTiles() {
+        return Math.max(0, spilledTiles() - spilledTiles);
+    }
+
+    /**
+     * @return console summary of the counters
+     */
+    public String report() {
+        long hits = getHits();
+        long misses = getMisses();
+        long total = hits + misses;
+        double hitRatio = total > 0 ? hits * 100.0 / total : 0.0;
+
+        DiskMemTileCache diskMemCache = DiskMemImage.getCommonTileCache();
+        return String.format(Messages.Task_TileCache, hits, misses, hitRatio,
+                getSpilledTiles(), diskMemCache.getCurrentMemory() / MEGABYTE,
+                diskMemCache.getMemoryCapacity() / MEGABYTE);
+    }
+
+    private static long spilledTiles() {
+        return spillCount.get();
+    }
+
+    /**
+     * Counts the tiles the DiskMemImage cache moves to disk, the number of non-resident tiles
+     * is only a snapshot which decreases when tiles are removed or reloaded
+     */
+    private static synchronized void installSpillCounter() {
+        if (spillCounterInstalled) {
+            return;
+        }
+
+        DiskMemTileCache diskMemCache = DiskMemImage.getCommonTileCache();
+        diskMemCache.addObserver(new Observer() {
+            @Override
+            public void update(Observable o, Object arg) {
+                if (arg instanceof DiskCachedTile
+                        && ((DiskCachedTile) arg).getAction() == TileAction.ACTION_NON_RESIDENT) {
+                    spillCount.incrementAndGet();
+                }
+            }
+        });
+        diskMemCache.setDiagnostics(true); // the cache notifies its observers
+        spillCounterInstalled = true;
+    }
+
+    private static long getHitCount() {
+        return getCacheCount("getCacheHitCount"); //$NON-NLS-1$
+    }
+
+    private static long getMissCount() {
+        return getCacheCount("getCacheMissCount"); //$NON-NLS-1$
+    }
+
+    // SunTileCache counters, com.sun.media.jai.util is not imported by this bundle
+    private static long getCacheCount(String methodName) {
+        TileCache tileCache = JAI.getDefaultInstance().getTileCache();
+        try {
+            Method method = tileCache.getClass().getMethod(methodName);
+            return ((Number) method.invoke(tileCache)).longValue();
+        } catch (NoSuchMethodException e) {
+            return -1;
+        } catch (IllegalAccessException e) {
+            return -1;
+        } catch (InvocationTargetException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FilenameUtils;
+import org.geotools.data.shapefile.ShapeFileIndexer;
+import org.geotools.data.shapefile.fid.FidIndexer;
+import org.geotools.data.shapefile.files.ShpFiles;
+import org.geotools.util.logging.Logging;
+import org.opengis.util.ProgressListener;
+
+/**
+ * Builds the quadtree spatial index (.qix) and optionally the feature id index (.fix) of a
+ * shapefile.
+ * <p>
+ * The shapefiles are written without indexes, the shapefile reader uses the indexes as soon as
+ * the files exist, so pan and zoom over large outputs no longer scan the whole file.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class ShapefileIndexBuilder {
+    protected static final Logger LOGGER = Logging.getLogger(ShapefileIndexBuilder.class);
+
+    private ShapefileIndexBuilder() {
+    }
+
+    /**
+     * @param shapefile the .shp file
+     * @param fidIndex true to build the .fix file too
+     * @return false if the listener canceled the build
+     */
+    public static boolean build(File shapefile, boolean fidIndex, ProgressListener listener)
+            throws IOException {
+        ShpFiles shpFiles = new ShpFiles(shapefile);
+        try {
+            ShapeFileIndexer indexer = new ShapeFileIndexer();
+            indexer.setShapeFileName(shpFiles);
+            indexer.index(false, listener);
+            if (listener.isCanceled()) {
+                deleteIndex(shapefile, "qix"); //$NON-NLS-1$
+                return false;
+            }
+
+            if (fidIndex) {
+                FidIndexer.generate(shpFiles);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            // TreeException, StoreException, LockTimeoutException
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            shpFiles.dispose();
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the .qix file of the shapefile exists
+     */
+    public static boolean hasSpatialIndex(File shapefile) {
+        return getIndexFile(shapefile, "qix").exists(); //$NON-NLS-1$
+    }
+
+    private static File getIndexFile(File shapefile, String extension) {
+        String fileName = FilenameUtils.getBaseName(shapefile.getName()) + "." + extension; //$NON-NLS-1$
+        return new File(shapefile.getAbsoluteFile().getParentFile(), fileName);
+    }
+
+    private static void deleteIndex(File shapefile, String extension) {
+        File indexFile = getIndexFile(shapefile, extension);
+        if (indexFile.exists() && !indexFile.delete()) {
+            indexFile.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,492 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.BaseSimpleFeatureCollection;
+import org.geotools.feature.collection.FilteringSimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.Converters;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.processingtoolbox.tools.format.CoordinateFormatter;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.filter.Filter;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/**
+ * Feature collection spilled to a temporary binary file, used to pass large intermediate results
+ * between processes without a shapefile round trip.
+ * <p>
+ * Attribute names, types and values are kept as they are, geometries are stored as WKB. Each
+ * iterator reads the file from the beginning, so the collection can be read any number of times.
+ * The file offset and the envelope of every feature are kept in memory, a spatial filter reads
+ * only the features whose envelope intersects its bounds.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class SpillFeatureCollection extends BaseSimpleFeatureCollection {
+    protected static final Logger LOGGER = Logging.getLogger(SpillFeatureCollection.class);
+
+    static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    private final int size;
+
+    private final ReferencedEnvelope bounds;
+
+    private final long[] offsets;
+
+    private final double[] envelopes; // minx, miny, maxx, maxy of each feature
+
+    private STRtree index;
+
+    private SpillFeatureCollection(SimpleFeatureType schema, File file, int size,
+            ReferencedEnvelope bounds, long[] offsets, double[] envelopes) {
+        super(schema);
+        this.file = file;
+        this.size = size;
+        this.bounds = bounds;
+        this.offsets = offsets;
+        this.envelopes = envelopes;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public SimpleFeatureIterator features() {
+        try {
+            return new SpillFeatureIterator(null);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public SimpleFeatureCollection subCollection(Filter filter) {
+        if (filter == Filter.INCLUDE) {
+            return this;
+        }
+
+        Envelope extent = (Envelope) filter.accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR,
+                null);
+        if (extent == null || bounds.isNull() || extent.covers(bounds)) {
+            return super.subCollection(filter);
+        }
+        return new FilteringSimpleFeatureCollection(new IndexedSubCollection(extent), filter);
+    }
+
+    /**
+     * @return ascending file offsets of the features whose envelope intersects the extent
+     */
+    long[] query(Envelope extent) {
+        List<?> hits = getIndex().query(extent);
+        long[] result = new long[hits.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ((Long) hits.get(i)).longValue();
+        }
+        Arrays.sort(result); // read the file forward
+        return result;
+    }
+
+    private synchronized STRtree getIndex() {
+        if (index == null) {
+            index = new STRtree();
+            for (int i = 0; i < size; i++) {
+                int pos = i * 4;
+                if (Double.isNaN(envelopes[pos])) {
+                    continue; // null or empty geometry
+                }
+                Envelope envelope = new Envelope(envelopes[pos], envelopes[pos + 2],
+                        envelopes[pos + 1], envelopes[pos + 3]);
+                index.insert(envelope, Long.valueOf(offsets[i]));
+            }
+            index.build();
+        }
+        return index;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public ReferencedEnvelope getBounds() {
+        return new ReferencedEnvelope(bounds);
+    }
+
+    /**
+     * Deletes the spill file, the collection can not be read afterwards
+     */
+    public void dispose() {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Writes features to a spill file and returns them as a collection when closed
+     */
+    public static final class Writer {
+        private final SimpleFeatureType schema;
+
+        private final File file;
+
+        private final CountingOutputStream counter;
+
+        private final DataOutputStream out;
+
+        private final WKBWriter wkbWriter2D = new WKBWriter(2);
+
+        private final WKBWriter wkbWriter3D = new WKBWriter(3);
+
+        private final ReferencedEnvelope bounds;
+
+        private final int geometryIndex;
+
+        private long[] offsets = new long[1024];
+
+        private double[] envelopes = new double[1024 * 4];
+
+        private int count = 0;
+
+        public Writer(SimpleFeatureType schema, File file) throws IOException {
+            this.schema = schema;
+            this.file = file;
+            this.bounds = new ReferencedEnvelope(schema.getCoordinateReferenceSystem());
+            this.geometryIndex = schema.getGeometryDescriptor() == null ? -1 : schema
+                    .indexOf(schema.getGeometryDescriptor().getLocalName());
+            this.counter = new CountingOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), BUFFER_SIZE));
+            this.out = new DataOutputStream(counter);
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void write(SimpleFeature feature) throws IOException {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                envelopes = Arrays.copyOf(envelopes, count * 2 * 4);
+            }
+            offsets[count] = counter.getByteCount();
+            Arrays.fill(envelopes, count * 4, count * 4 + 4, Double.NaN);
+
+            out.writeBoolean(true);
+            writeString(out, feature.getID());
+
+            List<AttributeDescriptor> descriptors = schema.getAttributeDescriptors();
+            for (int index = 0; index < descriptors.size(); index++) {
+                Object value = feature.getAttribute(index);
+                if (value == null) {
+                    out.writeBoolean(false);
+                    continue;
+                }
+
+                out.writeBoolean(true);
+                Class<?> binding = descriptors.get(index).getType().getBinding();
+                if (Geometry.class.isAssignableFrom(binding)) {
+                    Geometry geometry = (Geometry) value;
+                    WKBWriter wkbWriter = CoordinateFormatter.hasZ(geometry) ? wkbWriter3D
+                            : wkbWriter2D;
+                    byte[] wkb = wkbWriter.write(geometry);
+                    out.writeInt(wkb.length);
+                    out.write(wkb);
+
+                    Envelope envelope = geometry.getEnvelopeInternal();
+                    bounds.expandToInclude(envelope);
+                    if (index == geometryIndex && !envelope.isNull()) {
+                        int pos = count * 4;
+                        envelopes[pos] = envelope.getMinX();
+                        envelopes[pos + 1] = envelope.getMinY();
+                        envelopes[pos + 2] = envelope.getMaxX();
+                        envelopes[pos + 3] = envelope.getMaxY();
+                    }
+                } else {
+                    writeValue(out, binding, value);
+                }
+            }
+            count++;
+        }
+
+        /**
+         * Closes the spill file, the writer can not be used afterwards
+         */
+        public SpillFeatureCollection close() throws IOException {
+            out.writeBoolean(false);
+            out.close();
+            return new SpillFeatureCollection(schema, file, count, bounds, Arrays.copyOf(
+                    offsets, count), Arrays.copyOf(envelopes, count * 4));
+        }
+
+        /**
+         * Closes and deletes the spill file after a failure
+         */
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINER, e.getMessage(), e);
+            }
+            file.delete();
+        }
+    }
+
+    static void writeValue(DataOutputStream out, Class<?> binding, Object value)
+            throws IOException {
+        if (binding == Integer.class) {
+            out.writeInt(((Number) value).intValue());
+        } else if (binding == Long.class) {
+            out.writeLong(((Number) value).longValue());
+        } else if (binding == Double.class) {
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (binding == Float.class) {
+            out.writeFloat(((Number) value).floatValue());
+        } else if (binding == Short.class) {
+            out.writeShort(((Number) value).shortValue());
+        } else if (binding == Byte.class) {
+            out.writeByte(((Number) value).byteValue());
+        } else if (binding == Boolean.class) {
+            out.writeBoolean((Boolean) value);
+        } else if (Date.class.isAssignableFrom(binding)) {
+            out.writeLong(((Date) value).getTime());
+        } else {
+            // String, BigDecimal, BigInteger and anything else convertible from text
+            writeString(out, value.toString());
+        }
+    }
+
+    static Object readValue(DataInputStream in, Class<?> binding) throws IOException {
+        if (binding == Integer.class) {
+            return in.readInt();
+        } else if (binding == Long.class) {
+            return in.readLong();
+        } else if (binding == Double.class) {
+            return in.readDouble();
+        } else if (binding == Float.class) {
+            return in.readFloat();
+        } else if (binding == Short.class) {
+            return in.readShort();
+        } else if (binding == Byte.class) {
+            return in.readByte();
+        } else if (binding == Boolean.class) {
+            return in.readBoolean();
+        } else if (binding == java.sql.Date.class) {
+            return new java.sql.Date(in.readLong());
+        } else if (binding == java.sql.Timestamp.class) {
+            return new java.sql.Timestamp(in.readLong());
+        } else if (binding == java.sql.Time.class) {
+            return new java.sql.Time(in.readLong());
+        } else if (Date.class.isAssignableFrom(binding)) {
+            return new Date(in.readLong());
+        }
+
+        String text = readString(in);
+        if (binding == String.class || binding == Object.class) {
+            return text;
+        } else if (binding == BigDecimal.class) {
+            return new BigDecimal(text);
+        } else if (binding == BigInteger.class) {
+            return new BigInteger(text);
+        }
+        Object value = Converters.convert(text, binding);
+        return value == null ? text : value;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(ENCODING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, ENCODING);
+    }
+
+    /**
+     * Features of the spill file whose envelope intersects an extent, read by their offsets
+     */
+    final class IndexedSubCollection extends BaseSimpleFeatureCollection {
+        private final Envelope extent;
+
+        IndexedSubCollection(Envelope extent) {
+            super(SpillFeatureCollection.this.getSchema());
+            this.extent = extent;
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            try {
+                return new SpillFeatureIterator(query(extent));
+            } catch (IOException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+    }
+
+    final class SpillFeatureIterator implements SimpleFeatureIterator {
+        private final FileInputStream stream;
+
+        private final long[] featureOffsets;
+
+        private int cursor = 0;
+
+        private long start = 0;
+
+        private CountingInputStream counter;
+
+        private DataInputStream in;
+
+        private final SimpleFeatureBuilder builder;
+
+        private final List<AttributeDescriptor> descriptors;
+
+        private final WKBReader wkbReader = new WKBReader();
+
+        private SimpleFeature next;
+
+        private boolean closed = false;
+
+        /**
+         * @param featureOffsets ascending offsets of the features to read, null to read all
+         */
+        public SpillFeatureIterator(long[] featureOffsets) throws IOException {
+            this.stream = new FileInputStream(file);
+            this.featureOffsets = featureOffsets;
+            this.counter = new CountingInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+            this.in = new DataInputStream(counter);
+            this.builder = new SimpleFeatureBuilder(getSchema());
+            this.descriptors = getSchema().getAttributeDescriptors();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINER, e.getMessage(), e);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (closed) {
+                return false;
+            }
+
+            try {
+                if (featureOffsets != null) {
+                    if (cursor == featureOffsets.length) {
+                        close();
+                        return false;
+                    }
+                    seek(featureOffsets[cursor++]);
+                }
+
+                if (!in.readBoolean()) {
+                    close();
+                    return false;
+                }
+
+                String id = readString(in);
+                for (AttributeDescriptor descriptor : descriptors) {
+                    if (!in.readBoolean()) {
+                        builder.add(null);
+                    } else if (Geometry.class.isAssignableFrom(descriptor.getType()
+                            .getBinding())) {
+                        byte[] wkb = new byte[in.readInt()];
+                        in.readFully(wkb);
+                        builder.add(wkbReader.read(wkb));
+                    } else {
+                        builder.add(readValue(in, descriptor.getType().getBinding()));
+                    }
+                }
+                next = builder.buildFeature(id);
+            } catch (EOFException e) {
+                close();
+                return false;
+            } catch (IOException e) {
+                close();
+                throw new RuntimeException(e.getMessage(), e);
+            } catch (ParseException e) {
+                close();
+                throw new RuntimeException(e.getMessage(), e);
+            }
+            return true;
+        }
+
+        private void seek(long offset) throws IOException {
+            if (offset == start + counter.getByteCount()) {
+                return; // the next feature in the file
+            }
+            stream.getChannel().position(offset);
+            start = offset;
+            counter = new CountingInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+            in = new DataInputStream(counter);
+        }
+
+        @Override
+        public SimpleFeature next() throws NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("hasNext() returned false!"); //$NON-NLS-1$
+            }
+            SimpleFeature result = next;
+            next = null;
+            return result;
+        }
+    }
+}
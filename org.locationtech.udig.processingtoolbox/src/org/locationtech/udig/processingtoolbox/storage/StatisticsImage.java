@@ -0,0 +1,96 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.BitSet;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+
+/**
+ * Image passing the tiles of its source through unchanged, the statistics of each band are
+ * updated from each tile the first time it is read.
+ * <p>
+ * A writer reading the image therefore collects the statistics in its own pass over the tiles.
+ * {@link #complete()} reads the tiles the writer skipped, if any.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+final class StatisticsImage extends PlanarImage {
+
+    private final PlanarImage source;
+
+    private final RasterStatistics[] statistics;
+
+    private final double noData;
+
+    private final BitSet counted = new BitSet();
+
+    StatisticsImage(RenderedImage source, RasterStatistics[] statistics, double noData) {
+        super(new ImageLayout(source), null, null);
+        this.source = PlanarImage.wrapRenderedImage(source);
+        this.statistics = statistics;
+        this.noData = noData;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        Raster tile = source.getTile(tileX, tileY);
+        if (tile == null) {
+            return null;
+        }
+
+        int index = getTileIndex(tileX, tileY);
+        synchronized (counted) {
+            if (counted.get(index)) {
+                return tile;
+            }
+            counted.set(index);
+        }
+
+        Rectangle rect = tile.getBounds().intersection(getBounds());
+        if (!rect.isEmpty()) {
+            int length = rect.width * rect.height;
+            double[] values = new double[length];
+            int numBands = Math.min(statistics.length, tile.getNumBands());
+            for (int band = 0; band < numBands; band++) {
+                tile.getSamples(rect.x, rect.y, rect.width, rect.height, band, values);
+                statistics[band].update(values, length, noData);
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Reads the tiles not read yet, the statistics then cover the whole image
+     */
+    void complete() {
+        for (int tileY = getMinTileY(); tileY <= getMaxTileY(); tileY++) {
+            for (int tileX = getMinTileX(); tileX <= getMaxTileX(); tileX++) {
+                boolean read;
+                synchronized (counted) {
+                    read = counted.get(getTileIndex(tileX, tileY));
+                }
+                if (!read) {
+                    getTile(tileX, tileY);
+                }
+            }
+        }
+    }
+
+    private int getTileIndex(int tileX, int tileY) {
+        return (tileY - getMinTileY()) * getNumXTiles() + (tileX - getMinTileX());
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.storage;
+
+import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageMetadata;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriterSpi;
+
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.awt.image.renderable.ParameterBlock;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.Interpolation;
+import javax.media.jai.JAI;
+import javax.media.jai.PlanarImage;
+
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.factory.Hints;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.process.spatialstatistics.gridcoverage.RasterHelper;
+import org.geotools.process.spatialstatistics.storage.RasterExportOperation;
+import org.geotools.util.logging.Logging;
+import org.jaitools.tiledimage.DiskMemImage;
+import org.opengis.coverage.grid.GridCoverage;
+
+/**
+ * Writes internally tiled GeoTIFF files with power-of-two internal overviews.
+ * <p>
+ * The full resolution image is written tile by tile with the GeoTools GeoTIFF writer. Each
+ * overview is then appended as a reduced resolution sub-file (NewSubfileType = 1, as gdaladdo
+ * does), decimated from the previous level with nearest neighbour, so NoData cells are never
+ * blended into valid ones. Levels are built until the image fits within one block.
+ * <p>
+ * Each level is stored in a {@link DiskMemImage} while the next one is decimated from it, so its
+ * tiles live in the common tile cache and are spilled to disk beyond the raster memory budget
+ * rather than held on the heap. The full resolution image is thus read once, and is no longer read
+ * from the file when the overviews are appended to it.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class TiledGeoTiffWriter {
+    protected static final Logger LOGGER = Logging.getLogger(TiledGeoTiffWriter.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+
+    // TIFF tiles must be a multiple of 16
+    static final int MIN_BLOCK_SIZE = 16;
+
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    private String compressionType = null;
+
+    private boolean buildOverviews = true;
+
+    public TiledGeoTiffWriter() {
+    }
+
+    public TiledGeoTiffWriter(int blockSize, boolean buildOverviews) {
+        setBlockSize(blockSize);
+        this.buildOverviews = buildOverviews;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        int size = Math.max(MIN_BLOCK_SIZE, blockSize);
+        this.blockSize = (size / MIN_BLOCK_SIZE) * MIN_BLOCK_SIZE;
+    }
+
+    public String getCompressionType() {
+        return compressionType;
+    }
+
+    /**
+     * @param compressionType TIFF compression name (LZW, Deflate...) or null for no compression
+     */
+    public void setCompressionType(String compressionType) {
+        this.compressionType = compressionType;
+    }
+
+    public boolean isBuildOverviews() {
+        return buildOverviews;
+    }
+
+    public void setBuildOverviews(boolean buildOverviews) {
+        this.buildOverviews = buildOverviews;
+    }
+
+    /**
+     * Writes a coverage as a tiled GeoTIFF file and collects the statistics of its bands from the
+     * tiles as they are written, the coverage is read once
+     * 
+     * @param coverage source coverage
+     * @param file output file
+     * @param statistics statistics of each band, updated by the write
+     * @return coverage read back from the written file
+     */
+    public GridCoverage2D write(GridCoverage2D coverage, File file, RasterStatistics[] statistics)
+            throws IOException {
+        StatisticsImage image = new StatisticsImage(coverage.getRenderedImage(), statistics,
+                RasterHelper.getNoDataValue(coverage));
+
+        GridSampleDimension[] bands = new GridSampleDimension[coverage.getNumSampleDimensions()];
+        for (int index = 0; index < bands.length; index++) {
+            bands[index] = coverage.getSampleDimension(index);
+        }
+        GridCoverageFactory factory = CoverageFactoryFinder.getGridCoverageFactory(null);
+        GridCoverage2D observed = factory.create(coverage.getName(), image,
+                coverage.getGridGeometry(), bands, new GridCoverage[] { coverage },
+                coverage.getProperties());
+
+        GridCoverage2D written = write(observed, file);
+        image.complete(); // the tiles skipped by the writer, if any
+        return written;
+    }
+
+    /**
+     * Writes a coverage as a tiled GeoTIFF file
+     * 
+     * @param coverage source coverage
+     * @param file output file
+     * @return coverage read back from the written file
+     */
+    public GridCoverage2D write(GridCoverage2D coverage, File file) throws IOException {
+        RasterExportOperation saveAs = new RasterExportOperation();
+        saveAs.setTileMode(true);
+        saveAs.setTileWidth(blockSize);
+        saveAs.setTileHEight(blockSize);
+        if (compressionType != null) {
+            saveAs.setCompressionMode(true);
+            saveAs.setCompressionType(compressionType);
+        }
+
+        GridCoverage2D written = saveAs.saveAsGeoTiff(coverage, file.getPath());
+        if (!buildOverviews) {
+            return written;
+        }
+
+        // overviews are decimated from the written file, not from the (possibly computed) source
+        RenderedImage base = written.getRenderedImage();
+        if (base.getWidth() > blockSize || base.getHeight() > blockSize) {
+            RenderedImage level;
+            try {
+                level = materialize(halve(base));
+            } finally {
+                written.dispose(true); // the file is not read while it is being appended to
+            }
+            appendOverviews(file, level);
+            return read(file);
+        }
+        return written;
+    }
+
+    private GridCoverage2D read(File file) throws IOException {
+        Hints hints = new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER, Boolean.TRUE);
+        GeoTiffReader reader = new GeoTiffReader(file, hints);
+        try {
+            // the coverage opens its own image stream
+            return reader.read(null);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Appends the overviews to a GeoTIFF file
+     * 
+     * @param file GeoTIFF file
+     * @param first first overview, its tiles are released once written
+     */
+    private void appendOverviews(File file, RenderedImage first) throws IOException {
+        ImageWriter writer = new TIFFImageWriterSpi().createWriterInstance();
+        ImageOutputStream output = new FileImageOutputStream(file);
+        try {
+            writer.setOutput(output);
+
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setTiling(blockSize, blockSize, 0, 0);
+            if (compressionType != null) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionType(compressionType);
+            }
+
+            RenderedImage level = first;
+            while (true) {
+                IIOMetadata metadata = writer.getDefaultImageMetadata(
+                        ImageTypeSpecifier.createFromRenderedImage(level), param);
+                if (metadata instanceof TIFFImageMetadata) {
+                    ((TIFFImageMetadata) metadata).addShortOrLongField(
+                            BaselineTIFFTagSet.TAG_NEW_SUBFILE_TYPE,
+                            BaselineTIFFTagSet.NEW_SUBFILE_TYPE_REDUCED_RESOLUTION);
+                }
+
+                writer.writeInsert(-1, new IIOImage(level, null, metadata), param);
+                LOGGER.log(Level.FINE, "Overview " + level.getWidth() + " x " //$NON-NLS-1$ //$NON-NLS-2$
+                        + level.getHeight() + " appended to " + file.getName()); //$NON-NLS-1$
+
+                if (level.getWidth() <= blockSize && level.getHeight() <= blockSize) {
+                    break;
+                }
+                RenderedImage next = materialize(halve(level));
+                release(level);
+                level = next;
+            }
+            release(level);
+        } finally {
+            writer.dispose();
+            output.close();
+        }
+    }
+
+    private RenderedImage halve(RenderedImage source) {
+        ParameterBlock pb = new ParameterBlock();
+        pb.addSource(source);
+        pb.add(0.5f);
+        pb.add(0.5f);
+        pb.add(0.0f);
+        pb.add(0.0f);
+        pb.add(Interpolation.getInstance(Interpolation.INTERP_NEAREST));
+
+        ImageLayout layout = new ImageLayout();
+        layout.setTileWidth(blockSize);
+        layout.setTileHeight(blockSize);
+        RenderingHints hints = new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout);
+
+        PlanarImage scaled = JAI.create("Scale", pb, hints); //$NON-NLS-1$
+        return scaled;
+    }
+
+    /**
+     * Computes all tiles of an image into a {@link DiskMemImage}, so the next level does not pull
+     * the tiles of the previous levels again and no level is held on the heap as a whole
+     */
+    private RenderedImage materialize(RenderedImage source) {
+        SampleModel sampleModel = source.getSampleModel().createCompatibleSampleModel(blockSize,
+                blockSize);
+        DiskMemImage image = new DiskMemImage(source.getMinX(), source.getMinY(),
+                source.getWidth(), source.getHeight(), source.getMinX(), source.getMinY(),
+                sampleModel, source.getColorModel());
+
+        for (int tileY = image.getMinTileY(); tileY <= image.getMaxTileY(); tileY++) {
+            for (int tileX = image.getMinTileX(); tileX <= image.getMaxTileX(); tileX++) {
+                WritableRaster tile = image.getWritableTile(tileX, tileY);
+                try {
+                    // the edge tiles extend past the image
+                    Rectangle bounds = tile.getBounds().intersection(image.getBounds());
+                    tile.setRect(source.getData(bounds));
+                } finally {
+                    image.releaseWritableTile(tileX, tileY);
+                }
+            }
+        }
+
+        if (source instanceof PlanarImage) {
+            ((PlanarImage) source).dispose();
+        }
+        return image;
+    }
+
+    private void release(RenderedImage level) {
+        if (level instanceof DiskMemImage) {
+            DiskMemImage.getCommonTileCache().removeTiles(level);
+        }
+    }
+}
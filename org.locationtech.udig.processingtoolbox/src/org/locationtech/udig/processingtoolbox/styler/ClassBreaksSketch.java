@@ -0,0 +1,392 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.styler;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.filter.function.RangedClassifier;
+import org.geotools.process.spatialstatistics.transformation.GXTSimpleFeatureCollection;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+
+/**
+ * Streaming sketch of the values of a numeric property, collected while the features of a
+ * process result are written, from which the class breaks of a graduated style are derived
+ * without scanning and sorting the result again.
+ * <p>
+ * Equal interval and standard deviation breaks are exact. Quantile breaks are read from a
+ * compactor sketch: each level keeps up to {@link #COMPACTOR_SIZE} values, a full level is sorted
+ * and every other value moves up to the next level with twice the weight. Natural breaks (Jenks)
+ * are computed on a reservoir sample of {@link #SAMPLE_SIZE} values.
+ * 
+ * <pre>
+ * ClassBreaksSketch sketch = new ClassBreaksSketch(&quot;z_score&quot;);
+ * SimpleFeatureCollection written = sink.write(sketch.observe(features));
+ * if (sketch.isComplete()) {
+ *     RangedClassifier classifier = sketch.getClassifier(&quot;Quantile&quot;, 5);
+ * }
+ * </pre>
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class ClassBreaksSketch {
+    protected static final Logger LOGGER = Logging.getLogger(ClassBreaksSketch.class);
+
+    static final int COMPACTOR_SIZE = 512;
+
+    static final int MAX_LEVELS = 48;
+
+    static final int SAMPLE_SIZE = 2000; // Jenks is O(classes * size^2)
+
+    private final String propertyName;
+
+    private final double[][] levels = new double[MAX_LEVELS][];
+
+    private final int[] levelSizes = new int[MAX_LEVELS];
+
+    private final double[] sample = new double[SAMPLE_SIZE];
+
+    private final Random random = new Random(0);
+
+    private long count = 0;
+
+    private double minimum, maximum, sum, sumOfSquares;
+
+    private boolean complete = false;
+
+    public ClassBreaksSketch(String propertyName) {
+        this.propertyName = propertyName;
+        clear();
+    }
+
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    /**
+     * @return number of values, null and non numeric values are skipped
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return true if all the features of the observed collection were read
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void clear() {
+        Arrays.fill(levelSizes, 0);
+        count = 0;
+        minimum = Double.POSITIVE_INFINITY;
+        maximum = Double.NEGATIVE_INFINITY;
+        sum = sumOfSquares = 0;
+        complete = false;
+    }
+
+    /**
+     * @return collection adding the property values of its features to the sketch when they are
+     *         read, the sketch is cleared each time the features are read again
+     */
+    public SimpleFeatureCollection observe(SimpleFeatureCollection features) {
+        return new SketchFeatureCollection(features);
+    }
+
+    public void add(SimpleFeature feature) {
+        Object value = feature.getAttribute(propertyName);
+        if (value instanceof Number) {
+            add(((Number) value).doubleValue());
+        }
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+
+        // reservoir sample
+        if (count < SAMPLE_SIZE) {
+            sample[(int) count] = value;
+        } else {
+            long index = (long) (random.nextDouble() * (count + 1));
+            if (index < SAMPLE_SIZE) {
+                sample[(int) index] = value;
+            }
+        }
+
+        count++;
+        sum += value;
+        sumOfSquares += value * value;
+        minimum = Math.min(minimum, value);
+        maximum = Math.max(maximum, value);
+        insert(0, value);
+    }
+
+    private void insert(int level, double value) {
+        if (levels[level] == null) {
+            levels[level] = new double[COMPACTOR_SIZE];
+        }
+        levels[level][levelSizes[level]++] = value;
+        if (levelSizes[level] == COMPACTOR_SIZE && level < MAX_LEVELS - 1) {
+            compact(level);
+        }
+    }
+
+    private void compact(int level) {
+        double[] values = levels[level];
+        Arrays.sort(values);
+        levelSizes[level] = 0; // the values are read before the level is written again
+        for (int index = random.nextInt(2); index < COMPACTOR_SIZE; index += 2) {
+            insert(level + 1, values[index]);
+        }
+    }
+
+    public double getMinimum() {
+        return minimum;
+    }
+
+    public double getMaximum() {
+        return maximum;
+    }
+
+    public double getMean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    public double getStandardDeviation() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        double mean = sum / count;
+        return Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean));
+    }
+
+    /**
+     * @param fraction 0 to 1
+     * @return value of the rank in the sketch
+     */
+    public double getQuantile(double fraction) {
+        int size = 0;
+        for (int level = 0; level < MAX_LEVELS; level++) {
+            size += levelSizes[level];
+        }
+
+        // values weighted by 2^level, sorted by value
+        double[] values = new double[size];
+        long[] weights = new long[size];
+        Integer[] order = new Integer[size];
+        long total = 0;
+        int position = 0;
+        for (int level = 0; level < MAX_LEVELS; level++) {
+            for (int index = 0; index < levelSizes[level]; index++) {
+                values[position] = levels[level][index];
+                weights[position] = 1L << level;
+                order[position] = Integer.valueOf(position);
+                total += weights[position++];
+            }
+        }
+
+        final double[] sortValues = values;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(sortValues[o1.intValue()], sortValues[o2.intValue()]);
+            }
+        });
+
+        double rank = fraction * total;
+        long cumulative = 0;
+        for (Integer index : order) {
+            cumulative += weights[index.intValue()];
+            if (cumulative >= rank) {
+                return values[index.intValue()];
+            }
+        }
+        return maximum;
+    }
+
+    /**
+     * @param functionName Jenks, Quantile, EqualInterval or StandardDeviation, or the name of the
+     *        GeoTools classification function
+     * @return numClasses + 1 breaks from the minimum to the maximum, null if there are no values
+     */
+    public double[] getBreaks(String functionName, int numClasses) {
+        if (count == 0) {
+            return null;
+        }
+
+        String name = functionName == null ? "JE" : functionName.toUpperCase(); //$NON-NLS-1$
+        double[] breaks = null;
+        if (name.startsWith("QU")) { //$NON-NLS-1$
+            breaks = new double[numClasses + 1];
+            for (int index = 1; index < numClasses; index++) {
+                breaks[index] = getQuantile(index / (double) numClasses);
+            }
+        } else if (name.startsWith("EQ")) { //$NON-NLS-1$
+            breaks = getEqualIntervalBreaks(numClasses);
+        } else if (name.startsWith("ST")) { //$NON-NLS-1$
+            double stdDev = getStandardDeviation();
+            if (stdDev == 0) {
+                breaks = getEqualIntervalBreaks(numClasses);
+            } else {
+                breaks = new double[numClasses + 1];
+                double mean = getMean();
+                for (int index = 1; index < numClasses; index++) {
+                    double value = mean + (index - numClasses / 2.0) * stdDev;
+                    breaks[index] = Math.max(minimum, Math.min(maximum, value));
+                }
+            }
+        } else {
+            breaks = getNaturalBreaks(numClasses);
+        }
+
+        breaks[0] = minimum;
+        breaks[breaks.length - 1] = maximum;
+        return breaks;
+    }
+
+    /**
+     * @return classifier of the breaks, as built by the GeoTools classification functions
+     */
+    public RangedClassifier getClassifier(String functionName, int numClasses) {
+        double[] breaks = getBreaks(functionName, numClasses);
+        if (breaks == null) {
+            return null;
+        }
+
+        Double[] min = new Double[breaks.length - 1];
+        Double[] max = new Double[breaks.length - 1];
+        for (int index = 0; index < min.length; index++) {
+            min[index] = Double.valueOf(breaks[index]);
+            max[index] = Double.valueOf(breaks[index + 1]);
+        }
+        return new RangedClassifier(min, max);
+    }
+
+    private double[] getEqualIntervalBreaks(int numClasses) {
+        double[] breaks = new double[numClasses + 1];
+        double interval = (maximum - minimum) / numClasses;
+        for (int index = 1; index < numClasses; index++) {
+            breaks[index] = minimum + interval * index;
+        }
+        return breaks;
+    }
+
+    // Fisher-Jenks on the sorted sample
+    private double[] getNaturalBreaks(int numClasses) {
+        int size = (int) Math.min(count, SAMPLE_SIZE);
+        double[] values = Arrays.copyOf(sample, size);
+        Arrays.sort(values);
+
+        int classes = Math.max(1, Math.min(numClasses, size));
+        int[][] lowerLimits = new int[size + 1][classes + 1];
+        double[][] variances = new double[size + 1][classes + 1];
+        lowerLimits[1][1] = 1;
+        for (int j = 2; j <= classes; j++) {
+            for (int i = 1; i <= size; i++) {
+                variances[i][j] = Double.POSITIVE_INFINITY; // i values can not make j classes
+            }
+        }
+
+        for (int l = 2; l <= size; l++) {
+            double s1 = 0, s2 = 0, variance = 0;
+            for (int m = 1; m <= l; m++) {
+                int upper = l - m + 1;
+                double value = values[upper - 1];
+                s1 += value;
+                s2 += value * value;
+                variance = s2 - s1 * s1 / m;
+                int previous = upper - 1;
+                if (previous != 0) {
+                    for (int j = 2; j <= classes; j++) {
+                        double candidate = variance + variances[previous][j - 1];
+                        if (variances[l][j] >= candidate) {
+                            lowerLimits[l][j] = upper;
+                            variances[l][j] = candidate;
+                        }
+                    }
+                }
+            }
+            lowerLimits[l][1] = 1;
+            variances[l][1] = variance;
+        }
+
+        double[] breaks = new double[numClasses + 1];
+        int k = size;
+        for (int j = classes; j >= 2; j--) {
+            int index = lowerLimits[k][j] - 2;
+            breaks[j - 1] = values[index];
+            k = lowerLimits[k][j] - 1;
+        }
+        // fewer values than classes: the last classes are empty
+        for (int j = classes; j < numClasses; j++) {
+            breaks[j] = values[size - 1];
+        }
+        return breaks;
+    }
+
+    final class SketchFeatureCollection extends GXTSimpleFeatureCollection {
+
+        SketchFeatureCollection(SimpleFeatureCollection delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            clear();
+            return new SketchFeatureIterator(delegate.features());
+        }
+
+        @Override
+        public SimpleFeatureCollection subCollection(Filter filter) {
+            return delegate.subCollection(filter); // not observed
+        }
+    }
+
+    final class SketchFeatureIterator implements SimpleFeatureIterator {
+        private final SimpleFeatureIterator delegate;
+
+        SketchFeatureIterator(SimpleFeatureIterator delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean hasNext = delegate.hasNext();
+            if (!hasNext) {
+                complete = true;
+            }
+            return hasNext;
+        }
+
+        @Override
+        public SimpleFeature next() throws NoSuchElementException {
+            SimpleFeature feature = delegate.next();
+            add(feature);
+            return feature;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+}
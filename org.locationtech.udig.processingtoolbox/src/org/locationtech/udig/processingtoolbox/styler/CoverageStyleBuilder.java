@@ -0,0 +1,145 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.styler;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.geotools.brewer.color.BrewerPalette;
+import org.geotools.brewer.color.ColorBrewer;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.styling.ColorMap;
+import org.geotools.styling.ColorMapEntry;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.geotools.styling.StyleFactory;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.processingtoolbox.storage.RasterStatistics;
+import org.opengis.filter.FilterFactory2;
+
+/**
+ * Builds graduated color raster styles from {@link RasterStatistics}, without scanning the raster.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class CoverageStyleBuilder {
+    protected static final Logger LOGGER = Logging.getLogger(CoverageStyleBuilder.class);
+
+    final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+    final StyleFactory sf = CommonFactoryFinder.getStyleFactory(null);
+
+    @SuppressWarnings("nls")
+    static final String[] RAMP_PALETTES = { "RdYlGn", "YlOrRd", "YlOrBr", "Oranges", "YlGnBu",
+            "Spectral" };
+
+    /**
+     * Creates a color ramp style
+     * 
+     * @param statistics band statistics
+     * @param noData NoData value of the raster
+     * @param functionName classification function, see AbstractThematicMapDialog
+     * @param numClasses number of classes
+     * @param paletteName ColorBrewer palette name
+     * @param reverse reverse the palette colors
+     * @param opacity raster opacity
+     * @return style or null if the classification needs the raster values
+     */
+    public Style createStyle(RasterStatistics statistics, double noData, String functionName,
+            int numClasses, String paletteName, boolean reverse, double opacity) {
+        if (statistics == null || statistics.isEmpty() || functionName == null) {
+            return null;
+        }
+
+        double[] breaks = null;
+        if (functionName.startsWith("EqualInterval")) { //$NON-NLS-1$
+            breaks = statistics.getEqualIntervalBreaks(numClasses);
+        } else if (functionName.startsWith("Quantile")) { //$NON-NLS-1$
+            breaks = statistics.getQuantileBreaks(numClasses);
+        } else if (functionName.startsWith("StandardDeviation")) { //$NON-NLS-1$
+            breaks = statistics.getStandardDeviationBreaks(numClasses);
+        } else {
+            return null;
+        }
+
+        BrewerPalette palette = ColorBrewer.instance().getPalette(paletteName);
+        if (palette == null || palette.getMaxColors() < breaks.length) {
+            return null;
+        }
+
+        Color[] colors = palette.getColors(breaks.length);
+        if (reverse) {
+            Collections.reverse(Arrays.asList(colors));
+        }
+
+        return createStyle(breaks, colors, noData, opacity);
+    }
+
+    /**
+     * Creates an equal interval color ramp of 8 classes between the minimum and the maximum, with
+     * a random ColorBrewer palette
+     * 
+     * @param noData NoData value of the raster or null
+     */
+    public Style createStyle(double minValue, double maxValue, Double noData) {
+        int numClasses = 8;
+        double[] breaks = new double[numClasses + 1];
+        double interval = (maxValue - minValue) / numClasses;
+        for (int i = 0; i < breaks.length; i++) {
+            breaks[i] = minValue + (i * interval);
+        }
+
+        String paletteName = RAMP_PALETTES[new Random().nextInt(RAMP_PALETTES.length)];
+        Color[] colors = ColorBrewer.instance().getPalette(paletteName).getColors(breaks.length);
+
+        return createStyle(breaks, colors, noData == null ? Double.NaN : noData.doubleValue(),
+                1.0d);
+    }
+
+    /**
+     * Creates a color ramp style with a transparent NoData entry
+     */
+    public Style createStyle(double[] breaks, Color[] colors, double noData, double opacity) {
+        StyleBuilder builder = new StyleBuilder();
+
+        ColorMapEntry nodataEntry = sf.createColorMapEntry();
+        nodataEntry.setQuantity(ff.literal(noData));
+        nodataEntry.setColor(builder.colorExpression(new Color(255, 255, 255, 0)));
+        nodataEntry.setOpacity(ff.literal(0.0f));
+        nodataEntry.setLabel("No Data"); //$NON-NLS-1$
+
+        ColorMap colorMap = sf.createColorMap();
+        colorMap.setType(ColorMap.TYPE_RAMP);
+
+        if (noData < breaks[0]) {
+            colorMap.addColorMapEntry(nodataEntry);
+        }
+
+        for (int i = 0; i < breaks.length; i++) {
+            ColorMapEntry entry = sf.createColorMapEntry();
+            entry.setQuantity(builder.literalExpression(breaks[i]));
+            entry.setColor(builder.colorExpression(colors[i]));
+            entry.setOpacity(builder.literalExpression(colors[i].getAlpha() / 255.0));
+
+            colorMap.addColorMapEntry(entry);
+        }
+
+        if (noData > breaks[breaks.length - 1]) {
+            colorMap.addColorMapEntry(nodataEntry);
+        }
+
+        return builder.createStyle(builder.createRasterSymbolizer(colorMap, opacity));
+    }
+}
@@ -21,6 +21,11 @@ import java.util.logging.Logger;
 import org.apache.commons.io.FilenameUtils;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.OverviewPolicy;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FeatureStore;
@@ -29,8 +34,8 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.data.simple.SimpleFeatureStore;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
-import org.geotools.process.spatialstatistics.storage.RasterExportOperation;
 import org.geotools.process.spatialstatistics.transformation.ForceCRSFeatureCollection;
 import org.geotools.referencing.CRS;
 import org.geotools.styling.Style;
@@ -41,6 +46,10 @@ import org.locationtech.udig.catalog.IGeoResource;
 import org.locationtech.udig.catalog.IService;
 import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
 import org.locationtech.udig.processingtoolbox.ToolboxView;
+import org.locationtech.udig.processingtoolbox.internal.Messages;
+import org.locationtech.udig.processingtoolbox.storage.FeatureOutputSink;
+import org.locationtech.udig.processingtoolbox.storage.ProcessOutputWriter;
+import org.locationtech.udig.processingtoolbox.storage.TiledGeoTiffWriter;
 import org.locationtech.udig.project.ILayer;
 import org.locationtech.udig.project.IMap;
 import org.locationtech.udig.project.internal.Layer;
@@ -50,7 +59,11 @@ import org.opengis.coverage.grid.GridCoverageReader;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.filter.Filter;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.TransformException;
 
 import com.vividsolutions.jts.geom.Geometry;
 
@@ -180,6 +193,70 @@ public class MapUtils {
         return null;
     }
 
+    /**
+     * Reads a raster layer at about the given grid size, so that the reader can use the overviews
+     * or subsample the file instead of decoding it at full resolution.
+     * 
+     * @return coverage or null if the layer has no coverage reader
+     */
+    public static GridCoverage2D getGridCoverage(ILayer layer, ReferencedEnvelope extent,
+            int width, int height) {
+        try {
+            if (!layer.getGeoResource().canResolve(GridCoverageReader.class)) {
+                return null;
+            }
+
+            GridCoverageReader reader = layer.getResource(GridCoverageReader.class,
+                    new NullProgressMonitor());
+            if (!(reader instanceof AbstractGridCoverage2DReader)) {
+                return null;
+            }
+
+            CoordinateReferenceSystem crs = ((AbstractGridCoverage2DReader) reader)
+                    .getCoordinateReferenceSystem();
+            ReferencedEnvelope envelope = extent;
+            if (crs != null && extent.getCoordinateReferenceSystem() != null
+                    && !CRS.equalsIgnoreMetadata(crs, extent.getCoordinateReferenceSystem())) {
+                envelope = extent.transform(crs, true);
+            }
+
+            ParameterValue<GridGeometry2D> gridGeometry = AbstractGridFormat.READ_GRIDGEOMETRY2D
+                    .createValue();
+            gridGeometry.setValue(new GridGeometry2D(new GridEnvelope2D(0, 0, width, height),
+                    envelope));
+
+            ParameterValue<OverviewPolicy> policy = AbstractGridFormat.OVERVIEW_POLICY
+                    .createValue();
+            policy.setValue(OverviewPolicy.QUALITY);
+
+            return (GridCoverage2D) reader
+                    .read(new GeneralParameterValue[] { gridGeometry, policy });
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        } catch (TransformException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        } catch (FactoryException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the local file of a file based layer, null otherwise
+     */
+    public static File getLayerFile(ILayer layer) {
+        try {
+            IService service = layer.getGeoResource().service(new NullProgressMonitor());
+            URL url = service == null ? null : service.getID().toURL();
+            if (url != null && "file".equalsIgnoreCase(url.getProtocol())) { //$NON-NLS-1$
+                return DataUtilities.urlToFile(url);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        }
+        return null;
+    }
+
     public static boolean isFeatureLayer(ILayer layer) {
         return layer.hasResource(FeatureSource.class);
     }
@@ -238,9 +315,29 @@ public class MapUtils {
         return addFeaturesToMap(map, source, layerName, null);
     }
 
+    /**
+     * Adds features to the map as a temporary layer kept in memory, or as a temporary FlatGeobuf
+     * file in the workspace when the estimated size of the features exceeds the memory threshold.
+     * The features are read once.
+     */
     public static ILayer addFeaturesToMap(IMap map, SimpleFeatureCollection source,
             String layerName, Style style) {
         try {
+            File tempDir = new File(ToolboxView.getWorkspace());
+            File outputFile = File.createTempFile("udig_", ".fgb", tempDir); //$NON-NLS-1$//$NON-NLS-2$
+            outputFile.delete(); // only the unique name is used
+
+            ProcessOutputWriter writer = new ProcessOutputWriter(ToolboxPlugin.defaultCharset(),
+                    null);
+            FeatureOutputSink sink = FeatureOutputSink.adaptive(
+                    FeatureOutputSink.getDefaultMemoryThreshold(), writer, outputFile);
+            source = sink.write(source);
+            if (sink.getType() == FeatureOutputSink.Type.FILE) {
+                sink.dispose(); // the layer reads the file from the catalog
+                ToolboxPlugin.log(String.format(Messages.Task_TemporaryOutput, outputFile));
+                return addFeaturesToMap(map, outputFile, layerName, style);
+            }
+
             ICatalog catalog = CatalogPlugin.getDefault().getLocalCatalog();
             IGeoResource resource = catalog.createTemporaryResource(source.getSchema());
 
@@ -314,10 +411,17 @@ public class MapUtils {
         return null;
     }
 
+    /**
+     * Creates a GeoTIFF writer with the block size and overview settings of the toolbox
+     */
+    public static TiledGeoTiffWriter createGeoTiffWriter() {
+        return new TiledGeoTiffWriter(ToolboxView.getRasterBlockSize(),
+                ToolboxView.getBuildOverviews());
+    }
+
     public static GridCoverage2D saveAsGeoTiff(GridCoverage2D source, File filePath)
             throws IllegalArgumentException, IndexOutOfBoundsException, IOException {
-        RasterExportOperation saveAs = new RasterExportOperation();
-        return saveAs.saveAsGeoTiff(source, filePath.getAbsolutePath());
+        return createGeoTiffWriter().write(source, filePath.getAbsoluteFile());
     }
 
     public static ILayer addGridCoverageToMap(IMap map, GridCoverage2D source, File filePath,
@@ -326,8 +430,7 @@ public class MapUtils {
             if (filePath == null || !filePath.exists()) {
                 String tempDir = ToolboxView.getWorkspace();
                 filePath = File.createTempFile("udig_", ".tif", new File(tempDir)); //$NON-NLS-1$//$NON-NLS-2$
-                RasterExportOperation saveAs = new RasterExportOperation();
-                source = saveAs.saveAsGeoTiff(source, filePath.getAbsolutePath());
+                source = saveAsGeoTiff(source, filePath);
             }
 
             CatalogPlugin catalogPlugin = CatalogPlugin.getDefault();
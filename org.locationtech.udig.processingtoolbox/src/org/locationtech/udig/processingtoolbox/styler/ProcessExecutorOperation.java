@@ -9,68 +9,49 @@
  */
 package org.locationtech.udig.processingtoolbox.styler;
 
-import java.awt.Color;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FilenameUtils;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.jface.operation.IRunnableWithProgress;
-import org.geotools.brewer.color.BrewerPalette;
-import org.geotools.brewer.color.ColorBrewer;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.Parameter;
 import org.geotools.data.collection.ListFeatureCollection;
-import org.geotools.data.shapefile.ShapefileDataStoreFactory;
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.data.simple.SimpleFeatureSource;
-import org.geotools.factory.CommonFactoryFinder;
-import org.geotools.feature.simple.SimpleFeatureBuilder;
-import org.geotools.geometry.jts.JTS;
-import org.geotools.process.spatialstatistics.GlobalGStatisticsProcess.GStatisticsProcessResult;
-import org.geotools.process.spatialstatistics.GlobalGearysCProcess.GearysCProcessResult;
-import org.geotools.process.spatialstatistics.GlobalLeesLProcess.LeesLProcessResult;
-import org.geotools.process.spatialstatistics.GlobalLeesSProcess.LeesSProcessResult;
-import org.geotools.process.spatialstatistics.GlobalMoransIProcess.MoransIProcessResult;
-import org.geotools.process.spatialstatistics.GlobalRogersonRProcess.RogersonRProcessResult;
-import org.geotools.process.spatialstatistics.JoinCountStatisticsProcess.JoinCountProcessResult;
+import org.geotools.factory.Hints;
+import org.geotools.filter.function.RangedClassifier;
+import org.geotools.gce.geotiff.GeoTiffReader;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
 import org.geotools.process.spatialstatistics.core.FeatureTypes.SimpleShapeType;
-import org.geotools.process.spatialstatistics.core.FormatUtils;
-import org.geotools.process.spatialstatistics.core.HistogramProcessResult;
 import org.geotools.process.spatialstatistics.core.Params;
-import org.geotools.process.spatialstatistics.gridcoverage.RasterDescribeOperation.RasterDescribeResult;
 import org.geotools.process.spatialstatistics.gridcoverage.RasterHelper;
-import org.geotools.process.spatialstatistics.operations.DataStatisticsOperation.DataStatisticsResult;
-import org.geotools.process.spatialstatistics.operations.PearsonOperation.PearsonResult;
-import org.geotools.process.spatialstatistics.pattern.NNIOperation.NearestNeighborResult;
-import org.geotools.process.spatialstatistics.pattern.QuadratOperation.QuadratResult;
-import org.geotools.process.spatialstatistics.relationship.OLSResult;
-import org.geotools.process.spatialstatistics.storage.DataStoreFactory;
-import org.geotools.process.spatialstatistics.storage.ShapeExportOperation;
 import org.geotools.process.spatialstatistics.styler.GraduatedColorStyleBuilder;
 import org.geotools.process.spatialstatistics.styler.GraduatedSymbolStyleBuilder;
 import org.geotools.process.spatialstatistics.styler.SSStyleBuilder;
 import org.geotools.process.spatialstatistics.transformation.ForceCRSFeatureCollection;
-import org.geotools.styling.ColorMap;
-import org.geotools.styling.ColorMapEntry;
 import org.geotools.styling.Style;
-import org.geotools.styling.StyleBuilder;
-import org.geotools.styling.StyleFactory;
 import org.geotools.util.logging.Logging;
 import org.locationtech.udig.catalog.CatalogPlugin;
 import org.locationtech.udig.catalog.ICatalog;
@@ -80,21 +61,26 @@ import org.locationtech.udig.catalog.util.GeoToolsAdapters;
 import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
 import org.locationtech.udig.processingtoolbox.ToolboxView;
 import org.locationtech.udig.processingtoolbox.internal.Messages;
-import org.locationtech.udig.processingtoolbox.tools.HtmlWriter;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
+import org.locationtech.udig.processingtoolbox.jobs.ProcessProfiler;
+import org.locationtech.udig.processingtoolbox.jobs.ShapefileIndexJob;
+import org.locationtech.udig.processingtoolbox.storage.FeatureOutputSink;
+import org.locationtech.udig.processingtoolbox.storage.FlatGeobufService;
+import org.locationtech.udig.processingtoolbox.storage.ProcessOutputHandler;
+import org.locationtech.udig.processingtoolbox.storage.ProcessOutputWriter;
+import org.locationtech.udig.processingtoolbox.storage.ProcessResultCache;
+import org.locationtech.udig.processingtoolbox.storage.RasterAuxFile;
+import org.locationtech.udig.processingtoolbox.storage.RasterStatistics;
+import org.locationtech.udig.processingtoolbox.storage.RasterTileCache;
+import org.locationtech.udig.project.ILayer;
 import org.locationtech.udig.project.IMap;
 import org.locationtech.udig.project.internal.Layer;
 import org.locationtech.udig.project.ui.ApplicationGIS;
 import org.locationtech.udig.style.sld.SLDContent;
-import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.filter.FilterFactory2;
-import org.opengis.geometry.BoundingBox;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.util.ProgressListener;
 
-import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.LinearRing;
-
 /**
  * ProcessExecutorOperation
  * 
@@ -107,6 +93,8 @@ public class ProcessExecutorOperation implements IRunnableWithProgress {
 
     final String lineSeparator = System.getProperty("line.separator"); //$NON-NLS-1$
 
+    static final int CANCEL_TIMEOUT = 30; // seconds
+
     private IMap map;
 
     private org.geotools.process.ProcessFactory factory;
@@ -121,6 +109,14 @@ public class ProcessExecutorOperation implements IRunnableWithProgress {
 
     private StringBuffer outputBuffer = new StringBuffer();
 
+    private ProcessProfiler profiler;
+
+    private boolean useResultCache = true;
+
+    private ProcessOutputWriter outputWriter;
+
+    private CancellationToken token;
+
     public ProcessExecutorOperation(IMap map, org.geotools.process.ProcessFactory factory,
             org.opengis.feature.type.Name processName, Map<String, Object> inputParams,
             Map<String, Object> outputParams) {
@@ -136,199 +132,376 @@ public class ProcessExecutorOperation implements IRunnableWithProgress {
         return outputBuffer.toString();
     }
 
+    /**
+     * @param useResultCache false if the inputs are not map layers, e.g. pipeline intermediates
+     */
+    public void setUseResultCache(boolean useResultCache) {
+        this.useResultCache = useResultCache;
+    }
+
     @Override
-    public void run(IProgressMonitor monitor) throws InvocationTargetException,
+    public void run(final IProgressMonitor monitor) throws InvocationTargetException,
             InterruptedException {
-        int increment = 10;
+        final int increment = 10;
         monitor.beginTask(Messages.Task_Running, 100);
         monitor.worked(increment);
 
+        RasterTileCache tileCache = RasterTileCache.start();
+        boolean rasterProcess = containsGridCoverage(inputParams);
+        profiler = new ProcessProfiler(processName.toString());
+        token = CancellationToken.of(monitor);
+        outputWriter = new ProcessOutputWriter(ToolboxPlugin.defaultCharset(),
+                MapUtils.createGeoTiffWriter());
+        String status = ProcessProfiler.FAILED;
         try {
             monitor.setTaskName(String.format(Messages.Task_Executing, windowTitle));
             ToolboxPlugin.log(String.format(Messages.Task_Executing, windowTitle));
 
+            outputBuffer.setLength(0);
+            ProcessResultCache resultCache = useResultCache ? ProcessResultCache.getDefault()
+                    : null;
+            String cacheKey = null;
+            if (resultCache != null) {
+                cacheKey = resultCache.getKey(processName.toString(), inputParams, map);
+                if (cacheKey != null && resultCache.contains(cacheKey)
+                        && restoreResult(resultCache, cacheKey, monitor)) {
+                    profiler.setCached(true);
+                    status = ProcessProfiler.COMPLETED;
+                    return;
+                }
+            }
+
             ProgressListener subMonitor = GeoToolsAdapters.progress(SubMonitor.convert(monitor,
                     Messages.Task_Internal, 60));
 
+            profiler.begin(ProcessProfiler.EXECUTE);
             org.geotools.process.Process process = factory.create(processName);
             final Map<String, Object> result = process.execute(inputParams, subMonitor);
+            profiler.end(ProcessProfiler.EXECUTE);
+            token.checkCanceled();
             monitor.worked(increment);
 
-            monitor.setTaskName(Messages.Task_AddingLayer);
-            outputBuffer.setLength(0);
+            monitor.setTaskName(Messages.Task_WritingResult);
             if (result != null) {
-                Map<String, Parameter<?>> resultInfo = factory.getResultInfo(processName, null);
-                for (Entry<String, Object> entrySet : result.entrySet()) {
-                    final Object val = entrySet.getValue();
-                    if (val == null) {
-                        continue;
+                rasterProcess |= containsGridCoverage(result);
+                final Map<String, Parameter<?>> resultInfo = factory.getResultInfo(processName,
+                        null);
+                final List<OutputTask> tasks = new ArrayList<OutputTask>();
+                CoordinateReferenceSystem mapCRS = map.getViewportModel().getCRS();
+                new ProcessOutputHandler(windowTitle, processName.toString(), mapCRS) {
+                    @Override
+                    protected void handleText(String key, String html) {
+                        outputBuffer.append(html);
+                        monitor.worked(increment);
                     }
 
-                    if (val instanceof SimpleFeatureCollection) {
-                        postProcessing((SimpleFeatureCollection) val,
-                                outputParams.get(entrySet.getKey()),
-                                resultInfo.get(entrySet.getKey()).metadata, monitor);
-                    } else if (val instanceof Geometry) {
-                        postProcessing(geometryToFeatures((Geometry) val, processName.toString()),
-                                outputParams.get(entrySet.getKey()),
-                                resultInfo.get(entrySet.getKey()).metadata, monitor);
-                    } else if (val instanceof BoundingBox) {
-                        Geometry boundingBox = JTS.toGeometry((BoundingBox) val);
-                        boundingBox.setUserData(((BoundingBox) val).getCoordinateReferenceSystem());
-                        postProcessing(geometryToFeatures(boundingBox, processName.toString()),
-                                outputParams.get(entrySet.getKey()),
-                                resultInfo.get(entrySet.getKey()).metadata, monitor);
-                    } else if (val instanceof GridCoverage2D) {
-                        postProcessing((GridCoverage2D) val, outputParams.get(entrySet.getKey()),
-                                resultInfo.get(entrySet.getKey()).metadata, monitor);
-                    } else {
-                        postProcessing(val);
+                    @Override
+                    protected void handleCoverage(String key, GridCoverage2D coverage) {
+                        tasks.add(new OutputTask(key, coverage, outputParams.get(key),
+                                resultInfo.get(key).metadata));
+                    }
+
+                    @Override
+                    protected void handleFeatures(String key, SimpleFeatureCollection features) {
+                        tasks.add(new OutputTask(key, features, outputParams.get(key),
+                                resultInfo.get(key).metadata));
+                    }
+                }.handle(result);
+
+                runOutputTasks(tasks, monitor, increment);
+
+                // throughput of the process, measured by the size of its outputs
+                profiler.addItems(ProcessProfiler.EXECUTE, profiler.getItems(ProcessProfiler.WRITE),
+                        profiler.getUnit(ProcessProfiler.WRITE));
+
+                // only written files are cached, a failed or partial write never replaces a
+                // stale file in the cache
+                boolean cacheable = cacheKey != null;
+                Map<String, File> outputFiles = new HashMap<String, File>();
+                for (OutputTask task : tasks) {
+                    if (isTemporary(task.outputPath) || !task.written) {
+                        cacheable = false;
+                        break;
                     }
-                    monitor.worked(increment);
+                    outputFiles.put(task.name, new File(task.outputPath.toString()));
+                }
+                if (cacheable) {
+                    resultCache.put(cacheKey, outputFiles, outputBuffer.toString());
                 }
             }
             monitor.worked(increment);
+            status = ProcessProfiler.COMPLETED;
+        } catch (OperationCanceledException e) {
+            status = ProcessProfiler.CANCELED;
+            token.deleteOutputs();
+            ToolboxPlugin.log(Messages.Task_Canceled);
+        } catch (InterruptedException e) {
+            status = ProcessProfiler.CANCELED;
+            token.deleteOutputs();
+            throw e;
+        } catch (InvocationTargetException e) {
+            showFailure(e.getCause());
+            throw e; // an output failed
         } catch (Exception e) {
-            // always show log
-            boolean showLog = ToolboxView.getShowLog();
-            ToolboxView.setShowLog(true);
-            ToolboxPlugin.log(e.getMessage());
-            ToolboxView.setShowLog(showLog);
+            showFailure(e);
+
+            // the job reports the failure
+            throw new InvocationTargetException(e, e.getMessage());
         } finally {
+            if (rasterProcess) {
+                ToolboxPlugin.log(tileCache.report());
+            }
+            for (String line : profiler.summary()) {
+                ToolboxPlugin.log(line);
+            }
+            File historyFile = new File(ToolboxView.getWorkspaceFolder(),
+                    ProcessProfiler.HISTORY_FILE);
+            profiler.writeHistory(historyFile, status);
             ToolboxPlugin.log(String.format(Messages.Task_Completed, windowTitle));
             monitor.done();
         }
     }
 
-    private void postProcessing(GridCoverage2D source, Object outputPath,
-            Map<String, Object> outputMeta, IProgressMonitor monitor) {
-        try {
-            monitor.setTaskName(Messages.Task_WritingResult);
-            File outputFile = new File(outputPath.toString());
-            GridCoverage2D output = MapUtils.saveAsGeoTiff(source, outputFile);
-
-            if (ToolboxView.getAddLayerAutomatically()) {
-                monitor.setTaskName(Messages.Task_AddingLayer);
+    private void showFailure(Throwable failure) {
+        // always show log
+        boolean showLog = ToolboxView.getShowLog();
+        ToolboxView.setShowLog(true);
+        ToolboxPlugin.log(failure.getMessage());
+        ToolboxView.setShowLog(showLog);
+    }
 
-                // create default style
-                Style style = null;
+    private boolean containsGridCoverage(Map<String, Object> params) {
+        for (Object value : params.values()) {
+            if (value instanceof GridCoverage2D) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                Object minValue = source.getProperty("Minimum"); //$NON-NLS-1$
-                Object maxValue = source.getProperty("Maximum"); //$NON-NLS-1$
-                int numBands = source.getNumSampleDimensions();
+    /**
+     * Writes and styles the outputs concurrently, one output per thread up to the number of
+     * processors. The layers are added to the map by the calling thread, in the order of the
+     * outputs, as soon as each output is ready.
+     * 
+     * @throws OperationCanceledException if the operation was canceled, once the workers stopped
+     * @throws InvocationTargetException with the first failure of an output, once the other
+     *             outputs are written and added
+     */
+    private void runOutputTasks(List<OutputTask> tasks, IProgressMonitor monitor, int increment)
+            throws InterruptedException, InvocationTargetException {
+        List<Throwable> failures = new ArrayList<Throwable>();
+        int threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            List<Future<Runnable>> futures = new ArrayList<Future<Runnable>>();
+            for (OutputTask task : tasks) {
+                if (executor != null) {
+                    futures.add(executor.submit(task));
+                }
+            }
 
-                if (minValue != null && minValue instanceof Number && maxValue != null
-                        && maxValue instanceof Number && numBands == 1) {
-                    Double noData = RasterHelper.getNoDataValue(source);
-                    style = buildCoverageStyle((Double) minValue, (Double) maxValue, noData);
+            for (int index = 0; index < tasks.size(); index++) {
+                token.checkCanceled();
+                Runnable insertion = null;
+                if (executor == null) {
+                    try {
+                        insertion = tasks.get(index).call();
+                    } catch (OperationCanceledException e) {
+                        throw e;
+                    } catch (IOException e) {
+                        failures.add(e);
+                    } catch (RuntimeException e) {
+                        failures.add(e);
+                    }
                 } else {
-                    SSStyleBuilder builder = new SSStyleBuilder(null);
-                    style = builder.getDefaultGridCoverageStyle(source);
+                    try {
+                        insertion = futures.get(index).get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof OperationCanceledException) {
+                            throw (OperationCanceledException) e.getCause();
+                        }
+                        failures.add(e.getCause());
+                    }
                 }
 
-                MapUtils.addGridCoverageToMap(map, output, outputFile, style);
+                token.checkCanceled();
+                if (insertion != null) {
+                    monitor.setTaskName(Messages.Task_AddingLayer);
+                    insertion.run();
+                }
+                monitor.worked(increment);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+                if (token.isCanceled()) {
+                    // the workers stop at their next feature, their files are closed before
+                    // they are deleted
+                    executor.awaitTermination(CANCEL_TIMEOUT, TimeUnit.SECONDS);
+                }
+            }
+            for (OutputTask task : tasks) {
+                profiler.merge(task.outputProfiler);
             }
-        } catch (IllegalArgumentException e) {
-            ToolboxPlugin.log(e.getMessage());
-        } catch (IndexOutOfBoundsException e) {
-            ToolboxPlugin.log(e.getMessage());
-        } catch (IOException e) {
-            ToolboxPlugin.log(e.getMessage());
         }
-    }
-
-    private Style buildCoverageStyle(double minValue, double maxValue, Double noData) {
-        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
-        StyleFactory sf = CommonFactoryFinder.getStyleFactory(null);
-
-        @SuppressWarnings("nls")
-        String[] palettes = { "RdYlGn", "YlOrRd", "YlOrBr", "Oranges", "YlGnBu", "Spectral" };
-
-        int numClasses = 8;
-
-        double[] breaks = new double[numClasses + 1];
-        double interval = (maxValue - minValue) / numClasses;
 
-        ColorBrewer brewer = ColorBrewer.instance();
-        Random random = new Random();
-        BrewerPalette brewerPalette = brewer.getPalette(palettes[random.nextInt(palettes.length)]);
+        if (failures.size() > 0) {
+            // the first failure is reported to the job, the others are logged
+            for (Throwable failure : failures.subList(1, failures.size())) {
+                ToolboxPlugin.log(failure.getMessage());
+            }
+            Throwable failure = failures.get(0);
+            throw new InvocationTargetException(failure, failure.getMessage());
+        }
+    }
 
-        Color[] colors = brewerPalette.getColors(breaks.length);
-        // Collections.reverse(Arrays.asList(colors)); // reverse
+    private boolean restoreResult(ProcessResultCache resultCache, String cacheKey,
+            IProgressMonitor monitor) {
+        Map<String, File> outputFiles = null;
+        try {
+            outputFiles = resultCache.restore(cacheKey, outputParams);
+        } catch (IOException e) {
+            ToolboxPlugin.log(e.getMessage());
+        }
 
-        StyleBuilder builder = new StyleBuilder();
+        if (outputFiles == null) {
+            return false;
+        }
 
-        ColorMapEntry nodataEntry = sf.createColorMapEntry();
-        nodataEntry.setQuantity(ff.literal(noData));
-        nodataEntry.setColor(builder.colorExpression(new java.awt.Color(255, 255, 255, 0)));
-        nodataEntry.setOpacity(ff.literal(0.0f));
-        nodataEntry.setLabel("No Data"); //$NON-NLS-1$
+        ToolboxPlugin.log(String.format(Messages.Task_CachedResult, windowTitle));
+        Map<String, Parameter<?>> resultInfo = factory.getResultInfo(processName, null);
+        for (Entry<String, File> entry : outputFiles.entrySet()) {
+            File outputFile = entry.getValue();
+            Map<String, Object> outputMeta = new HashMap<String, Object>();
+            if (resultInfo.get(entry.getKey()) != null) {
+                outputMeta = resultInfo.get(entry.getKey()).metadata;
+            }
 
-        ColorMap colorMap = sf.createColorMap();
-        colorMap.setType(ColorMap.TYPE_RAMP);
+            try {
+                String extension = FilenameUtils.getExtension(outputFile.getName());
+                Runnable insertion = null;
+                if (extension.equalsIgnoreCase("shp") //$NON-NLS-1$
+                        || ProcessOutputWriter.isFlatGeobuf(outputFile)) {
+                    SimpleFeatureCollection features = outputWriter.readFeatures(outputFile);
+                    insertion = createFeatureInsertion(profiler, features, outputFile,
+                            outputMeta, null);
+                } else {
+                    Hints hints = new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER, Boolean.TRUE);
+                    GeoTiffReader reader = new GeoTiffReader(outputFile, hints);
+                    GridCoverage2D output = null;
+                    try {
+                        // the coverage opens its own image stream
+                        output = reader.read(null);
+                    } finally {
+                        reader.dispose();
+                    }
+                    RasterStatistics[] statistics = RasterAuxFile.read(outputFile);
+                    if (statistics == null) {
+                        statistics = RasterStatistics.compute(output);
+                    }
+                    insertion = createRasterInsertion(profiler, output, output, outputFile,
+                            statistics);
+                }
 
-        if (noData < breaks[0]) {
-            colorMap.addColorMapEntry(nodataEntry);
+                if (insertion != null) {
+                    monitor.setTaskName(Messages.Task_AddingLayer);
+                    insertion.run();
+                }
+            } catch (IOException e) {
+                ToolboxPlugin.log(e.getMessage());
+            }
         }
+        outputBuffer.append(resultCache.getText(cacheKey));
+        return true;
+    }
 
-        for (int i = 0; i < breaks.length; i++) {
-            breaks[i] = minValue + (i * interval);
+    /**
+     * Writes a grid coverage and builds its style
+     * 
+     * @param outputProfiler profiler of the calling thread
+     * @return the insertion of the layer into the map, or null
+     */
+    private Runnable postProcessing(ProcessProfiler outputProfiler, GridCoverage2D source,
+            Object outputPath, Map<String, Object> outputMeta) throws IOException {
+        if (isTemporary(outputPath)) {
+            // written to a temporary GeoTIFF when added to the map
+            RasterStatistics[] statistics = RasterStatistics.compute(source);
+            return createRasterInsertion(outputProfiler, source, source, null, statistics);
+        }
 
-            ColorMapEntry entry = sf.createColorMapEntry();
-            entry.setQuantity(builder.literalExpression(breaks[i]));
-            entry.setColor(builder.colorExpression(colors[i]));
-            entry.setOpacity(builder.literalExpression(colors[i].getAlpha() / 255.0));
+        File outputFile = new File(outputPath.toString());
+        token.beginOutput(outputFile);
+        RasterStatistics[] statistics = RasterStatistics.create(source.getNumSampleDimensions());
+        GridCoverage2D output = outputWriter.writeCoverage(source, outputFile, statistics,
+                outputProfiler);
+        token.endOutput(outputFile);
 
-            colorMap.addColorMapEntry(entry);
-        }
+        return createRasterInsertion(outputProfiler, source, output, outputFile, statistics);
+    }
 
-        if (noData > breaks[breaks.length - 1]) {
-            colorMap.addColorMapEntry(nodataEntry);
+    /**
+     * Builds the style of a grid coverage
+     * 
+     * @param outputProfiler profiler of the calling thread
+     * @return the insertion of the layer into the map, to be run by the job thread, or null
+     */
+    private Runnable createRasterInsertion(ProcessProfiler outputProfiler, GridCoverage2D source,
+            final GridCoverage2D output, final File outputFile, RasterStatistics[] statistics) {
+        if (!ToolboxView.getAddLayerAutomatically()) {
+            return null;
         }
 
-        return builder.createStyle(builder.createRasterSymbolizer(colorMap, 1.0d));
-    }
+        try {
+            // create default style
+            outputProfiler.begin(ProcessProfiler.STYLE);
+            Style style = null;
+
+            Object minValue = source.getProperty("Minimum"); //$NON-NLS-1$
+            Object maxValue = source.getProperty("Maximum"); //$NON-NLS-1$
+            int numBands = source.getNumSampleDimensions();
+            if (numBands == 1 && !statistics[0].isEmpty()) {
+                minValue = statistics[0].getMinimum();
+                maxValue = statistics[0].getMaximum();
+            }
 
-    private void postProcessing(Object value) {
-        HtmlWriter writer = new HtmlWriter(windowTitle);
-        if (value instanceof DataStatisticsResult) {
-            writer.writeDataStatistics((DataStatisticsResult) value);
-        } else if (value instanceof GStatisticsProcessResult) {
-            writer.writeGStatistics((GStatisticsProcessResult) value);
-        } else if (value instanceof MoransIProcessResult) {
-            writer.writeMoransI((MoransIProcessResult) value);
-        } else if (value instanceof GearysCProcessResult) {
-            writer.writeGearysC((GearysCProcessResult) value);
-        } else if (value instanceof LeesSProcessResult) {
-            writer.writeLeesS((LeesSProcessResult) value);
-        } else if (value instanceof LeesLProcessResult) {
-            writer.writeLeesL((LeesLProcessResult) value);
-        } else if (value instanceof RogersonRProcessResult) {
-            writer.writeRogersonR((RogersonRProcessResult) value);
-        } else if (value instanceof NearestNeighborResult) {
-            writer.writeNearestNeighbor((NearestNeighborResult) value);
-        } else if (value instanceof PearsonResult) {
-            writer.writePearson((PearsonResult) value);
-        } else if (value instanceof OLSResult) {
-            writer.writeOLSProcess((OLSResult) value);
-        } else if (value instanceof JoinCountProcessResult) {
-            writer.writeJoinCount((JoinCountProcessResult) value);
-        } else if (value instanceof HistogramProcessResult) {
-            writer.writeHistogramProcess((HistogramProcessResult) value);
-        } else if (value instanceof QuadratResult) {
-            writer.writeQuadratProcess((QuadratResult) value);
-        } else if (value instanceof RasterDescribeResult) {
-            writer.writeRasterDescribeProcess((RasterDescribeResult) value);
-        } else if (Number.class.isAssignableFrom(value.getClass())) {
-            writer.writeH2(FormatUtils.format(Double.parseDouble(value.toString())));
-        } else {
-            writer.writePre(value.toString());
+            if (minValue != null && minValue instanceof Number && maxValue != null
+                    && maxValue instanceof Number && numBands == 1) {
+                Double noData = RasterHelper.getNoDataValue(source);
+                style = new CoverageStyleBuilder().createStyle(
+                        ((Number) minValue).doubleValue(), ((Number) maxValue).doubleValue(),
+                        noData);
+            } else {
+                SSStyleBuilder builder = new SSStyleBuilder(null);
+                style = builder.getDefaultGridCoverageStyle(source);
+            }
+            outputProfiler.end(ProcessProfiler.STYLE);
+
+            final Style coverageStyle = style;
+            return new Runnable() {
+                @Override
+                public void run() {
+                    profiler.begin(ProcessProfiler.ADD_LAYER);
+                    MapUtils.addGridCoverageToMap(map, output, outputFile, coverageStyle);
+                    profiler.end(ProcessProfiler.ADD_LAYER);
+                }
+            };
+        } catch (IllegalArgumentException e) {
+            ToolboxPlugin.log(e.getMessage());
+        } catch (IndexOutOfBoundsException e) {
+            ToolboxPlugin.log(e.getMessage());
         }
-        outputBuffer.append(writer.getHTML());
+        return null;
     }
 
-    private void postProcessing(SimpleFeatureCollection source, Object outputPath,
-            Map<String, Object> outputMeta, IProgressMonitor monitor) {
+    /**
+     * Writes a feature result and builds its style
+     * 
+     * @param outputProfiler profiler of the calling thread
+     * @return the insertion of the layer into the map, or null
+     */
+    private Runnable postProcessing(ProcessProfiler outputProfiler, SimpleFeatureCollection source,
+            Object outputPath, Map<String, Object> outputMeta) throws IOException {
         // check crs
         CoordinateReferenceSystem crs = source.getSchema().getCoordinateReferenceSystem();
         if (crs == null) {
@@ -337,39 +510,175 @@ public class ProcessExecutorOperation implements IRunnableWithProgress {
             source = new ForceCRSFeatureCollection(source, map.getViewportModel().getCRS());
         }
 
-        // write shapefile
-        monitor.setTaskName(Messages.Task_WritingResult);
-        File filePath = new File(outputPath.toString());
-        String typeName = FilenameUtils.getBaseName(filePath.getPath());
-        SimpleFeatureSource featureSource = null;
+        // the values of a graduated style are collected while the features are written
+        ClassBreaksSketch sketch = null;
+        String fieldName = getClassBreaksField(source.getSchema(), outputMeta);
+        if (fieldName != null && !(source instanceof ListFeatureCollection)) {
+            sketch = new ClassBreaksSketch(fieldName);
+            source = sketch.observe(source);
+        }
+
+        // the writers stop at the next feature when the operation is canceled
+        source = token.wrap(source);
+
+        // a file is written only if the user asked for one, or as a temporary FlatGeobuf file
+        // with its spatial index if the result turns out to be too large to be kept in memory
+        File filePath = null;
+        outputProfiler.begin(ProcessProfiler.WRITE);
+        FeatureOutputSink sink = null;
+        if (!isTemporary(outputPath)) {
+            filePath = new File(outputPath.toString());
+            sink = FeatureOutputSink.file(outputWriter, filePath, null);
+        } else {
+            filePath = createTemporaryFile(".fgb"); //$NON-NLS-1$
+            sink = FeatureOutputSink.adaptive(FeatureOutputSink.getDefaultMemoryThreshold(),
+                    outputWriter, filePath);
+        }
+        token.beginOutput(filePath);
+        SimpleFeatureCollection features = sink.write(source);
+        token.endOutput(filePath);
+        if (sink.getType() == FeatureOutputSink.Type.MEMORY) {
+            filePath = null;
+        } else if (isTemporary(outputPath)) {
+            ToolboxPlugin.log(String.format(Messages.Task_TemporaryOutput, filePath));
+        }
+        outputProfiler.end(ProcessProfiler.WRITE, features.size(), ProcessProfiler.FEATURES);
+
+        if (sketch != null && !sketch.isComplete()) {
+            sketch = null;
+        }
         try {
-            Map<String, Object> params = new HashMap<String, Object>();
-            File file = new File(filePath.getParent());
-            params.put(ShapefileDataStoreFactory.URLP.key, DataUtilities.fileToURL(file));
-            params.put(ShapefileDataStoreFactory.CREATE_SPATIAL_INDEX.key, false);
-            params.put(ShapefileDataStoreFactory.DBFCHARSET.key, ToolboxPlugin.defaultCharset());
-
-            ShapeExportOperation exportOp = ShapeExportOperation.getDefault();
-            exportOp.setOutputDataStore(DataStoreFactory.getDataStore(params));
-            exportOp.setOutputTypeName(typeName);
-            featureSource = exportOp.execute(source);
-            source = featureSource.getFeatures();
-        } catch (IOException e) {
-            ToolboxPlugin.log(e.getMessage());
+            return createFeatureInsertion(outputProfiler, features, filePath, outputMeta, sketch);
+        } finally {
+            // the style is built, a written file is added to the map from the catalog
+            sink.dispose();
+        }
+    }
+
+    /**
+     * Builds the style of a feature result
+     * 
+     * @param outputProfiler profiler of the calling thread
+     * @param filePath output file of the features, null if the features are kept in memory
+     * @param sketch values of the styled field collected while writing, null to scan features
+     * @return the insertion of the layer into the map, to be run by the job thread
+     */
+    private Runnable createFeatureInsertion(ProcessProfiler outputProfiler,
+            final SimpleFeatureCollection features, final File filePath,
+            Map<String, Object> outputMeta, ClassBreaksSketch sketch) {
+        final Style style = ToolboxView.getAddLayerAutomatically() ? createFeatureStyle(
+                outputProfiler, features, outputMeta, sketch) : null;
+        return new Runnable() {
+            @Override
+            public void run() {
+                ILayer layer = null;
+                if (ToolboxView.getAddLayerAutomatically()) {
+                    layer = addFeatureLayer(features, filePath, style);
+                }
+                if (filePath != null && !ProcessOutputWriter.isFlatGeobuf(filePath)) {
+                    ShapefileIndexJob.scheduleIfEnabled(filePath, layer);
+                }
+            }
+        };
+    }
+
+    private boolean isTemporary(Object outputPath) {
+        return outputPath == null || outputPath.toString().trim().length() == 0;
+    }
+
+    private File createTemporaryFile(String extension) throws IOException {
+        File folder = new File(ToolboxView.getWorkspace());
+        File file = File.createTempFile("udig_", extension, folder); //$NON-NLS-1$
+        file.delete(); // only the unique name is used
+        return file;
+    }
+
+    /**
+     * @return the numeric field of a class breaks style of the output, or null
+     */
+    private String getClassBreaksField(SimpleFeatureType schema, Map<String, Object> outputMeta) {
+        if (!ToolboxView.getAddLayerAutomatically() || !ToolboxView.getUseDefaultStyle()
+                || !outputMeta.containsKey(Params.STYLES)) {
+            return null;
         }
 
-        if (featureSource == null) {
-            return;
+        String[] splits = outputMeta.get(Params.STYLES).toString().split("\\."); //$NON-NLS-1$
+        if (getClassBreaksFunction(splits[0]) == null || splits.length != 2) {
+            return null;
         }
 
-        if (!ToolboxView.getAddLayerAutomatically()) {
-            return;
+        String fieldName = splits[1]; // inputParams
+        if (schema.indexOf(fieldName) == -1 && inputParams.get(fieldName) != null) {
+            fieldName = inputParams.get(fieldName).toString();
         }
 
-        monitor.setTaskName(Messages.Task_AddingLayer);
-        ToolboxPlugin.log(Messages.Task_AddingLayer);
+        if (schema.indexOf(fieldName) != -1) {
+            Class<?> binding = schema.getDescriptor(fieldName).getType().getBinding();
+            if (Number.class.isAssignableFrom(binding)) {
+                return fieldName;
+            }
+        }
+        return null;
+    }
+
+    private String getClassBreaksFunction(String styleName) {
+        styleName = styleName.toUpperCase();
+        if (styleName.startsWith("LISA")) { //$NON-NLS-1$
+            return null;
+        } else if (styleName.startsWith("OLS")) { //$NON-NLS-1$
+            return null;
+        } else if (styleName.startsWith("CL") || styleName.startsWith("JE") //$NON-NLS-1$ //$NON-NLS-2$
+                || styleName.startsWith("NA")) { //$NON-NLS-1$
+            return "JenksNaturalBreaksFunction"; //$NON-NLS-1$
+        } else if (styleName.startsWith("E")) { //$NON-NLS-1$
+            return "EqualIntervalFunction"; //$NON-NLS-1$
+        } else if (styleName.startsWith("S")) { //$NON-NLS-1$
+            return "StandardDeviationFunction"; //$NON-NLS-1$
+        } else if (styleName.startsWith("Q")) { //$NON-NLS-1$
+            return "QuantileFunction"; //$NON-NLS-1$
+        }
+        return null;
+    }
+
+    /**
+     * @param sketch values of the field collected while writing, null to scan the features
+     */
+    private Style createGraduatedStyle(SimpleFeatureCollection source, String fieldName,
+            String functionName, final ClassBreaksSketch sketch) {
+        SimpleShapeType shapeType = FeatureTypes.getSimpleShapeType(source);
+        if (shapeType == SimpleShapeType.POINT) {
+            GraduatedSymbolStyleBuilder builder = new GraduatedSymbolStyleBuilder() {
+                @Override
+                protected RangedClassifier getClassifier(SimpleFeatureCollection features,
+                        String propertyName, String function, int numClasses) {
+                    if (sketch == null) {
+                        return super.getClassifier(features, propertyName, function, numClasses);
+                    }
+                    return sketch.getClassifier(function, numClasses);
+                }
+            };
+            builder.setMethodName(functionName);
+            return builder.createStyle(source, fieldName);
+        }
+
+        GraduatedColorStyleBuilder builder = new GraduatedColorStyleBuilder() {
+            @Override
+            protected RangedClassifier getClassifier(SimpleFeatureCollection features,
+                    String propertyName, String function, int numClasses) {
+                if (sketch == null) {
+                    return super.getClassifier(features, propertyName, function, numClasses);
+                }
+                return sketch.getClassifier(function, numClasses);
+            }
+        };
+        return builder.createStyle(source, fieldName, functionName, 5, "Blues"); //$NON-NLS-1$
+    }
 
-        SimpleFeatureType schema = featureSource.getSchema();
+    private Style createFeatureStyle(ProcessProfiler outputProfiler,
+            SimpleFeatureCollection source, Map<String, Object> outputMeta,
+            ClassBreaksSketch sketch) {
+        outputProfiler.begin(ProcessProfiler.STYLE);
+        SimpleFeatureType schema = source.getSchema();
         SSStyleBuilder ssBuilder = new SSStyleBuilder(schema);
         ssBuilder.setOpacity(0.8f);
 
@@ -390,15 +699,8 @@ public class ProcessExecutorOperation implements IRunnableWithProgress {
                         style = ssBuilder.getLISAStyle("COType"); //$NON-NLS-1$
                     } else if (styleName.startsWith("OLS")) { //$NON-NLS-1$
                         style = ssBuilder.getOLSStyle(splits[1]);
-                    } else if (styleName.startsWith("CL") || styleName.startsWith("JE") //$NON-NLS-1$ //$NON-NLS-2$
-                            || styleName.startsWith("NA")) { //$NON-NLS-1$
-                        functionName = "JenksNaturalBreaksFunction"; //$NON-NLS-1$
-                    } else if (styleName.startsWith("E")) { //$NON-NLS-1$
-                        functionName = "EqualIntervalFunction"; //$NON-NLS-1$
-                    } else if (styleName.startsWith("S")) { //$NON-NLS-1$
-                        functionName = "StandardDeviationFunction"; //$NON-NLS-1$
-                    } else if (styleName.startsWith("Q")) { //$NON-NLS-1$
-                        functionName = "QuantileFunction"; //$NON-NLS-1$
+                    } else {
+                        functionName = getClassBreaksFunction(styleName);
                     }
 
                     if (functionName != null && splits.length == 2) {
@@ -411,16 +713,8 @@ public class ProcessExecutorOperation implements IRunnableWithProgress {
                             Class<?> binding = schema.getDescriptor(fieldName).getType()
                                     .getBinding();
                             if (Number.class.isAssignableFrom(binding)) {
-                                SimpleShapeType shapeType = FeatureTypes.getSimpleShapeType(source);
-                                if (shapeType == SimpleShapeType.POINT) {
-                                    GraduatedSymbolStyleBuilder builder = new GraduatedSymbolStyleBuilder();
-                                    builder.setMethodName(functionName);
-                                    style = builder.createStyle(source, fieldName);
-                                } else {
-                                    GraduatedColorStyleBuilder builder = new GraduatedColorStyleBuilder();
-                                    style = builder.createStyle(source, fieldName, functionName, 5,
-                                            "Blues"); //$NON-NLS-1$
-                                }
+                                style = createGraduatedStyle(source, fieldName,
+                                        functionName, sketch);
                             }
                         }
                     }
@@ -435,6 +729,29 @@ public class ProcessExecutorOperation implements IRunnableWithProgress {
                 }
             }
         }
+        outputProfiler.end(ProcessProfiler.STYLE);
+        return style;
+    }
+
+    /**
+     * A FlatGeobuf file is read by the {@link FlatGeobufService} of the catalog, the layer queries
+     * the file and its packed R-tree instead of a copy of the features.
+     * 
+     * @param filePath output file of the features, null if the features are kept in memory
+     * @return the added layer, or null
+     */
+    private ILayer addFeatureLayer(SimpleFeatureCollection source, File filePath, Style style) {
+        String typeName = filePath == null ? processName.getLocalPart() : FilenameUtils
+                .getBaseName(filePath.getPath());
+
+        ToolboxPlugin.log(Messages.Task_AddingLayer);
+
+        profiler.begin(ProcessProfiler.ADD_LAYER);
+        if (filePath == null) {
+            ILayer layer = MapUtils.addFeaturesToMap(map, source, typeName, style);
+            profiler.end(ProcessProfiler.ADD_LAYER);
+            return layer;
+        }
 
         try {
             CatalogPlugin catalogPlugin = CatalogPlugin.getDefault();
@@ -460,38 +777,56 @@ public class ProcessExecutorOperation implements IRunnableWithProgress {
 
                     // refresh
                     layer.refresh(layer.getBounds(new NullProgressMonitor(), null));
+                    return layer;
                 }
             }
         } catch (MalformedURLException e) {
             LOGGER.log(Level.FINER, e.getMessage(), e);
         } catch (IOException e) {
             LOGGER.log(Level.FINER, e.getMessage(), e);
+        } finally {
+            profiler.end(ProcessProfiler.ADD_LAYER);
         }
+        return null;
     }
 
-    private SimpleFeatureCollection geometryToFeatures(Geometry source, String layerName) {
-        CoordinateReferenceSystem crs = map.getViewportModel().getCRS();
-        if (source.getUserData() != null
-                && CoordinateReferenceSystem.class
-                        .isAssignableFrom(source.getUserData().getClass())) {
-            crs = (CoordinateReferenceSystem) source.getUserData();
-        }
+    /**
+     * Writes and styles one output, run by a worker thread with its own profiler
+     */
+    private final class OutputTask implements Callable<Runnable> {
+        private final String name;
 
-        Geometry geometry = source;
-        if (source instanceof LinearRing) {
-            geometry = source.getFactory().createPolygon((LinearRing) source, null);
-            geometry.setUserData(source.getUserData());
-        }
+        private final Object value;
+
+        private final Object outputPath;
+
+        private final Map<String, Object> outputMeta;
 
-        SimpleFeatureType schema = FeatureTypes.getDefaultType(layerName, geometry.getClass(), crs);
+        private final ProcessProfiler outputProfiler = new ProcessProfiler(
+                processName.toString());
 
-        ListFeatureCollection features = new ListFeatureCollection(schema);
-        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
+        // true once the output was written without error, read after the task completed
+        private volatile boolean written = false;
 
-        SimpleFeature feature = builder.buildFeature(null);
-        feature.setDefaultGeometry(geometry);
-        features.add(feature);
+        OutputTask(String name, Object value, Object outputPath, Map<String, Object> outputMeta) {
+            this.name = name;
+            this.value = value;
+            this.outputPath = outputPath;
+            this.outputMeta = outputMeta;
+        }
 
-        return features;
+        @Override
+        public Runnable call() throws IOException {
+            Runnable insertion = null;
+            if (value instanceof GridCoverage2D) {
+                insertion = postProcessing(outputProfiler, (GridCoverage2D) value, outputPath,
+                        outputMeta);
+            } else {
+                insertion = postProcessing(outputProfiler, (SimpleFeatureCollection) value,
+                        outputPath, outputMeta);
+            }
+            written = true;
+            return insertion;
+        }
     }
 }
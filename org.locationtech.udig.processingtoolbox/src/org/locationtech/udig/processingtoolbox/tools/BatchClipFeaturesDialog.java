@@ -15,6 +15,7 @@ import java.text.MessageFormat;
 import java.util.logging.Logger;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.swt.SWT;
@@ -40,6 +41,7 @@ import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget.FileDataType;
 import org.locationtech.udig.processingtoolbox.internal.ui.TableSelectionWidget;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils.VectorLayerType;
 import org.locationtech.udig.project.ILayer;
@@ -144,6 +146,7 @@ public class BatchClipFeaturesDialog extends AbstractGeoProcessingDialog impleme
             InterruptedException {
         monitor.beginTask(String.format(Messages.Task_Executing, windowTitle),
                 inputTable.getItems().length * increment);
+        CancellationToken token = CancellationToken.of(monitor);
         try {
             monitor.worked(increment);
 
@@ -157,6 +160,7 @@ public class BatchClipFeaturesDialog extends AbstractGeoProcessingDialog impleme
             ClipWithFeaturesOperation clipper = new ClipWithFeaturesOperation();
             for (TableItem item : inputTable.getItems()) {
                 monitor.subTask(item.getText());
+                token.checkCanceled();
                 if (item.getChecked()) {
                     ILayer layer = (ILayer) item.getData();
                     SimpleFeatureCollection features = MapUtils.getFeatures(layer);
@@ -170,23 +174,29 @@ public class BatchClipFeaturesDialog extends AbstractGeoProcessingDialog impleme
                                 MessageFormat.format(Messages.General_OverwriteLayer,
                                         layer.getName()))) {
                             if (MapUtils.confirmSpatialFile(file)) {
-                                clipped = clipper.execute(features, clipFeatures);
+                                clipped = clipper.execute(token.wrap(features), clipFeatures);
                             } else {
                                 openInformation(getShell(), Messages.General_Error);
                             }
                         }
                     } else {
-                        clipped = clipper.execute(features, clipFeatures);
+                        clipped = clipper.execute(token.wrap(features), clipFeatures);
                     }
 
                     if (clipped != null) {
                         export.setOutputTypeName(layer.getName());
-                        export.execute(clipFeatures);
+                        token.beginOutput(file);
+                        export.execute(token.wrap(clipFeatures));
+                        token.endOutput(file);
                         ToolboxPlugin.log(file);
                     }
                 }
                 monitor.worked(increment);
             }
+        } catch (OperationCanceledException e) {
+            token.deleteOutputs();
+            ToolboxPlugin.log(Messages.Task_Canceled);
+            throw new InterruptedException(Messages.General_Cancelled);
         } catch (Exception e) {
             ToolboxPlugin.log(e.getMessage());
             throw new InvocationTargetException(e.getCause(), e.getMessage());
@@ -17,6 +17,7 @@ import java.util.List;
 import java.util.logging.Logger;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.swt.SWT;
@@ -36,7 +37,6 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.geometry.jts.JTSFactoryFinder;
 import org.geotools.process.spatialstatistics.gridcoverage.RasterCropOperation;
-import org.geotools.process.spatialstatistics.storage.RasterExportOperation;
 import org.geotools.process.spatialstatistics.transformation.ReprojectFeatureCollection;
 import org.geotools.referencing.CRS;
 import org.geotools.util.logging.Logging;
@@ -46,6 +46,8 @@ import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget.FileDataType;
 import org.locationtech.udig.processingtoolbox.internal.ui.TableSelectionWidget;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
+import org.locationtech.udig.processingtoolbox.storage.TiledGeoTiffWriter;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils.VectorLayerType;
 import org.locationtech.udig.project.ILayer;
@@ -162,18 +164,20 @@ public class BatchClipRastersDialog extends AbstractGeoProcessingDialog implemen
             InterruptedException {
         monitor.beginTask(String.format(Messages.Task_Executing, windowTitle),
                 inputTable.getItems().length * increment);
+        CancellationToken token = CancellationToken.of(monitor);
         try {
             monitor.worked(increment);
 
             final String folder = locationView.getFolder();
 
-            RasterExportOperation export = new RasterExportOperation();
+            TiledGeoTiffWriter export = MapUtils.createGeoTiffWriter();
 
             SimpleFeatureCollection clipFeatures = MapUtils.getFeatures(map, cboLayer.getText());
 
             RasterCropOperation clipper = new RasterCropOperation();
             for (TableItem item : inputTable.getItems()) {
                 monitor.subTask(item.getText());
+                token.checkCanceled();
                 if (item.getChecked()) {
                     ILayer layer = (ILayer) item.getData();
                     GridCoverage2D coverage = MapUtils.getGridCoverage(layer);
@@ -200,12 +204,18 @@ public class BatchClipRastersDialog extends AbstractGeoProcessingDialog implemen
                     }
 
                     if (clipped != null) {
-                        export.saveAsGeoTiff(clipped, file.getAbsolutePath());
+                        token.beginOutput(file);
+                        export.write(clipped, file);
+                        token.endOutput(file);
                         ToolboxPlugin.log(file.getAbsolutePath());
                     }
                 }
                 monitor.worked(increment);
             }
+        } catch (OperationCanceledException e) {
+            token.deleteOutputs();
+            ToolboxPlugin.log(Messages.Task_Canceled);
+            throw new InterruptedException(Messages.General_Cancelled);
         } catch (Exception e) {
             ToolboxPlugin.log(e.getMessage());
             throw new InvocationTargetException(e.getCause(), e.getMessage());
@@ -15,6 +15,7 @@ import java.text.MessageFormat;
 import java.util.logging.Logger;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jface.window.Window;
@@ -48,6 +49,7 @@ import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget.FileDataType;
 import org.locationtech.udig.processingtoolbox.internal.ui.TableSelectionWidget;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils;
 import org.locationtech.udig.project.ILayer;
 import org.locationtech.udig.project.IMap;
@@ -234,6 +236,7 @@ public class BatchReprojectFeaturesDialog extends AbstractGeoProcessingDialog im
             InterruptedException {
         monitor.beginTask(String.format(Messages.Task_Executing, windowTitle),
                 inputTable.getItems().length * increment);
+        CancellationToken token = CancellationToken.of(monitor);
         try {
             monitor.worked(increment);
 
@@ -244,9 +247,10 @@ public class BatchReprojectFeaturesDialog extends AbstractGeoProcessingDialog im
 
             for (TableItem item : inputTable.getItems()) {
                 monitor.subTask(item.getText());
+                token.checkCanceled();
                 if (item.getChecked()) {
                     ILayer layer = (ILayer) item.getData();
-                    SimpleFeatureCollection features = MapUtils.getFeatures(layer);
+                    SimpleFeatureCollection features = token.wrap(MapUtils.getFeatures(layer));
 
                     export.setOutputTypeName(layer.getName());
 
@@ -258,18 +262,26 @@ public class BatchReprojectFeaturesDialog extends AbstractGeoProcessingDialog im
                                 MessageFormat.format(Messages.General_OverwriteLayer,
                                         layer.getName()))) {
                             if (MapUtils.confirmSpatialFile(file)) {
+                                token.beginOutput(file);
                                 export.execute(features, targetCRS);
+                                token.endOutput(file);
                             } else {
                                 openInformation(getShell(), Messages.General_Error);
                             }
                         }
                     } else {
+                        token.beginOutput(file);
                         export.execute(features, targetCRS);
+                        token.endOutput(file);
                         ToolboxPlugin.log(file.getAbsolutePath());
                     }
                 }
                 monitor.worked(increment);
             }
+        } catch (OperationCanceledException e) {
+            token.deleteOutputs();
+            ToolboxPlugin.log(Messages.Task_Canceled);
+            throw new InterruptedException(Messages.General_Cancelled);
         } catch (Exception e) {
             ToolboxPlugin.log(e.getMessage());
             throw new InvocationTargetException(e.getCause(), e.getMessage());
@@ -15,6 +15,7 @@ import java.text.MessageFormat;
 import java.util.logging.Logger;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jface.window.Window;
@@ -39,7 +40,6 @@ import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.PlatformUI;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.process.spatialstatistics.gridcoverage.RasterReprojectOperation;
-import org.geotools.process.spatialstatistics.storage.RasterExportOperation;
 import org.geotools.referencing.CRS;
 import org.geotools.util.logging.Logging;
 import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
@@ -48,6 +48,8 @@ import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget.FileDataType;
 import org.locationtech.udig.processingtoolbox.internal.ui.TableSelectionWidget;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
+import org.locationtech.udig.processingtoolbox.storage.TiledGeoTiffWriter;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils;
 import org.locationtech.udig.project.ILayer;
 import org.locationtech.udig.project.IMap;
@@ -242,16 +244,18 @@ public class BatchReprojectRastersDialog extends AbstractGeoProcessingDialog imp
             InterruptedException {
         monitor.beginTask(String.format(Messages.Task_Executing, windowTitle),
                 inputTable.getItems().length * increment);
+        CancellationToken token = CancellationToken.of(monitor);
         try {
             monitor.worked(increment);
 
             final String folder = locationView.getFolder();
 
             RasterReprojectOperation reproject = new RasterReprojectOperation();
-            RasterExportOperation export = new RasterExportOperation();
+            TiledGeoTiffWriter export = MapUtils.createGeoTiffWriter();
 
             for (TableItem item : inputTable.getItems()) {
                 monitor.subTask(item.getText());
+                token.checkCanceled();
                 if (item.getChecked()) {
                     ILayer layer = (ILayer) item.getData();
                     GridCoverage2D coverage = MapUtils.getGridCoverage(layer);
@@ -275,12 +279,18 @@ public class BatchReprojectRastersDialog extends AbstractGeoProcessingDialog imp
                     }
 
                     if (reprojected != null) {
-                        export.saveAsGeoTiff(reprojected, file.getAbsolutePath());
+                        token.beginOutput(file);
+                        export.write(reprojected, file);
+                        token.endOutput(file);
                         ToolboxPlugin.log(file.getAbsolutePath());
                     }
                 }
                 monitor.worked(increment);
             }
+        } catch (OperationCanceledException e) {
+            token.deleteOutputs();
+            ToolboxPlugin.log(Messages.Task_Canceled);
+            throw new InterruptedException(Messages.General_Cancelled);
         } catch (Exception e) {
             ToolboxPlugin.log(e.getMessage());
             throw new InvocationTargetException(e.getCause(), e.getMessage());
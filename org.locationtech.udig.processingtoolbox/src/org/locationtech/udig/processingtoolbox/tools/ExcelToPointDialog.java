@@ -16,6 +16,7 @@ import java.util.List;
 import java.util.logging.Logger;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jface.window.Window;
@@ -50,6 +51,7 @@ import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
 import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget.FileDataType;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
 import org.locationtech.udig.processingtoolbox.tools.excel.ExcelFormatReader;
 import org.locationtech.udig.processingtoolbox.tools.excel.ExcelFormatReader.ExcelSheetInfo;
 import org.locationtech.udig.processingtoolbox.tools.excel.ExcelToPointOperaion;
@@ -326,6 +328,7 @@ public class ExcelToPointDialog extends AbstractGeoProcessingDialog implements
     public void run(IProgressMonitor monitor) throws InvocationTargetException,
             InterruptedException {
         monitor.beginTask(Messages.Task_Running, 100);
+        CancellationToken token = CancellationToken.of(monitor);
         try {
             monitor.setTaskName(String.format(Messages.Task_Executing, windowTitle));
             monitor.worked(increment);
@@ -349,14 +352,18 @@ public class ExcelToPointDialog extends AbstractGeoProcessingDialog implements
 
             monitor.subTask(String.format(Messages.Task_Executing, windowTitle));
             ExcelToPointOperaion process = new ExcelToPointOperaion();
+            process.setCancellationToken(token);
             ShapeExportOperation exportOp = new ShapeExportOperation();
 
             exportOp.setOutputDataStore(locationView.getDataStore());
             exportOp.setOutputTypeName(outputName);
 
+            File outputFile = new File(locationView.getFile());
+            token.beginOutput(outputFile);
             SimpleFeatureCollection features = exportOp.execute(
-                    process.execute(formatReader.getWorkbook(), sheetName, schema, headerFirst,
-                            sourceCRS, targetCRS)).getFeatures();
+                    token.wrap(process.execute(formatReader.getWorkbook(), sheetName, schema,
+                            headerFirst, sourceCRS, targetCRS))).getFeatures();
+            token.endOutput(outputFile);
 
             error = process.getError();
             monitor.worked(increment);
@@ -366,6 +373,10 @@ public class ExcelToPointDialog extends AbstractGeoProcessingDialog implements
                 addFeaturesToMap(map, locationView.getFile(), outputName);
                 monitor.worked(increment);
             }
+        } catch (OperationCanceledException e) {
+            token.deleteOutputs();
+            ToolboxPlugin.log(Messages.Task_Canceled);
+            throw new InterruptedException(Messages.General_Cancelled);
         } catch (Exception e) {
             ToolboxPlugin.log(e.getMessage());
             throw new InvocationTargetException(e.getCause(), e.getMessage());
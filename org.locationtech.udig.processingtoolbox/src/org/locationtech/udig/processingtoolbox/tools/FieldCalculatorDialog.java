@@ -29,6 +29,7 @@ import java.util.logging.Logger;
 
 import org.apache.commons.io.FilenameUtils;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.jface.dialogs.IDialogConstants;
 import org.eclipse.jface.dialogs.MessageDialog;
@@ -87,6 +88,7 @@ import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
 import org.locationtech.udig.processingtoolbox.ToolboxView;
 import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.WidgetBuilder;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils.FieldType;
 import org.locationtech.udig.project.ILayer;
@@ -524,6 +526,7 @@ public class FieldCalculatorDialog extends AbstractGeoProcessingDialog implement
     public void run(IProgressMonitor monitor) throws InvocationTargetException,
             InterruptedException {
         monitor.beginTask(String.format(Messages.Task_Executing, windowTitle), 100);
+        CancellationToken token = CancellationToken.of(monitor);
 
         String folder = ToolboxView.getWorkspace();
         DataStore outputDataStore = DataStoreFactory.getShapefileDataStore(folder);
@@ -552,10 +555,12 @@ public class FieldCalculatorDialog extends AbstractGeoProcessingDialog implement
 
             // execute process
             String outputName = getUniqueName(folder, "calc_");
+            outputTypeName = outputName; // deleted when done or canceled
             FieldCalculatorOperation process = new FieldCalculatorOperation(outputName);
             process.setOutputDataStore(outputDataStore);
             SimpleFeatureCollection features = process.execute(source, expression, field,
-                    fieldBinding, length, progress.newChild(70));
+                    fieldBinding, length, progress.newChild(70), token);
+            token.checkCanceled();
 
             // post process
             if (features != null) {
@@ -596,6 +601,10 @@ public class FieldCalculatorDialog extends AbstractGeoProcessingDialog implement
                 monitor.worked(increment);
             }
             monitor.worked(increment);
+        } catch (OperationCanceledException e) {
+            token.deleteOutputs();
+            ToolboxPlugin.log(Messages.Task_Canceled);
+            throw new InterruptedException(Messages.General_Cancelled);
         } catch (Exception e) {
             ToolboxPlugin.log(e.getMessage());
             throw new InvocationTargetException(e.getCause(), e.getMessage());
@@ -642,7 +651,7 @@ public class FieldCalculatorDialog extends AbstractGeoProcessingDialog implement
 
         public SimpleFeatureCollection execute(SimpleFeatureCollection features,
                 Expression expression, String field, Class<?> fieldBinding, int length,
-                IProgressMonitor monitor) throws IOException {
+                IProgressMonitor monitor, CancellationToken token) throws IOException {
             field = FeatureTypes.validateProperty(features.getSchema(), field);
 
             SimpleFeatureType schema = FeatureTypes.build(features.getSchema(), outputName);
@@ -656,7 +665,7 @@ public class FieldCalculatorDialog extends AbstractGeoProcessingDialog implement
             SubMonitor progress = SubMonitor.convert(monitor, 100);
             SubMonitor loopProgress = progress.newChild(100).setWorkRemaining(features.size());
 
-            IFeatureInserter featureWriter = getFeatureWriter(schema);
+            IFeatureInserter featureWriter = token.wrap(getFeatureWriter(schema));
             SimpleFeatureIterator featureIter = null;
             try {
                 featureIter = features.features();
@@ -678,6 +687,8 @@ public class FieldCalculatorDialog extends AbstractGeoProcessingDialog implement
 
                     featureWriter.write(newFeature);
                 }
+            } catch (OperationCanceledException e) {
+                throw e; // rolled back by the writer
             } catch (Exception e) {
                 featureWriter.rollback(e);
             } finally {
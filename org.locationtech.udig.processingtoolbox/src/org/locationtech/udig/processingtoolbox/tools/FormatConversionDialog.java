@@ -12,9 +12,23 @@ package org.locationtech.udig.processingtoolbox.tools;
 import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.swt.SWT;
@@ -31,6 +45,7 @@ import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Spinner;
 import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableItem;
 import org.eclipse.swt.widgets.Text;
@@ -39,6 +54,7 @@ import org.eclipse.ui.PlatformUI;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.process.spatialstatistics.core.StringHelper;
+import org.geotools.process.spatialstatistics.storage.DataStoreFactory;
 import org.geotools.process.spatialstatistics.storage.ShapeExportOperation;
 import org.geotools.util.logging.Logging;
 import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
@@ -47,8 +63,10 @@ import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget.FileDataType;
 import org.locationtech.udig.processingtoolbox.internal.ui.TableSelectionWidget;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils;
 import org.locationtech.udig.processingtoolbox.tools.FormatTransformer.EncodeType;
+import org.locationtech.udig.processingtoolbox.tools.format.CoordinateFormatter;
 import org.locationtech.udig.project.ILayer;
 import org.locationtech.udig.project.IMap;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -68,6 +86,8 @@ public class FormatConversionDialog extends AbstractGeoProcessingDialog implemen
 
     private Combo cboOption;
 
+    private Spinner spnDecimals;
+
     private String delimiter = "|"; //$NON-NLS-1$
 
     private Text txtDelimiter;
@@ -76,6 +96,24 @@ public class FormatConversionDialog extends AbstractGeoProcessingDialog implemen
 
     private Button optTab, optColon, optComma, optSpace, optEtc;
 
+    // concurrent writers to the output folder
+    static final int MAX_WRITERS = 4;
+
+    static final int POLL_INTERVAL = 200; // milliseconds
+
+    static final int CANCEL_TIMEOUT = 30; // seconds
+
+    // options read before the export
+    private List<ILayer> layers;
+
+    private List<String> outputNames;
+
+    private String outputFolder;
+
+    private int selectionIdx;
+
+    private int numDecimals;
+
     public FormatConversionDialog(Shell parentShell, IMap map) {
         super(parentShell, map);
 
@@ -111,10 +149,15 @@ public class FormatConversionDialog extends AbstractGeoProcessingDialog implemen
                 "Geography Markup Language (GML3.1.1)", "Geography Markup Language (GML3.2)",
                 "GeoJSON", "Keyhole Markup Language (KML 2.1)",
                 "Keyhole Markup Language (KML 2.2)", "Delimiter separated Text files",
-                "Delimiter separated WKT files", "ESRI Shapefiles" });
+                "Delimiter separated WKT files", "ESRI Shapefiles",
+                "GeoJSON Text Sequences (GeoJSONSeq)", "FlatGeobuf (FGB)" });
         cboOption.addSelectionListener(selectionListener);
         cboOption.select(1);
 
+        uiBuilder.createLabel(container, Messages.FormatConversionDialog_Decimals, null, 1);
+        spnDecimals = uiBuilder.createSpinner(container, CoordinateFormatter.DEFAULT_DECIMALS, 0,
+                CoordinateFormatter.MAX_DECIMALS, 0, 1, 1, 1);
+
         grpOption = new Group(container, SWT.SHADOW_ETCHED_IN);
         grpOption.setText(Messages.TextfileToPointDialog_Delimiters);
         grpOption.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, false, 2, 1));
@@ -179,6 +222,7 @@ public class FormatConversionDialog extends AbstractGeoProcessingDialog implemen
                 }
             } else if (widget.equals(cboOption)) {
                 int selection = cboOption.getSelectionIndex();
+                spnDecimals.setEnabled(selection != 8 && selection != 10);
                 grpOption.setEnabled(selection == 6 || selection == 7);
                 grpOption.setVisible(selection == 6 || selection == 7);
                 if (selection == 7) {
@@ -221,8 +265,37 @@ public class FormatConversionDialog extends AbstractGeoProcessingDialog implemen
             return;
         }
 
+        // the export runs outside of the UI thread
+        layers = new ArrayList<ILayer>();
+        for (TableItem item : inputTable.getItems()) {
+            if (item.getChecked()) {
+                layers.add((ILayer) item.getData());
+            }
+        }
+        outputFolder = locationView.getFolder();
+        selectionIdx = cboOption.getSelectionIndex();
+        numDecimals = spnDecimals.getSelection();
+
+        // one output file per layer, the existing files are replaced only if the user agrees
+        outputNames = getOutputNames(layers);
+        for (String outputName : outputNames) {
+            File outputFile = new File(outputFolder, outputName + getExtension());
+            if (!outputFile.exists()) {
+                continue;
+            }
+
+            if (!MessageDialog.openQuestion(getShell(), windowTitle,
+                    MessageFormat.format(Messages.General_OverwriteLayer, outputName))) {
+                return;
+            } else if (!MapUtils.confirmSpatialFile(outputFile)) {
+                MessageDialog.openError(getShell(), Messages.General_Error,
+                        MessageFormat.format(Messages.General_OverwriteError, outputName));
+                return;
+            }
+        }
+
         try {
-            PlatformUI.getWorkbench().getProgressService().run(false, true, this);
+            PlatformUI.getWorkbench().getProgressService().run(true, true, this);
             openInformation(getShell(), Messages.General_Completed);
             super.okPressed();
         } catch (InvocationTargetException e) {
@@ -232,58 +305,139 @@ public class FormatConversionDialog extends AbstractGeoProcessingDialog implemen
         }
     }
 
+    /**
+     * @return output name of each layer, layers with the same name are numbered (name_1, name_2...)
+     */
+    private List<String> getOutputNames(List<ILayer> layers) {
+        List<String> names = new ArrayList<String>();
+        Set<String> used = new HashSet<String>(); // file names are compared ignoring case
+        for (ILayer layer : layers) {
+            String name = layer.getName();
+            for (int suffix = 1; used.contains(name.toLowerCase()); suffix++) {
+                name = layer.getName() + "_" + suffix; //$NON-NLS-1$
+            }
+            used.add(name.toLowerCase());
+            names.add(name);
+        }
+        return names;
+    }
+
+    private String getExtension() {
+        if (selectionIdx == 8) { // Shape file
+            return ".shp"; //$NON-NLS-1$
+        }
+        return new FormatTransformer(EncodeType.valueOf(selectionIdx)).getExtension();
+    }
+
+    /**
+     * Exports the layers concurrently, one layer per thread up to {@link #MAX_WRITERS} threads
+     * writing to the output folder. The progress is reported by the calling thread as each layer
+     * is exported.
+     */
     @Override
     public void run(IProgressMonitor monitor) throws InvocationTargetException,
             InterruptedException {
-        monitor.beginTask(String.format(Messages.Task_Executing, windowTitle),
-                inputTable.getItems().length * increment);
+        monitor.beginTask(String.format(Messages.Task_Executing, windowTitle), layers.size()
+                * increment);
+        CancellationToken token = CancellationToken.of(monitor);
+        int threads = Math.min(layers.size(),
+                Math.min(Runtime.getRuntime().availableProcessors(), MAX_WRITERS));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
         try {
-            monitor.worked(increment);
-
-            final String outputFolder = locationView.getFolder();
-            int selectionIdx = cboOption.getSelectionIndex();
-
-            FormatTransformer ftrans = null;
-            ShapeExportOperation export = null;
-            if (selectionIdx == 8) {
-                export = new ShapeExportOperation();
-                export.setOutputDataStore(locationView.getDataStore());
-            } else {
-                ftrans = new FormatTransformer(EncodeType.valueOf(selectionIdx));
+            CompletionService<String> service = new ExecutorCompletionService<String>(executor);
+            for (int index = 0; index < layers.size(); index++) {
+                service.submit(new ExportTask(layers.get(index), outputNames.get(index), token));
             }
 
-            for (TableItem item : inputTable.getItems()) {
-                monitor.subTask(item.getText());
-                if (item.getChecked()) {
-                    ILayer layer = (ILayer) item.getData();
-                    SimpleFeatureCollection features = MapUtils.getFeatures(layer);
-                    if (selectionIdx == 6) { // CSV
-                        Charset charset = Charset.forName(ToolboxPlugin.defaultCharset());
-                        File outputFile = new File(outputFolder, layer.getName()
-                                + ftrans.getExtension());
-                        ftrans.encodeCSV(features, outputFile, charset, delimiter);
-                    } else if (selectionIdx == 7) { // WKT
-                        Charset charset = Charset.forName(ToolboxPlugin.defaultCharset());
-                        File outputFile = new File(outputFolder, layer.getName()
-                                + ftrans.getExtension());
-                        ftrans.encodeWKT(features, outputFile, charset, delimiter);
-                    } else if (selectionIdx == 8) { // Shape file
-                        export.setOutputTypeName(layer.getName());
-                        export.execute(features);
-                    } else {
-                        File outputFile = new File(outputFolder, layer.getName()
-                                + ftrans.getExtension());
-                        ftrans.encode(features, outputFile);
+            Throwable failure = null;
+            int completed = 0;
+            while (completed < layers.size()) {
+                token.checkCanceled();
+                Future<String> future = service.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    continue;
+                }
+
+                completed++;
+                try {
+                    monitor.subTask(String.format(Messages.FormatConversionDialog_Exported,
+                            future.get(), completed, layers.size()));
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof OperationCanceledException) {
+                        throw (OperationCanceledException) e.getCause();
+                    }
+                    ToolboxPlugin.log(e.getCause().getMessage());
+                    if (failure == null) {
+                        failure = e.getCause();
                     }
                 }
                 monitor.worked(increment);
             }
-        } catch (Exception e) {
-            ToolboxPlugin.log(e.getMessage());
-            throw new InvocationTargetException(e.getCause(), e.getMessage());
+
+            if (failure != null) {
+                throw new InvocationTargetException(failure, failure.getMessage());
+            }
+        } catch (OperationCanceledException e) {
+            executor.shutdownNow();
+            // the workers stop at their next feature, their files are closed before they are
+            // deleted
+            executor.awaitTermination(CANCEL_TIMEOUT, TimeUnit.SECONDS);
+            token.deleteOutputs();
+            ToolboxPlugin.log(Messages.Task_Canceled);
+            throw new InterruptedException(Messages.General_Cancelled);
         } finally {
+            executor.shutdownNow();
             monitor.done();
         }
     }
 
+    /**
+     * Exports a layer, each task has its own writer
+     */
+    final class ExportTask implements Callable<String> {
+        private final ILayer layer;
+
+        private final String outputName;
+
+        private final CancellationToken token;
+
+        ExportTask(ILayer layer, String outputName, CancellationToken token) {
+            this.layer = layer;
+            this.outputName = outputName;
+            this.token = token;
+        }
+
+        @Override
+        public String call() throws Exception {
+            token.checkCanceled();
+            SimpleFeatureCollection features = token.wrap(MapUtils.getFeatures(layer));
+            if (selectionIdx == 8) { // Shape file
+                File outputFile = new File(outputFolder, outputName + ".shp"); //$NON-NLS-1$
+                ShapeExportOperation export = new ShapeExportOperation();
+                export.setOutputDataStore(DataStoreFactory.getShapefileDataStore(outputFolder));
+                export.setOutputTypeName(outputName);
+                token.beginOutput(outputFile);
+                export.execute(features);
+                token.endOutput(outputFile);
+                return layer.getName();
+            }
+
+            FormatTransformer ftrans = new FormatTransformer(EncodeType.valueOf(selectionIdx));
+            ftrans.setNumDecimals(numDecimals);
+            File outputFile = new File(outputFolder, outputName + ftrans.getExtension());
+            token.beginOutput(outputFile);
+            if (selectionIdx == 6) { // CSV
+                Charset charset = Charset.forName(ToolboxPlugin.defaultCharset());
+                ftrans.encodeCSV(features, outputFile, charset, delimiter);
+            } else if (selectionIdx == 7) { // WKT
+                Charset charset = Charset.forName(ToolboxPlugin.defaultCharset());
+                ftrans.encodeWKT(features, outputFile, charset, delimiter);
+            } else {
+                ftrans.encode(features, outputFile);
+            }
+            token.endOutput(outputFile);
+            return layer.getName();
+        }
+    }
+
 }
@@ -9,40 +9,30 @@
  */
 package org.locationtech.udig.processingtoolbox.tools;
 
-import java.io.BufferedWriter;
-import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.xml.namespace.QName;
-
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.store.ReprojectingFeatureCollection;
-import org.geotools.geojson.feature.FeatureJSON;
 import org.geotools.referencing.CRS;
 import org.geotools.util.logging.Logging;
-import org.geotools.xml.Configuration;
 import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
-import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.AttributeDescriptor;
-import org.opengis.feature.type.GeometryDescriptor;
+import org.locationtech.udig.processingtoolbox.tools.format.CoordinateFormatter;
+import org.locationtech.udig.processingtoolbox.tools.format.DelimitedTextWriter;
+import org.locationtech.udig.processingtoolbox.tools.format.FlatGeobufWriter;
+import org.locationtech.udig.processingtoolbox.tools.format.GMLFeatureWriter;
+import org.locationtech.udig.processingtoolbox.tools.format.GeoJSONFeatureWriter;
+import org.locationtech.udig.processingtoolbox.tools.format.KMLFeatureWriter;
+import org.locationtech.udig.processingtoolbox.tools.format.XMLFeatureWriter;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Geometry;
-
 /**
  * Format Transformer
  * 
@@ -55,7 +45,8 @@ public class FormatTransformer {
     final static Logger LOGGER = Logging.getLogger(FormatTransformer.class);
 
     public enum EncodeType {
-        GML212(0), GML311(1), GML32(2), GEOJSON(3), KML21(4), KML22(5), CSV(6), WKT(7);
+        GML212(0), GML311(1), GML32(2), GEOJSON(3), KML21(4), KML22(5), CSV(6), WKT(7),
+        GEOJSONSEQ(9), FLATGEOBUF(10);
 
         private final int value;
 
@@ -81,10 +72,23 @@ public class FormatTransformer {
 
     private EncodeType encodeType = EncodeType.GML311;
 
+    private int numDecimals = CoordinateFormatter.DEFAULT_DECIMALS;
+
     public FormatTransformer(EncodeType encodeType) {
         this.encodeType = encodeType;
     }
 
+    public int getNumDecimals() {
+        return numDecimals;
+    }
+
+    /**
+     * @param numDecimals maximum number of decimals of the coordinates
+     */
+    public void setNumDecimals(int numDecimals) {
+        this.numDecimals = numDecimals;
+    }
+
     public String getExtension() {
         switch (encodeType) {
         case GML212:
@@ -96,6 +100,10 @@ public class FormatTransformer {
             return ".kml";
         case GEOJSON:
             return ".json";
+        case GEOJSONSEQ:
+            return ".geojsonl";
+        case FLATGEOBUF:
+            return ".fgb";
         case CSV:
             return ".csv";
         case WKT:
@@ -116,6 +124,12 @@ public class FormatTransformer {
         case GEOJSON:
             encodeGeoJSON(features, outputFile);
             break;
+        case GEOJSONSEQ:
+            encodeGeoJSONSeq(features, outputFile);
+            break;
+        case FLATGEOBUF:
+            encodeFlatGeobuf(features, outputFile);
+            break;
         case GML212:
         case GML311:
         case GML32:
@@ -145,199 +159,82 @@ public class FormatTransformer {
             ToolboxPlugin.log(e.getMessage());
         }
 
-        QName qName = org.geotools.kml.KML.kml;
-        org.geotools.xml.Configuration config = new org.geotools.kml.KMLConfiguration();
-        if (encodeType == EncodeType.KML22) {
-            qName = org.geotools.kml.v22.KML.kml;
-            config = new org.geotools.kml.v22.KMLConfiguration();
-        }
-
-        write(config, qName, wgs84, outputFile);
+        EncodeType kmlType = encodeType == EncodeType.KML22 ? EncodeType.KML22
+                : EncodeType.KML21;
+        write(new KMLFeatureWriter(kmlType, new CoordinateFormatter(numDecimals)), wgs84,
+                outputFile);
     }
 
     public void encodeGML(SimpleFeatureCollection features, File outputFile) throws IOException {
-        QName qName;
-        org.geotools.xml.Configuration config;
-
-        switch (encodeType) {
-        case GML212:
-            qName = org.geotools.gml2.GML._FeatureCollection;
-            config = new org.geotools.gml2.GMLConfiguration();
-            // config = new org.geotools.wfs.v1_0.WFSConfiguration();
-            break;
-        case GML311:
-            qName = org.geotools.gml3.GML.FeatureCollection;
-            config = new org.geotools.gml3.GMLConfiguration();
-            // config = new org.geotools.wfs.v1_1.WFSConfiguration();
-            break;
-        case GML32:
-            qName = org.geotools.gml3.v3_2.GML.FeatureCollection;
-            config = new org.geotools.gml3.v3_2.GMLConfiguration();
-            // config = new org.geotools.wfs.v2_0.WFSConfiguration();
-            break;
-        default:
-            qName = org.geotools.gml3.GML.FeatureCollection;
-            config = new org.geotools.gml3.GMLConfiguration();
-            break;
+        EncodeType gmlType = EncodeType.GML311;
+        if (encodeType == EncodeType.GML212 || encodeType == EncodeType.GML32) {
+            gmlType = encodeType;
         }
-
-        write(config, qName, features, outputFile);
+        write(new GMLFeatureWriter(gmlType, new CoordinateFormatter(numDecimals)), features,
+                outputFile);
     }
 
-    private void write(Configuration config, QName qName, SimpleFeatureCollection features,
+    // features are streamed, the GeoTools encoder builds the whole document in memory
+    private void write(XMLFeatureWriter writer, SimpleFeatureCollection features,
             File outputFile) throws IOException {
-        FileOutputStream fos = null;
         try {
-            fos = new FileOutputStream(outputFile);
-            org.geotools.xml.Encoder encoder = new org.geotools.xml.Encoder(config);
-            encoder.setIndenting(true);
-            encoder.setIndentSize(2);
-            encoder.encode(features, qName, fos);
+            writer.write(features, outputFile);
         } catch (FileNotFoundException e) {
             ToolboxPlugin.log(e.getMessage());
-        } finally {
-            closeQuietly(fos);
         }
     }
 
     public void encodeCSV(SimpleFeatureCollection features, File outputFile, Charset charset,
             String delimeter) throws IOException {
-        BufferedWriter writer = null;
         try {
-            String newLine = System.getProperty("line.separator"); //$NON-NLS-1$
-            FileOutputStream fos = new FileOutputStream(outputFile);
-            writer = new BufferedWriter(new OutputStreamWriter(fos, charset));
-
-            // write fields
-            SimpleFeatureType schema = features.getSchema();
-            StringBuffer sb = new StringBuffer();
-            for (AttributeDescriptor descriptor : schema.getAttributeDescriptors()) {
-                if (descriptor instanceof GeometryDescriptor) {
-                    continue;
-                }
-                if (sb.length() > 0) {
-                    sb.append(delimeter);
-                }
-                sb.append(descriptor.getLocalName());
-            }
-            sb.append(delimeter).append("xcoord").append(delimeter).append("ycoord")
-                    .append(newLine);
-            writer.write(sb.toString());
-
-            // write contents
-            SimpleFeatureIterator featureIter = null;
-            try {
-                featureIter = features.features();
-                while (featureIter.hasNext()) {
-                    SimpleFeature feature = featureIter.next();
-                    Geometry origGeom = (Geometry) feature.getDefaultGeometry();
-                    Coordinate coordinate = origGeom.getCentroid().getCoordinate();
-
-                    sb.setLength(0);
-                    for (Object value : feature.getAttributes()) {
-                        if (value instanceof Geometry) {
-                            continue;
-                        }
-                        if (sb.length() > 0) {
-                            sb.append(delimeter);
-                        }
-                        sb.append(value == null ? "" : value.toString());
-                    }
-                    sb.append(delimeter).append(coordinate.x);
-                    sb.append(delimeter).append(coordinate.y).append(newLine);
-                    writer.write(sb.toString());
-                }
-            } finally {
-                featureIter.close();
-            }
-            writer.flush();
-            writer.close();
+            new DelimitedTextWriter(charset, delimeter, new CoordinateFormatter(numDecimals))
+                    .writeCSV(features, outputFile);
         } catch (FileNotFoundException e) {
             ToolboxPlugin.log(e.getMessage());
-        } finally {
-            closeQuietly(writer);
         }
     }
 
     public void encodeWKT(SimpleFeatureCollection features, File outputFile, Charset charset,
             String delimeter) throws IOException {
-        BufferedWriter writer = null;
         try {
-            String newLine = System.getProperty("line.separator"); //$NON-NLS-1$
-            FileOutputStream fos = new FileOutputStream(outputFile);
-            writer = new BufferedWriter(new OutputStreamWriter(fos, charset));
-
-            boolean isComma = delimeter.equals(",");
-
-            // write fields
-            SimpleFeatureType schema = features.getSchema();
-            StringBuffer sb = new StringBuffer();
-            for (AttributeDescriptor descriptor : schema.getAttributeDescriptors()) {
-                if (sb.length() > 0) {
-                    sb.append(delimeter);
-                }
-                sb.append(descriptor.getLocalName());
-            }
-            writer.write(sb.append(newLine).toString());
-
-            // write contents
-            SimpleFeatureIterator featureIter = null;
-            try {
-                featureIter = features.features();
-                while (featureIter.hasNext()) {
-                    SimpleFeature feature = featureIter.next();
-                    Geometry origGeom = (Geometry) feature.getDefaultGeometry();
-
-                    sb.setLength(0);
-                    for (Object value : feature.getAttributes()) {
-                        if (sb.length() > 0) {
-                            sb.append(delimeter);
-                        }
-                        if (value instanceof Geometry) {
-                            if (isComma) {
-                                sb.append("\"").append(origGeom.toText()).append("\"");
-                            } else {
-                                sb.append(origGeom.toText());
-                            }
-                        } else {
-                            sb.append(value == null ? "" : value.toString());
-                        }
-                    }
-                    writer.write(sb.append(newLine).toString());
-                }
-            } finally {
-                featureIter.close();
-            }
-            writer.flush();
-            writer.close();
+            new DelimitedTextWriter(charset, delimeter, new CoordinateFormatter(numDecimals))
+                    .writeWKT(features, outputFile);
         } catch (FileNotFoundException e) {
             ToolboxPlugin.log(e.getMessage());
-        } finally {
-            closeQuietly(writer);
         }
     }
 
     public void encodeGeoJSON(SimpleFeatureCollection features, File outputFile) throws IOException {
-        FileOutputStream fos = null;
         try {
-            fos = new FileOutputStream(outputFile);
-            FeatureJSON featureJson = new FeatureJSON();
-            featureJson.setEncodeFeatureCollectionCRS(true);
-            featureJson.writeFeatureCollection(features, fos);
+            new GeoJSONFeatureWriter(new CoordinateFormatter(numDecimals), false).write(features,
+                    outputFile);
         } catch (FileNotFoundException e) {
             ToolboxPlugin.log(e.getMessage());
-        } finally {
-            closeQuietly(fos);
         }
     }
 
-    private void closeQuietly(Closeable io) {
+    /**
+     * Writes a GeoJSON text sequence, one feature per line
+     */
+    public void encodeGeoJSONSeq(SimpleFeatureCollection features, File outputFile)
+            throws IOException {
         try {
-            if (io != null) {
-                io.close();
-            }
-        } catch (IOException e) {
-            LOGGER.log(Level.FINER, e.getMessage(), e);
+            new GeoJSONFeatureWriter(new CoordinateFormatter(numDecimals), true).write(features,
+                    outputFile);
+        } catch (FileNotFoundException e) {
+            ToolboxPlugin.log(e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a FlatGeobuf file with its packed Hilbert R-tree index
+     */
+    public void encodeFlatGeobuf(SimpleFeatureCollection features, File outputFile)
+            throws IOException {
+        try {
+            new FlatGeobufWriter().write(features, outputFile);
+        } catch (FileNotFoundException e) {
+            ToolboxPlugin.log(e.getMessage());
         }
     }
 
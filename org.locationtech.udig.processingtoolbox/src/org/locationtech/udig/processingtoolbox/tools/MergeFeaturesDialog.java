@@ -18,6 +18,7 @@ import java.util.logging.Logger;
 
 import org.apache.commons.io.FilenameUtils;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.swt.SWT;
@@ -52,6 +53,7 @@ import org.locationtech.udig.processingtoolbox.ToolboxView;
 import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget.FileDataType;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils.VectorLayerType;
 import org.locationtech.udig.project.ILayer;
@@ -267,6 +269,7 @@ public class MergeFeaturesDialog extends AbstractGeoProcessingDialog implements
     public void run(IProgressMonitor monitor) throws InvocationTargetException,
             InterruptedException {
         monitor.beginTask(String.format(Messages.Task_Executing, windowTitle), 5);
+        CancellationToken token = CancellationToken.of(monitor);
         try {
             monitor.worked(increment);
 
@@ -282,14 +285,21 @@ public class MergeFeaturesDialog extends AbstractGeoProcessingDialog implements
             MergeOp op = new MergeOp(outputName);
             op.setOutputDataStore(locationView.getDataStore());
 
-            SimpleFeatureSource sfs = op.merge(fcList, templateFc, monitor);
+            File outputFile = new File(locationView.getFile());
+            token.beginOutput(outputFile);
+            SimpleFeatureSource sfs = op.merge(fcList, templateFc, monitor, token);
+            token.endOutput(outputFile);
             if (sfs != null) {
-                MapUtils.addFeaturesToMap(map, new File(locationView.getFile()), outputName);
+                MapUtils.addFeaturesToMap(map, outputFile, outputName);
             } else {
                 ToolboxPlugin.log(windowTitle + " : Failed to merge : " + outputName); //$NON-NLS-1$
             }
 
             monitor.worked(increment);
+        } catch (OperationCanceledException e) {
+            token.deleteOutputs();
+            ToolboxPlugin.log(Messages.Task_Canceled);
+            throw new InterruptedException(Messages.General_Cancelled);
         } catch (Exception e) {
             ToolboxPlugin.log(e.getMessage());
             throw new InvocationTargetException(e.getCause(), e.getMessage());
@@ -308,7 +318,8 @@ public class MergeFeaturesDialog extends AbstractGeoProcessingDialog implements
         }
 
         public SimpleFeatureSource merge(List<SimpleFeatureCollection> fcList,
-                SimpleFeatureCollection template, IProgressMonitor monitor) throws IOException {
+                SimpleFeatureCollection template, IProgressMonitor monitor,
+                CancellationToken token) throws IOException {
             if (template == null) {
                 template = fcList.get(0);
             }
@@ -317,7 +328,7 @@ public class MergeFeaturesDialog extends AbstractGeoProcessingDialog implements
             SimpleFeatureType destSchema = FeatureTypes.build(template, outputName);
 
             // prepare transactional feature store
-            IFeatureInserter featureWriter = getFeatureWriter(destSchema);
+            IFeatureInserter featureWriter = token.wrap(getFeatureWriter(destSchema));
             try {
                 for (SimpleFeatureCollection inputFeatures : fcList) {
                     monitor.worked(1);
@@ -12,53 +12,72 @@ package org.locationtech.udig.processingtoolbox.tools;
 import java.awt.Dimension;
 import java.awt.geom.AffineTransform;
 import java.awt.image.ColorModel;
-import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
-import java.util.Set;
 import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import javax.media.jai.JAI;
+import javax.media.jai.ParameterBlockJAI;
 import javax.media.jai.PlanarImage;
 import javax.media.jai.RasterFactory;
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.RectIterFactory;
 import javax.media.jai.iterator.WritableRectIter;
 
+import org.apache.commons.io.FilenameUtils;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.dialogs.IDialogConstants;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.BusyIndicator;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
+import org.eclipse.swt.events.PaintEvent;
+import org.eclipse.swt.events.PaintListener;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
 import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.graphics.RGB;
+import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Canvas;
 import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Group;
+import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Table;
@@ -79,17 +98,9 @@ import org.geotools.filter.text.ecql.ECQL;
 import org.geotools.geometry.jts.JTSFactoryFinder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.process.spatialstatistics.core.FeatureTypes;
-import org.geotools.process.spatialstatistics.core.SSUtils;
-import org.geotools.process.spatialstatistics.enumeration.ResampleType;
-import org.geotools.process.spatialstatistics.gridcoverage.GridTransformer;
-import org.geotools.process.spatialstatistics.gridcoverage.RasterClipOperation;
 import org.geotools.process.spatialstatistics.gridcoverage.RasterHelper;
-import org.geotools.process.spatialstatistics.gridcoverage.RasterReprojectOperation;
-import org.geotools.process.spatialstatistics.gridcoverage.RasterResampleOperation;
-import org.geotools.process.spatialstatistics.storage.RasterExportOperation;
 import org.geotools.process.spatialstatistics.styler.SSStyleBuilder;
 import org.geotools.process.spatialstatistics.transformation.GXTSimpleFeatureCollection;
-import org.geotools.referencing.CRS;
 import org.geotools.styling.Style;
 import org.geotools.util.logging.Logging;
 import org.jaitools.tiledimage.DiskMemImage;
@@ -99,13 +110,26 @@ import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget.FileDataType;
 import org.locationtech.udig.processingtoolbox.internal.ui.WidgetBuilder;
+import org.locationtech.udig.processingtoolbox.storage.RasterAuxFile;
+import org.locationtech.udig.processingtoolbox.storage.RasterStatistics;
+import org.locationtech.udig.processingtoolbox.storage.RasterTileCache;
+import org.locationtech.udig.processingtoolbox.storage.TiledGeoTiffWriter;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils;
+import org.locationtech.udig.processingtoolbox.tools.calculator.CoverageRasterSource;
+import org.locationtech.udig.processingtoolbox.tools.calculator.FocalFunctionFactory;
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterCalculator;
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterExpressionCompiler;
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterPreview;
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterProgram;
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterSampleType;
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterSource;
 import org.locationtech.udig.project.ILayer;
 import org.locationtech.udig.project.IMap;
 import org.opengis.coverage.grid.GridCoverageReader;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
 import org.opengis.filter.capability.FunctionName;
 import org.opengis.filter.expression.Expression;
 import org.opengis.parameter.Parameter;
@@ -129,16 +153,38 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
 
     private final String space = " ";
 
+    private static final Pattern NAMED_EXPRESSION = Pattern
+            .compile("^\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*=(?!=)\\s*(.+)$");
+
+    // delay between the last key stroke and the live preview
+    private static final int PREVIEW_DELAY = 600;
+
     private final Color warningColor = new Color(Display.getCurrent(), 255, 255, 200);
 
     private IMap map = null;
 
-    private Button btnClear;
+    private Button btnClear, btnPreview;
+
+    private Canvas previewCanvas;
+
+    private Label lblPreview;
+
+    private Image previewImage;
+
+    private Job previewJob;
 
     private Table layerTable, functionTable;
 
     private Combo cboExtent, cboCellSize;
 
+    private Combo cboSampleType, cboCompression;
+
+    private Button chkMultiBand;
+
+    private RasterSampleType sampleType = RasterSampleType.FLOAT64;
+
+    private String compressionType = null;
+
     private Text txtExpression;
 
     private double minSizeX, minSizeY, maxSizeX, maxSizeY;
@@ -147,6 +193,8 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
 
     private Map<String, GridCoverage2D> coverages = new TreeMap<String, GridCoverage2D>();
 
+    private Map<String, RasterStatistics[]> statistics = new HashMap<String, RasterStatistics[]>();
+
     public RasterCalculatorDialog(Shell parentShell, IMap map) {
         super(parentShell, map);
 
@@ -156,7 +204,7 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
 
         this.windowTitle = Messages.RasterCalculatorDialog_title;
         this.windowDesc = Messages.RasterCalculatorDialog_description;
-        this.windowSize = ToolboxPlugin.rescaleSize(parentShell, 650, 550);
+        this.windowSize = ToolboxPlugin.rescaleSize(parentShell, 650, 780);
     }
 
     /**
@@ -166,10 +214,13 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
      */
     @Override
     protected void createButtonsForButtonBar(Composite parent) {
-        // Clear, Test, Save..., Load..., OK, Cancel
+        // Clear, Preview, OK, Cancel
         btnClear = createButton(parent, 2000, Messages.ExpressionBuilderDialog_Clear, false);
         btnClear.setEnabled(false);
 
+        btnPreview = createButton(parent, 2001, Messages.RasterCalculatorDialog_Preview, false);
+        btnPreview.setEnabled(false);
+
         createButton(parent, IDialogConstants.OK_ID, IDialogConstants.OK_LABEL, true);
         createButton(parent, IDialogConstants.CANCEL_ID, IDialogConstants.CANCEL_LABEL, false);
 
@@ -179,6 +230,13 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
                 txtExpression.setText("");
             }
         });
+
+        btnPreview.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent event) {
+                updatePreview();
+            }
+        });
     }
 
     /**
@@ -226,6 +284,21 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
             cboExtent.add(entry.getKey());
         }
 
+        widget.createLabel(grpExtent, Messages.RasterCalculatorDialog_SampleType, null, 1);
+        cboSampleType = widget.createCombo(grpExtent, 1, true);
+        for (RasterSampleType type : RasterSampleType.values()) {
+            cboSampleType.add(type.toString());
+        }
+
+        widget.createLabel(grpExtent, Messages.RasterCalculatorDialog_Compression, null, 1);
+        cboCompression = widget.createCombo(grpExtent, 1, true);
+        cboCompression.setItems(new String[] { Messages.RasterCalculatorDialog_None, "LZW",
+                "Deflate" });
+
+        // named expressions(name = expression, one per line) to one multi-band raster
+        chkMultiBand = widget.createCheckbox(grpExtent, Messages.RasterCalculatorDialog_MultiBand,
+                null, 2);
+
         cboCellSize.addModifyListener(new ModifyListener() {
             @Override
             public void modifyText(ModifyEvent e) {
@@ -346,13 +419,19 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
             public void modifyText(ModifyEvent e) {
                 String expression = txtExpression.getText();
                 btnClear.setEnabled(expression.length() > 0);
+                btnPreview.setEnabled(false);
 
+                Display display = txtExpression.getDisplay();
+                display.timerExec(-1, previewRunnable);
+                cancelPreview();
                 if (expression.length() == 0) {
                     txtExpression.setBackground(oldBackColor);
                 } else {
                     try {
-                        ECQL.toExpression(expression);
+                        parseExpressions(expression);
                         txtExpression.setBackground(oldBackColor);
+                        btnPreview.setEnabled(true);
+                        display.timerExec(PREVIEW_DELAY, previewRunnable);
                     } catch (CQLException e1) {
                         txtExpression.setBackground(warningColor);
                     }
@@ -360,9 +439,41 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
             }
         });
 
+        // 4. preview
+        Group grpPreview = widget.createGroup(container, Messages.RasterCalculatorDialog_Preview,
+                false, 1);
+        grpPreview.setLayout(new GridLayout(1, false));
+        grpPreview.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, false, 1, 1));
+
+        previewCanvas = new Canvas(grpPreview, SWT.BORDER | SWT.DOUBLE_BUFFERED);
+        GridData canvasGridData = new GridData(SWT.FILL, SWT.FILL, true, true, 1, 1);
+        canvasGridData.heightHint = 140 * scale;
+        previewCanvas.setLayoutData(canvasGridData);
+        previewCanvas.addPaintListener(new PaintListener() {
+            @Override
+            public void paintControl(PaintEvent e) {
+                paintPreview(e);
+            }
+        });
+        previewCanvas.addDisposeListener(new DisposeListener() {
+            @Override
+            public void widgetDisposed(DisposeEvent e) {
+                cancelPreview();
+                if (previewImage != null) {
+                    previewImage.dispose();
+                    previewImage = null;
+                }
+            }
+        });
+
+        lblPreview = widget.createLabel(grpPreview, null, null, 1);
+        lblPreview.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1));
+
         // init variables
         cboExtent.select(0);
         cboCellSize.select(0);
+        cboSampleType.select(0);
+        cboCompression.select(1);
 
         // 5. select output folder
         locationView = new OutputDataWidget(FileDataType.RASTER, SWT.SAVE);
@@ -495,8 +606,10 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
         Runnable runnable = new Runnable() {
             @Override
             public void run() {
-                Set<FunctionFactory> functionFactories = CommonFactoryFinder
-                        .getFunctionFactories(null);
+                // the focal functions are not registered, see FocalFunctionFactory
+                List<FunctionFactory> functionFactories = new ArrayList<FunctionFactory>();
+                functionFactories.add(FocalFunctionFactory.getInstance());
+                functionFactories.addAll(CommonFactoryFinder.getFunctionFactories(null));
                 for (FunctionFactory factory : functionFactories) {
                     String factoryName = factory.toString();
                     if (factoryName
@@ -569,6 +682,12 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
             return;
         }
 
+        String focalError = validateFocalFunctions(txtExpression.getText());
+        if (focalError != null) {
+            openInformation(getShell(), focalError);
+            return;
+        }
+
         try {
             PlatformUI.getWorkbench().getProgressService().run(false, true, this);
             openInformation(getShell(), Messages.General_Completed);
@@ -585,50 +704,68 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
         monitor.beginTask(String.format(Messages.Task_Executing, windowTitle), 100);
         monitor.worked(increment);
 
+        RasterTileCache tileCache = RasterTileCache.start();
         try {
             ToolboxPlugin.log(String.format(Messages.Task_Executing, windowTitle));
 
-            Expression expression = ECQL.toExpression(txtExpression.getText());
-            Map<String, GridCoverage2D> layers = getLayersFromExpression(expression.toString());
+            Map<String, Expression> expressions = parseExpressions(txtExpression.getText());
+            Map<String, GridCoverage2D> layers = getLayersFromExpression(expressions.values()
+                    .toString());
+            boolean multiBand = chkMultiBand.getSelection() && expressions.size() > 1;
+            sampleType = RasterSampleType.values()[cboSampleType.getSelectionIndex()];
+            compressionType = cboCompression.getSelectionIndex() == 0 ? null : cboCompression
+                    .getText();
 
             // check extent & cell size = cellSize
             monitor.worked(increment);
             ReferencedEnvelope extent = resolveExtent(layers);
 
-            // convert to features
-            CoveragesToPointFeatureCollection features = null;
-            features = new CoveragesToPointFeatureCollection(layers, extent, cellSizeX, cellSizeY);
-
             // calculate
             monitor.worked(increment);
-            GridCoverage2D coverage = calculateExpression(features, expression, extent, cellSizeX,
-                    cellSizeY, monitor);
+            Map<String, GridCoverage2D> outputs = null;
+            statistics.clear();
+            RasterProgram program = compileExpression(expressions, layers);
+            if (program == null) {
+                outputs = new LinkedHashMap<String, GridCoverage2D>();
+                for (Entry<String, Expression> entry : expressions.entrySet()) {
+                    // convert to features
+                    CoveragesToPointFeatureCollection features = null;
+                    features = new CoveragesToPointFeatureCollection(layers, extent, cellSizeX,
+                            cellSizeY);
+                    GridCoverage2D coverage = calculateExpression(features, entry.getValue(),
+                            extent, cellSizeX, cellSizeY, monitor);
+                    if (coverage == null) {
+                        return;
+                    }
+                    outputs.put(entry.getKey(), coverage);
+                }
 
-            if (coverage == null) {
-                return;
+                if (multiBand) {
+                    GridCoverage2D coverage = mergeBands(outputs, extent, cellSizeX, cellSizeY);
+                    outputs.clear();
+                    outputs.put(RasterExpressionCompiler.DEFAULT_NAME, coverage);
+                }
+            } else {
+                outputs = calculateExpression(program, layers, extent, cellSizeX, cellSizeY,
+                        multiBand, monitor);
             }
 
-            Object minValue = coverage.getProperty("Minimum"); //$NON-NLS-1$
-            Object maxValue = coverage.getProperty("Maximum"); //$NON-NLS-1$
-            int numBands = coverage.getNumSampleDimensions();
-
-            monitor.worked(increment);
-            RasterExportOperation saveAs = new RasterExportOperation();
-            coverage = saveAs.saveAsGeoTiff(coverage, locationView.getFile());
-
-            Style style = null;
-            monitor.worked(increment);
-            if (minValue != null && minValue instanceof Number && maxValue != null
-                    && maxValue instanceof Number && numBands == 1) {
-                Double noData = RasterHelper.getNoDataValue(coverage);
-                style = buildCoverageStyle((Double) minValue, (Double) maxValue, noData);
-            } else {
-                SSStyleBuilder builder = new SSStyleBuilder(null);
-                style = builder.getDefaultGridCoverageStyle(coverage);
+            if (outputs == null) {
+                return;
             }
 
-            monitor.worked(increment);
-            MapUtils.addGridCoverageToMap(map, coverage, new File(locationView.getFile()), style);
+            File outputFile = new File(locationView.getFile());
+            for (Entry<String, GridCoverage2D> entry : outputs.entrySet()) {
+                File file = outputFile;
+                if (outputs.size() > 1) {
+                    // calc_01.tif -> calc_01_ndvi.tif
+                    String baseName = FilenameUtils.removeExtension(outputFile.getName());
+                    String extension = FilenameUtils.getExtension(outputFile.getName());
+                    file = new File(outputFile.getParentFile(), baseName + "_" + entry.getKey()
+                            + "." + extension);
+                }
+                writeOutput(entry.getValue(), file, statistics.get(entry.getKey()), monitor);
+            }
         } catch (Exception e) {
             // always show log
             boolean showLog = ToolboxView.getShowLog();
@@ -636,21 +773,400 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
             ToolboxPlugin.log(e.getMessage());
             ToolboxView.setShowLog(showLog);
         } finally {
+            ToolboxPlugin.log(tileCache.report());
             ToolboxPlugin.log(String.format(Messages.Task_Completed, windowTitle));
             monitor.done();
         }
     }
 
+    private final Runnable previewRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (previewCanvas != null && !previewCanvas.isDisposed()) {
+                updatePreview();
+            }
+        }
+    };
+
+    /**
+     * Cancels the preview being computed, if any
+     */
+    private void cancelPreview() {
+        if (previewJob != null) {
+            previewJob.cancel();
+            previewJob = null;
+        }
+    }
+
+    /**
+     * Evaluates the first expression on a reduced resolution grid in a background job, the
+     * result is shown in the dialog unless a newer preview was started meanwhile
+     */
+    private void updatePreview() {
+        cancelPreview();
+
+        String text = txtExpression.getText();
+        if (text.trim().length() == 0) {
+            return;
+        }
+
+        Map<String, Expression> expressions = null;
+        try {
+            expressions = parseExpressions(text);
+        } catch (CQLException e) {
+            return;
+        }
+
+        // the first expression only
+        Entry<String, Expression> first = expressions.entrySet().iterator().next();
+        Map<String, Expression> single = new LinkedHashMap<String, Expression>();
+        single.put(first.getKey(), first.getValue());
+
+        final Map<String, GridCoverage2D> layers = getLayersFromExpression(single.values()
+                .toString());
+        final RasterProgram program = layers.size() == 0 ? null : compileExpression(single,
+                layers);
+        if (program == null) {
+            showPreview(null, Messages.RasterCalculatorDialog_PreviewUnavailable);
+            return;
+        }
+
+        // the widgets are read here, the job does not touch them
+        final String name = first.getKey();
+        final ReferencedEnvelope extent = resolveExtent(layers);
+        final double sizeX = cellSizeX;
+        final double sizeY = cellSizeY;
+        final Display display = previewCanvas.getDisplay();
+
+        previewJob = new Job(Messages.RasterCalculatorDialog_Preview) {
+            @Override
+            protected IStatus run(IProgressMonitor monitor) {
+                final long start = System.currentTimeMillis();
+                RasterPreview previewer = new RasterPreview(layers) {
+                    @Override
+                    protected GridCoverage2D getCoverage(String layerName,
+                            GridCoverage2D coverage, ReferencedEnvelope previewExtent,
+                            int width, int height) {
+                        // reads the overviews of the layer, if any
+                        for (ILayer layer : map.getMapLayers()) {
+                            if (layerName.equals(layer.getName())) {
+                                return MapUtils.getGridCoverage(layer, previewExtent, width,
+                                        height);
+                            }
+                        }
+                        return coverage;
+                    }
+                };
+
+                GridCoverage2D preview = null;
+                try {
+                    preview = previewer.execute(program, extent, sizeX, sizeY, monitor);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.FINER, e.getMessage(), e);
+                    postPreview(display, this, null, e.getMessage());
+                    return Status.OK_STATUS;
+                }
+
+                if (monitor.isCanceled()) {
+                    return Status.CANCEL_STATUS;
+                } else if (preview == null) {
+                    postPreview(display, this, null,
+                            Messages.RasterCalculatorDialog_PreviewTimeout);
+                    return Status.OK_STATUS;
+                }
+
+                try {
+                    Raster raster = preview.getRenderedImage().getData();
+                    long elapsed = System.currentTimeMillis() - start;
+                    postPreview(display, this, toImageData(raster), String.format(
+                            Messages.RasterCalculatorDialog_PreviewStatus, name,
+                            raster.getWidth(), raster.getHeight(), elapsed));
+                } finally {
+                    preview.dispose(true);
+                }
+                return Status.OK_STATUS;
+            }
+        };
+        previewJob.setSystem(true);
+        previewJob.schedule();
+    }
+
+    /**
+     * Shows the result of a preview job on the UI thread, unless the job was cancelled or
+     * replaced by a newer preview
+     */
+    private void postPreview(Display display, final Job job, final ImageData imageData,
+            final String status) {
+        if (display.isDisposed()) {
+            return;
+        }
+
+        display.asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                if (job == previewJob && !previewCanvas.isDisposed()) {
+                    previewJob = null;
+                    showPreview(imageData, status);
+                }
+            }
+        });
+    }
+
+    private ImageData toImageData(Raster raster) {
+        final int width = raster.getWidth();
+        final int height = raster.getHeight();
+        double[] values = raster.getSamples(raster.getMinX(), raster.getMinY(), width, height,
+                0, new double[width * height]);
+
+        // linear stretch, index 255 is NoData
+        final double noData = RasterSampleType.FLOAT64.getNoDataValue();
+        double minValue = Double.MAX_VALUE;
+        double maxValue = -Double.MAX_VALUE;
+        for (double value : values) {
+            if (value != noData) {
+                minValue = Math.min(minValue, value);
+                maxValue = Math.max(maxValue, value);
+            }
+        }
+        double range = maxValue > minValue ? maxValue - minValue : 1.0;
+
+        RGB[] colors = new RGB[256];
+        for (int i = 0; i < 255; i++) {
+            colors[i] = new RGB(i, i, i);
+        }
+        colors[255] = new RGB(255, 255, 255);
+
+        ImageData imageData = new ImageData(width, height, 8, new PaletteData(colors));
+        imageData.transparentPixel = 255;
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                double value = values[row * width + column];
+                int index = 255;
+                if (value != noData) {
+                    index = (int) Math.round((value - minValue) / range * 254);
+                }
+                imageData.setPixel(column, row, index);
+            }
+        }
+        return imageData;
+    }
+
+    private void showPreview(ImageData imageData, String status) {
+        if (previewImage != null) {
+            previewImage.dispose();
+            previewImage = null;
+        }
+
+        if (imageData != null) {
+            previewImage = new Image(previewCanvas.getDisplay(), imageData);
+        }
+        lblPreview.setText(status == null ? "" : status);
+        lblPreview.getParent().layout();
+        previewCanvas.redraw();
+    }
+
+    private void paintPreview(PaintEvent e) {
+        if (previewImage == null) {
+            return;
+        }
+
+        // fit the image into the canvas, keeping its aspect ratio
+        Rectangle bounds = previewImage.getBounds();
+        Rectangle area = previewCanvas.getClientArea();
+        double ratio = Math.min((double) area.width / bounds.width, (double) area.height
+                / bounds.height);
+        int width = (int) (bounds.width * ratio);
+        int height = (int) (bounds.height * ratio);
+        e.gc.drawImage(previewImage, 0, 0, bounds.width, bounds.height,
+                (area.width - width) / 2, (area.height - height) / 2, width, height);
+    }
+
+    private void writeOutput(GridCoverage2D coverage, File file, RasterStatistics[] bandStats,
+            IProgressMonitor monitor) throws IOException {
+        Object minValue = coverage.getProperty("Minimum"); //$NON-NLS-1$
+        Object maxValue = coverage.getProperty("Maximum"); //$NON-NLS-1$
+        int numBands = coverage.getNumSampleDimensions();
+        monitor.worked(increment);
+        TiledGeoTiffWriter writer = MapUtils.createGeoTiffWriter();
+        writer.setCompressionType(compressionType);
+        if (bandStats == null) {
+            // not computed by the compiled program, collected while writing
+            bandStats = RasterStatistics.create(numBands);
+            coverage = writer.write(coverage, file, bandStats);
+        } else {
+            coverage = writer.write(coverage, file);
+        }
+        RasterAuxFile.write(file, bandStats);
+
+        Style style = null;
+        monitor.worked(increment);
+        if (minValue != null && minValue instanceof Number && maxValue != null
+                && maxValue instanceof Number && numBands == 1) {
+            Double noData = RasterHelper.getNoDataValue(coverage);
+            style = buildCoverageStyle((Double) minValue, (Double) maxValue, noData);
+        } else {
+            SSStyleBuilder builder = new SSStyleBuilder(null);
+            style = builder.getDefaultGridCoverageStyle(coverage);
+        }
+
+        monitor.worked(increment);
+        MapUtils.addGridCoverageToMap(map, coverage, file, style);
+    }
+
+    /**
+     * Parses the expression text: either one expression, or one named expression per line
+     * (name = expression).
+     * 
+     * @return expressions keyed by output name, in input order
+     */
+    private Map<String, Expression> parseExpressions(String text) throws CQLException {
+        Map<String, Expression> expressions = new LinkedHashMap<String, Expression>();
+        FilterFactory2 ff = FocalFunctionFactory.getFilterFactory();
+
+        String[] lines = text.trim().split("\\r?\\n");
+        for (String line : lines) {
+            if (line.trim().length() == 0) {
+                continue;
+            }
+
+            Matcher matcher = NAMED_EXPRESSION.matcher(line);
+            if (!matcher.matches() || expressions.containsKey(matcher.group(1))) {
+                // a single expression spanning several lines
+                expressions.clear();
+                break;
+            }
+            expressions.put(matcher.group(1), ECQL.toExpression(matcher.group(2), ff));
+        }
+
+        if (expressions.size() == 0) {
+            expressions.put(RasterExpressionCompiler.DEFAULT_NAME, ECQL.toExpression(text, ff));
+        }
+        return expressions;
+    }
+
+    private GridCoverage2D mergeBands(Map<String, GridCoverage2D> outputs,
+            ReferencedEnvelope extent, double cellSizeX, double cellSizeY) {
+        ParameterBlockJAI pb = new ParameterBlockJAI("BandMerge");
+        double minValue = Double.MAX_VALUE;
+        double maxValue = -Double.MAX_VALUE;
+        for (GridCoverage2D coverage : outputs.values()) {
+            pb.addSource(coverage.getRenderedImage());
+            minValue = Math.min(minValue, (Double) coverage.getProperty("Minimum"));
+            maxValue = Math.max(maxValue, (Double) coverage.getProperty("Maximum"));
+        }
+
+        PlanarImage image = JAI.create("BandMerge", pb);
+        extent = RasterHelper.getResolvedEnvelope(extent, cellSizeX, cellSizeY);
+        return RasterHelper.createGridCoverage(RasterExpressionCompiler.DEFAULT_NAME, image,
+                outputs.size(), sampleType.getNoDataValue(), minValue, maxValue, extent);
+    }
+
+    private RasterProgram compileExpression(Map<String, Expression> expressions,
+            Map<String, GridCoverage2D> layers) {
+        try {
+            return new RasterExpressionCompiler(getBands(layers)).compile(expressions);
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    private Map<String, Integer> getBands(Map<String, GridCoverage2D> layers) {
+        Map<String, Integer> bands = new TreeMap<String, Integer>();
+        for (Entry<String, GridCoverage2D> entry : layers.entrySet()) {
+            bands.put(entry.getKey(), entry.getValue().getNumSampleDimensions());
+        }
+        return bands;
+    }
+
+    /**
+     * The focal functions are computed by the compiled program only, the per feature evaluation
+     * used for the other expressions has no neighbourhood
+     * 
+     * @return error message if an expression uses a focal function and does not compile, or null
+     */
+    private String validateFocalFunctions(String text) {
+        Map<String, Expression> expressions = null;
+        try {
+            expressions = parseExpressions(text);
+        } catch (CQLException e) {
+            return null; // reported by the calculation
+        }
+
+        String focalFunction = null;
+        for (Expression expression : expressions.values()) {
+            focalFunction = FocalFunctionFactory.findFocalFunction(expression);
+            if (focalFunction != null) {
+                break;
+            }
+        }
+        if (focalFunction == null) {
+            return null;
+        }
+
+        Map<String, GridCoverage2D> layers = getLayersFromExpression(expressions.values()
+                .toString());
+        try {
+            new RasterExpressionCompiler(getBands(layers)).compile(expressions);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return String.format(Messages.RasterCalculatorDialog_FocalFunction, focalFunction,
+                    e.getMessage());
+        }
+    }
+
+    private Map<String, GridCoverage2D> calculateExpression(RasterProgram program,
+            Map<String, GridCoverage2D> layers, ReferencedEnvelope extent, double cellSizeX,
+            double cellSizeY, boolean multiBand, IProgressMonitor monitor) {
+        Map<String, RasterSource> sources = new TreeMap<String, RasterSource>();
+        for (Entry<String, GridCoverage2D> entry : layers.entrySet()) {
+            sources.put(entry.getKey(), new CoverageRasterSource(entry.getValue(), extent,
+                    cellSizeX, cellSizeY));
+        }
+
+        RasterCalculator calculator = new RasterCalculator();
+        calculator.setSampleType(sampleType);
+        IProgressMonitor subMonitor = SubMonitor.convert(monitor, 100).newChild(50);
+
+        Map<String, GridCoverage2D> outputs = null;
+        if (multiBand) {
+            GridCoverage2D coverage = calculator.execute(program, sources, extent, cellSizeX,
+                    cellSizeY, subMonitor);
+            if (coverage != null) {
+                outputs = new LinkedHashMap<String, GridCoverage2D>();
+                outputs.put(RasterExpressionCompiler.DEFAULT_NAME, coverage);
+                List<RasterStatistics> resultStats = calculator.getStatistics();
+                statistics.put(RasterExpressionCompiler.DEFAULT_NAME,
+                        resultStats.toArray(new RasterStatistics[resultStats.size()]));
+            }
+        } else {
+            outputs = calculator.executeAll(program, sources, extent, cellSizeX, cellSizeY,
+                    subMonitor);
+            if (outputs != null) {
+                List<RasterStatistics> resultStats = calculator.getStatistics();
+                for (int index = 0; index < program.getResultCount(); index++) {
+                    statistics.put(program.getResultNames().get(index),
+                            new RasterStatistics[] { resultStats.get(index) });
+                }
+            }
+        }
+
+        if (outputs == null) {
+            ToolboxPlugin.log(String.format(Messages.Task_Canceled, windowTitle));
+        }
+        return outputs;
+    }
+
     private GridCoverage2D calculateExpression(SimpleFeatureCollection features,
             Expression expression, ReferencedEnvelope extent, double cellSizeX, double cellSizeY,
             IProgressMonitor monitor) {
         extent = RasterHelper.getResolvedEnvelope(extent, cellSizeX, cellSizeY);
-        SampleModel sampleModel = RasterFactory.createBandedSampleModel(DataBuffer.TYPE_DOUBLE,
-                128, 128, 1);
+        SampleModel sampleModel = RasterFactory.createBandedSampleModel(
+                sampleType.getDataType(), 128, 128, 1);
         ColorModel cm = PlanarImage.createColorModel(sampleModel);
 
         Dimension dm = RasterHelper.getDimension(extent, cellSizeX, cellSizeY);
-        double noDataValue = -Double.MAX_VALUE;
+        double noDataValue = sampleType.getNoDataValue();
         double minValue = Double.MAX_VALUE;
         double maxValue = Double.MIN_VALUE;
 
@@ -680,10 +1196,10 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
                 if (featureIter.hasNext()) {
                     SimpleFeature feature = featureIter.next();
                     Double value = expression.evaluate(feature, Double.class);
-                    if (value == null || value.isInfinite() || value.isNaN()) {
+                    double val = sampleType.convert(value == null ? Double.NaN : value);
+                    if (val == noDataValue) {
                         writerIter.setSample(0, noDataValue);
                     } else {
-                        double val = value.doubleValue();
                         writerIter.setSample(0, val);
                         minValue = Math.min(minValue, val);
                         maxValue = Math.max(maxValue, val);
@@ -823,19 +1339,19 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
             private GeometryFactory gf = JTSFactoryFinder.getGeometryFactory(GeoTools
                     .getDefaultHints());
 
-            private RandomIter[] readIter;
+            private RasterSource[] sources;
 
-            private GridTransformer[] trans;
+            private double[][][] rowValues;
 
-            private double[] noData;
+            private ReferencedEnvelope gridExtent;
 
-            private int[] bands;
+            private int columnCount;
 
-            private java.awt.Rectangle[] bounds;
+            private int rowCount;
 
             private int currentRow = 0;
 
-            private int rowCount = Integer.MAX_VALUE;
+            private int currentColumn = 0;
 
             private SimpleFeatureBuilder builder;
 
@@ -843,70 +1359,28 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
 
             private int featureID = 0;
 
-            private Map<Integer, List<Coordinate>> rowCells = new TreeMap<Integer, List<Coordinate>>();
-
             public CoveragesToPointFeatureIterator(SimpleFeatureType schema) {
                 this.builder = new SimpleFeatureBuilder(schema);
 
-                readIter = new RandomIter[coverages.size()];
+                gridExtent = RasterHelper.getResolvedEnvelope(extent, cellSizeX, cellSizeY);
+                Dimension dm = RasterHelper.getDimension(gridExtent, cellSizeX, cellSizeY);
+                columnCount = dm.width;
+                rowCount = dm.height;
 
-                trans = new GridTransformer[coverages.size()];
-
-                noData = new double[coverages.size()];
-                bands = new int[coverages.size()];
-                bounds = new java.awt.Rectangle[coverages.size()];
+                // one reusable row buffer per coverage and band
+                sources = new RasterSource[coverages.size()];
+                rowValues = new double[coverages.size()][][];
 
                 int covIdx = 0;
-                CoordinateReferenceSystem targetCRS = schema.getCoordinateReferenceSystem();
                 for (Entry<String, GridCoverage2D> entry : coverages.entrySet()) {
-                    GridCoverage2D coverage = entry.getValue();
-
-                    // 1. reproject
-                    CoordinateReferenceSystem sourceCRS = coverage.getCoordinateReferenceSystem();
-                    if (!CRS.equalsIgnoreMetadata(sourceCRS, targetCRS)) {
-                        // Reproject
-                        RasterReprojectOperation project = new RasterReprojectOperation();
-                        coverage = project.execute(coverage, targetCRS, ResampleType.NEAREST,
-                                cellSizeX, cellSizeY);
-                    }
-
-                    // 2. resample
-                    GridGeometry2D gridGeometry2D = coverage.getGridGeometry();
-                    AffineTransform gridToWorld = (AffineTransform) gridGeometry2D.getGridToCRS2D();
-
-                    double cellX = Math.abs(gridToWorld.getScaleX());
-                    double cellY = Math.abs(gridToWorld.getScaleY());
-
-                    if (!SSUtils.compareDouble(cellX, cellSizeX)
-                            || !SSUtils.compareDouble(cellY, cellSizeY)) {
-                        RasterResampleOperation resample = new RasterResampleOperation();
-                        coverage = resample.execute(coverage, cellSizeX, cellSizeY,
-                                ResampleType.NEAREST);
-                    }
-
-                    // 3. clip
-                    ReferencedEnvelope env = new ReferencedEnvelope(coverage.getEnvelope());
-                    if (!extent.equals(env)) {
-                        RasterClipOperation clip = new RasterClipOperation();
-                        coverage = clip.execute(coverage, extent);
-                    }
-
-                    trans[covIdx] = new GridTransformer(coverage);
-
-                    noData[covIdx] = RasterHelper.getNoDataValue(coverage);
-                    bands[covIdx] = coverage.getNumSampleDimensions();
-
-                    PlanarImage inputImage = (PlanarImage) coverage.getRenderedImage();
-                    java.awt.Rectangle bound = inputImage.getBounds();
-
-                    readIter[covIdx] = RandomIterFactory.create(inputImage, bound);
-                    bounds[covIdx] = bound;
-                    rowCount = Math.min(rowCount, bound.height);
+                    sources[covIdx] = new CoverageRasterSource(entry.getValue(), extent,
+                            cellSizeX, cellSizeY);
+                    rowValues[covIdx] = new double[sources[covIdx].getNumBands()][columnCount];
                     covIdx++;
                 }
 
                 currentRow = 0;
-                rowCells.clear();
+                currentColumn = columnCount;
             }
 
             @Override
@@ -915,62 +1389,48 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
             }
 
             private void extractValues() {
-                for (int covIdx = 0; covIdx < readIter.length; covIdx++) {
-                    List<Coordinate> coords = new ArrayList<Coordinate>();
-                    rowCells.put(Integer.valueOf(covIdx), coords);
-
-                    int minX = bounds[covIdx].x; // Minimum inclusive
-                    int maxX = bounds[covIdx].width + minX; // Maximum exclusive
-                    int row = bounds[covIdx].y + currentRow;
-
-                    for (int column = minX; column < maxX; column++) {
-                        double[] vals = readIter[covIdx].getPixel(column, row,
-                                new double[bands[covIdx]]);
-
-                        Coordinate coord = trans[covIdx].gridToWorldCoordinate(column, row);
-                        coord.z = getRasterValue(vals[0], noData[covIdx]);
-                        coords.add(coord);
-
-                        for (int bndIdx = 0; bndIdx < bands[covIdx]; bndIdx++) {
-                            coord = (Coordinate) coord.clone();
-                            coord.z = getRasterValue(vals[bndIdx], noData[covIdx]);
-                            coords.add(coord);
-                        }
+                java.awt.Rectangle region = new java.awt.Rectangle(0, currentRow, columnCount, 1);
+                for (int covIdx = 0; covIdx < sources.length; covIdx++) {
+                    for (int bndIdx = 0; bndIdx < rowValues[covIdx].length; bndIdx++) {
+                        sources[covIdx].readSamples(region, bndIdx, rowValues[covIdx][bndIdx]);
                     }
                 }
+                currentColumn = 0;
                 currentRow++;
             }
 
             public boolean hasNext() {
-                while (next == null && (rowCount > currentRow || rowCells.size() > 0)) {
-                    if (rowCells.size() == 0) {
-                        extractValues();
+                if (next != null) {
+                    return true;
+                }
+
+                if (currentColumn >= columnCount) {
+                    if (currentRow >= rowCount || columnCount == 0) {
+                        return false;
                     }
+                    extractValues();
+                }
 
-                    if (rowCells.size() > 0) {
-                        int feldIndex = 1; // 0 = geom
-                        for (int covIdx = 0; covIdx < rowCells.size(); covIdx++) {
-                            List<Coordinate> coordinates = rowCells.get(covIdx);
-                            if (coordinates.size() > 0) {
-                                if (next == null) {
-                                    next = builder.buildFeature(buildID(TYPE_NAME, ++featureID));
-                                    next.setDefaultGeometry(gf.createPoint(coordinates.get(0)));
-                                }
-
-                                for (int bndIdx = 0; bndIdx <= bands[covIdx]; bndIdx++) {
-                                    Coordinate coord = coordinates.get(0);
-                                    next.setAttribute(feldIndex++, getFeatureValue(coord.z));
-                                    coordinates.remove(0);
-                                }
-                            } else {
-                                rowCells.clear();
-                                break;
-                            }
-                        }
+                double x = gridExtent.getMinX() + (currentColumn + 0.5) * cellSizeX;
+                int row = currentRow - 1; // extractValues() already moved to the next row
+                double y = gridExtent.getMaxY() - (row + 0.5) * cellSizeY;
+
+                next = builder.buildFeature(buildID(TYPE_NAME, ++featureID));
+                next.setDefaultGeometry(gf.createPoint(new Coordinate(x, y)));
+
+                int feldIndex = 1; // 0 = geom
+                for (int covIdx = 0; covIdx < rowValues.length; covIdx++) {
+                    double[][] bandValues = rowValues[covIdx];
+                    // default value = first band
+                    next.setAttribute(feldIndex++, getFeatureValue(bandValues[0][currentColumn]));
+                    for (int bndIdx = 0; bndIdx < bandValues.length; bndIdx++) {
+                        next.setAttribute(feldIndex++,
+                                getFeatureValue(bandValues[bndIdx][currentColumn]));
                     }
                 }
+                currentColumn++;
 
-                return next != null;
+                return true;
             }
 
             public SimpleFeature next() throws NoSuchElementException {
@@ -983,10 +1443,6 @@ public class RasterCalculatorDialog extends AbstractGeoProcessingDialog implemen
                 return result;
             }
 
-            private double getRasterValue(double value, double noData) {
-                return SSUtils.compareDouble(noData, value) ? Double.NaN : value;
-            }
-
             private Double getFeatureValue(double value) {
                 return Double.isNaN(value) || Double.isInfinite(value) ? null : value;
             }
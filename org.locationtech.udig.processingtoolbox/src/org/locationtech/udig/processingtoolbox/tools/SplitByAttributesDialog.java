@@ -9,6 +9,7 @@
  */
 package org.locationtech.udig.processingtoolbox.tools;
 
+import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Map.Entry;
 import java.util.SortedMap;
@@ -16,6 +17,7 @@ import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.swt.SWT;
@@ -49,6 +51,7 @@ import org.locationtech.udig.processingtoolbox.ToolboxView;
 import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget.FileDataType;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils.FieldType;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils.VectorLayerType;
@@ -244,6 +247,7 @@ public class SplitByAttributesDialog extends AbstractGeoProcessingDialog impleme
             InterruptedException {
         monitor.beginTask(String.format(Messages.Task_Executing, windowTitle),
                 uniqueTable.getItems().length + 1);
+        CancellationToken token = CancellationToken.of(monitor);
         try {
             monitor.worked(increment);
 
@@ -256,9 +260,7 @@ public class SplitByAttributesDialog extends AbstractGeoProcessingDialog impleme
 
             for (TableItem item : uniqueTable.getItems()) {
                 monitor.subTask(String.format(Messages.Task_Executing, item.getText()));
-                if (monitor.isCanceled()) {
-                    break;
-                }
+                token.checkCanceled();
 
                 if (item.getChecked()) {
                     String layerName = item.getText();
@@ -280,8 +282,12 @@ public class SplitByAttributesDialog extends AbstractGeoProcessingDialog impleme
                     }
 
                     process.setOutputTypeName(layerName);
-                    SimpleFeatureSource outputSfs = process.execute(inputFeatures
-                            .subCollection(filter));
+                    File file = new File(locationView.getFolder(), layerName
+                            + ".shp"); //$NON-NLS-1$
+                    token.beginOutput(file);
+                    SimpleFeatureSource outputSfs = process.execute(token.wrap(inputFeatures
+                            .subCollection(filter)));
+                    token.endOutput(file);
                     if (outputSfs == null) {
                         ToolboxPlugin.log(windowTitle + " : Failed to export : " + layerName); //$NON-NLS-1$
                     }
@@ -290,6 +296,10 @@ public class SplitByAttributesDialog extends AbstractGeoProcessingDialog impleme
                 monitor.worked(increment);
                 Thread.sleep(100);
             }
+        } catch (OperationCanceledException e) {
+            token.deleteOutputs();
+            ToolboxPlugin.log(Messages.Task_Canceled);
+            throw new InterruptedException(Messages.General_Cancelled);
         } catch (Exception e) {
             ToolboxPlugin.log(e.getMessage());
             throw new InvocationTargetException(e.getCause(), e.getMessage());
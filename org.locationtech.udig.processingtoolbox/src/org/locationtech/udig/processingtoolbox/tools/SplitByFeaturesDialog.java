@@ -9,6 +9,7 @@
  */
 package org.locationtech.udig.processingtoolbox.tools;
 
+import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
@@ -18,6 +19,7 @@ import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.swt.SWT;
@@ -53,6 +55,7 @@ import org.locationtech.udig.processingtoolbox.ToolboxView;
 import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget.FileDataType;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils.FieldType;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils.VectorLayerType;
@@ -267,6 +270,7 @@ public class SplitByFeaturesDialog extends AbstractGeoProcessingDialog implement
             InterruptedException {
         monitor.beginTask(String.format(Messages.Task_Executing, windowTitle),
                 uniqueTable.getItems().length + 1);
+        CancellationToken token = CancellationToken.of(monitor);
         try {
             monitor.worked(increment);
 
@@ -279,9 +283,7 @@ public class SplitByFeaturesDialog extends AbstractGeoProcessingDialog implement
 
             for (TableItem item : uniqueTable.getItems()) {
                 monitor.subTask(String.format(Messages.Task_Executing, item.getText()));
-                if (monitor.isCanceled()) {
-                    break;
-                }
+                token.checkCanceled();
 
                 if (item.getChecked()) {
                     String layerName = item.getText();
@@ -293,9 +295,13 @@ public class SplitByFeaturesDialog extends AbstractGeoProcessingDialog implement
 
                     Geometry clipGeometry = unionGeometry(splitFeatures.subCollection(filter));
                     process.setOutputTypeName(layerName);
-                    SimpleFeatureSource outputSfs = process
-                            .execute(new ClipWithGeometryFeatureCollection(inputFeatures,
-                                    clipGeometry));
+                    File file = new File(locationView.getFolder(), layerName
+                            + ".shp"); //$NON-NLS-1$
+                    token.beginOutput(file);
+                    SimpleFeatureSource outputSfs = process.execute(token
+                            .wrap(new ClipWithGeometryFeatureCollection(inputFeatures,
+                                    clipGeometry)));
+                    token.endOutput(file);
                     if (outputSfs == null) {
                         ToolboxPlugin.log(windowTitle + " : Failed to export : " + layerName); //$NON-NLS-1$
                     }
@@ -304,6 +310,10 @@ public class SplitByFeaturesDialog extends AbstractGeoProcessingDialog implement
                 monitor.worked(increment);
                 Thread.sleep(100);
             }
+        } catch (OperationCanceledException e) {
+            token.deleteOutputs();
+            ToolboxPlugin.log(Messages.Task_Canceled);
+            throw new InterruptedException(Messages.General_Cancelled);
         } catch (Exception e) {
             ToolboxPlugin.log(e.getMessage());
             throw new InvocationTargetException(e.getCause(), e.getMessage());
@@ -19,6 +19,7 @@ import java.util.Map.Entry;
 import java.util.logging.Logger;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jface.window.Window;
@@ -53,6 +54,7 @@ import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
 import org.locationtech.udig.processingtoolbox.internal.Messages;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget;
 import org.locationtech.udig.processingtoolbox.internal.ui.OutputDataWidget.FileDataType;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
 import org.locationtech.udig.project.IMap;
 import org.locationtech.udig.ui.CRSChooserDialog;
 import org.opengis.referencing.FactoryException;
@@ -390,6 +392,7 @@ public class TextfileToPointDialog extends AbstractGeoProcessingDialog implement
     public void run(IProgressMonitor monitor) throws InvocationTargetException,
             InterruptedException {
         monitor.beginTask(Messages.Task_Running, 100);
+        CancellationToken token = CancellationToken.of(monitor);
         try {
             monitor.setTaskName(String.format(Messages.Task_Executing, windowTitle));
             monitor.worked(increment);
@@ -416,9 +419,12 @@ public class TextfileToPointDialog extends AbstractGeoProcessingDialog implement
 
             exportOp.setOutputDataStore(locationView.getDataStore());
             exportOp.setOutputTypeName(outputName);
+            File outputFile = new File(locationView.getFile());
+            token.beginOutput(outputFile);
             SimpleFeatureCollection features = exportOp.execute(
-                    process.execute(textFile, charset, delimiter, headerFirst, schema, sourceCRS,
-                            targetCRS)).getFeatures();
+                    token.wrap(process.execute(textFile, charset, delimiter, headerFirst, schema,
+                            sourceCRS, targetCRS))).getFeatures();
+            token.endOutput(outputFile);
 
             error = process.getError();
             monitor.worked(increment);
@@ -428,6 +434,10 @@ public class TextfileToPointDialog extends AbstractGeoProcessingDialog implement
                 addFeaturesToMap(map, locationView.getFile(), outputName);
                 monitor.worked(increment);
             }
+        } catch (OperationCanceledException e) {
+            token.deleteOutputs();
+            ToolboxPlugin.log(Messages.Task_Canceled);
+            throw new InterruptedException(Messages.General_Cancelled);
         } catch (Exception e) {
             ToolboxPlugin.log(e.getMessage());
             throw new InvocationTargetException(e.getCause(), e.getMessage());
@@ -9,6 +9,9 @@
  */
 package org.locationtech.udig.processingtoolbox.tools;
 
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import org.eclipse.core.runtime.NullProgressMonitor;
@@ -38,6 +41,9 @@ import org.geotools.styling.Style;
 import org.geotools.util.logging.Logging;
 import org.locationtech.udig.processingtoolbox.ToolboxPlugin;
 import org.locationtech.udig.processingtoolbox.internal.Messages;
+import org.locationtech.udig.processingtoolbox.storage.RasterAuxFile;
+import org.locationtech.udig.processingtoolbox.storage.RasterStatistics;
+import org.locationtech.udig.processingtoolbox.styler.CoverageStyleBuilder;
 import org.locationtech.udig.processingtoolbox.styler.MapUtils;
 import org.locationtech.udig.project.IMap;
 import org.locationtech.udig.style.sld.SLDContent;
@@ -52,6 +58,19 @@ import org.locationtech.udig.style.sld.SLDContent;
 public class ThematicMapRasterDialog extends AbstractThematicMapDialog {
     protected static final Logger LOGGER = Logging.getLogger(ThematicMapRasterDialog.class);
 
+    static final int STATISTICS_CACHE_SIZE = 16;
+
+    // statistics of the rasters without a toolbox sidecar, by path and modification time
+    private static final Map<String, RasterStatistics[]> statisticsCache = new LinkedHashMap<String,
+            RasterStatistics[]>(STATISTICS_CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RasterStatistics[]> eldest) {
+            return size() > STATISTICS_CACHE_SIZE;
+        }
+    };
+
     private Text txtNoData;
 
     private Combo cboLayer, cboMethod;
@@ -191,11 +210,23 @@ public class ThematicMapRasterDialog extends AbstractThematicMapDialog {
                 String styleName = cboMethod.getText().toUpperCase();
                 String functionName = getFunctionName(styleName);
 
-                // crate thematic style
+                // crate thematic style, from the statistics sidecar if possible
                 GridCoverage2D coverage = MapUtils.getGridCoverage(activeLayer);
-                GraduatedColorStyleBuilder builder = new GraduatedColorStyleBuilder();
-                Style style = builder.createStyle(coverage, functionName, numClasses, paletteName,
-                        reverse, opacity);
+                RasterStatistics[] statistics = getStatistics(coverage);
+
+                Style style = null;
+                if (statistics != null && statistics.length == 1) {
+                    double noData = RasterHelper.getNoDataValue(coverage);
+                    CoverageStyleBuilder builder = new CoverageStyleBuilder();
+                    style = builder.createStyle(statistics[0], noData, functionName, numClasses,
+                            paletteName, reverse, opacity);
+                }
+
+                if (style == null) {
+                    GraduatedColorStyleBuilder builder = new GraduatedColorStyleBuilder();
+                    style = builder.createStyle(coverage, functionName, numClasses, paletteName,
+                            reverse, opacity);
+                }
 
                 if (style != null) {
                     // put the style on the blackboard
@@ -214,4 +245,33 @@ public class ThematicMapRasterDialog extends AbstractThematicMapDialog {
             MessageDialog.openError(getParentShell(), Messages.General_Error, e.getMessage());
         }
     }
+
+    /**
+     * Reads the statistics from the sidecar of a toolbox output. The statistics of other rasters
+     * are computed once and kept in memory, no file is written next to the user's data.
+     */
+    private RasterStatistics[] getStatistics(GridCoverage2D coverage) {
+        File rasterFile = MapUtils.getLayerFile(activeLayer);
+        if (rasterFile == null || !rasterFile.isFile()) {
+            return null;
+        }
+
+        RasterStatistics[] statistics = RasterAuxFile.read(rasterFile);
+        if (statistics != null) {
+            return statistics;
+        }
+
+        String key = rasterFile.getAbsolutePath() + ":" + rasterFile.lastModified(); //$NON-NLS-1$
+        synchronized (statisticsCache) {
+            statistics = statisticsCache.get(key);
+        }
+        if (statistics == null) {
+            // one pass over the tiles, kept for the next time
+            statistics = RasterStatistics.compute(coverage);
+            synchronized (statisticsCache) {
+                statisticsCache.put(key, statistics);
+            }
+        }
+        return statistics;
+    }
 }
@@ -0,0 +1,206 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.calculator;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.media.jai.PlanarImage;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.spatialstatistics.core.SSUtils;
+import org.geotools.process.spatialstatistics.gridcoverage.RasterHelper;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.operation.transform.AffineTransform2D;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
+import org.geotools.util.logging.Logging;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * RasterSource backed by a GridCoverage2D, aligned lazily to the output grid.
+ * <p>
+ * The transform from output cell centers to source pixels is built once. Each request maps its
+ * cells to the source grid and reads only the source window they fall in (nearest neighbour), so
+ * the source coverage is never reprojected, resampled or clipped as a whole.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class CoverageRasterSource implements RasterSource {
+    protected static final Logger LOGGER = Logging.getLogger(CoverageRasterSource.class);
+
+    // read cell by cell when the source window is much larger than the request
+    static final int MAX_WINDOW_RATIO = 4;
+
+    private PlanarImage image;
+
+    private Rectangle bounds;
+
+    private double noData;
+
+    private int numBands;
+
+    private MathTransform gridToSource;
+
+    public CoverageRasterSource(GridCoverage2D coverage, ReferencedEnvelope extent,
+            double cellSizeX, double cellSizeY) {
+        this.image = PlanarImage.wrapRenderedImage((RenderedImage) coverage.getRenderedImage());
+        this.bounds = image.getBounds();
+        this.noData = RasterHelper.getNoDataValue(coverage);
+        this.numBands = coverage.getNumSampleDimensions();
+        this.gridToSource = createTransform(coverage, extent, cellSizeX, cellSizeY);
+    }
+
+    static MathTransform createTransform(GridCoverage2D coverage, ReferencedEnvelope extent,
+            double cellSizeX, double cellSizeY) {
+        extent = RasterHelper.getResolvedEnvelope(extent, cellSizeX, cellSizeY);
+
+        // output grid to output crs, (0, 0) is the upper left corner of the extent
+        AffineTransform gridToWorld = new AffineTransform(cellSizeX, 0, 0, -cellSizeY,
+                extent.getMinX(), extent.getMaxY());
+        MathTransform transform = new AffineTransform2D(gridToWorld);
+
+        try {
+            CoordinateReferenceSystem targetCRS = extent.getCoordinateReferenceSystem();
+            CoordinateReferenceSystem sourceCRS = coverage.getCoordinateReferenceSystem();
+            if (targetCRS != null && sourceCRS != null
+                    && !CRS.equalsIgnoreMetadata(sourceCRS, targetCRS)) {
+                MathTransform worldToWorld = CRS.findMathTransform(targetCRS, sourceCRS, true);
+                transform = ConcatenatedTransform.create(transform, worldToWorld);
+            }
+        } catch (FactoryException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+
+        // source crs to source grid, floor() of the result is the pixel index
+        MathTransform worldToGrid = coverage.getGridGeometry().getCRSToGrid2D(
+                PixelOrientation.UPPER_LEFT);
+        return ConcatenatedTransform.create(transform, worldToGrid);
+    }
+
+    @Override
+    public int getNumBands() {
+        return numBands;
+    }
+
+    @Override
+    public void readSamples(Rectangle region, int band, double[] dest) {
+        final int length = region.width * region.height;
+        Arrays.fill(dest, 0, length, Double.NaN);
+
+        // output cell centers to source pixel coordinates
+        double[] coords = new double[length * 2];
+        int index = 0;
+        for (int row = 0; row < region.height; row++) {
+            double y = region.y + row + 0.5;
+            for (int column = 0; column < region.width; column++) {
+                coords[index++] = region.x + column + 0.5;
+                coords[index++] = y;
+            }
+        }
+        transform(coords, length);
+
+        // source window of this request
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        int[] pixels = new int[length * 2];
+        for (int i = 0; i < length; i++) {
+            double x = coords[i * 2];
+            double y = coords[i * 2 + 1];
+            if (Double.isNaN(x) || Double.isNaN(y)) {
+                pixels[i * 2] = Integer.MIN_VALUE;
+                continue;
+            }
+
+            int px = (int) Math.floor(x);
+            int py = (int) Math.floor(y);
+            if (!bounds.contains(px, py)) {
+                pixels[i * 2] = Integer.MIN_VALUE;
+                continue;
+            }
+
+            pixels[i * 2] = px;
+            pixels[i * 2 + 1] = py;
+            minX = Math.min(minX, px);
+            minY = Math.min(minY, py);
+            maxX = Math.max(maxX, px);
+            maxY = Math.max(maxY, py);
+        }
+
+        if (minX > maxX) {
+            return;
+        }
+
+        Rectangle window = new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+        if ((long) window.width * window.height <= (long) length * MAX_WINDOW_RATIO) {
+            Raster raster = image.getData(window);
+            double[] samples = raster.getSamples(window.x, window.y, window.width,
+                    window.height, band, new double[window.width * window.height]);
+            for (int i = 0; i < length; i++) {
+                int px = pixels[i * 2];
+                if (px == Integer.MIN_VALUE) {
+                    continue;
+                }
+                int pos = (pixels[i * 2 + 1] - window.y) * window.width + (px - window.x);
+                dest[i] = toValue(samples[pos]);
+            }
+        } else {
+            // coarse output cells: touch only the source tiles holding the cell centers
+            Raster tile = null;
+            for (int i = 0; i < length; i++) {
+                int px = pixels[i * 2];
+                if (px == Integer.MIN_VALUE) {
+                    continue;
+                }
+                int py = pixels[i * 2 + 1];
+                if (tile == null || !tile.getBounds().contains(px, py)) {
+                    tile = image.getTile(image.XToTileX(px), image.YToTileY(py));
+                }
+                dest[i] = toValue(tile.getSampleDouble(px, py, band));
+            }
+        }
+    }
+
+    private double toValue(double value) {
+        return SSUtils.compareDouble(noData, value) ? Double.NaN : value;
+    }
+
+    private void transform(double[] coords, int length) {
+        double[] cells = coords.clone();
+        try {
+            gridToSource.transform(cells, 0, coords, 0, length);
+        } catch (TransformException e) {
+            // some cells may lie outside the domain of the projection
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+            double[] point = new double[2];
+            for (int i = 0; i < length * 2; i += 2) {
+                try {
+                    gridToSource.transform(cells, i, point, 0, 1);
+                    coords[i] = point[0];
+                    coords[i + 1] = point[1];
+                } catch (TransformException te) {
+                    coords[i] = Double.NaN;
+                    coords[i + 1] = Double.NaN;
+                }
+            }
+        }
+    }
+}
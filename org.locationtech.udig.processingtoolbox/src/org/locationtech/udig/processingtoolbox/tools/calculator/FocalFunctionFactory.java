@@ -0,0 +1,172 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.calculator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.geotools.feature.NameImpl;
+import org.geotools.filter.FilterFactoryImpl;
+import org.geotools.filter.FunctionExpressionImpl;
+import org.geotools.filter.FunctionFactory;
+import org.geotools.filter.visitor.DefaultFilterVisitor;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterNode.FocalNode;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.capability.FunctionName;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Function;
+import org.opengis.filter.expression.Literal;
+
+/**
+ * Neighbourhood functions of the raster calculator: focalMean, focalSum, focalMin, focalMax,
+ * focalRange, focalStd (value, window size) and slope (value, z factor).
+ * <p>
+ * The functions only declare the names for the expression parser. They are compiled by
+ * {@link RasterExpressionCompiler} and have no meaning for a single feature, so the factory is
+ * not registered with the function finder: raster expressions are parsed with
+ * {@link #getFilterFactory()}, and an expression that uses them must compile, see
+ * {@link #findFocalFunction(Expression)}.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class FocalFunctionFactory implements FunctionFactory {
+    protected static final Logger LOGGER = Logging.getLogger(FocalFunctionFactory.class);
+
+    public static final int DEFAULT_WINDOW_SIZE = 3;
+
+    static final Map<String, Integer> statistics = new LinkedHashMap<String, Integer>();
+
+    static final Map<String, FunctionName> functionNames = new LinkedHashMap<String,
+            FunctionName>();
+
+    static {
+        statistics.put("focalMean", FocalNode.MEAN);
+        statistics.put("focalSum", FocalNode.SUM);
+        statistics.put("focalMin", FocalNode.MIN);
+        statistics.put("focalMax", FocalNode.MAX);
+        statistics.put("focalRange", FocalNode.RANGE);
+        statistics.put("focalStd", FocalNode.STD);
+        statistics.put("slope", FocalNode.SLOPE);
+
+        for (String name : statistics.keySet()) {
+            if (statistics.get(name) == FocalNode.SLOPE) {
+                functionNames.put(name, FunctionExpressionImpl.functionName(name,
+                        "slope:Double", "value:Double", "zFactor:Double:0,1"));
+            } else {
+                functionNames.put(name, FunctionExpressionImpl.functionName(name,
+                        "result:Double", "value:Double", "size:Integer:0,1"));
+            }
+        }
+    }
+
+    private static final FocalFunctionFactory factory = new FocalFunctionFactory();
+
+    private static final FilterFactory2 filterFactory = new FilterFactoryImpl() {
+        @Override
+        public Function function(String name, Expression... args) {
+            Function function = factory.function(name, Arrays.asList(args), null);
+            return function == null ? super.function(name, args) : function;
+        }
+
+        @Override
+        public Function function(Name name, Expression... args) {
+            Function function = factory.function(name, Arrays.asList(args), null);
+            return function == null ? super.function(name, args) : function;
+        }
+
+        @Override
+        public Function function(String name, List<Expression> args, Literal fallback) {
+            Function function = factory.function(name, args, fallback);
+            return function == null ? super.function(name, args, fallback) : function;
+        }
+    };
+
+    /**
+     * @return filter factory resolving the focal functions and then the registered functions
+     */
+    public static FilterFactory2 getFilterFactory() {
+        return filterFactory;
+    }
+
+    /**
+     * @return the focal function factory
+     */
+    public static FocalFunctionFactory getInstance() {
+        return factory;
+    }
+
+    /**
+     * @return statistic of a focal function or null if the name is not a focal function
+     */
+    static Integer getStatistic(String name) {
+        return statistics.get(name);
+    }
+
+    /**
+     * @return name of the first focal function of the expression, or null if it has none
+     */
+    public static String findFocalFunction(Expression expression) {
+        Object found = expression.accept(new DefaultFilterVisitor() {
+            @Override
+            public Object visit(Function function, Object data) {
+                if (data == null && function instanceof FocalFunction) {
+                    return function.getName();
+                }
+                return super.visit(function, data);
+            }
+        }, null);
+        return (String) found;
+    }
+
+    @Override
+    public List<FunctionName> getFunctionNames() {
+        return Collections.unmodifiableList(new ArrayList<FunctionName>(functionNames.values()));
+    }
+
+    @Override
+    public Function function(String name, List<Expression> args, Literal fallback) {
+        return function(new NameImpl(name), args, fallback);
+    }
+
+    @Override
+    public Function function(Name name, List<Expression> args, Literal fallback) {
+        FunctionName functionName = functionNames.get(name.getLocalPart());
+        if (functionName == null) {
+            return null;
+        }
+        return new FocalFunction(functionName, args, fallback);
+    }
+
+    static final class FocalFunction extends FunctionExpressionImpl {
+
+        FocalFunction(FunctionName functionName, List<Expression> args, Literal fallback) {
+            super(functionName);
+            setParameters(args);
+            setFallbackValue(fallback);
+        }
+
+        @Override
+        public Object evaluate(Object object) {
+            // a neighbourhood has no value for a single feature: the raster calculator compiles
+            // these functions and rejects the expressions it cannot compile
+            return null;
+        }
+    }
+}
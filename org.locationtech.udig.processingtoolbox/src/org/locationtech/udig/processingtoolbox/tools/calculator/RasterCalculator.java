@@ -0,0 +1,329 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.calculator;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.spatialstatistics.gridcoverage.RasterHelper;
+import org.geotools.util.logging.Logging;
+import org.jaitools.tiledimage.DiskMemImage;
+import org.locationtech.udig.processingtoolbox.internal.Messages;
+import org.locationtech.udig.processingtoolbox.storage.RasterStatistics;
+
+/**
+ * Evaluates a compiled raster expression tile by tile on a ForkJoinPool.
+ * <p>
+ * Each worker reads the input bands of a tile into primitive buffers, runs the program and
+ * writes the result tiles to DiskMemImages, so several expressions share one sweep of the inputs.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class RasterCalculator {
+    protected static final Logger LOGGER = Logging.getLogger(RasterCalculator.class);
+
+    public static final int DEFAULT_TILE_SIZE = 128;
+
+    private int tileSize = DEFAULT_TILE_SIZE;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private RasterSampleType sampleType = RasterSampleType.FLOAT64;
+
+    private ThreadLocal<double[][]> workspace = new ThreadLocal<double[][]>();
+
+    private List<RasterStatistics> statistics = new ArrayList<RasterStatistics>();
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public void setTileSize(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public RasterSampleType getSampleType() {
+        return sampleType;
+    }
+
+    public void setSampleType(RasterSampleType sampleType) {
+        this.sampleType = sampleType;
+    }
+
+    public double getNoDataValue() {
+        return sampleType.getNoDataValue();
+    }
+
+    /**
+     * @return statistics of each result of the last run, collected while the tiles were written
+     */
+    public List<RasterStatistics> getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Evaluates the program over the output grid, one band per result
+     * 
+     * @param program compiled expressions
+     * @param sources aligned input rasters, keyed by layer name
+     * @param extent output extent
+     * @param cellSizeX output cell size x
+     * @param cellSizeY output cell size y
+     * @param monitor progress monitor, called from the calling thread only
+     * @return result coverage or null if canceled
+     */
+    public GridCoverage2D execute(final RasterProgram program,
+            final Map<String, RasterSource> sources, ReferencedEnvelope extent,
+            double cellSizeX, double cellSizeY, IProgressMonitor monitor) {
+        extent = RasterHelper.getResolvedEnvelope(extent, cellSizeX, cellSizeY);
+        Dimension dm = RasterHelper.getDimension(extent, cellSizeX, cellSizeY);
+
+        final int numBands = program.getResultCount();
+        DiskMemImage[] outputImages = new DiskMemImage[] { createImage(dm, numBands) };
+        double[] minMax = calculate(program, sources, outputImages, cellSizeX, cellSizeY,
+                monitor);
+        if (minMax == null) {
+            return null;
+        }
+
+        double minValue = Double.MAX_VALUE;
+        double maxValue = -Double.MAX_VALUE;
+        for (int index = 0; index < numBands; index++) {
+            minValue = Math.min(minValue, minMax[index * 2]);
+            maxValue = Math.max(maxValue, minMax[index * 2 + 1]);
+        }
+
+        return RasterHelper.createGridCoverage(RasterExpressionCompiler.DEFAULT_NAME,
+                outputImages[0], numBands, getNoDataValue(), minValue, maxValue, extent);
+    }
+
+    /**
+     * Evaluates the program over the output grid, one coverage per result
+     * 
+     * @param program compiled expressions
+     * @param sources aligned input rasters, keyed by layer name
+     * @param extent output extent
+     * @param cellSizeX output cell size x
+     * @param cellSizeY output cell size y
+     * @param monitor progress monitor, called from the calling thread only
+     * @return result coverages keyed by result name, or null if canceled
+     */
+    public Map<String, GridCoverage2D> executeAll(final RasterProgram program,
+            final Map<String, RasterSource> sources, ReferencedEnvelope extent,
+            double cellSizeX, double cellSizeY, IProgressMonitor monitor) {
+        extent = RasterHelper.getResolvedEnvelope(extent, cellSizeX, cellSizeY);
+        Dimension dm = RasterHelper.getDimension(extent, cellSizeX, cellSizeY);
+
+        final int numResults = program.getResultCount();
+        DiskMemImage[] outputImages = new DiskMemImage[numResults];
+        for (int index = 0; index < numResults; index++) {
+            outputImages[index] = createImage(dm, 1);
+        }
+
+        double[] minMax = calculate(program, sources, outputImages, cellSizeX, cellSizeY,
+                monitor);
+        if (minMax == null) {
+            return null;
+        }
+
+        Map<String, GridCoverage2D> result = new LinkedHashMap<String, GridCoverage2D>();
+        for (int index = 0; index < numResults; index++) {
+            String name = program.getResultNames().get(index);
+            result.put(name, RasterHelper.createGridCoverage(name, outputImages[index], 1,
+                    getNoDataValue(), minMax[index * 2], minMax[index * 2 + 1], extent));
+        }
+        return result;
+    }
+
+    private DiskMemImage createImage(Dimension dm, int numBands) {
+        SampleModel sampleModel = RasterFactory.createBandedSampleModel(
+                sampleType.getDataType(), tileSize, tileSize, numBands);
+        ColorModel cm = PlanarImage.createColorModel(sampleModel);
+
+        DiskMemImage outputImage = new DiskMemImage(0, 0, dm.width, dm.height, 0, 0,
+                sampleModel, cm);
+        outputImage.setUseCommonCache(true);
+        return outputImage;
+    }
+
+    /**
+     * Runs all tiles; a single output image receives one band per result, otherwise each result
+     * is written to its own image.
+     * 
+     * @return min, max pairs per result or null if canceled
+     */
+    private double[] calculate(final RasterProgram program,
+            final Map<String, RasterSource> sources, final DiskMemImage[] outputImages,
+            final double cellSizeX, final double cellSizeY, IProgressMonitor monitor) {
+        if (monitor == null) {
+            monitor = new NullProgressMonitor();
+        }
+
+        for (String layerName : program.getLayerNames()) {
+            if (!sources.containsKey(layerName)) {
+                throw new IllegalArgumentException(layerName);
+            }
+        }
+
+        statistics = new ArrayList<RasterStatistics>();
+        for (int index = 0; index < program.getResultCount(); index++) {
+            statistics.add(new RasterStatistics());
+        }
+
+        final DiskMemImage layout = outputImages[0];
+        final int numTiles = layout.getNumXTiles() * layout.getNumYTiles();
+        monitor.beginTask(Messages.Task_Internal, numTiles);
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        CompletionService<double[]> service = new ExecutorCompletionService<double[]>(pool);
+        List<Future<double[]>> futures = new ArrayList<Future<double[]>>(numTiles);
+        try {
+            for (int tileY = 0; tileY < layout.getNumYTiles(); tileY++) {
+                for (int tileX = 0; tileX < layout.getNumXTiles(); tileX++) {
+                    final int tx = tileX;
+                    final int ty = tileY;
+                    futures.add(service.submit(new Callable<double[]>() {
+                        @Override
+                        public double[] call() throws Exception {
+                            return calculateTile(program, sources, outputImages, cellSizeX,
+                                    cellSizeY, tx, ty);
+                        }
+                    }));
+                }
+            }
+
+            final int numResults = program.getResultCount();
+            double[] minMax = new double[numResults * 2];
+            for (int index = 0; index < numResults; index++) {
+                minMax[index * 2] = Double.MAX_VALUE;
+                minMax[index * 2 + 1] = -Double.MAX_VALUE;
+            }
+
+            int completed = 0;
+            while (completed < numTiles) {
+                if (monitor.isCanceled()) {
+                    return null;
+                }
+
+                Future<double[]> future = service.poll(100, TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    continue;
+                }
+
+                double[] tileMinMax = future.get();
+                for (int index = 0; index < numResults; index++) {
+                    minMax[index * 2] = Math.min(minMax[index * 2], tileMinMax[index * 2]);
+                    minMax[index * 2 + 1] = Math.max(minMax[index * 2 + 1],
+                            tileMinMax[index * 2 + 1]);
+                }
+                monitor.worked(1);
+                completed++;
+            }
+
+            return minMax;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            throw new IllegalStateException(cause.getMessage(), cause);
+        } finally {
+            for (Future<double[]> future : futures) {
+                future.cancel(true);
+            }
+            pool.shutdownNow();
+            monitor.done();
+        }
+    }
+
+    private double[] calculateTile(RasterProgram program, Map<String, RasterSource> sources,
+            DiskMemImage[] outputImages, double cellSizeX, double cellSizeY, int tileX,
+            int tileY) {
+        DiskMemImage layout = outputImages[0];
+        Rectangle region = layout.getTileRect(tileX, tileY).intersection(layout.getBounds());
+        final int length = region.width * region.height;
+
+        // program slots and one output buffer, reused by the thread if they fit this tile size
+        final int slotCount = program.getSlotCount();
+        double[][] slots = workspace.get();
+        if (slots == null || slots.length < slotCount + 1
+                || slots[0].length < tileSize * tileSize) {
+            slots = new double[slotCount + 1][tileSize * tileSize];
+            workspace.set(slots);
+        }
+
+        program.evaluate(sources, region, cellSizeX, cellSizeY, slots);
+
+        final int numResults = program.getResultCount();
+        final double noDataValue = sampleType.getNoDataValue();
+        final double[] values = slots[slotCount];
+        double[] minMax = new double[numResults * 2];
+        for (int index = 0; index < numResults; index++) {
+            double minValue = Double.MAX_VALUE;
+            double maxValue = -Double.MAX_VALUE;
+
+            // results may share a node, so the slot itself is left untouched
+            final double[] results = slots[program.getResults().get(index).getSlot()];
+            for (int i = 0; i < length; i++) {
+                double value = sampleType.convert(results[i]);
+                values[i] = value;
+                if (value != noDataValue) {
+                    minValue = Math.min(minValue, value);
+                    maxValue = Math.max(maxValue, value);
+                }
+            }
+            minMax[index * 2] = minValue;
+            minMax[index * 2 + 1] = maxValue;
+            statistics.get(index).update(values, length, noDataValue);
+
+            DiskMemImage outputImage = outputImages.length == 1 ? layout : outputImages[index];
+            int band = outputImages.length == 1 ? index : 0;
+            synchronized (outputImage) {
+                WritableRaster tile = outputImage.getWritableTile(tileX, tileY);
+                tile.setSamples(region.x, region.y, region.width, region.height, band, values);
+                outputImage.releaseWritableTile(tileX, tileY);
+            }
+        }
+
+        return minMax;
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.calculator;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+
+import org.geotools.util.Converters;
+import org.geotools.util.logging.Logging;
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterNode.BandNode;
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterNode.ConstantNode;
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterNode.FocalNode;
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterNode.FunctionNode;
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterNode.MathNode;
+import org.opengis.filter.capability.FunctionName;
+import org.opengis.filter.expression.Add;
+import org.opengis.filter.expression.Divide;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Function;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.Multiply;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.expression.Subtract;
+import org.opengis.parameter.Parameter;
+
+/**
+ * Compiles an ECQL expression of the raster calculator into a {@link RasterProgram}.
+ * <p>
+ * Property names are layer names ([layer] or [layer_Band_n]), arithmetic and the common math
+ * functions are evaluated on primitive tile buffers, and any other numeric function of the
+ * filter function table is evaluated cell by cell. Focal functions ({@link FocalFunctionFactory})
+ * are evaluated over a window of neighbouring cells.
+ * <p>
+ * A function whose result or compiled arguments are not declared as numbers (if_then_else,
+ * greaterThan...) is not compiled: cells are passed to functions as numbers, so the expression is
+ * left to the filter functions.
+ * <p>
+ * Several named expressions can be compiled into one program. Identical sub-expressions, within
+ * or across the expressions, are compiled to a single node and evaluated once per tile.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class RasterExpressionCompiler {
+    protected static final Logger LOGGER = Logging.getLogger(RasterExpressionCompiler.class);
+
+    static final String BAND_SEPARATOR = "_Band_";
+
+    public static final String DEFAULT_NAME = "result";
+
+    static final Map<String, Integer> unaryFunctions = new HashMap<String, Integer>();
+
+    static final Map<String, Integer> binaryFunctions = new HashMap<String, Integer>();
+
+    static {
+        unaryFunctions.put("abs", MathNode.ABS);
+        unaryFunctions.put("abs_2", MathNode.ABS);
+        unaryFunctions.put("abs_3", MathNode.ABS);
+        unaryFunctions.put("abs_4", MathNode.ABS);
+        unaryFunctions.put("acos", MathNode.ACOS);
+        unaryFunctions.put("asin", MathNode.ASIN);
+        unaryFunctions.put("atan", MathNode.ATAN);
+        unaryFunctions.put("ceil", MathNode.CEIL);
+        unaryFunctions.put("cos", MathNode.COS);
+        unaryFunctions.put("exp", MathNode.EXP);
+        unaryFunctions.put("floor", MathNode.FLOOR);
+        unaryFunctions.put("log", MathNode.LOG);
+        unaryFunctions.put("rint", MathNode.RINT);
+        unaryFunctions.put("round", MathNode.ROUND);
+        unaryFunctions.put("round_2", MathNode.ROUND);
+        unaryFunctions.put("roundDouble", MathNode.ROUND);
+        unaryFunctions.put("sin", MathNode.SIN);
+        unaryFunctions.put("sqrt", MathNode.SQRT);
+        unaryFunctions.put("tan", MathNode.TAN);
+        unaryFunctions.put("toDegrees", MathNode.DEGREES);
+        unaryFunctions.put("toRadians", MathNode.RADIANS);
+
+        binaryFunctions.put("atan2", MathNode.ATAN2);
+        binaryFunctions.put("pow", MathNode.POW);
+        binaryFunctions.put("IEEEremainder", MathNode.REMAINDER);
+        binaryFunctions.put("min", MathNode.MIN);
+        binaryFunctions.put("min_2", MathNode.MIN);
+        binaryFunctions.put("min_3", MathNode.MIN);
+        binaryFunctions.put("min_4", MathNode.MIN);
+        binaryFunctions.put("max", MathNode.MAX);
+        binaryFunctions.put("max_2", MathNode.MAX);
+        binaryFunctions.put("max_3", MathNode.MAX);
+        binaryFunctions.put("max_4", MathNode.MAX);
+    }
+
+    private Map<String, Integer> layers;
+
+    private RasterProgram program;
+
+    private Map<String, RasterNode> nodes;
+
+    /**
+     * @param layers layer name and number of bands
+     */
+    public RasterExpressionCompiler(Map<String, Integer> layers) {
+        this.layers = layers;
+    }
+
+    /**
+     * Compiles the expression
+     * 
+     * @param expression raster calculator expression
+     * @return compiled program
+     * @throws IllegalArgumentException if the expression can not be evaluated on raster tiles
+     */
+    public RasterProgram compile(Expression expression) throws IllegalArgumentException {
+        Map<String, Expression> expressions = new LinkedHashMap<String, Expression>();
+        expressions.put(DEFAULT_NAME, expression);
+        return compile(expressions);
+    }
+
+    /**
+     * Compiles named expressions into one program, sharing common sub-expressions
+     * 
+     * @param expressions output name and raster calculator expression, in output order
+     * @return compiled program
+     * @throws IllegalArgumentException if an expression can not be evaluated on raster tiles
+     */
+    public RasterProgram compile(Map<String, Expression> expressions)
+            throws IllegalArgumentException {
+        program = new RasterProgram();
+        nodes = new HashMap<String, RasterNode>();
+
+        for (Entry<String, Expression> entry : expressions.entrySet()) {
+            program.addResult(entry.getKey(), visit(entry.getValue()));
+        }
+        return program;
+    }
+
+    private RasterNode visit(Expression expression) {
+        if (expression instanceof Literal) {
+            Double value = Converters.convert(((Literal) expression).getValue(), Double.class);
+            if (value == null) {
+                throw new IllegalArgumentException("Not a numeric literal: " + expression);
+            }
+            return add("C(" + value + ")", new ConstantNode(value.doubleValue()));
+        } else if (expression instanceof PropertyName) {
+            return visitPropertyName(((PropertyName) expression).getPropertyName());
+        } else if (expression instanceof Add) {
+            Add add = (Add) expression;
+            return binary(MathNode.ADD, add.getExpression1(), add.getExpression2());
+        } else if (expression instanceof Subtract) {
+            Subtract sub = (Subtract) expression;
+            return binary(MathNode.SUBTRACT, sub.getExpression1(), sub.getExpression2());
+        } else if (expression instanceof Multiply) {
+            Multiply mul = (Multiply) expression;
+            return binary(MathNode.MULTIPLY, mul.getExpression1(), mul.getExpression2());
+        } else if (expression instanceof Divide) {
+            Divide div = (Divide) expression;
+            return binary(MathNode.DIVIDE, div.getExpression1(), div.getExpression2());
+        } else if (expression instanceof Function) {
+            return visitFunction((Function) expression);
+        }
+
+        throw new IllegalArgumentException("Unsupported expression: " + expression);
+    }
+
+    /**
+     * Adds the node unless an identical node already exists
+     */
+    private RasterNode add(String key, RasterNode node) {
+        RasterNode existing = nodes.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        nodes.put(key, node);
+        return program.add(node);
+    }
+
+    private RasterNode binary(int operator, Expression left, Expression right) {
+        return math(operator, visit(left), visit(right));
+    }
+
+    private RasterNode math(int operator, RasterNode left, RasterNode right) {
+        if (right != null && right.slot < left.slot) {
+            switch (operator) {
+            case MathNode.ADD:
+            case MathNode.MULTIPLY:
+            case MathNode.MIN:
+            case MathNode.MAX:
+                // commutative: a + b and b + a share a node
+                RasterNode temp = left;
+                left = right;
+                right = temp;
+                break;
+            default:
+                break;
+            }
+        }
+
+        String key = "M" + operator + "(" + left.slot + ","
+                + (right == null ? "" : String.valueOf(right.slot)) + ")";
+        return add(key, new MathNode(operator, left, right));
+    }
+
+    private RasterNode visitFunction(Function function) {
+        String name = function.getName();
+        List<Expression> params = function.getParameters();
+
+        if (params.size() == 0 && name.equalsIgnoreCase("PI")) {
+            return add("C(" + Math.PI + ")", new ConstantNode(Math.PI));
+        } else if (params.size() == 1 && unaryFunctions.containsKey(name)) {
+            return math(unaryFunctions.get(name), visit(params.get(0)), null);
+        } else if (params.size() == 2 && binaryFunctions.containsKey(name)) {
+            return binary(binaryFunctions.get(name), params.get(0), params.get(1));
+        } else if (FocalFunctionFactory.getStatistic(name) != null) {
+            return visitFocalFunction(name, params);
+        }
+
+        // generic function: compile numeric arguments, pass the literals through
+        FunctionName functionName = function.getFunctionName();
+        if (functionName == null || !isNumeric(functionName.getReturn())) {
+            throw new IllegalArgumentException("Not a numeric function: " + name);
+        }
+
+        RasterNode[] arguments = new RasterNode[params.size()];
+        StringBuilder key = new StringBuilder("F").append(name).append("(");
+        for (int index = 0; index < params.size(); index++) {
+            Expression param = params.get(index);
+            if (param instanceof Literal) {
+                Object value = ((Literal) param).getValue();
+                key.append("'").append(value).append("',");
+                continue;
+            }
+            // cells are passed as numbers, NaN as null
+            if (!isNumeric(getArgument(functionName, index))) {
+                throw new IllegalArgumentException("Not a numeric argument: " + name + " "
+                        + param);
+            }
+            arguments[index] = visit(param);
+            key.append(arguments[index].slot).append(",");
+        }
+        key.append(")");
+        return add(key.toString(), new FunctionNode(function, params, arguments));
+    }
+
+    /**
+     * @return declared argument at the index, the last argument repeats for variable arguments
+     */
+    private Parameter<?> getArgument(FunctionName functionName, int index) {
+        List<Parameter<?>> arguments = functionName.getArguments();
+        if (arguments == null || arguments.isEmpty()) {
+            return null;
+        } else if (index < arguments.size()) {
+            return arguments.get(index);
+        }
+
+        Parameter<?> last = arguments.get(arguments.size() - 1);
+        return last.getMaxOccurs() < 0 || last.getMaxOccurs() > 1 ? last : null;
+    }
+
+    private boolean isNumeric(Parameter<?> parameter) {
+        if (parameter == null || parameter.getType() == null) {
+            return false;
+        }
+
+        Class<?> type = parameter.getType();
+        if (type.isPrimitive()) {
+            return type != boolean.class && type != char.class && type != void.class;
+        }
+        return Number.class.isAssignableFrom(type);
+    }
+
+    private RasterNode visitFocalFunction(String name, List<Expression> params) {
+        if (params.size() < 1 || params.size() > 2) {
+            throw new IllegalArgumentException("Invalid number of arguments: " + name);
+        }
+
+        final int statistic = FocalFunctionFactory.getStatistic(name);
+        int size = FocalFunctionFactory.DEFAULT_WINDOW_SIZE;
+        double zFactor = 1.0;
+        if (params.size() == 2) {
+            if (!(params.get(1) instanceof Literal)) {
+                throw new IllegalArgumentException("Not a numeric literal: " + params.get(1));
+            }
+            Double value = Converters.convert(((Literal) params.get(1)).getValue(),
+                    Double.class);
+            if (value == null) {
+                throw new IllegalArgumentException("Not a numeric literal: " + params.get(1));
+            }
+
+            if (statistic == FocalNode.SLOPE) {
+                zFactor = value.doubleValue();
+            } else {
+                size = value.intValue();
+                if (size < 3 || size % 2 == 0 || size != value.doubleValue()) {
+                    throw new IllegalArgumentException("Window size must be an odd number >= 3: "
+                            + value);
+                }
+            }
+        }
+
+        // the argument is evaluated on the halo of each tile, by its own program
+        Expression argument = params.get(0);
+        RasterProgram program = new RasterExpressionCompiler(layers).compile(argument);
+
+        String key = "L" + name + "(" + argument + "," + size + "," + zFactor + ")";
+        return add(key, new FocalNode(statistic, program, size, zFactor));
+    }
+
+    private RasterNode visitPropertyName(String propertyName) {
+        String name = propertyName.replace("[", "").replace("]", "");
+
+        String layerName = null;
+        int band = 0;
+        if (layers.containsKey(name)) {
+            layerName = name;
+        } else {
+            for (Entry<String, Integer> entry : layers.entrySet()) {
+                String prefix = entry.getKey() + BAND_SEPARATOR;
+                if (name.startsWith(prefix)) {
+                    try {
+                        band = Integer.parseInt(name.substring(prefix.length()));
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    if (band >= 0 && band < entry.getValue()) {
+                        layerName = entry.getKey();
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (layerName == null) {
+            throw new IllegalArgumentException("Unknown raster layer: " + propertyName);
+        }
+
+        // each band is read once per tile
+        return add("B(" + layerName + BAND_SEPARATOR + band + ")", new BandNode(layerName, band));
+    }
+}
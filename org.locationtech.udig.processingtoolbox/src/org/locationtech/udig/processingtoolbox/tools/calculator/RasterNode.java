@@ -0,0 +1,586 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.calculator;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.util.Converters;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.ExpressionVisitor;
+import org.opengis.filter.expression.Function;
+import org.opengis.filter.expression.Literal;
+
+/**
+ * Node of a compiled raster expression. Each node owns a slot, a primitive tile buffer that is
+ * written by {@link #evaluate(double[][], int)} and read by the parent nodes.
+ * <p>
+ * Nodes hold no per-tile state, so a compiled program can be shared by all worker threads.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public abstract class RasterNode {
+
+    int slot = -1;
+
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Evaluates this node into slots[slot]. Children are already evaluated.
+     * 
+     * @param slots tile buffers, indexed by slot
+     * @param length number of cells in the current tile
+     */
+    public abstract void evaluate(double[][] slots, int length);
+
+    /**
+     * Constant value
+     */
+    static final class ConstantNode extends RasterNode {
+        final double value;
+
+        ConstantNode(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public void evaluate(double[][] slots, int length) {
+            Arrays.fill(slots[slot], 0, length, value);
+        }
+    }
+
+    /**
+     * Band of an input raster, loaded by the calculator before the program runs.
+     */
+    public static final class BandNode extends RasterNode {
+        final String layerName;
+
+        final int band;
+
+        BandNode(String layerName, int band) {
+            this.layerName = layerName;
+            this.band = band;
+        }
+
+        public String getLayerName() {
+            return layerName;
+        }
+
+        public int getBand() {
+            return band;
+        }
+
+        void load(RasterSource source, Rectangle region, double[][] slots) {
+            source.readSamples(region, band, slots[slot]);
+        }
+
+        @Override
+        public void evaluate(double[][] slots, int length) {
+            // loaded by RasterProgram
+        }
+    }
+
+    /**
+     * Arithmetic and math functions with one or two arguments
+     */
+    static final class MathNode extends RasterNode {
+        static final int ADD = 0, SUBTRACT = 1, MULTIPLY = 2, DIVIDE = 3, POW = 4, ATAN2 = 5,
+                MIN = 6, MAX = 7, REMAINDER = 8;
+
+        static final int ABS = 20, ACOS = 21, ASIN = 22, ATAN = 23, CEIL = 24, COS = 25,
+                EXP = 26, FLOOR = 27, LOG = 28, RINT = 29, ROUND = 30, SIN = 31, SQRT = 32,
+                TAN = 33, DEGREES = 34, RADIANS = 35;
+
+        final int operator;
+
+        final RasterNode left;
+
+        final RasterNode right;
+
+        MathNode(int operator, RasterNode left, RasterNode right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public void evaluate(double[][] slots, int length) {
+            final double[] out = slots[slot];
+            final double[] a = slots[left.slot];
+            final double[] b = right == null ? null : slots[right.slot];
+
+            switch (operator) {
+            case ADD:
+                for (int i = 0; i < length; i++) {
+                    out[i] = a[i] + b[i];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < length; i++) {
+                    out[i] = a[i] - b[i];
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < length; i++) {
+                    out[i] = a[i] * b[i];
+                }
+                break;
+            case DIVIDE:
+                for (int i = 0; i < length; i++) {
+                    out[i] = a[i] / b[i];
+                }
+                break;
+            case POW:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.pow(a[i], b[i]);
+                }
+                break;
+            case ATAN2:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.atan2(a[i], b[i]);
+                }
+                break;
+            case MIN:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.min(a[i], b[i]);
+                }
+                break;
+            case MAX:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.max(a[i], b[i]);
+                }
+                break;
+            case REMAINDER:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.IEEEremainder(a[i], b[i]);
+                }
+                break;
+            case ABS:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.abs(a[i]);
+                }
+                break;
+            case ACOS:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.acos(a[i]);
+                }
+                break;
+            case ASIN:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.asin(a[i]);
+                }
+                break;
+            case ATAN:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.atan(a[i]);
+                }
+                break;
+            case CEIL:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.ceil(a[i]);
+                }
+                break;
+            case COS:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.cos(a[i]);
+                }
+                break;
+            case EXP:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.exp(a[i]);
+                }
+                break;
+            case FLOOR:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.floor(a[i]);
+                }
+                break;
+            case LOG:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.log(a[i]);
+                }
+                break;
+            case RINT:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.rint(a[i]);
+                }
+                break;
+            case ROUND:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Double.isNaN(a[i]) ? Double.NaN : Math.round(a[i]);
+                }
+                break;
+            case SIN:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.sin(a[i]);
+                }
+                break;
+            case SQRT:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.sqrt(a[i]);
+                }
+                break;
+            case TAN:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.tan(a[i]);
+                }
+                break;
+            case DEGREES:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.toDegrees(a[i]);
+                }
+                break;
+            case RADIANS:
+                for (int i = 0; i < length; i++) {
+                    out[i] = Math.toRadians(a[i]);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown operator: " + operator); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Neighbourhood statistics of a sub-expression over a square window. The sub-expression is
+     * evaluated on the region expanded by the window radius (halo), so no intermediate raster is
+     * written. NoData neighbours are ignored and NoData centers stay NoData.
+     */
+    static final class FocalNode extends RasterNode {
+        static final int MEAN = 0, SUM = 1, MIN = 2, MAX = 3, RANGE = 4, STD = 5, SLOPE = 6;
+
+        final int statistic;
+
+        final RasterProgram argument;
+
+        final int radius;
+
+        final double zFactor;
+
+        // sub-expression slots and the window buffers of each worker thread
+        private final ThreadLocal<double[][]> workspace = new ThreadLocal<double[][]>();
+
+        FocalNode(int statistic, RasterProgram argument, int size, double zFactor) {
+            this.statistic = statistic;
+            this.argument = argument;
+            this.radius = statistic == SLOPE ? 1 : size / 2;
+            this.zFactor = zFactor;
+        }
+
+        void load(Map<String, RasterSource> sources, Rectangle region, double cellSizeX,
+                double cellSizeY, double[][] slots) {
+            Rectangle halo = new Rectangle(region.x - radius, region.y - radius, region.width
+                    + radius * 2, region.height + radius * 2);
+            final int slotCount = argument.getSlotCount();
+            final int haloLength = halo.width * halo.height;
+
+            double[][] buffers = workspace.get();
+            if (buffers == null || buffers[0].length < haloLength) {
+                buffers = new double[slotCount + 6][haloLength];
+                workspace.set(buffers);
+            }
+
+            argument.evaluate(sources, halo, cellSizeX, cellSizeY, buffers);
+            double[] values = buffers[argument.getResult().getSlot()];
+
+            switch (statistic) {
+            case SLOPE:
+                slope(values, halo.width, region, cellSizeX, cellSizeY, slots[slot]);
+                break;
+            case MIN:
+            case MAX:
+            case RANGE:
+                extrema(values, halo.width, region, buffers, slotCount, slots[slot]);
+                break;
+            default:
+                moments(values, halo.width, region, buffers, slotCount, slots[slot]);
+                break;
+            }
+        }
+
+        /**
+         * Mean, sum and standard deviation with running sums: a horizontal pass over the halo
+         * rows, then a vertical pass that adds the entering row and removes the leaving one.
+         */
+        private void moments(double[] values, int haloWidth, Rectangle region,
+                double[][] buffers, int first, double[] out) {
+            final int width = region.width;
+            final int height = region.height;
+            final int size = radius * 2 + 1;
+            final double[] rowCount = buffers[first];
+            final double[] rowSum = buffers[first + 1];
+            final double[] rowSquares = buffers[first + 2];
+            final double[] count = buffers[first + 3];
+            final double[] sum = buffers[first + 4];
+            final double[] squares = buffers[first + 5];
+
+            // horizontal window sums of every halo row
+            for (int y = 0; y < height + radius * 2; y++) {
+                final int in = y * haloWidth;
+                final int pos = y * width;
+                double n = 0, s = 0, ss = 0;
+                for (int x = 0; x < size - 1; x++) {
+                    double value = values[in + x];
+                    if (!Double.isNaN(value)) {
+                        n++;
+                        s += value;
+                        ss += value * value;
+                    }
+                }
+                for (int x = 0; x < width; x++) {
+                    double value = values[in + x + size - 1];
+                    if (!Double.isNaN(value)) {
+                        n++;
+                        s += value;
+                        ss += value * value;
+                    }
+                    rowCount[pos + x] = n;
+                    rowSum[pos + x] = s;
+                    rowSquares[pos + x] = ss;
+
+                    value = values[in + x];
+                    if (!Double.isNaN(value)) {
+                        n--;
+                        s -= value;
+                        ss -= value * value;
+                    }
+                }
+            }
+
+            // vertical window sums, one column accumulator per output column
+            Arrays.fill(count, 0, width, 0);
+            Arrays.fill(sum, 0, width, 0);
+            Arrays.fill(squares, 0, width, 0);
+            for (int y = 0; y < size - 1; y++) {
+                for (int x = 0; x < width; x++) {
+                    count[x] += rowCount[y * width + x];
+                    sum[x] += rowSum[y * width + x];
+                    squares[x] += rowSquares[y * width + x];
+                }
+            }
+
+            for (int y = 0; y < height; y++) {
+                final int entering = (y + size - 1) * width;
+                final int leaving = y * width;
+                final int center = (y + radius) * haloWidth + radius;
+                for (int x = 0; x < width; x++) {
+                    count[x] += rowCount[entering + x];
+                    sum[x] += rowSum[entering + x];
+                    squares[x] += rowSquares[entering + x];
+
+                    double n = count[x];
+                    double result = Double.NaN;
+                    if (n > 0 && !Double.isNaN(values[center + x])) {
+                        switch (statistic) {
+                        case SUM:
+                            result = sum[x];
+                            break;
+                        case STD:
+                            double mean = sum[x] / n;
+                            result = Math.sqrt(Math.max(0, squares[x] / n - mean * mean));
+                            break;
+                        default:
+                            result = sum[x] / n;
+                            break;
+                        }
+                    }
+                    out[y * width + x] = result;
+
+                    count[x] -= rowCount[leaving + x];
+                    sum[x] -= rowSum[leaving + x];
+                    squares[x] -= rowSquares[leaving + x];
+                }
+            }
+        }
+
+        /**
+         * Minimum, maximum and range, separable: row extrema first, then column extrema of the
+         * row results.
+         */
+        private void extrema(double[] values, int haloWidth, Rectangle region,
+                double[][] buffers, int first, double[] out) {
+            final int width = region.width;
+            final int height = region.height;
+            final int size = radius * 2 + 1;
+            final double[] rowMin = buffers[first];
+            final double[] rowMax = buffers[first + 1];
+
+            for (int y = 0; y < height + radius * 2; y++) {
+                final int in = y * haloWidth;
+                final int pos = y * width;
+                for (int x = 0; x < width; x++) {
+                    double min = Double.NaN, max = Double.NaN;
+                    for (int k = 0; k < size; k++) {
+                        double value = values[in + x + k];
+                        if (Double.isNaN(value)) {
+                            continue;
+                        }
+                        min = Double.isNaN(min) ? value : Math.min(min, value);
+                        max = Double.isNaN(max) ? value : Math.max(max, value);
+                    }
+                    rowMin[pos + x] = min;
+                    rowMax[pos + x] = max;
+                }
+            }
+
+            for (int y = 0; y < height; y++) {
+                final int center = (y + radius) * haloWidth + radius;
+                for (int x = 0; x < width; x++) {
+                    double min = Double.NaN, max = Double.NaN;
+                    if (!Double.isNaN(values[center + x])) {
+                        for (int k = 0; k < size; k++) {
+                            int pos = (y + k) * width + x;
+                            if (!Double.isNaN(rowMin[pos])) {
+                                min = Double.isNaN(min) ? rowMin[pos] : Math.min(min, rowMin[pos]);
+                                max = Double.isNaN(max) ? rowMax[pos] : Math.max(max, rowMax[pos]);
+                            }
+                        }
+                    }
+
+                    switch (statistic) {
+                    case MIN:
+                        out[y * width + x] = min;
+                        break;
+                    case MAX:
+                        out[y * width + x] = max;
+                        break;
+                    default:
+                        out[y * width + x] = max - min;
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Slope in degrees, Horn's method on a 3 x 3 window. NoData neighbours take the value of
+         * the center cell.
+         */
+        private void slope(double[] values, int haloWidth, Rectangle region, double cellSizeX,
+                double cellSizeY, double[] out) {
+            final int width = region.width;
+            final int height = region.height;
+            for (int y = 0; y < height; y++) {
+                final int center = (y + 1) * haloWidth + 1;
+                for (int x = 0; x < width; x++) {
+                    final int pos = center + x;
+                    double e = values[pos];
+                    if (Double.isNaN(e)) {
+                        out[y * width + x] = Double.NaN;
+                        continue;
+                    }
+
+                    double a = value(values, pos - haloWidth - 1, e);
+                    double b = value(values, pos - haloWidth, e);
+                    double c = value(values, pos - haloWidth + 1, e);
+                    double d = value(values, pos - 1, e);
+                    double f = value(values, pos + 1, e);
+                    double g = value(values, pos + haloWidth - 1, e);
+                    double h = value(values, pos + haloWidth, e);
+                    double i = value(values, pos + haloWidth + 1, e);
+
+                    double dx = ((c + 2 * f + i) - (a + 2 * d + g)) / (8 * cellSizeX);
+                    double dy = ((g + 2 * h + i) - (a + 2 * b + c)) / (8 * cellSizeY);
+                    double rise = zFactor * Math.sqrt(dx * dx + dy * dy);
+                    out[y * width + x] = Math.toDegrees(Math.atan(rise));
+                }
+            }
+        }
+
+        private static double value(double[] values, int pos, double center) {
+            double value = values[pos];
+            return Double.isNaN(value) ? center : value;
+        }
+
+        @Override
+        public void evaluate(double[][] slots, int length) {
+            // loaded by RasterProgram
+        }
+    }
+
+    /**
+     * Any other filter function, evaluated cell by cell. Compiled arguments are fed through
+     * mutable literals, constant arguments (strings, flags...) are passed through unchanged.
+     */
+    static final class FunctionNode extends RasterNode {
+        static final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+        final String name;
+
+        final Expression[] parameters;
+
+        final RasterNode[] arguments;
+
+        FunctionNode(Function function, List<Expression> parameters, RasterNode[] arguments) {
+            this.name = function.getName();
+            this.parameters = parameters.toArray(new Expression[parameters.size()]);
+            this.arguments = arguments;
+        }
+
+        @Override
+        public void evaluate(double[][] slots, int length) {
+            // a function instance per tile keeps the shared node free of mutable state
+            CellLiteral[] cells = new CellLiteral[arguments.length];
+            Expression[] args = new Expression[arguments.length];
+            for (int k = 0; k < arguments.length; k++) {
+                if (arguments[k] == null) {
+                    args[k] = parameters[k];
+                } else {
+                    cells[k] = new CellLiteral();
+                    args[k] = cells[k];
+                }
+            }
+            Function function = ff.function(name, args);
+
+            final double[] out = slots[slot];
+            for (int i = 0; i < length; i++) {
+                for (int k = 0; k < arguments.length; k++) {
+                    if (cells[k] != null) {
+                        cells[k].value = slots[arguments[k].slot][i];
+                    }
+                }
+                Double value = function.evaluate(null, Double.class);
+                out[i] = value == null ? Double.NaN : value.doubleValue();
+            }
+        }
+    }
+
+    static final class CellLiteral implements Literal {
+        double value;
+
+        @Override
+        public Object getValue() {
+            return Double.isNaN(value) ? null : Double.valueOf(value);
+        }
+
+        @Override
+        public Object evaluate(Object object) {
+            return getValue();
+        }
+
+        @Override
+        public <T> T evaluate(Object object, Class<T> context) {
+            return Converters.convert(getValue(), context);
+        }
+
+        @Override
+        public Object accept(ExpressionVisitor visitor, Object extraData) {
+            return visitor.visit(this, extraData);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.calculator;
+
+import java.awt.Dimension;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.process.spatialstatistics.gridcoverage.RasterHelper;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Evaluates a compiled raster expression on a decimated grid within a time budget.
+ * <p>
+ * The preview starts with a small grid and doubles its size while the budget allows, each level
+ * being about four times the cost of the previous one. The largest completed level is returned.
+ * Inputs are sampled by {@link CoverageRasterSource} at the preview cell centers, so the cost
+ * depends on the number of preview cells, not on the size of the rasters. Override
+ * {@link #getCoverage} to read reduced resolution coverages, e.g. from overviews.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class RasterPreview {
+    protected static final Logger LOGGER = Logging.getLogger(RasterPreview.class);
+
+    public static final int DEFAULT_MIN_SIZE = 64;
+
+    public static final int DEFAULT_MAX_SIZE = 512;
+
+    public static final long DEFAULT_TIME_BUDGET = 1000; // milliseconds
+
+    private int minSize = DEFAULT_MIN_SIZE;
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    private long timeBudget = DEFAULT_TIME_BUDGET;
+
+    private Map<String, GridCoverage2D> coverages;
+
+    public RasterPreview(Map<String, GridCoverage2D> coverages) {
+        this.coverages = coverages;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(minSize, maxSize);
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    public void setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Returns the coverage to sample for a preview grid. The default is the full resolution
+     * coverage, which is sampled with a stride of one preview cell.
+     * 
+     * @param layerName layer name
+     * @param coverage full resolution coverage
+     * @param extent preview extent
+     * @param width preview width
+     * @param height preview height
+     */
+    protected GridCoverage2D getCoverage(String layerName, GridCoverage2D coverage,
+            ReferencedEnvelope extent, int width, int height) {
+        return coverage;
+    }
+
+    /**
+     * Evaluates the program on the largest preview grid that fits the time budget, one band per
+     * result
+     * 
+     * @param program compiled expressions
+     * @param extent output extent
+     * @param cellSizeX output cell size x
+     * @param cellSizeY output cell size y
+     * @return preview coverage or null if no level could be completed within the time budget
+     */
+    public GridCoverage2D execute(RasterProgram program, ReferencedEnvelope extent,
+            double cellSizeX, double cellSizeY) {
+        return execute(program, extent, cellSizeX, cellSizeY, new NullProgressMonitor());
+    }
+
+    /**
+     * Evaluates the program on the largest preview grid that fits the time budget, one band per
+     * result
+     * 
+     * @param program compiled expressions
+     * @param extent output extent
+     * @param cellSizeX output cell size x
+     * @param cellSizeY output cell size y
+     * @param cancelMonitor monitor cancelling the preview
+     * @return preview coverage or null if no level could be completed within the time budget or
+     *         the preview was cancelled
+     */
+    public GridCoverage2D execute(RasterProgram program, ReferencedEnvelope extent,
+            double cellSizeX, double cellSizeY, final IProgressMonitor cancelMonitor) {
+        final long deadline = System.currentTimeMillis() + timeBudget;
+        IProgressMonitor monitor = new NullProgressMonitor() {
+            @Override
+            public boolean isCanceled() {
+                return cancelMonitor.isCanceled() || System.currentTimeMillis() > deadline;
+            }
+        };
+
+        ReferencedEnvelope resolved = RasterHelper.getResolvedEnvelope(extent, cellSizeX,
+                cellSizeY);
+        Dimension dm = RasterHelper.getDimension(resolved, cellSizeX, cellSizeY);
+        final int longest = Math.max(dm.width, dm.height);
+
+        RasterCalculator calculator = new RasterCalculator();
+        GridCoverage2D preview = null;
+        for (int size = minSize; size <= maxSize; size *= 2) {
+            // never finer than the output grid
+            double factor = Math.max(1.0, (double) longest / size);
+            double previewSizeX = cellSizeX * factor;
+            double previewSizeY = cellSizeY * factor;
+
+            long start = System.currentTimeMillis();
+            Map<String, RasterSource> sources = createSources(program, extent, previewSizeX,
+                    previewSizeY);
+            GridCoverage2D level = calculator.execute(program, sources, extent, previewSizeX,
+                    previewSizeY, monitor);
+            if (level == null) {
+                break; // over budget
+            } else if (cancelMonitor.isCanceled()) {
+                level.dispose(true);
+                break;
+            }
+            LOGGER.log(Level.FINER, "Preview level " + size + " completed"); //$NON-NLS-1$ //$NON-NLS-2$
+
+            if (preview != null) {
+                preview.dispose(true);
+            }
+            preview = level;
+
+            long elapsed = System.currentTimeMillis() - start;
+            if (factor == 1.0 || System.currentTimeMillis() + elapsed * 4 > deadline) {
+                break;
+            }
+        }
+
+        if (preview != null && cancelMonitor.isCanceled()) {
+            preview.dispose(true);
+            return null;
+        }
+        return preview;
+    }
+
+    private Map<String, RasterSource> createSources(RasterProgram program,
+            ReferencedEnvelope extent, double cellSizeX, double cellSizeY) {
+        ReferencedEnvelope resolved = RasterHelper.getResolvedEnvelope(extent, cellSizeX,
+                cellSizeY);
+        Dimension dm = RasterHelper.getDimension(resolved, cellSizeX, cellSizeY);
+
+        Map<String, RasterSource> sources = new TreeMap<String, RasterSource>();
+        for (String layerName : program.getLayerNames()) {
+            if (!coverages.containsKey(layerName)) {
+                continue;
+            }
+
+            GridCoverage2D coverage = coverages.get(layerName);
+            GridCoverage2D reduced = getCoverage(layerName, coverage, resolved, dm.width,
+                    dm.height);
+            sources.put(layerName, new CoverageRasterSource(reduced == null ? coverage
+                    : reduced, extent, cellSizeX, cellSizeY));
+        }
+        return sources;
+    }
+}
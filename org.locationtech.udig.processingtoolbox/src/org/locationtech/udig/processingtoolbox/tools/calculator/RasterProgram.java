@@ -0,0 +1,125 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.calculator;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterNode.BandNode;
+import org.locationtech.udig.processingtoolbox.tools.calculator.RasterNode.FocalNode;
+
+/**
+ * Compiled raster expressions: nodes in evaluation order, children before parents, and one named
+ * result node per expression. Nodes are shared between the expressions.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class RasterProgram {
+
+    private List<RasterNode> nodes = new ArrayList<RasterNode>();
+
+    private List<BandNode> inputs = new ArrayList<BandNode>();
+
+    private List<FocalNode> focals = new ArrayList<FocalNode>();
+
+    private List<String> resultNames = new ArrayList<String>();
+
+    private List<RasterNode> results = new ArrayList<RasterNode>();
+
+    RasterNode add(RasterNode node) {
+        node.slot = nodes.size();
+        nodes.add(node);
+        if (node instanceof BandNode) {
+            inputs.add((BandNode) node);
+        } else if (node instanceof FocalNode) {
+            focals.add((FocalNode) node);
+        }
+        return node;
+    }
+
+    void addResult(String name, RasterNode result) {
+        resultNames.add(name);
+        results.add(result);
+    }
+
+    public List<RasterNode> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    public List<BandNode> getInputs() {
+        return Collections.unmodifiableList(inputs);
+    }
+
+    /**
+     * @return names of all layers read by the program, including the arguments of focal functions
+     */
+    public Set<String> getLayerNames() {
+        Set<String> layerNames = new TreeSet<String>();
+        for (BandNode input : inputs) {
+            layerNames.add(input.getLayerName());
+        }
+        for (FocalNode focal : focals) {
+            layerNames.addAll(focal.argument.getLayerNames());
+        }
+        return layerNames;
+    }
+
+    public RasterNode getResult() {
+        return results.size() == 0 ? null : results.get(0);
+    }
+
+    public List<RasterNode> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+
+    public List<String> getResultNames() {
+        return Collections.unmodifiableList(resultNames);
+    }
+
+    public int getResultCount() {
+        return results.size();
+    }
+
+    public int getSlotCount() {
+        return nodes.size();
+    }
+
+    /**
+     * Loads the inputs of a region and evaluates all nodes
+     * 
+     * @param sources aligned input rasters, keyed by layer name
+     * @param region region in output grid coordinates
+     * @param cellSizeX output cell size x
+     * @param cellSizeY output cell size y
+     * @param slots buffers of at least {@link #getSlotCount()} x region size
+     */
+    void evaluate(Map<String, RasterSource> sources, Rectangle region, double cellSizeX,
+            double cellSizeY, double[][] slots) {
+        for (BandNode input : inputs) {
+            input.load(sources.get(input.getLayerName()), region, slots);
+        }
+
+        for (FocalNode focal : focals) {
+            focal.load(sources, region, cellSizeX, cellSizeY, slots);
+        }
+
+        final int length = region.width * region.height;
+        for (RasterNode node : nodes) {
+            node.evaluate(slots, length);
+        }
+    }
+}
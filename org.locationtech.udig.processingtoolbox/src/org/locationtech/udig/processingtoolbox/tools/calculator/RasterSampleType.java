@@ -0,0 +1,79 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.calculator;
+
+import java.awt.image.DataBuffer;
+
+/**
+ * Output sample type of the raster calculator and its NoData value.
+ * <p>
+ * Integer types round the results and clamp them to the valid range, as gdal_translate does.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public enum RasterSampleType {
+    FLOAT64(DataBuffer.TYPE_DOUBLE, -Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE),
+
+    FLOAT32(DataBuffer.TYPE_FLOAT, -Float.MAX_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE),
+
+    INT16(DataBuffer.TYPE_SHORT, Short.MIN_VALUE, Short.MIN_VALUE + 1, Short.MAX_VALUE),
+
+    BYTE(DataBuffer.TYPE_BYTE, 255, 0, 254);
+
+    private final int dataType;
+
+    private final double noDataValue;
+
+    private final double minValue;
+
+    private final double maxValue;
+
+    private RasterSampleType(int dataType, double noDataValue, double minValue, double maxValue) {
+        this.dataType = dataType;
+        this.noDataValue = noDataValue;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * @return DataBuffer type
+     */
+    public int getDataType() {
+        return dataType;
+    }
+
+    public double getNoDataValue() {
+        return noDataValue;
+    }
+
+    /**
+     * Converts a calculated value to a sample of this type
+     * 
+     * @param value calculated value, NaN for NoData
+     * @return sample value or NoData value
+     */
+    public double convert(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return noDataValue;
+        }
+
+        switch (this) {
+        case FLOAT64:
+            return value;
+        case FLOAT32:
+            float floatValue = (float) value;
+            return Float.isInfinite(floatValue) ? noDataValue : floatValue;
+        default:
+            return Math.max(minValue, Math.min(maxValue, Math.rint(value)));
+        }
+    }
+}
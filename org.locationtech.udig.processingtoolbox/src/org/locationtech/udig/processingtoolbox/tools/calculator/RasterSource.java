@@ -0,0 +1,41 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.calculator;
+
+import java.awt.Rectangle;
+
+/**
+ * Band samples of a raster layer, aligned to the output grid of the raster calculator.
+ * <p>
+ * Implementations must be safe for concurrent reads, because tiles are evaluated in parallel.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public interface RasterSource {
+
+    /**
+     * Returns the number of bands
+     * 
+     * @return number of bands
+     */
+    int getNumBands();
+
+    /**
+     * Reads the samples of one band into a row-major buffer.
+     * 
+     * @param region region in output grid coordinates
+     * @param band band index
+     * @param dest destination buffer, at least region.width * region.height long. NoData and
+     *        cells outside of the source are written as Double.NaN.
+     */
+    void readSamples(Rectangle region, int band, double[] dest);
+}
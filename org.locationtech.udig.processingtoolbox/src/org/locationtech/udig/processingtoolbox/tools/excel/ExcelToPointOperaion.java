@@ -45,6 +45,7 @@ import org.geotools.process.spatialstatistics.storage.IFeatureInserter;
 import org.geotools.referencing.CRS;
 import org.geotools.util.Converters;
 import org.geotools.util.logging.Logging;
+import org.locationtech.udig.processingtoolbox.jobs.CancellationToken;
 import org.locationtech.udig.processingtoolbox.tools.excel.ExcelFormatReader.ExcelSheetInfo;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -77,6 +78,15 @@ public class ExcelToPointOperaion extends GeneralOperation {
 
     private StringBuffer errorBuffer = new StringBuffer();
 
+    private CancellationToken token = null;
+
+    /**
+     * @param token cancellation checked before each row, or null
+     */
+    public void setCancellationToken(CancellationToken token) {
+        this.token = token;
+    }
+
     public String getError() {
         return errorBuffer.toString();
     }
@@ -141,6 +151,9 @@ public class ExcelToPointOperaion extends GeneralOperation {
 
         // prepare transactional feature store
         IFeatureInserter featureWriter = getFeatureWriter(schema);
+        if (token != null) {
+            featureWriter = token.wrap(featureWriter);
+        }
 
         FormulaEvaluator evaluator = sheetInfo.getWorkbook().getCreationHelper()
                 .createFormulaEvaluator();
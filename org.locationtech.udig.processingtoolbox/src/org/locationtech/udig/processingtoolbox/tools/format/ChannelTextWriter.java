@@ -0,0 +1,127 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Text file writer encoding characters into a large direct buffer written to a
+ * {@link FileChannel}. The text of a line is built by the caller into a reused
+ * {@link StringBuilder} and copied, so no String is created per line.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class ChannelTextWriter implements Closeable {
+
+    static final int BYTE_BUFFER_SIZE = 1024 * 1024;
+
+    static final int CHAR_BUFFER_SIZE = 64 * 1024;
+
+    private final FileOutputStream fos;
+
+    private final FileChannel channel;
+
+    private final CharsetEncoder encoder;
+
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+
+    private final char[] chars = new char[CHAR_BUFFER_SIZE];
+
+    private final CharBuffer charBuffer = CharBuffer.wrap(chars);
+
+    private boolean closed = false;
+
+    public ChannelTextWriter(File file, Charset charset) throws IOException {
+        this.fos = new FileOutputStream(file);
+        this.channel = fos.getChannel();
+        this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public void write(StringBuilder text) throws IOException {
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            int count = Math.min(length - start, charBuffer.remaining());
+            text.getChars(start, start + count, chars, charBuffer.position());
+            charBuffer.position(charBuffer.position() + count);
+            start += count;
+            if (!charBuffer.hasRemaining()) {
+                encodeChars(false);
+            }
+        }
+    }
+
+    public void write(String text) throws IOException {
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            int count = Math.min(length - start, charBuffer.remaining());
+            text.getChars(start, start + count, chars, charBuffer.position());
+            charBuffer.position(charBuffer.position() + count);
+            start += count;
+            if (!charBuffer.hasRemaining()) {
+                encodeChars(false);
+            }
+        }
+    }
+
+    private void encodeChars(boolean endOfInput) throws IOException {
+        charBuffer.flip();
+        CoderResult result = encoder.encode(charBuffer, bytes, endOfInput);
+        while (result.isOverflow()) {
+            writeBytes();
+            result = encoder.encode(charBuffer, bytes, endOfInput);
+        }
+        charBuffer.compact(); // keeps the high surrogate of a pair split between two writes
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    /**
+     * Writes the buffered text and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        try {
+            encodeChars(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                writeBytes();
+            }
+            writeBytes();
+        } finally {
+            channel.close();
+            fos.close();
+        }
+    }
+}
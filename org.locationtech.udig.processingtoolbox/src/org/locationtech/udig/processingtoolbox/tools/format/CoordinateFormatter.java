@@ -0,0 +1,191 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Formats coordinates with a fixed maximum number of decimals into a reusable
+ * {@link StringBuilder}, without the intermediate strings of {@link Double#toString(double)} or
+ * {@link java.text.DecimalFormat}. Trailing zeros are removed, values too large to be rounded
+ * exactly are written by {@link StringBuilder#append(double)}.
+ * 
+ * <pre>
+ * CoordinateFormatter formatter = new CoordinateFormatter(6);
+ * formatter.format(127.12345678, sb); // 127.123457
+ * </pre>
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public class CoordinateFormatter {
+
+    public static final int DEFAULT_DECIMALS = 8;
+
+    public static final int MAX_DECIMALS = 15;
+
+    static final double MAX_EXACT = 9007199254740992d; // 2^53
+
+    private static final long[] POWERS = new long[MAX_DECIMALS + 1];
+    static {
+        POWERS[0] = 1;
+        for (int index = 1; index < POWERS.length; index++) {
+            POWERS[index] = POWERS[index - 1] * 10;
+        }
+    }
+
+    private final int decimals;
+
+    private final double scale;
+
+    public CoordinateFormatter() {
+        this(DEFAULT_DECIMALS);
+    }
+
+    /**
+     * @param decimals maximum number of decimals, 0 to {@link #MAX_DECIMALS}
+     */
+    public CoordinateFormatter(int decimals) {
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            String msg = "decimals must be 0 to " + MAX_DECIMALS; //$NON-NLS-1$
+            throw new IllegalArgumentException(msg);
+        }
+        this.decimals = decimals;
+        this.scale = POWERS[decimals];
+    }
+
+    public int getDecimals() {
+        return decimals;
+    }
+
+    public String format(double value) {
+        return format(value, new StringBuilder(24)).toString();
+    }
+
+    public StringBuilder format(double value, StringBuilder sb) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return sb.append(value);
+        }
+
+        double scaled = Math.abs(value) * scale;
+        if (scaled >= MAX_EXACT) {
+            return sb.append(value);
+        }
+
+        long units = Math.round(scaled);
+        if (units == 0) {
+            return sb.append('0');
+        }
+
+        if (value < 0) {
+            sb.append('-');
+        }
+        sb.append(units / POWERS[decimals]);
+
+        long fraction = units % POWERS[decimals];
+        if (fraction != 0) {
+            int digits = decimals;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+
+            sb.append('.');
+            for (int index = digits - 1; index > 0 && fraction < POWERS[index]; index--) {
+                sb.append('0');
+            }
+            sb.append(fraction);
+        }
+        return sb;
+    }
+
+    /**
+     * @return true if any coordinate of the sequence has a z value, NaN values are missing values
+     */
+    public static boolean hasZ(CoordinateSequence sequence) {
+        if (sequence.getDimension() < 3) {
+            return false;
+        }
+
+        for (int index = 0; index < sequence.size(); index++) {
+            if (!Double.isNaN(sequence.getOrdinate(index, CoordinateSequence.Z))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if any coordinate of any part of the geometry has a z value
+     */
+    public static boolean hasZ(Geometry geometry) {
+        if (geometry instanceof Point) {
+            return hasZ(((Point) geometry).getCoordinateSequence());
+        } else if (geometry instanceof LineString) {
+            return hasZ(((LineString) geometry).getCoordinateSequence());
+        } else if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            if (hasZ(polygon.getExteriorRing())) {
+                return true;
+            }
+            for (int index = 0; index < polygon.getNumInteriorRing(); index++) {
+                if (hasZ(polygon.getInteriorRingN(index))) {
+                    return true;
+                }
+            }
+        } else if (geometry instanceof GeometryCollection) {
+            for (int index = 0; index < geometry.getNumGeometries(); index++) {
+                if (hasZ(geometry.getGeometryN(index))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the z value of a coordinate, 0 if it is missing in a sequence with z values
+     */
+    public static double getZ(CoordinateSequence sequence, int index) {
+        double z = sequence.getOrdinate(index, CoordinateSequence.Z);
+        return Double.isNaN(z) ? 0d : z;
+    }
+
+    /**
+     * Formats the coordinates of a sequence, e.g. <code>x,y x,y</code> for GML 2 and KML or
+     * <code>x y x y</code> for a GML 3 posList
+     * 
+     * @param ordinateSeparator separator of the ordinates of a coordinate
+     * @param tupleSeparator separator of the coordinates
+     * @param z true to write the z values, missing values are written as 0
+     */
+    public StringBuilder format(CoordinateSequence sequence, char ordinateSeparator,
+            char tupleSeparator, boolean z, StringBuilder sb) {
+        for (int index = 0; index < sequence.size(); index++) {
+            if (index > 0) {
+                sb.append(tupleSeparator);
+            }
+            format(sequence.getOrdinate(index, CoordinateSequence.X), sb);
+            sb.append(ordinateSeparator);
+            format(sequence.getOrdinate(index, CoordinateSequence.Y), sb);
+            if (z) {
+                sb.append(ordinateSeparator);
+                format(getZ(sequence, index), sb);
+            }
+        }
+        return sb;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Streaming delimited text writer of features, with the x, y coordinates (CSV) or the WKT of
+ * their geometries.
+ * <p>
+ * Each line is built into a reused buffer: point coordinates are read from the coordinate
+ * sequence, other geometries are written at their centroid, numbers are appended without
+ * intermediate strings and the coordinates are rounded by a {@link CoordinateFormatter}. A value
+ * containing the delimiter, a double quote or a line break is quoted as in RFC 4180.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class DelimitedTextWriter {
+    protected static final Logger LOGGER = Logging.getLogger(DelimitedTextWriter.class);
+
+    static final String NEW_LINE = System.getProperty("line.separator");
+
+    private final Charset charset;
+
+    private final String delimiter;
+
+    private final CoordinateFormatter formatter;
+
+    private final StringBuilder sb = new StringBuilder(1024);
+
+    // column of the current line
+    private int column;
+
+    // WKT of the current geometry, quoted when appended to the line
+    private final StringBuilder wkt = new StringBuilder(1024);
+
+    public DelimitedTextWriter(Charset charset, String delimiter, CoordinateFormatter formatter) {
+        this.charset = charset;
+        this.delimiter = delimiter;
+        this.formatter = formatter;
+    }
+
+    /**
+     * Writes the attributes and the xcoord, ycoord columns of the features
+     * 
+     * @return number of features written
+     */
+    public int writeCSV(SimpleFeatureCollection features, File outputFile) throws IOException {
+        return write(features, outputFile, false);
+    }
+
+    /**
+     * Writes the attributes of the features, the geometries as WKT
+     * 
+     * @return number of features written
+     */
+    public int writeWKT(SimpleFeatureCollection features, File outputFile) throws IOException {
+        return write(features, outputFile, true);
+    }
+
+    private int write(SimpleFeatureCollection features, File outputFile, boolean isWKT)
+            throws IOException {
+        int count = 0;
+        ChannelTextWriter writer = new ChannelTextWriter(outputFile, charset);
+        try {
+            // write fields
+            SimpleFeatureType schema = features.getSchema();
+            column = 0;
+            for (AttributeDescriptor descriptor : schema.getAttributeDescriptors()) {
+                if (!isWKT && descriptor instanceof GeometryDescriptor) {
+                    continue;
+                }
+                appendDelimiter();
+                appendText(descriptor.getLocalName());
+            }
+            if (!isWKT) {
+                appendDelimiter();
+                sb.append("xcoord").append(delimiter).append("ycoord");
+            }
+            writer.write(sb.append(NEW_LINE));
+
+            // write contents
+            SimpleFeatureIterator featureIter = features.features();
+            try {
+                while (featureIter.hasNext()) {
+                    SimpleFeature feature = featureIter.next();
+                    sb.setLength(0);
+                    column = 0;
+                    for (Object value : feature.getAttributes()) {
+                        if (value instanceof Geometry) {
+                            if (isWKT) {
+                                appendDelimiter();
+                                appendWKT((Geometry) value);
+                            }
+                        } else {
+                            appendDelimiter();
+                            appendValue(value);
+                        }
+                    }
+                    if (!isWKT) {
+                        appendDelimiter();
+                        appendXY((Geometry) feature.getDefaultGeometry());
+                    }
+                    writer.write(sb.append(NEW_LINE));
+                    count++;
+                }
+            } finally {
+                featureIter.close();
+            }
+            writer.close();
+        } finally {
+            closeQuietly(writer);
+            sb.setLength(0);
+        }
+        return count;
+    }
+
+    private void closeQuietly(ChannelTextWriter writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        }
+    }
+
+    // the first value of a line has no delimiter, null values are empty
+    private void appendDelimiter() {
+        if (column++ > 0) {
+            sb.append(delimiter);
+        }
+    }
+
+    private void appendValue(Object value) {
+        if (value == null) {
+            return;
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            sb.append(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            sb.append(((Number) value).doubleValue());
+        } else {
+            appendText(value.toString());
+        }
+    }
+
+    private void appendText(CharSequence text) {
+        if (!needsQuotes(text)) {
+            sb.append(text);
+            return;
+        }
+
+        sb.append('"');
+        for (int index = 0; index < text.length(); index++) {
+            char c = text.charAt(index);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    private boolean needsQuotes(CharSequence text) {
+        char first = delimiter.length() > 0 ? delimiter.charAt(0) : '\0';
+        for (int index = 0; index < text.length(); index++) {
+            char c = text.charAt(index);
+            if (c == '"' || c == '\n' || c == '\r') {
+                return true;
+            } else if (c == first && startsWith(text, index, delimiter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean startsWith(CharSequence text, int offset, String prefix) {
+        if (offset + prefix.length() > text.length()) {
+            return false;
+        }
+        for (int index = 0; index < prefix.length(); index++) {
+            if (text.charAt(offset + index) != prefix.charAt(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void appendXY(Geometry geometry) {
+        if (geometry == null || geometry.isEmpty()) {
+            sb.append(delimiter);
+            return;
+        }
+
+        if (geometry instanceof Point) {
+            CoordinateSequence sequence = ((Point) geometry).getCoordinateSequence();
+            formatter.format(sequence.getOrdinate(0, CoordinateSequence.X), sb);
+            sb.append(delimiter);
+            formatter.format(sequence.getOrdinate(0, CoordinateSequence.Y), sb);
+        } else {
+            Point centroid = geometry.getCentroid();
+            formatter.format(centroid.getX(), sb);
+            sb.append(delimiter);
+            formatter.format(centroid.getY(), sb);
+        }
+    }
+
+    private void appendWKT(Geometry geometry) {
+        wkt.setLength(0);
+        writeWKT(geometry, true);
+        appendText(wkt);
+    }
+
+    // 2D WKT as written by Geometry.toText()
+    private void writeWKT(Geometry geometry, boolean tagged) {
+        if (geometry instanceof Point) {
+            tag(tagged, "POINT ");
+            writeSequence(((Point) geometry).getCoordinateSequence());
+        } else if (geometry instanceof LineString) {
+            tag(tagged, "LINESTRING ");
+            writeSequence(((LineString) geometry).getCoordinateSequence());
+        } else if (geometry instanceof Polygon) {
+            tag(tagged, "POLYGON ");
+            Polygon polygon = (Polygon) geometry;
+            if (polygon.isEmpty()) {
+                wkt.append("EMPTY");
+                return;
+            }
+            wkt.append('(');
+            writeSequence(polygon.getExteriorRing().getCoordinateSequence());
+            for (int index = 0; index < polygon.getNumInteriorRing(); index++) {
+                wkt.append(", ");
+                writeSequence(polygon.getInteriorRingN(index).getCoordinateSequence());
+            }
+            wkt.append(')');
+        } else if (geometry instanceof GeometryCollection) {
+            boolean typed = true;
+            if (geometry instanceof MultiPoint) {
+                wkt.append("MULTIPOINT ");
+            } else if (geometry instanceof MultiLineString) {
+                wkt.append("MULTILINESTRING ");
+            } else if (geometry instanceof MultiPolygon) {
+                wkt.append("MULTIPOLYGON ");
+            } else {
+                wkt.append("GEOMETRYCOLLECTION ");
+                typed = false;
+            }
+
+            if (geometry.isEmpty()) {
+                wkt.append("EMPTY");
+                return;
+            }
+            wkt.append('(');
+            for (int index = 0; index < geometry.getNumGeometries(); index++) {
+                if (index > 0) {
+                    wkt.append(", ");
+                }
+                writeWKT(geometry.getGeometryN(index), !typed);
+            }
+            wkt.append(')');
+        }
+    }
+
+    private void tag(boolean tagged, String tag) {
+        if (tagged) {
+            wkt.append(tag);
+        }
+    }
+
+    private void writeSequence(CoordinateSequence sequence) {
+        if (sequence.size() == 0) {
+            wkt.append("EMPTY");
+            return;
+        }
+        wkt.append('(');
+        for (int index = 0; index < sequence.size(); index++) {
+            if (index > 0) {
+                wkt.append(", ");
+            }
+            formatter.format(sequence.getOrdinate(index, CoordinateSequence.X), wkt);
+            wkt.append(' ');
+            formatter.format(sequence.getOrdinate(index, CoordinateSequence.Y), wkt);
+        }
+        wkt.append(')');
+    }
+}
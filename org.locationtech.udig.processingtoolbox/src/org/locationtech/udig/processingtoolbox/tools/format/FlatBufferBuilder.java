@@ -0,0 +1,322 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Minimal FlatBuffers builder and reader used by the FlatGeobuf writer and reader, the tables of
+ * the FlatGeobuf schema are few and small.
+ * <p>
+ * As in the FlatBuffers library, the buffer is built from the end: the children of a table are
+ * created before the table, then the table is closed with its vtable and the root table is
+ * finished with an optional size prefix. The builder can be cleared and reused for each feature.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+final class FlatBufferBuilder {
+
+    static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    static final int SIZEOF_SHORT = 2;
+
+    static final int SIZEOF_INT = 4;
+
+    static final int SIZEOF_LONG = 8;
+
+    private ByteBuffer bb;
+
+    private int space; // the data is in [space, capacity)
+
+    private int minalign = 1;
+
+    private int[] vtable = new int[16];
+
+    private int vtableInUse = 0;
+
+    private int objectStart;
+
+    private int vectorNumElems = 0;
+
+    FlatBufferBuilder(int initialSize) {
+        bb = newBuffer(Math.max(initialSize, 64));
+        space = bb.capacity();
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Clears the builder to build another buffer, the memory is kept
+     */
+    void clear() {
+        space = bb.capacity();
+        minalign = 1;
+        vtableInUse = 0;
+        vectorNumElems = 0;
+    }
+
+    /**
+     * @return offset of the last written data from the end of the buffer
+     */
+    int offset() {
+        return bb.capacity() - space;
+    }
+
+    // aligns the next write of size bytes after additional bytes, growing the buffer if needed
+    private void prep(int size, int additional) {
+        if (size > minalign) {
+            minalign = size;
+        }
+        int alignSize = (~(bb.capacity() - space + additional) + 1) & (size - 1);
+        while (space < alignSize + size + additional) {
+            int oldCapacity = bb.capacity();
+            ByteBuffer grown = newBuffer(oldCapacity * 2);
+            System.arraycopy(bb.array(), 0, grown.array(), oldCapacity, oldCapacity);
+            bb = grown;
+            space += oldCapacity;
+        }
+        for (int index = 0; index < alignSize; index++) {
+            bb.put(--space, (byte) 0);
+        }
+    }
+
+    void addByte(byte value) {
+        prep(1, 0);
+        bb.put(--space, value);
+    }
+
+    void addShort(short value) {
+        prep(SIZEOF_SHORT, 0);
+        bb.putShort(space -= SIZEOF_SHORT, value);
+    }
+
+    void addInt(int value) {
+        prep(SIZEOF_INT, 0);
+        bb.putInt(space -= SIZEOF_INT, value);
+    }
+
+    void addLong(long value) {
+        prep(SIZEOF_LONG, 0);
+        bb.putLong(space -= SIZEOF_LONG, value);
+    }
+
+    void addDouble(double value) {
+        prep(SIZEOF_LONG, 0);
+        bb.putDouble(space -= SIZEOF_LONG, value);
+    }
+
+    /**
+     * Adds a reference to an object already built
+     */
+    void addOffset(int offset) {
+        prep(SIZEOF_INT, 0);
+        int relative = offset() - offset + SIZEOF_INT;
+        bb.putInt(space -= SIZEOF_INT, relative);
+    }
+
+    int createString(String value) {
+        byte[] bytes = value.getBytes(UTF8);
+        addByte((byte) 0);
+        startVector(1, bytes.length, 1);
+        space -= bytes.length;
+        System.arraycopy(bytes, 0, bb.array(), space, bytes.length);
+        return endVector();
+    }
+
+    int createByteVector(byte[] bytes, int length) {
+        startVector(1, length, 1);
+        space -= length;
+        System.arraycopy(bytes, 0, bb.array(), space, length);
+        return endVector();
+    }
+
+    int createDoubleVector(double[] values, int start, int length) {
+        startVector(SIZEOF_LONG, length, SIZEOF_LONG);
+        for (int index = start + length - 1; index >= start; index--) {
+            addDouble(values[index]);
+        }
+        return endVector();
+    }
+
+    int createIntVector(int[] values, int length) {
+        startVector(SIZEOF_INT, length, SIZEOF_INT);
+        for (int index = length - 1; index >= 0; index--) {
+            addInt(values[index]);
+        }
+        return endVector();
+    }
+
+    int createOffsetVector(int[] offsets, int length) {
+        startVector(SIZEOF_INT, length, SIZEOF_INT);
+        for (int index = length - 1; index >= 0; index--) {
+            addOffset(offsets[index]);
+        }
+        return endVector();
+    }
+
+    private void startVector(int elemSize, int numElems, int alignment) {
+        vectorNumElems = numElems;
+        prep(SIZEOF_INT, elemSize * numElems);
+        prep(alignment, elemSize * numElems);
+    }
+
+    private int endVector() {
+        bb.putInt(space -= SIZEOF_INT, vectorNumElems); // aligned by startVector
+        return offset();
+    }
+
+    void startTable(int numFields) {
+        if (vtable.length < numFields) {
+            vtable = new int[numFields];
+        }
+        vtableInUse = numFields;
+        Arrays.fill(vtable, 0, numFields, 0);
+        objectStart = offset();
+    }
+
+    // field values equal to their schema default are not written
+    void addByte(int field, byte value, byte defaultValue) {
+        if (value != defaultValue) {
+            addByte(value);
+            vtable[field] = offset();
+        }
+    }
+
+    void addBoolean(int field, boolean value, boolean defaultValue) {
+        addByte(field, (byte) (value ? 1 : 0), (byte) (defaultValue ? 1 : 0));
+    }
+
+    void addShort(int field, short value, short defaultValue) {
+        if (value != defaultValue) {
+            addShort(value);
+            vtable[field] = offset();
+        }
+    }
+
+    void addInt(int field, int value, int defaultValue) {
+        if (value != defaultValue) {
+            addInt(value);
+            vtable[field] = offset();
+        }
+    }
+
+    void addLong(int field, long value, long defaultValue) {
+        if (value != defaultValue) {
+            addLong(value);
+            vtable[field] = offset();
+        }
+    }
+
+    /**
+     * Adds a reference field, 0 is an absent object
+     */
+    void addOffset(int field, int offset) {
+        if (offset != 0) {
+            addOffset(offset);
+            vtable[field] = offset();
+        }
+    }
+
+    int endTable() {
+        addInt(0); // offset to the vtable
+        int tableOffset = offset();
+        int last = vtableInUse - 1;
+        while (last >= 0 && vtable[last] == 0) {
+            last--;
+        }
+        for (int index = last; index >= 0; index--) {
+            addShort((short) (vtable[index] != 0 ? tableOffset - vtable[index] : 0));
+        }
+        addShort((short) (tableOffset - objectStart));
+        addShort((short) ((last + 1 + 2) * SIZEOF_SHORT));
+        bb.putInt(bb.capacity() - tableOffset, offset() - tableOffset);
+        vtableInUse = 0;
+        return tableOffset;
+    }
+
+    /**
+     * Finishes the buffer with its root table, prefixed by the size of the buffer
+     */
+    void finishSizePrefixed(int rootTable) {
+        prep(minalign, SIZEOF_INT * 2);
+        addOffset(rootTable);
+        addInt(offset());
+    }
+
+    byte[] array() {
+        return bb.array();
+    }
+
+    /**
+     * @return start of the finished buffer in {@link #array()}
+     */
+    int dataStart() {
+        return space;
+    }
+
+    // read helpers, the buffer of a table is little endian and starts at position 0
+
+    /**
+     * @return position of the root table of a buffer without size prefix
+     */
+    static int root(ByteBuffer buffer) {
+        return buffer.getInt(0);
+    }
+
+    /**
+     * @return position of a field of a table, 0 if the field is absent
+     */
+    static int field(ByteBuffer buffer, int table, int field) {
+        int vtable = table - buffer.getInt(table);
+        int vtableOffset = SIZEOF_INT + field * SIZEOF_SHORT;
+        if (vtableOffset >= buffer.getShort(vtable)) {
+            return 0;
+        }
+        int offset = buffer.getShort(vtable + vtableOffset);
+        return offset == 0 ? 0 : table + offset;
+    }
+
+    /**
+     * @return position of the object referenced by a field
+     */
+    static int indirect(ByteBuffer buffer, int position) {
+        return position + buffer.getInt(position);
+    }
+
+    /**
+     * @return number of elements of the vector referenced by a field
+     */
+    static int vectorLength(ByteBuffer buffer, int fieldPosition) {
+        return buffer.getInt(indirect(buffer, fieldPosition));
+    }
+
+    /**
+     * @return position of the first element of the vector referenced by a field
+     */
+    static int vector(ByteBuffer buffer, int fieldPosition) {
+        return indirect(buffer, fieldPosition) + SIZEOF_INT;
+    }
+
+    static String string(ByteBuffer buffer, int fieldPosition) {
+        if (fieldPosition == 0) {
+            return null;
+        }
+        int length = vectorLength(buffer, fieldPosition);
+        return new String(buffer.array(), buffer.arrayOffset() + vector(buffer, fieldPosition),
+                length, UTF8);
+    }
+}
@@ -0,0 +1,675 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FilenameUtils;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.BaseSimpleFeatureCollection;
+import org.geotools.feature.collection.FilteringSimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Features of a FlatGeobuf file, read from the file by each iterator.
+ * <p>
+ * The header is read when the file is opened. A filter with a spatial extent reads the nodes of
+ * the packed R-tree intersecting the extent, then only the features of the matching leaves, in
+ * the order of the file. The feature ids are the type name followed by the position of the
+ * feature in the file.
+ * 
+ * <pre>
+ * FlatGeobufFeatureCollection features = FlatGeobufFeatureCollection.open(file);
+ * SimpleFeatureCollection subset = features.subCollection(ff.bbox(...));
+ * </pre>
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class FlatGeobufFeatureCollection extends BaseSimpleFeatureCollection {
+    protected static final Logger LOGGER = Logging.getLogger(FlatGeobufFeatureCollection.class);
+
+    static final String GEOMETRY_NAME = "the_geom";
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    private final long featuresCount;
+
+    private final int nodeSize;
+
+    private final long indexOffset;
+
+    private final long featuresOffset;
+
+    private final ReferencedEnvelope bounds;
+
+    private final byte geometryType;
+
+    private final byte[] columnTypes;
+
+    private FlatGeobufFeatureCollection(SimpleFeatureType schema, File file, long featuresCount,
+            int nodeSize, long indexOffset, ReferencedEnvelope bounds, byte geometryType,
+            byte[] columnTypes) {
+        super(schema);
+        this.file = file;
+        this.featuresCount = featuresCount;
+        this.nodeSize = nodeSize;
+        this.indexOffset = indexOffset;
+        this.featuresOffset = indexOffset
+                + (hasIndex() ? PackedRTree.size(featuresCount, nodeSize) : 0);
+        this.bounds = bounds;
+        this.geometryType = geometryType;
+        this.columnTypes = columnTypes;
+    }
+
+    /**
+     * Opens a FlatGeobuf file and reads its header
+     */
+    public static FlatGeobufFeatureCollection open(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            ByteBuffer prefix = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, prefix, 0);
+            for (int index = 0; index < 3; index++) {
+                if (prefix.get(index) != FlatGeobufWriter.MAGIC[index]
+                        || prefix.get(index + 4) != FlatGeobufWriter.MAGIC[index]) {
+                    throw new IOException("Not a FlatGeobuf file: " + file.getPath());
+                }
+            }
+
+            int headerSize = prefix.getInt(8);
+            ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, prefix.capacity());
+            return open(file, header, prefix.capacity() + headerSize);
+        } finally {
+            fis.close();
+        }
+    }
+
+    private static FlatGeobufFeatureCollection open(File file, ByteBuffer bb, long indexOffset) {
+        int table = FlatBufferBuilder.root(bb);
+
+        String typeName = FlatBufferBuilder.string(bb, FlatBufferBuilder.field(bb, table, 0));
+        if (typeName == null || typeName.length() == 0) {
+            typeName = FilenameUtils.getBaseName(file.getName());
+        }
+
+        int field = FlatBufferBuilder.field(bb, table, 2);
+        byte geometryType = field == 0 ? FlatGeobufWriter.UNKNOWN : bb.get(field);
+
+        field = FlatBufferBuilder.field(bb, table, 8);
+        long featuresCount = field == 0 ? 0 : bb.getLong(field);
+
+        field = FlatBufferBuilder.field(bb, table, 9);
+        int nodeSize = field == 0 ? PackedRTree.DEFAULT_NODE_SIZE : bb.getShort(field) & 0xFFFF;
+
+        CoordinateReferenceSystem crs = null;
+        field = FlatBufferBuilder.field(bb, table, 10);
+        if (field != 0) {
+            crs = readCRS(bb, FlatBufferBuilder.indirect(bb, field));
+        }
+
+        ReferencedEnvelope bounds = new ReferencedEnvelope(crs);
+        field = FlatBufferBuilder.field(bb, table, 1);
+        if (field != 0 && FlatBufferBuilder.vectorLength(bb, field) >= 4) {
+            int pos = FlatBufferBuilder.vector(bb, field);
+            bounds.init(bb.getDouble(pos), bb.getDouble(pos + 16), bb.getDouble(pos + 8),
+                    bb.getDouble(pos + 24));
+        }
+
+        SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName(typeName);
+        typeBuilder.setCRS(crs);
+        typeBuilder.add(GEOMETRY_NAME, toBinding(geometryType), crs);
+
+        byte[] columnTypes = new byte[0];
+        field = FlatBufferBuilder.field(bb, table, 7);
+        if (field != 0) {
+            columnTypes = new byte[FlatBufferBuilder.vectorLength(bb, field)];
+            int pos = FlatBufferBuilder.vector(bb, field);
+            for (int column = 0; column < columnTypes.length; column++) {
+                int columnTable = FlatBufferBuilder.indirect(bb, pos + column * 4);
+                String name = FlatBufferBuilder.string(bb,
+                        FlatBufferBuilder.field(bb, columnTable, 0));
+                int typeField = FlatBufferBuilder.field(bb, columnTable, 1);
+                columnTypes[column] = typeField == 0 ? FlatGeobufWriter.BYTE : bb.get(typeField);
+
+                int widthField = FlatBufferBuilder.field(bb, columnTable, 4);
+                if (widthField != 0 && bb.getInt(widthField) > 0) {
+                    typeBuilder.length(bb.getInt(widthField));
+                }
+                typeBuilder.add(name, toBinding(columnTypes[column]));
+            }
+        }
+
+        return new FlatGeobufFeatureCollection(typeBuilder.buildFeatureType(), file,
+                featuresCount, nodeSize, indexOffset, bounds, geometryType, columnTypes);
+    }
+
+    private static CoordinateReferenceSystem readCRS(ByteBuffer bb, int table) {
+        String org = FlatBufferBuilder.string(bb, FlatBufferBuilder.field(bb, table, 0));
+        int field = FlatBufferBuilder.field(bb, table, 1);
+        int code = field == 0 ? 0 : bb.getInt(field);
+        String wkt = FlatBufferBuilder.string(bb, FlatBufferBuilder.field(bb, table, 4));
+        try {
+            if (code > 0 && (org == null || org.equalsIgnoreCase("EPSG"))) {
+                return CRS.decode("EPSG:" + code, true); // x, y as written
+            } else if (wkt != null && wkt.length() > 0) {
+                return CRS.parseWKT(wkt);
+            }
+        } catch (FactoryException e) {
+            LOGGER.log(Level.WARNING, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    static Class<?> toBinding(byte geometryType) {
+        switch (geometryType) {
+        case FlatGeobufWriter.POINT:
+            return Point.class;
+        case FlatGeobufWriter.LINESTRING:
+            return LineString.class;
+        case FlatGeobufWriter.POLYGON:
+            return Polygon.class;
+        case FlatGeobufWriter.MULTIPOINT:
+            return MultiPoint.class;
+        case FlatGeobufWriter.MULTILINESTRING:
+            return MultiLineString.class;
+        case FlatGeobufWriter.MULTIPOLYGON:
+            return MultiPolygon.class;
+        case FlatGeobufWriter.GEOMETRYCOLLECTION:
+            return GeometryCollection.class;
+        default:
+            return Geometry.class;
+        }
+    }
+
+    private static Class<?> toBinding(int columnType) {
+        switch (columnType) {
+        case FlatGeobufWriter.BYTE:
+            return Byte.class;
+        case FlatGeobufWriter.BOOL:
+            return Boolean.class;
+        case FlatGeobufWriter.UBYTE:
+        case FlatGeobufWriter.SHORT:
+            return Short.class;
+        case FlatGeobufWriter.USHORT:
+        case FlatGeobufWriter.INT:
+            return Integer.class;
+        case FlatGeobufWriter.UINT:
+        case FlatGeobufWriter.LONG:
+        case FlatGeobufWriter.ULONG:
+            return Long.class;
+        case FlatGeobufWriter.FLOAT:
+            return Float.class;
+        case FlatGeobufWriter.DOUBLE:
+            return Double.class;
+        case FlatGeobufWriter.DATETIME:
+            return Date.class;
+        case FlatGeobufWriter.BINARY:
+            return byte[].class;
+        default:
+            return String.class; // String, Json
+        }
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of the FlatGeobuf file");
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return true if the file has a spatial index
+     */
+    public boolean hasIndex() {
+        return nodeSize > 0 && featuresCount > 0;
+    }
+
+    @Override
+    public SimpleFeatureIterator features() {
+        try {
+            return new FlatGeobufFeatureIterator(null);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public SimpleFeatureCollection subCollection(Filter filter) {
+        if (filter == Filter.INCLUDE) {
+            return this;
+        }
+
+        Envelope extent = (Envelope) filter.accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR,
+                null);
+        if (!hasIndex() || extent == null || bounds.isNull() || extent.covers(bounds)) {
+            return super.subCollection(filter);
+        }
+        return new FilteringSimpleFeatureCollection(new IndexedSubCollection(extent), filter);
+    }
+
+    /**
+     * @return offset and position of the features whose bounds intersect the extent, in the
+     *         order of the file
+     */
+    long[][] query(Envelope extent) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return PackedRTree.search(raf.getChannel(), indexOffset, featuresCount, nodeSize,
+                    extent);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(featuresCount, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public ReferencedEnvelope getBounds() {
+        return new ReferencedEnvelope(bounds);
+    }
+
+    /**
+     * Features of the file whose bounds intersect an extent, read by their offsets
+     */
+    final class IndexedSubCollection extends BaseSimpleFeatureCollection {
+        private final Envelope extent;
+
+        IndexedSubCollection(Envelope extent) {
+            super(FlatGeobufFeatureCollection.this.getSchema());
+            this.extent = extent;
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            try {
+                return new FlatGeobufFeatureIterator(query(extent));
+            } catch (IOException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+    }
+
+    final class FlatGeobufFeatureIterator implements SimpleFeatureIterator {
+        private final RandomAccessFile raf;
+
+        private final FileChannel channel;
+
+        private final long[][] hits;
+
+        private int cursor = 0;
+
+        private long position = featuresOffset;
+
+        // read ahead window of the file
+        private ByteBuffer window = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private long windowStart = -1;
+
+        private ByteBuffer feature = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+
+        private final GeometryFactory factory = new GeometryFactory();
+
+        private final SimpleFeatureBuilder builder;
+
+        private final Object[] values;
+
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat(
+                FlatGeobufWriter.DATE_PATTERN);
+
+        private SimpleFeature next;
+
+        private boolean closed = false;
+
+        /**
+         * @param hits offsets and positions of the features to read, null to read all
+         */
+        public FlatGeobufFeatureIterator(long[][] hits) throws IOException {
+            this.raf = new RandomAccessFile(file, "r");
+            this.channel = raf.getChannel();
+            this.hits = hits;
+            this.builder = new SimpleFeatureBuilder(getSchema());
+            this.values = new Object[columnTypes.length + 1];
+            this.window.limit(0);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINER, e.getMessage(), e);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (closed) {
+                return false;
+            }
+
+            long featureIndex;
+            if (hits == null) {
+                featureIndex = cursor++;
+                if (featureIndex >= featuresCount) {
+                    close();
+                    return false;
+                }
+            } else {
+                if (cursor == hits.length) {
+                    close();
+                    return false;
+                }
+                position = featuresOffset + hits[cursor][0];
+                featureIndex = hits[cursor++][1];
+            }
+
+            try {
+                read(position, 4);
+                int size = window.getInt(window.position());
+                read(position + 4, size);
+                if (feature.capacity() < size) {
+                    feature = ByteBuffer.allocate(Math.max(size, feature.capacity() * 2))
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                }
+                System.arraycopy(window.array(), window.position(), feature.array(), 0, size);
+                position += 4 + size;
+
+                next = readFeature(getSchema().getTypeName() + "." + (featureIndex + 1));
+            } catch (IOException e) {
+                close();
+                throw new RuntimeException(e.getMessage(), e);
+            }
+            return true;
+        }
+
+        // positions the window at the bytes of the file
+        private void read(long start, int length) throws IOException {
+            if (windowStart >= 0 && start >= windowStart
+                    && start + length <= windowStart + window.limit()) {
+                window.position((int) (start - windowStart));
+                return;
+            }
+
+            if (window.capacity() < length) {
+                window = ByteBuffer.allocate(length);
+            }
+            window.clear();
+            int read = 0;
+            while (window.hasRemaining()) {
+                int count = channel.read(window, start + window.position());
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            if (read < length) {
+                throw new IOException("Unexpected end of the FlatGeobuf file");
+            }
+            window.flip();
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            windowStart = start;
+        }
+
+        private SimpleFeature readFeature(String id) {
+            Arrays.fill(values, null);
+            ByteBuffer bb = feature;
+            int table = FlatBufferBuilder.root(bb);
+
+            int field = FlatBufferBuilder.field(bb, table, 0);
+            if (field != 0) {
+                values[0] = readGeometry(bb, FlatBufferBuilder.indirect(bb, field),
+                        geometryType);
+            }
+
+            field = FlatBufferBuilder.field(bb, table, 1);
+            if (field != 0) {
+                int pos = FlatBufferBuilder.vector(bb, field);
+                int end = pos + FlatBufferBuilder.vectorLength(bb, field);
+                while (pos < end) {
+                    int column = bb.getShort(pos) & 0xFFFF;
+                    pos += 2;
+                    pos = readValue(bb, pos, column);
+                }
+            }
+
+            builder.addAll(values);
+            return builder.buildFeature(id);
+        }
+
+        /**
+         * @return position after the value
+         */
+        private int readValue(ByteBuffer bb, int pos, int column) {
+            switch (columnTypes[column]) {
+            case FlatGeobufWriter.BYTE:
+                values[column + 1] = Byte.valueOf(bb.get(pos));
+                return pos + 1;
+            case FlatGeobufWriter.UBYTE:
+                values[column + 1] = Short.valueOf((short) (bb.get(pos) & 0xFF));
+                return pos + 1;
+            case FlatGeobufWriter.BOOL:
+                values[column + 1] = Boolean.valueOf(bb.get(pos) != 0);
+                return pos + 1;
+            case FlatGeobufWriter.SHORT:
+                values[column + 1] = Short.valueOf(bb.getShort(pos));
+                return pos + 2;
+            case FlatGeobufWriter.USHORT:
+                values[column + 1] = Integer.valueOf(bb.getShort(pos) & 0xFFFF);
+                return pos + 2;
+            case FlatGeobufWriter.INT:
+                values[column + 1] = Integer.valueOf(bb.getInt(pos));
+                return pos + 4;
+            case FlatGeobufWriter.UINT:
+                values[column + 1] = Long.valueOf(bb.getInt(pos) & 0xFFFFFFFFL);
+                return pos + 4;
+            case FlatGeobufWriter.LONG:
+            case FlatGeobufWriter.ULONG:
+                values[column + 1] = Long.valueOf(bb.getLong(pos));
+                return pos + 8;
+            case FlatGeobufWriter.FLOAT:
+                values[column + 1] = Float.valueOf(bb.getFloat(pos));
+                return pos + 4;
+            case FlatGeobufWriter.DOUBLE:
+                values[column + 1] = Double.valueOf(bb.getDouble(pos));
+                return pos + 8;
+            case FlatGeobufWriter.BINARY:
+                int size = bb.getInt(pos);
+                values[column + 1] = Arrays.copyOfRange(bb.array(), pos + 4, pos + 4 + size);
+                return pos + 4 + size;
+            default:
+                int length = bb.getInt(pos);
+                String text = new String(bb.array(), pos + 4, length, FlatBufferBuilder.UTF8);
+                values[column + 1] = columnTypes[column] == FlatGeobufWriter.DATETIME ? toDate(text)
+                        : text;
+                return pos + 4 + length;
+            }
+        }
+
+        private Date toDate(String text) {
+            try {
+                return dateFormat.parse(text);
+            } catch (ParseException e) {
+                return Converters.convert(text, Date.class); // other ISO 8601 forms
+            }
+        }
+
+        private Geometry readGeometry(ByteBuffer bb, int table, byte type) {
+            if (type == FlatGeobufWriter.UNKNOWN) {
+                int field = FlatBufferBuilder.field(bb, table, 6);
+                type = field == 0 ? FlatGeobufWriter.UNKNOWN : bb.get(field);
+            }
+
+            int partsField = FlatBufferBuilder.field(bb, table, 7);
+            if (partsField != 0) {
+                // MultiPolygon and GeometryCollection
+                Geometry[] parts = new Geometry[FlatBufferBuilder.vectorLength(bb, partsField)];
+                int pos = FlatBufferBuilder.vector(bb, partsField);
+                byte partType = type == FlatGeobufWriter.MULTIPOLYGON ? FlatGeobufWriter.POLYGON
+                        : FlatGeobufWriter.UNKNOWN;
+                for (int index = 0; index < parts.length; index++) {
+                    int part = FlatBufferBuilder.indirect(bb, pos + index * 4);
+                    parts[index] = readGeometry(bb, part, partType);
+                }
+                if (type == FlatGeobufWriter.MULTIPOLYGON) {
+                    return factory.createMultiPolygon(Arrays.copyOf(parts, parts.length,
+                            Polygon[].class));
+                }
+                return factory.createGeometryCollection(parts);
+            }
+
+            Coordinate[] coordinates = readCoordinates(bb, table);
+            int[] ends = readEnds(bb, table, coordinates.length);
+            switch (type) {
+            case FlatGeobufWriter.POINT:
+                return factory.createPoint(coordinates.length == 0 ? null : coordinates[0]);
+            case FlatGeobufWriter.MULTIPOINT:
+                return factory.createMultiPoint(coordinates);
+            case FlatGeobufWriter.LINESTRING:
+                return factory.createLineString(coordinates);
+            case FlatGeobufWriter.MULTILINESTRING:
+                LineString[] lines = new LineString[ends.length];
+                for (int index = 0; index < lines.length; index++) {
+                    lines[index] = factory.createLineString(part(coordinates, ends, index));
+                }
+                return factory.createMultiLineString(lines);
+            case FlatGeobufWriter.POLYGON:
+                return readPolygon(coordinates, ends);
+            case FlatGeobufWriter.MULTIPOLYGON:
+                return factory.createMultiPolygon(new Polygon[] { readPolygon(coordinates,
+                        ends) });
+            default:
+                return null;
+            }
+        }
+
+        private Polygon readPolygon(Coordinate[] coordinates, int[] ends) {
+            if (coordinates.length == 0) {
+                return factory.createPolygon((LinearRing) null, null);
+            }
+            LinearRing shell = factory.createLinearRing(part(coordinates, ends, 0));
+            LinearRing[] holes = new LinearRing[ends.length - 1];
+            for (int index = 0; index < holes.length; index++) {
+                holes[index] = factory.createLinearRing(part(coordinates, ends, index + 1));
+            }
+            return factory.createPolygon(shell, holes);
+        }
+
+        private Coordinate[] part(Coordinate[] coordinates, int[] ends, int index) {
+            int start = index == 0 ? 0 : ends[index - 1];
+            return Arrays.copyOfRange(coordinates, start, ends[index]);
+        }
+
+        private Coordinate[] readCoordinates(ByteBuffer bb, int table) {
+            int xyField = FlatBufferBuilder.field(bb, table, 1);
+            if (xyField == 0) {
+                return new Coordinate[0];
+            }
+
+            Coordinate[] coordinates = new Coordinate[FlatBufferBuilder.vectorLength(bb,
+                    xyField) / 2];
+            int xy = FlatBufferBuilder.vector(bb, xyField);
+            int zField = FlatBufferBuilder.field(bb, table, 2);
+            int z = zField == 0 ? 0 : FlatBufferBuilder.vector(bb, zField);
+            for (int index = 0; index < coordinates.length; index++) {
+                coordinates[index] = new Coordinate(bb.getDouble(xy + index * 16),
+                        bb.getDouble(xy + index * 16 + 8), z == 0 ? Double.NaN
+                                : bb.getDouble(z + index * 8));
+            }
+            return coordinates;
+        }
+
+        // the ends of the parts, a single part if there are no ends
+        private int[] readEnds(ByteBuffer bb, int table, int numPoints) {
+            int field = FlatBufferBuilder.field(bb, table, 0);
+            if (field == 0) {
+                return new int[] { numPoints };
+            }
+
+            int[] ends = new int[FlatBufferBuilder.vectorLength(bb, field)];
+            int pos = FlatBufferBuilder.vector(bb, field);
+            for (int index = 0; index < ends.length; index++) {
+                ends[index] = bb.getInt(pos + index * 4);
+            }
+            return ends;
+        }
+
+        @Override
+        public SimpleFeature next() throws NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("hasNext() returned false!");
+            }
+            SimpleFeature result = next;
+            next = null;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,652 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.FeatureTypes;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * FlatGeobuf (version 3) writer with a packed Hilbert R-tree index.
+ * <p>
+ * The index precedes the features in the file and the features are stored in the order of the
+ * tree, so the features are encoded once to a spool file next to the output while their bounds
+ * are collected, then Hilbert sorted and copied after the header and the index. The memory used
+ * is the bounds and the offset of each feature.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class FlatGeobufWriter {
+    protected static final Logger LOGGER = Logging.getLogger(FlatGeobufWriter.class);
+
+    static final byte[] MAGIC = { 0x66, 0x67, 0x62, 0x03, 0x66, 0x67, 0x62, 0x00 };
+
+    static final String DATE_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
+
+    // geometry types
+    static final byte UNKNOWN = 0;
+
+    static final byte POINT = 1;
+
+    static final byte LINESTRING = 2;
+
+    static final byte POLYGON = 3;
+
+    static final byte MULTIPOINT = 4;
+
+    static final byte MULTILINESTRING = 5;
+
+    static final byte MULTIPOLYGON = 6;
+
+    static final byte GEOMETRYCOLLECTION = 7;
+
+    // column types
+    static final byte BYTE = 0;
+
+    static final byte UBYTE = 1;
+
+    static final byte BOOL = 2;
+
+    static final byte SHORT = 3;
+
+    static final byte USHORT = 4;
+
+    static final byte INT = 5;
+
+    static final byte UINT = 6;
+
+    static final byte LONG = 7;
+
+    static final byte ULONG = 8;
+
+    static final byte FLOAT = 9;
+
+    static final byte DOUBLE = 10;
+
+    static final byte STRING = 11;
+
+    static final byte JSON = 12;
+
+    static final byte DATETIME = 13;
+
+    static final byte BINARY = 14;
+
+    static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final int nodeSize;
+
+    private final FlatBufferBuilder builder = new FlatBufferBuilder(16 * 1024);
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_PATTERN);
+
+    private ByteBuffer properties = newBuffer(1024);
+
+    private double[] xy = new double[1024];
+
+    private double[] z = new double[512];
+
+    private int[] ends = new int[16];
+
+    private int numPoints;
+
+    private int numEnds;
+
+    private boolean hasZ;
+
+    // attribute index and column type of the columns
+    private int[] attributes;
+
+    private byte[] columnTypes;
+
+    public FlatGeobufWriter() {
+        this(PackedRTree.DEFAULT_NODE_SIZE);
+    }
+
+    /**
+     * @param nodeSize number of children of the nodes of the index, 0 to write no index
+     */
+    public FlatGeobufWriter(int nodeSize) {
+        if (nodeSize == 1 || nodeSize < 0 || nodeSize > 0xFFFF) {
+            String msg = "Node size must be 0 or between 2 and 65535: " + nodeSize;
+            throw new IllegalArgumentException(msg);
+        }
+        this.nodeSize = nodeSize;
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return number of features written
+     */
+    public int write(SimpleFeatureCollection features, File outputFile) throws IOException {
+        SimpleFeatureType schema = features.getSchema();
+        createColumns(schema);
+
+        Class<?> binding = schema.getGeometryDescriptor() == null ? null : schema
+                .getGeometryDescriptor().getType().getBinding();
+        byte schemaType = toGeometryType(binding);
+        byte geometryType = -1; // common type of the features
+        hasZ = false;
+
+        Envelope extent = new Envelope();
+        long[] offsets = new long[1024];
+        double[] boxes = new double[1024 * 4];
+        int count = 0;
+
+        File spoolFile = File.createTempFile("fgb", ".tmp", outputFile.getAbsoluteFile()
+                .getParentFile());
+        RandomAccessFile spool = new RandomAccessFile(spoolFile, "rw");
+        try {
+            // 1. encode the features to the spool file
+            FileChannel spoolChannel = spool.getChannel();
+            ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = 0;
+            SimpleFeatureIterator featureIter = features.features();
+            try {
+                while (featureIter.hasNext()) {
+                    SimpleFeature feature = featureIter.next();
+                    Geometry geometry = toSchemaType((Geometry) feature.getDefaultGeometry(),
+                            schemaType);
+                    if (count == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                        boxes = Arrays.copyOf(boxes, count * 2 * 4);
+                    }
+
+                    int pos = count * 4;
+                    if (geometry == null || geometry.isEmpty()) {
+                        Arrays.fill(boxes, pos, pos + 4, Double.NaN);
+                    } else {
+                        Envelope envelope = geometry.getEnvelopeInternal();
+                        boxes[pos] = envelope.getMinX();
+                        boxes[pos + 1] = envelope.getMinY();
+                        boxes[pos + 2] = envelope.getMaxX();
+                        boxes[pos + 3] = envelope.getMaxY();
+                        extent.expandToInclude(envelope);
+
+                        byte type = toGeometryType(geometry.getClass());
+                        geometryType = geometryType == -1 || geometryType == type ? type
+                                : UNKNOWN;
+                    }
+
+                    int length = encodeFeature(feature, geometry);
+                    if (output.remaining() < length) {
+                        flush(output, spoolChannel);
+                        if (output.capacity() < length) {
+                            output = ByteBuffer.allocate(length);
+                        }
+                    }
+                    output.put(builder.array(), builder.dataStart(), length);
+                    offsets[count++] = position;
+                    position += length;
+                }
+            } finally {
+                featureIter.close();
+            }
+            flush(output, spoolChannel);
+
+            // 2. sort the features, the index refers to their offset in the output
+            int[] order = PackedRTree.hilbertSort(boxes, count, extent);
+            double[] sortedBoxes = new double[count * 4];
+            long[] sortedOffsets = new long[count];
+            long featureOffset = 0;
+            for (int index = 0; index < count; index++) {
+                int item = order[index];
+                System.arraycopy(boxes, item * 4, sortedBoxes, index * 4, 4);
+                sortedOffsets[index] = featureOffset;
+                featureOffset += length(offsets, item, count, position);
+            }
+
+            // 3. write the header, the index and the sorted features
+            if (geometryType == -1) {
+                geometryType = schemaType;
+            }
+            int treeNodeSize = count == 0 ? 0 : nodeSize;
+            FileOutputStream fos = new FileOutputStream(outputFile);
+            try {
+                FileChannel channel = fos.getChannel();
+                int length = encodeHeader(schema, extent, geometryType, count, treeNodeSize);
+                output.clear();
+                output.put(MAGIC);
+                flush(output, channel);
+                ByteBuffer header = ByteBuffer.wrap(builder.array(), builder.dataStart(), length);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+
+                if (treeNodeSize > 0) {
+                    PackedRTree.write(sortedBoxes, sortedOffsets, count, treeNodeSize, channel);
+                }
+
+                for (int index = 0; index < count; index++) {
+                    int item = order[index];
+                    copy(spoolChannel, offsets[item], length(offsets, item, count, position),
+                            output, channel);
+                }
+                flush(output, channel);
+            } finally {
+                fos.close();
+            }
+        } finally {
+            spool.close();
+            if (!spoolFile.delete()) {
+                LOGGER.log(Level.WARNING, "Failed to delete " + spoolFile);
+            }
+        }
+        return count;
+    }
+
+    private int length(long[] offsets, int item, int count, long end) {
+        return (int) ((item + 1 < count ? offsets[item + 1] : end) - offsets[item]);
+    }
+
+    private void copy(FileChannel source, long position, int length, ByteBuffer buffer,
+            FileChannel target) throws IOException {
+        if (buffer.remaining() < length) {
+            flush(buffer, target);
+        }
+        if (buffer.capacity() < length) {
+            long transferred = 0;
+            while (transferred < length) {
+                transferred += source.transferTo(position + transferred, length - transferred,
+                        target);
+            }
+            return;
+        }
+
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + length);
+        while (buffer.hasRemaining()) {
+            int read = source.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the spool file");
+            }
+            position += read;
+        }
+        buffer.limit(limit);
+    }
+
+    private void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void createColumns(SimpleFeatureType schema) {
+        List<AttributeDescriptor> descriptors = schema.getAttributeDescriptors();
+        attributes = new int[descriptors.size()];
+        columnTypes = new byte[descriptors.size()];
+        int column = 0;
+        for (int index = 0; index < descriptors.size(); index++) {
+            AttributeDescriptor descriptor = descriptors.get(index);
+            if (descriptor instanceof GeometryDescriptor) {
+                continue;
+            }
+            attributes[column] = index;
+            columnTypes[column++] = toColumnType(descriptor.getType().getBinding());
+        }
+        attributes = Arrays.copyOf(attributes, column);
+        columnTypes = Arrays.copyOf(columnTypes, column);
+    }
+
+    static byte toColumnType(Class<?> binding) {
+        if (binding == Byte.class) {
+            return BYTE;
+        } else if (binding == Boolean.class) {
+            return BOOL;
+        } else if (binding == Short.class) {
+            return SHORT;
+        } else if (binding == Integer.class) {
+            return INT;
+        } else if (binding == Long.class) {
+            return LONG;
+        } else if (binding == Float.class) {
+            return FLOAT;
+        } else if (Number.class.isAssignableFrom(binding)) {
+            return DOUBLE; // Double, BigDecimal...
+        } else if (Date.class.isAssignableFrom(binding)) {
+            return DATETIME;
+        }
+        return STRING;
+    }
+
+    static byte toGeometryType(Class<?> binding) {
+        if (binding == null) {
+            return UNKNOWN;
+        } else if (Point.class.isAssignableFrom(binding)) {
+            return POINT;
+        } else if (LineString.class.isAssignableFrom(binding)) {
+            return LINESTRING;
+        } else if (Polygon.class.isAssignableFrom(binding)) {
+            return POLYGON;
+        } else if (MultiPoint.class.isAssignableFrom(binding)) {
+            return MULTIPOINT;
+        } else if (MultiLineString.class.isAssignableFrom(binding)) {
+            return MULTILINESTRING;
+        } else if (MultiPolygon.class.isAssignableFrom(binding)) {
+            return MULTIPOLYGON;
+        } else if (GeometryCollection.class.isAssignableFrom(binding)) {
+            return GEOMETRYCOLLECTION;
+        }
+        return UNKNOWN;
+    }
+
+    // the single geometries of a multi geometry layer are written as multi geometries
+    private Geometry toSchemaType(Geometry geometry, byte schemaType) {
+        if (geometry instanceof Point && schemaType == MULTIPOINT) {
+            return geometry.getFactory().createMultiPoint(new Point[] { (Point) geometry });
+        } else if (geometry instanceof LineString && schemaType == MULTILINESTRING) {
+            return geometry.getFactory().createMultiLineString(
+                    new LineString[] { (LineString) geometry });
+        } else if (geometry instanceof Polygon && schemaType == MULTIPOLYGON) {
+            return geometry.getFactory().createMultiPolygon(new Polygon[] { (Polygon) geometry });
+        }
+        return geometry;
+    }
+
+    /**
+     * @return size of the encoded header
+     */
+    private int encodeHeader(SimpleFeatureType schema, Envelope extent, byte geometryType,
+            int count, int treeNodeSize) {
+        builder.clear();
+        int name = builder.createString(schema.getTypeName());
+        int envelope = 0;
+        if (!extent.isNull()) {
+            double[] bounds = { extent.getMinX(), extent.getMinY(), extent.getMaxX(),
+                    extent.getMaxY() };
+            envelope = builder.createDoubleVector(bounds, 0, 4);
+        }
+
+        int[] columns = new int[attributes.length];
+        for (int column = 0; column < attributes.length; column++) {
+            AttributeDescriptor descriptor = schema.getDescriptor(attributes[column]);
+            int columnName = builder.createString(descriptor.getLocalName());
+            int width = columnTypes[column] == STRING ? FeatureTypes.getFieldLength(descriptor)
+                    : -1;
+            builder.startTable(11);
+            builder.addOffset(0, columnName);
+            builder.addInt(4, width > 0 ? width : -1, -1);
+            builder.addByte(1, columnTypes[column], BYTE);
+            columns[column] = builder.endTable();
+        }
+        int columnVector = columns.length == 0 ? 0 : builder.createOffsetVector(columns,
+                columns.length);
+        int crs = encodeCRS(schema.getCoordinateReferenceSystem());
+
+        builder.startTable(14);
+        builder.addLong(8, count, 0);
+        builder.addOffset(0, name);
+        builder.addOffset(1, envelope);
+        builder.addOffset(7, columnVector);
+        builder.addOffset(10, crs);
+        builder.addShort(9, (short) treeNodeSize, (short) PackedRTree.DEFAULT_NODE_SIZE);
+        builder.addByte(2, geometryType, UNKNOWN);
+        builder.addBoolean(3, hasZ, false);
+        builder.finishSizePrefixed(builder.endTable());
+        return builder.array().length - builder.dataStart();
+    }
+
+    private int encodeCRS(CoordinateReferenceSystem crs) {
+        if (crs == null) {
+            return 0;
+        }
+
+        Integer epsgCode = null;
+        try {
+            epsgCode = CRS.lookupEpsgCode(crs, true);
+        } catch (FactoryException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        }
+
+        if (epsgCode != null) {
+            int org = builder.createString("EPSG");
+            builder.startTable(6);
+            builder.addOffset(0, org);
+            builder.addInt(1, epsgCode.intValue(), 0);
+            return builder.endTable();
+        }
+
+        int wkt = builder.createString(crs.toWKT());
+        builder.startTable(6);
+        builder.addOffset(4, wkt);
+        return builder.endTable();
+    }
+
+    /**
+     * @return size of the encoded feature with its size prefix
+     */
+    private int encodeFeature(SimpleFeature feature, Geometry geometry) {
+        builder.clear();
+        int geometryTable = 0;
+        if (geometry != null && !geometry.isEmpty()) {
+            geometryTable = encodeGeometry(geometry);
+        }
+
+        properties.clear();
+        for (int column = 0; column < attributes.length; column++) {
+            Object value = feature.getAttribute(attributes[column]);
+            if (value != null) {
+                writeProperty(column, value);
+            }
+        }
+        int propertyVector = properties.position() == 0 ? 0 : builder.createByteVector(
+                properties.array(), properties.position());
+
+        builder.startTable(3);
+        builder.addOffset(0, geometryTable);
+        builder.addOffset(1, propertyVector);
+        builder.finishSizePrefixed(builder.endTable());
+        return builder.array().length - builder.dataStart();
+    }
+
+    private void writeProperty(int column, Object value) {
+        byte[] bytes = null;
+        if (columnTypes[column] == STRING) {
+            bytes = value.toString().getBytes(FlatBufferBuilder.UTF8);
+        } else if (columnTypes[column] == DATETIME) {
+            String text = value instanceof Date ? dateFormat.format((Date) value) : value
+                    .toString();
+            bytes = text.getBytes(FlatBufferBuilder.UTF8);
+        }
+
+        int size = 2 + (bytes == null ? 8 : 4 + bytes.length);
+        if (properties.remaining() < size) {
+            ByteBuffer grown = newBuffer(Math.max(properties.capacity() * 2,
+                    properties.position() + size));
+            properties.flip();
+            properties = grown.put(properties);
+        }
+
+        properties.putShort((short) column);
+        switch (columnTypes[column]) {
+        case BYTE:
+            properties.put(((Number) value).byteValue());
+            break;
+        case BOOL:
+            boolean bool = value instanceof Boolean ? ((Boolean) value).booleanValue() : Boolean
+                    .parseBoolean(value.toString());
+            properties.put((byte) (bool ? 1 : 0));
+            break;
+        case SHORT:
+            properties.putShort(((Number) value).shortValue());
+            break;
+        case INT:
+            properties.putInt(((Number) value).intValue());
+            break;
+        case LONG:
+            properties.putLong(((Number) value).longValue());
+            break;
+        case FLOAT:
+            properties.putFloat(((Number) value).floatValue());
+            break;
+        case DOUBLE:
+            properties.putDouble(((Number) value).doubleValue());
+            break;
+        default:
+            properties.putInt(bytes.length);
+            properties.put(bytes);
+            break;
+        }
+    }
+
+    /**
+     * @return offset of the geometry table
+     */
+    private int encodeGeometry(Geometry geometry) {
+        byte type = toGeometryType(geometry.getClass());
+        numPoints = 0;
+        numEnds = 0;
+        int parts = 0;
+        switch (type) {
+        case POINT:
+        case LINESTRING:
+            addPoints(geometry instanceof Point ? ((Point) geometry).getCoordinateSequence()
+                    : ((LineString) geometry).getCoordinateSequence());
+            break;
+        case MULTIPOINT:
+            for (int index = 0; index < geometry.getNumGeometries(); index++) {
+                addPoints(((Point) geometry.getGeometryN(index)).getCoordinateSequence());
+            }
+            break;
+        case POLYGON:
+            addRings((Polygon) geometry);
+            break;
+        case MULTILINESTRING:
+            for (int index = 0; index < geometry.getNumGeometries(); index++) {
+                addPoints(((LineString) geometry.getGeometryN(index)).getCoordinateSequence());
+                addEnd();
+            }
+            break;
+        default:
+            // MultiPolygon and GeometryCollection, each member is a geometry table
+            int[] members = new int[geometry.getNumGeometries()];
+            int numMembers = 0;
+            for (int index = 0; index < members.length; index++) {
+                Geometry member = geometry.getGeometryN(index);
+                if (!member.isEmpty()) {
+                    members[numMembers++] = encodeGeometry(member);
+                }
+            }
+            parts = builder.createOffsetVector(members, numMembers);
+            numPoints = 0;
+            numEnds = 0;
+            break;
+        }
+
+        // the ends of a single part are implicit
+        int endVector = numEnds > 1 ? builder.createIntVector(ends, numEnds) : 0;
+        int xyVector = numPoints == 0 ? 0 : builder.createDoubleVector(xy, 0, numPoints * 2);
+        int zVector = 0;
+        if (fillZ(z, numPoints)) {
+            zVector = builder.createDoubleVector(z, 0, numPoints);
+            hasZ = true;
+        }
+
+        builder.startTable(8);
+        builder.addOffset(0, endVector);
+        builder.addOffset(1, xyVector);
+        builder.addOffset(2, zVector);
+        builder.addOffset(7, parts);
+        builder.addByte(6, type, UNKNOWN);
+        return builder.endTable();
+    }
+
+    private void addRings(Polygon polygon) {
+        addPoints(polygon.getExteriorRing().getCoordinateSequence());
+        addEnd();
+        for (int index = 0; index < polygon.getNumInteriorRing(); index++) {
+            addPoints(polygon.getInteriorRingN(index).getCoordinateSequence());
+            addEnd();
+        }
+    }
+
+    private void addEnd() {
+        if (numEnds == ends.length) {
+            ends = Arrays.copyOf(ends, numEnds * 2);
+        }
+        ends[numEnds++] = numPoints;
+    }
+
+    private void addPoints(CoordinateSequence sequence) {
+        int size = sequence.size();
+        if ((numPoints + size) * 2 > xy.length) {
+            int capacity = Math.max(xy.length * 2, (numPoints + size) * 2);
+            xy = Arrays.copyOf(xy, capacity);
+            z = Arrays.copyOf(z, capacity / 2);
+        }
+
+        boolean sequenceZ = CoordinateFormatter.hasZ(sequence);
+        for (int index = 0; index < size; index++) {
+            xy[numPoints * 2] = sequence.getOrdinate(index, CoordinateSequence.X);
+            xy[numPoints * 2 + 1] = sequence.getOrdinate(index, CoordinateSequence.Y);
+            z[numPoints++] = sequenceZ ? CoordinateFormatter.getZ(sequence, index)
+                    : Double.NaN;
+        }
+    }
+
+    /**
+     * @return true if any part has z values, the parts without z values then get 0
+     */
+    private static boolean fillZ(double[] z, int numPoints) {
+        boolean found = false;
+        for (int index = 0; index < numPoints && !found; index++) {
+            found = !Double.isNaN(z[index]);
+        }
+
+        if (found) {
+            for (int index = 0; index < numPoints; index++) {
+                if (Double.isNaN(z[index])) {
+                    z[index] = 0d;
+                }
+            }
+        }
+        return found;
+    }
+}
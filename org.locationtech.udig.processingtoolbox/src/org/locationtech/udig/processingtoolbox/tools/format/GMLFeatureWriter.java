@@ -0,0 +1,270 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.locationtech.udig.processingtoolbox.tools.FormatTransformer.EncodeType;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Streaming GML 2.1.2, 3.1.1 and 3.2 feature collection writer.
+ * <p>
+ * The collection has the same root element as the GeoTools encoder, gml:_FeatureCollection for
+ * GML 2 and gml:FeatureCollection for GML 3, with one gml:featureMember per feature. The
+ * geometries are written with gml:coordinates in GML 2 and gml:pos or gml:posList in GML 3, in
+ * the axis order of the features, and their srsName is EPSG:code.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class GMLFeatureWriter extends XMLFeatureWriter {
+
+    static final String GML = "http://www.opengis.net/gml";
+
+    static final String GML32 = "http://www.opengis.net/gml/3.2";
+
+    static final String GML_PREFIX = "gml";
+
+    static final String FEATURE_PREFIX = "feature";
+
+    // namespace of the feature types built by the spatial statistics processes
+    static final String DEFAULT_NAMESPACE = "http://www.mangosystem.com";
+
+    private final EncodeType encodeType;
+
+    private final String gmlNamespace;
+
+    private String featureNamespace;
+
+    private String typeName;
+
+    private String[] propertyNames;
+
+    private String srsName;
+
+    // GML 3.2 geometries require a gml:id
+    private String featureId;
+
+    private int geometryId;
+
+    /**
+     * @param encodeType GML212, GML311 or GML32
+     */
+    public GMLFeatureWriter(EncodeType encodeType, CoordinateFormatter formatter) {
+        super(formatter);
+        this.encodeType = encodeType;
+        this.gmlNamespace = encodeType == EncodeType.GML32 ? GML32 : GML;
+    }
+
+    private boolean isGML2() {
+        return encodeType == EncodeType.GML212;
+    }
+
+    private boolean isGML32() {
+        return encodeType == EncodeType.GML32;
+    }
+
+    @Override
+    protected void writeStartCollection(SimpleFeatureType schema) throws XMLStreamException {
+        featureNamespace = schema.getName().getNamespaceURI();
+        if (featureNamespace == null || featureNamespace.equals(gmlNamespace)) {
+            featureNamespace = DEFAULT_NAMESPACE;
+        }
+        typeName = toNCName(schema.getTypeName());
+
+        propertyNames = new String[schema.getAttributeCount()];
+        for (int index = 0; index < propertyNames.length; index++) {
+            AttributeDescriptor descriptor = schema.getDescriptor(index);
+            propertyNames[index] = toNCName(descriptor.getLocalName());
+        }
+
+        Integer epsgCode = getEpsgCode(schema.getCoordinateReferenceSystem());
+        srsName = epsgCode == null ? null : "EPSG:" + epsgCode;
+
+        writer.setPrefix(GML_PREFIX, gmlNamespace);
+        writer.setPrefix(FEATURE_PREFIX, featureNamespace);
+        writer.writeStartElement(GML_PREFIX, isGML2() ? "_FeatureCollection"
+                : "FeatureCollection", gmlNamespace);
+        writer.writeNamespace(GML_PREFIX, gmlNamespace);
+        writer.writeNamespace(FEATURE_PREFIX, featureNamespace);
+        if (isGML32()) {
+            writer.writeAttribute(GML_PREFIX, gmlNamespace, "id", typeName);
+        }
+
+        if (isGML2()) {
+            // required by GML 2, the bounds are not known before the features are read
+            writer.writeCharacters("\n");
+            writer.writeStartElement(GML_PREFIX, "boundedBy", gmlNamespace);
+            writeElement("null", "unknown");
+            writer.writeEndElement();
+        }
+    }
+
+    @Override
+    protected void writeFeature(SimpleFeature feature) throws XMLStreamException {
+        featureId = toNCName(feature.getID());
+        geometryId = 0;
+
+        writer.writeStartElement(GML_PREFIX, "featureMember", gmlNamespace);
+        writer.writeStartElement(FEATURE_PREFIX, typeName, featureNamespace);
+        if (isGML2()) {
+            writer.writeAttribute("fid", featureId);
+        } else {
+            writer.writeAttribute(GML_PREFIX, gmlNamespace, "id", featureId);
+        }
+
+        for (int index = 0; index < propertyNames.length; index++) {
+            Object value = feature.getAttribute(index);
+            if (value == null) {
+                continue;
+            } else if (value instanceof Geometry) {
+                if (((Geometry) value).isEmpty()) {
+                    continue;
+                }
+                writer.writeStartElement(FEATURE_PREFIX, propertyNames[index], featureNamespace);
+                writeGeometry((Geometry) value, srsName);
+                writer.writeEndElement();
+            } else {
+                writer.writeStartElement(FEATURE_PREFIX, propertyNames[index], featureNamespace);
+                writer.writeCharacters(toText(value));
+                writer.writeEndElement();
+            }
+        }
+
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    @Override
+    protected void writeEndCollection() throws XMLStreamException {
+        writer.writeEndElement();
+    }
+
+    private void writeElement(String localName, String text) throws XMLStreamException {
+        writer.writeStartElement(GML_PREFIX, localName, gmlNamespace);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+    private void writeStartGeometry(String localName, String srs) throws XMLStreamException {
+        writer.writeStartElement(GML_PREFIX, localName, gmlNamespace);
+        // a ring is not a geometry (AbstractRingType), it has no gml:id
+        if (isGML32() && !"LinearRing".equals(localName)) {
+            writer.writeAttribute(GML_PREFIX, gmlNamespace, "id", featureId + "."
+                    + (++geometryId));
+        }
+        if (srs != null) {
+            writer.writeAttribute("srsName", srs);
+        }
+    }
+
+    /**
+     * @param srs srsName of the outer geometry, null for the members of a collection
+     */
+    private void writeGeometry(Geometry geometry, String srs) throws XMLStreamException {
+        if (geometry instanceof Point) {
+            writeStartGeometry("Point", srs);
+            writePositions(((Point) geometry).getCoordinateSequence(), true);
+            writer.writeEndElement();
+        } else if (geometry instanceof LinearRing) {
+            writeStartGeometry("LinearRing", srs);
+            writePositions(((LinearRing) geometry).getCoordinateSequence(), false);
+            writer.writeEndElement();
+        } else if (geometry instanceof LineString) {
+            writeStartGeometry("LineString", srs);
+            writePositions(((LineString) geometry).getCoordinateSequence(), false);
+            writer.writeEndElement();
+        } else if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            writeStartGeometry("Polygon", srs);
+            writeRing(isGML2() ? "outerBoundaryIs" : "exterior", polygon.getExteriorRing());
+            for (int index = 0; index < polygon.getNumInteriorRing(); index++) {
+                writeRing(isGML2() ? "innerBoundaryIs" : "interior",
+                        polygon.getInteriorRingN(index));
+            }
+            writer.writeEndElement();
+        } else if (geometry instanceof MultiPoint) {
+            writeMembers((GeometryCollection) geometry, "MultiPoint", "pointMember", srs);
+        } else if (geometry instanceof MultiLineString) {
+            if (isGML2()) {
+                writeMembers((GeometryCollection) geometry, "MultiLineString",
+                        "lineStringMember", srs);
+            } else {
+                writeMembers((GeometryCollection) geometry, "MultiCurve", "curveMember", srs);
+            }
+        } else if (geometry instanceof MultiPolygon) {
+            if (isGML2()) {
+                writeMembers((GeometryCollection) geometry, "MultiPolygon", "polygonMember",
+                        srs);
+            } else {
+                writeMembers((GeometryCollection) geometry, "MultiSurface", "surfaceMember",
+                        srs);
+            }
+        } else if (geometry instanceof GeometryCollection) {
+            writeMembers((GeometryCollection) geometry, "MultiGeometry", "geometryMember", srs);
+        }
+    }
+
+    private void writeRing(String boundaryName, LineString ring) throws XMLStreamException {
+        writer.writeStartElement(GML_PREFIX, boundaryName, gmlNamespace);
+        writeStartGeometry("LinearRing", null);
+        writePositions(ring.getCoordinateSequence(), false);
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private void writeMembers(GeometryCollection collection, String collectionName,
+            String memberName, String srs) throws XMLStreamException {
+        writeStartGeometry(collectionName, srs);
+        for (int index = 0; index < collection.getNumGeometries(); index++) {
+            Geometry member = collection.getGeometryN(index);
+            if (member.isEmpty()) {
+                continue;
+            }
+            writer.writeStartElement(GML_PREFIX, memberName, gmlNamespace);
+            writeGeometry(member, null);
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    private void writePositions(CoordinateSequence sequence, boolean point)
+            throws XMLStreamException {
+        boolean z = CoordinateFormatter.hasZ(sequence);
+        if (isGML2()) {
+            writer.writeStartElement(GML_PREFIX, "coordinates", gmlNamespace);
+            writer.writeAttribute("decimal", ".");
+            writer.writeAttribute("cs", ",");
+            writer.writeAttribute("ts", " ");
+            writeCoordinates(sequence, ',', ' ', z);
+        } else {
+            writer.writeStartElement(GML_PREFIX, point ? "pos" : "posList", gmlNamespace);
+            writer.writeAttribute("srsDimension", z ? "3" : "2");
+            writeCoordinates(sequence, ' ', ' ', z);
+        }
+        writer.writeEndElement();
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Streaming GeoJSON writer, one feature at a time, with the coordinates rounded by a
+ * {@link CoordinateFormatter} and no white space.
+ * <p>
+ * A GeoJSON file is one FeatureCollection whose crs member names the EPSG code of the features,
+ * as FeatureJSON does. A GeoJSON text sequence file (GeoJSONSeq) has one Feature per line, so it
+ * can be split at any line break and read by several workers.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class GeoJSONFeatureWriter {
+    protected static final Logger LOGGER = Logging.getLogger(GeoJSONFeatureWriter.class);
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final CoordinateFormatter formatter;
+
+    private final boolean sequence;
+
+    private final StringBuilder sb = new StringBuilder(4096);
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat(
+            "yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+    private String[] propertyNames;
+
+    /**
+     * @param sequence true for a GeoJSON text sequence, one feature per line
+     */
+    public GeoJSONFeatureWriter(CoordinateFormatter formatter, boolean sequence) {
+        this.formatter = formatter;
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return number of features written
+     */
+    public int write(SimpleFeatureCollection features, File outputFile) throws IOException {
+        int count = 0;
+        ChannelTextWriter writer = new ChannelTextWriter(outputFile, UTF8);
+        try {
+            SimpleFeatureType schema = features.getSchema();
+            propertyNames = new String[schema.getAttributeCount()];
+            for (int index = 0; index < propertyNames.length; index++) {
+                sb.setLength(0);
+                appendString(schema.getDescriptor(index).getLocalName());
+                propertyNames[index] = sb.toString();
+            }
+
+            sb.setLength(0);
+            if (!sequence) {
+                sb.append("{\"type\":\"FeatureCollection\"");
+                appendCRS(schema.getCoordinateReferenceSystem());
+                sb.append(",\"features\":[");
+            }
+
+            SimpleFeatureIterator featureIter = features.features();
+            try {
+                while (featureIter.hasNext()) {
+                    if (!sequence && count > 0) {
+                        sb.append(',');
+                    }
+                    appendFeature(featureIter.next());
+                    sb.append('\n');
+                    writer.write(sb);
+                    sb.setLength(0);
+                    count++;
+                }
+            } finally {
+                featureIter.close();
+            }
+
+            if (!sequence) {
+                writer.write(sb.append("]}\n"));
+            }
+            writer.close();
+        } finally {
+            closeQuietly(writer);
+            sb.setLength(0);
+        }
+        return count;
+    }
+
+    private void closeQuietly(ChannelTextWriter writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        }
+    }
+
+    private void appendCRS(CoordinateReferenceSystem crs) {
+        if (crs == null) {
+            return;
+        }
+
+        try {
+            Integer epsgCode = CRS.lookupEpsgCode(crs, true);
+            if (epsgCode != null) {
+                sb.append(",\"crs\":{\"type\":\"name\",\"properties\":{\"name\":\"EPSG:");
+                sb.append(epsgCode.intValue()).append("\"}}");
+            }
+        } catch (FactoryException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        }
+    }
+
+    private void appendFeature(SimpleFeature feature) {
+        sb.append("{\"type\":\"Feature\",\"id\":");
+        appendString(feature.getID());
+
+        Geometry geometry = (Geometry) feature.getDefaultGeometry();
+        sb.append(",\"geometry\":");
+        if (geometry == null) {
+            sb.append("null");
+        } else {
+            appendGeometry(geometry);
+        }
+
+        sb.append(",\"properties\":{");
+        boolean first = true;
+        for (int index = 0; index < propertyNames.length; index++) {
+            Object value = feature.getAttribute(index);
+            if (value instanceof Geometry) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            sb.append(propertyNames[index]).append(':');
+            appendValue(value);
+            first = false;
+        }
+        sb.append("}}");
+    }
+
+    private void appendValue(Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            sb.append(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                sb.append("null"); // not a JSON number
+            } else {
+                sb.append(number);
+            }
+        } else if (value instanceof Number) {
+            sb.append(value.toString());
+        } else if (value instanceof Boolean) {
+            sb.append(((Boolean) value).booleanValue());
+        } else if (value instanceof Date) {
+            appendString(dateFormat.format((Date) value));
+        } else {
+            appendString(value.toString());
+        }
+    }
+
+    private void appendString(String value) {
+        sb.append('"');
+        for (int index = 0; index < value.length(); index++) {
+            char c = value.charAt(index);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    sb.append("\\u00").append(Character.forDigit(c >> 4, 16))
+                            .append(Character.forDigit(c & 0xF, 16));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private void appendGeometry(Geometry geometry) {
+        if (geometry instanceof Point) {
+            sb.append("{\"type\":\"Point\",\"coordinates\":");
+            CoordinateSequence points = ((Point) geometry).getCoordinateSequence();
+            if (points.size() == 0) {
+                sb.append("[]");
+            } else {
+                appendPosition(points, 0, CoordinateFormatter.hasZ(points));
+            }
+        } else if (geometry instanceof LineString) {
+            sb.append("{\"type\":\"LineString\",\"coordinates\":");
+            appendPositions(((LineString) geometry).getCoordinateSequence());
+        } else if (geometry instanceof Polygon) {
+            sb.append("{\"type\":\"Polygon\",\"coordinates\":");
+            appendRings((Polygon) geometry);
+        } else if (geometry instanceof MultiPoint) {
+            sb.append("{\"type\":\"MultiPoint\",\"coordinates\":[");
+            boolean first = true;
+            for (int index = 0; index < geometry.getNumGeometries(); index++) {
+                CoordinateSequence points = ((Point) geometry.getGeometryN(index))
+                        .getCoordinateSequence();
+                if (points.size() == 0) {
+                    continue;
+                }
+                if (!first) {
+                    sb.append(',');
+                }
+                appendPosition(points, 0, CoordinateFormatter.hasZ(points));
+                first = false;
+            }
+            sb.append(']');
+        } else if (geometry instanceof MultiLineString) {
+            sb.append("{\"type\":\"MultiLineString\",\"coordinates\":[");
+            for (int index = 0; index < geometry.getNumGeometries(); index++) {
+                if (index > 0) {
+                    sb.append(',');
+                }
+                appendPositions(((LineString) geometry.getGeometryN(index))
+                        .getCoordinateSequence());
+            }
+            sb.append(']');
+        } else if (geometry instanceof MultiPolygon) {
+            sb.append("{\"type\":\"MultiPolygon\",\"coordinates\":[");
+            for (int index = 0; index < geometry.getNumGeometries(); index++) {
+                if (index > 0) {
+                    sb.append(',');
+                }
+                appendRings((Polygon) geometry.getGeometryN(index));
+            }
+            sb.append(']');
+        } else if (geometry instanceof GeometryCollection) {
+            sb.append("{\"type\":\"GeometryCollection\",\"geometries\":[");
+            for (int index = 0; index < geometry.getNumGeometries(); index++) {
+                if (index > 0) {
+                    sb.append(',');
+                }
+                appendGeometry(geometry.getGeometryN(index));
+            }
+            sb.append("]}");
+            return;
+        }
+        sb.append('}');
+    }
+
+    private void appendRings(Polygon polygon) {
+        sb.append('[');
+        if (!polygon.isEmpty()) {
+            appendPositions(polygon.getExteriorRing().getCoordinateSequence());
+            for (int index = 0; index < polygon.getNumInteriorRing(); index++) {
+                sb.append(',');
+                appendPositions(polygon.getInteriorRingN(index).getCoordinateSequence());
+            }
+        }
+        sb.append(']');
+    }
+
+    private void appendPositions(CoordinateSequence points) {
+        boolean z = CoordinateFormatter.hasZ(points);
+        sb.append('[');
+        for (int index = 0; index < points.size(); index++) {
+            if (index > 0) {
+                sb.append(',');
+            }
+            appendPosition(points, index, z);
+        }
+        sb.append(']');
+    }
+
+    private void appendPosition(CoordinateSequence points, int index, boolean z) {
+        sb.append('[');
+        formatter.format(points.getOrdinate(index, CoordinateSequence.X), sb);
+        sb.append(',');
+        formatter.format(points.getOrdinate(index, CoordinateSequence.Y), sb);
+        if (z) {
+            sb.append(',');
+            formatter.format(CoordinateFormatter.getZ(points, index), sb);
+        }
+        sb.append(']');
+    }
+}
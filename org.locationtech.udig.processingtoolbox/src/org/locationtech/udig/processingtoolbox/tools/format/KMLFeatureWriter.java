@@ -0,0 +1,224 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.locationtech.udig.processingtoolbox.tools.FormatTransformer.EncodeType;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Streaming KML 2.1 and 2.2 document writer, one Placemark per feature. The features must be in
+ * WGS84 longitude, latitude order.
+ * <p>
+ * KML 2.2 attributes are written as typed ExtendedData of a Schema declared in the Document,
+ * KML 2.1 attributes as name: value lines of the description.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public class KMLFeatureWriter extends XMLFeatureWriter {
+
+    static final String KML21 = "http://earth.google.com/kml/2.1";
+
+    static final String KML22 = "http://www.opengis.net/kml/2.2";
+
+    private final EncodeType encodeType;
+
+    private String schemaId;
+
+    private String[] propertyNames;
+
+    // index of the name attribute of the placemarks, -1 if none
+    private int nameIndex;
+
+    /**
+     * @param encodeType KML21 or KML22
+     */
+    public KMLFeatureWriter(EncodeType encodeType, CoordinateFormatter formatter) {
+        super(formatter);
+        this.encodeType = encodeType;
+    }
+
+    private boolean isKML22() {
+        return encodeType == EncodeType.KML22;
+    }
+
+    @Override
+    protected void writeStartCollection(SimpleFeatureType schema) throws XMLStreamException {
+        schemaId = toNCName(schema.getTypeName());
+        propertyNames = new String[schema.getAttributeCount()];
+        nameIndex = -1;
+        for (int index = 0; index < propertyNames.length; index++) {
+            propertyNames[index] = schema.getDescriptor(index).getLocalName();
+            if (nameIndex == -1 && propertyNames[index].equalsIgnoreCase("name")) {
+                nameIndex = index;
+            }
+        }
+
+        String namespace = isKML22() ? KML22 : KML21;
+        writer.setDefaultNamespace(namespace);
+        writer.writeStartElement(namespace, "kml");
+        writer.writeDefaultNamespace(namespace);
+        writer.writeStartElement(namespace, "Document");
+        writeElement("name", schema.getTypeName());
+
+        if (isKML22()) {
+            writer.writeCharacters("\n");
+            writer.writeStartElement("Schema");
+            writer.writeAttribute("name", schema.getTypeName());
+            writer.writeAttribute("id", schemaId);
+            for (AttributeDescriptor descriptor : schema.getAttributeDescriptors()) {
+                if (descriptor instanceof GeometryDescriptor) {
+                    continue;
+                }
+                writer.writeEmptyElement("SimpleField");
+                writer.writeAttribute("type", getFieldType(descriptor.getType().getBinding()));
+                writer.writeAttribute("name", descriptor.getLocalName());
+            }
+            writer.writeEndElement();
+        }
+    }
+
+    private String getFieldType(Class<?> binding) {
+        if (Short.class.isAssignableFrom(binding) || Byte.class.isAssignableFrom(binding)) {
+            return "short";
+        } else if (Integer.class.isAssignableFrom(binding)) {
+            return "int";
+        } else if (Float.class.isAssignableFrom(binding)) {
+            return "float";
+        } else if (Number.class.isAssignableFrom(binding)) {
+            return "double"; // long values do not fit an int
+        } else if (Boolean.class.isAssignableFrom(binding)) {
+            return "bool";
+        }
+        return "string";
+    }
+
+    @Override
+    protected void writeFeature(SimpleFeature feature) throws XMLStreamException {
+        writer.writeStartElement("Placemark");
+        writer.writeAttribute("id", toNCName(feature.getID()));
+
+        if (nameIndex != -1 && feature.getAttribute(nameIndex) != null) {
+            writeElement("name", toText(feature.getAttribute(nameIndex)));
+        }
+
+        Geometry geometry = null;
+        if (isKML22()) {
+            writer.writeStartElement("ExtendedData");
+            writer.writeStartElement("SchemaData");
+            writer.writeAttribute("schemaUrl", "#" + schemaId);
+        }
+        for (int index = 0; index < propertyNames.length; index++) {
+            Object value = feature.getAttribute(index);
+            if (value == null) {
+                continue;
+            } else if (value instanceof Geometry) {
+                if (geometry == null) {
+                    geometry = (Geometry) value;
+                }
+            } else if (isKML22()) {
+                writer.writeStartElement("SimpleData");
+                writer.writeAttribute("name", propertyNames[index]);
+                writer.writeCharacters(toText(value));
+                writer.writeEndElement();
+            } else {
+                sb.append(sb.length() == 0 ? "" : "\n").append(propertyNames[index]);
+                sb.append(": ").append(toText(value));
+            }
+        }
+        if (isKML22()) {
+            writer.writeEndElement();
+            writer.writeEndElement();
+        } else if (sb.length() > 0) {
+            writer.writeStartElement("description");
+            writeBuffer();
+            writer.writeEndElement();
+        }
+
+        if (geometry != null && !geometry.isEmpty()) {
+            writeGeometry(geometry);
+        }
+        writer.writeEndElement();
+    }
+
+    @Override
+    protected void writeEndCollection() throws XMLStreamException {
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private void writeElement(String localName, String text) throws XMLStreamException {
+        writer.writeStartElement(localName);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+    private void writeGeometry(Geometry geometry) throws XMLStreamException {
+        if (geometry instanceof Point) {
+            writer.writeStartElement("Point");
+            writePositions(((Point) geometry).getCoordinateSequence());
+            writer.writeEndElement();
+        } else if (geometry instanceof LinearRing) {
+            writer.writeStartElement("LinearRing");
+            writePositions(((LinearRing) geometry).getCoordinateSequence());
+            writer.writeEndElement();
+        } else if (geometry instanceof LineString) {
+            writer.writeStartElement("LineString");
+            writePositions(((LineString) geometry).getCoordinateSequence());
+            writer.writeEndElement();
+        } else if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            writer.writeStartElement("Polygon");
+            writeRing("outerBoundaryIs", polygon.getExteriorRing());
+            for (int index = 0; index < polygon.getNumInteriorRing(); index++) {
+                writeRing("innerBoundaryIs", polygon.getInteriorRingN(index));
+            }
+            writer.writeEndElement();
+        } else if (geometry instanceof GeometryCollection) {
+            writer.writeStartElement("MultiGeometry");
+            for (int index = 0; index < geometry.getNumGeometries(); index++) {
+                Geometry member = geometry.getGeometryN(index);
+                if (!member.isEmpty()) {
+                    writeGeometry(member);
+                }
+            }
+            writer.writeEndElement();
+        }
+    }
+
+    private void writeRing(String boundaryName, LineString ring) throws XMLStreamException {
+        writer.writeStartElement(boundaryName);
+        writer.writeStartElement("LinearRing");
+        writePositions(ring.getCoordinateSequence());
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private void writePositions(CoordinateSequence sequence) throws XMLStreamException {
+        writer.writeStartElement("coordinates");
+        writeCoordinates(sequence, ',', ' ', CoordinateFormatter.hasZ(sequence));
+        writer.writeEndElement();
+    }
+}
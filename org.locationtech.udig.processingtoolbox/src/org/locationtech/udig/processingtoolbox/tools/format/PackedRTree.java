@@ -0,0 +1,312 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Static packed Hilbert R-tree of FlatGeobuf, the layout of flatbush.
+ * <p>
+ * The items are sorted by the Hilbert value of the center of their bounds, then the nodes are
+ * packed level by level from the leaves, nodeSize children per node. The tree is written root
+ * first, each node is its bounds as four doubles and the offset of its first child, or of the
+ * feature for a leaf. A search reads only the nodes intersecting the extent.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+public final class PackedRTree {
+
+    public static final int DEFAULT_NODE_SIZE = 16;
+
+    static final int NODE_ITEM_SIZE = 40; // minx, miny, maxx, maxy, offset
+
+    static final int HILBERT_MAX = (1 << 16) - 1;
+
+    private PackedRTree() {
+    }
+
+    /**
+     * @return start and end node of each level, the leaves first and the root last
+     */
+    static long[][] levelBounds(long numItems, int nodeSize) {
+        List<Long> levelNumNodes = new ArrayList<Long>();
+        long n = numItems;
+        long numNodes = n;
+        levelNumNodes.add(Long.valueOf(n));
+        do {
+            n = (n + nodeSize - 1) / nodeSize;
+            numNodes += n;
+            levelNumNodes.add(Long.valueOf(n));
+        } while (n != 1);
+
+        long[][] bounds = new long[levelNumNodes.size()][];
+        n = numNodes;
+        for (int level = 0; level < bounds.length; level++) {
+            long size = levelNumNodes.get(level).longValue();
+            n -= size;
+            bounds[level] = new long[] { n, n + size };
+        }
+        return bounds;
+    }
+
+    /**
+     * @return size of the index in bytes
+     */
+    public static long size(long numItems, int nodeSize) {
+        long[][] bounds = levelBounds(numItems, nodeSize);
+        return bounds[0][1] * NODE_ITEM_SIZE;
+    }
+
+    /**
+     * Sorts items by the Hilbert value of the center of their bounds in the extent, in the
+     * descending order of the FlatGeobuf reference implementation
+     * 
+     * @param boxes minx, miny, maxx, maxy of each item, an empty item has NaN bounds
+     * @return sorted indexes of the items
+     */
+    static int[] hilbertSort(double[] boxes, int numItems, Envelope extent) {
+        double width = extent.getWidth();
+        double height = extent.getHeight();
+        long[] keys = new long[numItems];
+        for (int index = 0; index < numItems; index++) {
+            int pos = index * 4;
+            long value = 0;
+            if (!Double.isNaN(boxes[pos])) {
+                int x = 0;
+                int y = 0;
+                if (width > 0) {
+                    x = (int) Math.floor(HILBERT_MAX
+                            * ((boxes[pos] + boxes[pos + 2]) / 2 - extent.getMinX()) / width);
+                }
+                if (height > 0) {
+                    y = (int) Math.floor(HILBERT_MAX
+                            * ((boxes[pos + 1] + boxes[pos + 3]) / 2 - extent.getMinY()) / height);
+                }
+                value = hilbert(x, y) & 0xFFFFFFFFL;
+            }
+            // the inverted 32 bit Hilbert value in the high bits, the item in the low 31 bits
+            keys[index] = ((0xFFFFFFFFL - value) << 31) | index;
+        }
+        Arrays.sort(keys);
+
+        int[] order = new int[numItems];
+        for (int index = 0; index < numItems; index++) {
+            order[index] = (int) (keys[index] & 0x7FFFFFFFL);
+        }
+        return order;
+    }
+
+    /**
+     * @return Hilbert curve index of a 16 bit x, y position
+     */
+    static int hilbert(int x, int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int A = a | (b >>> 1);
+        int B = (a >>> 1) ^ a;
+        int C = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+        int D = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = (a & (a >>> 2)) ^ (b & (b >>> 2));
+        B = (a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2));
+        C ^= (a & (c >>> 2)) ^ (b & (d >>> 2));
+        D ^= (b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = (a & (a >>> 4)) ^ (b & (b >>> 4));
+        B = (a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4));
+        C ^= (a & (c >>> 4)) ^ (b & (d >>> 4));
+        D ^= (b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        C ^= (a & (c >>> 8)) ^ (b & (d >>> 8));
+        D ^= (b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8));
+
+        a = C ^ (C >>> 1);
+        b = D ^ (D >>> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+
+        i0 = (i0 | (i0 << 8)) & 0x00FF00FF;
+        i0 = (i0 | (i0 << 4)) & 0x0F0F0F0F;
+        i0 = (i0 | (i0 << 2)) & 0x33333333;
+        i0 = (i0 | (i0 << 1)) & 0x55555555;
+
+        i1 = (i1 | (i1 << 8)) & 0x00FF00FF;
+        i1 = (i1 | (i1 << 4)) & 0x0F0F0F0F;
+        i1 = (i1 | (i1 << 2)) & 0x33333333;
+        i1 = (i1 | (i1 << 1)) & 0x55555555;
+
+        return (i1 << 1) | i0;
+    }
+
+    /**
+     * Builds the tree of sorted items and writes it
+     * 
+     * @param boxes minx, miny, maxx, maxy of each item in the sorted order, NaN if empty
+     * @param offsets offset of each item in the feature section, in the sorted order
+     */
+    static void write(double[] boxes, long[] offsets, int numItems, int nodeSize,
+            WritableByteChannel channel) throws IOException {
+        long[][] levels = levelBounds(numItems, nodeSize);
+        int numNodes = (int) levels[0][1];
+        double[] nodeBoxes = new double[numNodes * 4];
+        long[] nodeOffsets = new long[numNodes];
+
+        // leaves
+        int leafStart = (int) levels[0][0];
+        for (int index = 0; index < numItems; index++) {
+            int pos = index * 4;
+            int nodePos = (leafStart + index) * 4;
+            if (Double.isNaN(boxes[pos])) {
+                setEmpty(nodeBoxes, nodePos);
+            } else {
+                System.arraycopy(boxes, pos, nodeBoxes, nodePos, 4);
+            }
+            nodeOffsets[leafStart + index] = offsets[index];
+        }
+
+        // parents, each node is the union of its children
+        for (int level = 0; level < levels.length - 1; level++) {
+            int pos = (int) levels[level][0];
+            int end = (int) levels[level][1];
+            int parent = (int) levels[level + 1][0];
+            while (pos < end) {
+                setEmpty(nodeBoxes, parent * 4);
+                nodeOffsets[parent] = pos;
+                for (int child = 0; child < nodeSize && pos < end; child++, pos++) {
+                    expand(nodeBoxes, parent * 4, pos * 4);
+                }
+                parent++;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(NODE_ITEM_SIZE * 1024).order(
+                ByteOrder.LITTLE_ENDIAN);
+        for (int node = 0; node < numNodes; node++) {
+            if (buffer.remaining() < NODE_ITEM_SIZE) {
+                flush(buffer, channel);
+            }
+            int pos = node * 4;
+            buffer.putDouble(nodeBoxes[pos]).putDouble(nodeBoxes[pos + 1]);
+            buffer.putDouble(nodeBoxes[pos + 2]).putDouble(nodeBoxes[pos + 3]);
+            buffer.putLong(nodeOffsets[node]);
+        }
+        flush(buffer, channel);
+    }
+
+    private static void flush(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void setEmpty(double[] boxes, int pos) {
+        boxes[pos] = Double.POSITIVE_INFINITY;
+        boxes[pos + 1] = Double.POSITIVE_INFINITY;
+        boxes[pos + 2] = Double.NEGATIVE_INFINITY;
+        boxes[pos + 3] = Double.NEGATIVE_INFINITY;
+    }
+
+    private static void expand(double[] boxes, int pos, int childPos) {
+        boxes[pos] = Math.min(boxes[pos], boxes[childPos]);
+        boxes[pos + 1] = Math.min(boxes[pos + 1], boxes[childPos + 1]);
+        boxes[pos + 2] = Math.max(boxes[pos + 2], boxes[childPos + 2]);
+        boxes[pos + 3] = Math.max(boxes[pos + 3], boxes[childPos + 3]);
+    }
+
+    /**
+     * Searches the tree of a file, reading the nodes intersecting the extent only
+     * 
+     * @param indexOffset position of the tree in the file
+     * @return feature offset and index of the items intersecting the extent, by feature offset
+     */
+    static long[][] search(FileChannel channel, long indexOffset, long numItems, int nodeSize,
+            Envelope extent) throws IOException {
+        long[][] levels = levelBounds(numItems, nodeSize);
+        long leafStart = levels[0][0];
+        ByteBuffer buffer = ByteBuffer.allocate(NODE_ITEM_SIZE * nodeSize).order(
+                ByteOrder.LITTLE_ENDIAN);
+
+        List<long[]> hits = new ArrayList<long[]>();
+        List<long[]> queue = new ArrayList<long[]>(); // node, level
+        queue.add(new long[] { 0, levels.length - 1 });
+        while (!queue.isEmpty()) {
+            long[] next = queue.remove(queue.size() - 1);
+            long nodeIndex = next[0];
+            int level = (int) next[1];
+            boolean isLeaf = nodeIndex >= leafStart;
+            long end = Math.min(nodeIndex + nodeSize, levels[level][1]);
+
+            buffer.clear();
+            buffer.limit((int) (end - nodeIndex) * NODE_ITEM_SIZE);
+            long position = indexOffset + nodeIndex * NODE_ITEM_SIZE;
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of the index"); //$NON-NLS-1$
+                }
+            }
+
+            for (long node = nodeIndex; node < end; node++) {
+                int pos = (int) (node - nodeIndex) * NODE_ITEM_SIZE;
+                if (extent.getMaxX() < buffer.getDouble(pos)
+                        || extent.getMaxY() < buffer.getDouble(pos + 8)
+                        || extent.getMinX() > buffer.getDouble(pos + 16)
+                        || extent.getMinY() > buffer.getDouble(pos + 24)) {
+                    continue;
+                }
+
+                long offset = buffer.getLong(pos + 32);
+                if (isLeaf) {
+                    hits.add(new long[] { offset, node - leafStart });
+                } else {
+                    queue.add(new long[] { offset, level - 1 });
+                }
+            }
+        }
+
+        long[][] result = hits.toArray(new long[hits.size()][]);
+        Arrays.sort(result, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] o1, long[] o2) {
+                return o1[0] < o2[0] ? -1 : (o1[0] == o2[0] ? 0 : 1);
+            }
+        });
+        return result; // read the file forward
+    }
+}
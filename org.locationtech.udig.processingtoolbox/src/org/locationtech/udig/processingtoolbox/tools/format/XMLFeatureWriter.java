@@ -0,0 +1,217 @@
+/*
+ * uDig - User Friendly Desktop Internet GIS client
+ * (C) MangoSystem - www.mangosystem.com 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Refractions BSD
+ * License v1.0 (http://udig.refractions.net/files/bsd3-v10.html).
+ */
+package org.locationtech.udig.processingtoolbox.tools.format;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+
+/**
+ * Base of the streaming XML feature writers. The features are read and written one at a time
+ * through an {@link XMLStreamWriter}, so the memory used does not depend on the size of the
+ * collection, and the coordinates are formatted into a reused buffer.
+ * 
+ * @author Minpa Lee, MangoSystem
+ * 
+ * @source $URL$
+ */
+@SuppressWarnings("nls")
+public abstract class XMLFeatureWriter {
+    protected static final Logger LOGGER = Logging.getLogger(XMLFeatureWriter.class);
+
+    static final String ENCODING = "UTF-8";
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    protected final CoordinateFormatter formatter;
+
+    protected XMLStreamWriter writer;
+
+    // coordinates and values of the current element
+    protected final StringBuilder sb = new StringBuilder(1024);
+
+    private char[] buffer = new char[1024];
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+
+    private final SimpleDateFormat dateTimeFormat = new SimpleDateFormat(
+            "yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+
+    protected XMLFeatureWriter(CoordinateFormatter formatter) {
+        this.formatter = formatter;
+    }
+
+    /**
+     * Writes the features to an UTF-8 XML file
+     * 
+     * @return number of features written
+     */
+    public int write(SimpleFeatureCollection features, File outputFile) throws IOException {
+        int count = 0;
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(outputFile), BUFFER_SIZE);
+        try {
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter(os, ENCODING);
+            writer.writeStartDocument(ENCODING, "1.0");
+            writer.writeCharacters("\n");
+            writeStartCollection(features.getSchema());
+
+            SimpleFeatureIterator featureIter = features.features();
+            try {
+                while (featureIter.hasNext()) {
+                    writer.writeCharacters("\n");
+                    writeFeature(featureIter.next());
+                    count++;
+                }
+            } finally {
+                featureIter.close();
+            }
+
+            writer.writeCharacters("\n");
+            writeEndCollection();
+            writer.writeEndDocument();
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (XMLStreamException e) {
+                    LOGGER.log(Level.FINER, e.getMessage(), e);
+                }
+                writer = null;
+            }
+            os.close();
+        }
+        return count;
+    }
+
+    protected abstract void writeStartCollection(SimpleFeatureType schema)
+            throws XMLStreamException;
+
+    protected abstract void writeFeature(SimpleFeature feature) throws XMLStreamException;
+
+    protected abstract void writeEndCollection() throws XMLStreamException;
+
+    /**
+     * Writes the content of {@link #sb} as the text of the current element and clears it
+     */
+    protected void writeBuffer() throws XMLStreamException {
+        int length = sb.length();
+        if (buffer.length < length) {
+            buffer = new char[Math.max(length, buffer.length * 2)];
+        }
+        sb.getChars(0, length, buffer, 0);
+        writer.writeCharacters(buffer, 0, length);
+        sb.setLength(0);
+    }
+
+    /**
+     * Writes the coordinates of a sequence as the text of the current element
+     */
+    protected void writeCoordinates(CoordinateSequence sequence, char ordinateSeparator,
+            char tupleSeparator, boolean z) throws XMLStreamException {
+        formatter.format(sequence, ordinateSeparator, tupleSeparator, z, sb);
+        writeBuffer();
+    }
+
+    /**
+     * @return text of an attribute value, dates are written in the XML Schema formats
+     */
+    protected String toText(Object value) {
+        if (value instanceof java.sql.Date) {
+            return dateFormat.format((Date) value);
+        } else if (value instanceof java.sql.Time) {
+            return timeFormat.format((Date) value);
+        } else if (value instanceof Date) {
+            return dateTimeFormat.format((Date) value);
+        }
+        return value.toString();
+    }
+
+    /**
+     * @return EPSG code of the coordinate reference system, or null
+     */
+    protected Integer getEpsgCode(CoordinateReferenceSystem crs) {
+        if (crs == null) {
+            return null;
+        }
+
+        try {
+            return CRS.lookupEpsgCode(crs, true);
+        } catch (FactoryException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the name, or a copy whose characters not allowed in an XML name are replaced by
+     *         underscores
+     */
+    protected static String toNCName(String name) {
+        if (isNCName(name)) {
+            return name;
+        }
+
+        StringBuilder buf = new StringBuilder(name.length() + 1);
+        for (int index = 0; index < name.length(); index++) {
+            char c = name.charAt(index);
+            buf.append(isNameChar(c) ? c : '_');
+        }
+        if (buf.length() == 0 || !isNameStartChar(buf.charAt(0))) {
+            buf.insert(0, '_');
+        }
+        return buf.toString();
+    }
+
+    private static boolean isNCName(String name) {
+        if (name.length() == 0 || !isNameStartChar(name.charAt(0))) {
+            return false;
+        }
+        for (int index = 1; index < name.length(); index++) {
+            if (!isNameChar(name.charAt(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNameStartChar(char c) {
+        return c == '_' || Character.isLetter(c);
+    }
+
+    private static boolean isNameChar(char c) {
+        return c == '_' || c == '-' || c == '.' || Character.isLetterOrDigit(c);
+    }
+}